@@ -2,33 +2,125 @@ package com.rev.money.transfer.actor;
 
 import java.io.Serializable;
 import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Set;
 
 import com.rev.money.transfer.model.Account;
 import com.rev.money.transfer.model.MessageStatus.Failure;
 import com.rev.money.transfer.model.MessageStatus.Success;
+import com.rev.money.transfer.model.VelocityLimits;
+import com.rev.money.transfer.util.AccountAnalytics;
+import com.rev.money.transfer.util.AppliedOperations;
+import com.rev.money.transfer.util.BalanceHistory;
+import com.rev.money.transfer.util.FaultInjector;
+import com.rev.money.transfer.util.HistoryRetention;
+import com.rev.money.transfer.util.HopRetry;
+import com.rev.money.transfer.util.Metrics;
+import com.rev.money.transfer.util.PriorityMailbox;
+import com.rev.money.transfer.util.SlidingWindow;
 
 import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
 import akka.actor.Props;
+import akka.actor.Terminated;
+import lombok.AllArgsConstructor;
 import lombok.Data;
 
 public class AccountActor extends AbstractLoggingActor {
 
+	public static final String MAX_SINGLE_AMOUNT_BREACHES = "account.limits.max-single-amount.breaches";
+	public static final String TRANSFERS_PER_MINUTE_BREACHES = "account.limits.transfers-per-minute.breaches";
+	public static final String DAILY_DEBIT_CAP_BREACHES = "account.limits.daily-debit-cap.breaches";
+
+	// Debits over the last day in 15 minute buckets, over the last minute in 1 second ones
+	private static final Duration DAY = Duration.ofDays(1);
+	private static final int DAY_BUCKETS = 96;
+	private static final Duration MINUTE = Duration.ofMinutes(1);
+	private static final int MINUTE_BUCKETS = 60;
+
 	private Account account;
+	private final Clock clock;
+	private final Metrics metrics = Metrics.get(getContext().getSystem());
+	private final AccountAnalytics analytics = AccountAnalytics.get(getContext().getSystem());
+	// Index among the stripes of a striped account, for the analytics to add them up
+	private final int stripe;
+	private VelocityLimits limits = VelocityLimits.NONE;
+	// Only kept once limits are set, accounts without limits pay nothing
+	private SlidingWindow dailyDebits;
+	private SlidingWindow minuteDebits;
+	// Last reconciliation cut taken and the balance at it
+	private long cutEpoch;
+	private BigDecimal cutBalance;
+	private BalanceHistory history;
+	// Told every new balance, only kept once someone subscribes
+	private Set<ActorRef> subscribers;
+	// Results of the last withdraws and deposits with an operation id, kept once one comes
+	private AppliedOperations applied;
 
-	public AccountActor(Account account) {
+	/**
+	 * @param history balance history written by {@link BalanceHistory#toBytes()},
+	 *                e.g. restored from a snapshot, null to start a new one
+	 */
+	public AccountActor(Account account, Clock clock, int stripe, byte[] history) {
 		this.account = account;
+		this.clock = clock;
+		this.stripe = stripe;
+		this.history = HistoryRetention.get(getContext().getSystem()).restore(history);
+	}
+
+	public static Props props(Account account, Clock clock) {
+		return Props.create(AccountActor.class,
+				() -> new AccountActor(account, clock, AccountAnalytics.NOT_STRIPED, null));
 	}
 
 	public static Props props(Account account) {
-		return Props.create(AccountActor.class, () -> new AccountActor(account));
+		return AccountActor.props(account, Clock.systemUTC());
+	}
+
+	/**
+	 * An account going on with the balance history it had.
+	 */
+	public static Props props(Account account, byte[] history) {
+		return Props.create(AccountActor.class,
+				() -> new AccountActor(account, Clock.systemUTC(), AccountAnalytics.NOT_STRIPED, history));
+	}
+
+	/**
+	 * @param stripe index of the stripe among those of its account
+	 */
+	public static Props stripeProps(Account account, int stripe) {
+		return Props.create(AccountActor.class, () -> new AccountActor(account, Clock.systemUTC(), stripe, null));
+	}
+
+	@Override
+	public void preStart() {
+		recordBalance();
+	}
+
+	@Override
+	public void postStop() {
+		analytics.balanceChanged(account.getAccountNumber(), stripe, account.getCurrency(), BigDecimal.ZERO);
 	}
 
 	@Override
 	public Receive createReceive() {
-		return receiveBuilder().match(GetAccount.class, this::onGetAccount)
-				.match(Withdraw.class, withdraw -> this.withdraw(withdraw.getAmount()))
-				.match(Deposit.class, deposit -> this.deposit(deposit.getAmount()))
-				.match(DeleteAccount.class, this::onDeleteAccount).build();
+		return FaultInjector.get(getContext().getSystem()).wrap(this, receiveBuilder()
+				.match(GetAccount.class, this::onGetAccount)
+				.match(GetAccountAsOf.class, this::onGetAccountAsOf)
+				.match(ExportAccount.class, this::onExportAccount)
+				.match(RestoreHistory.class, this::onRestoreHistory)
+				.match(Withdraw.class, this::withdraw)
+				.match(Deposit.class, this::deposit)
+				.match(Drain.class, this::onDrain)
+				.match(Cut.class, this::onCut)
+				.match(SetLimits.class, this::onSetLimits)
+				.match(GetLimits.class, getLimits -> sender().tell(limits, self()))
+				.match(SubscribeBalance.class, this::onSubscribeBalance)
+				.match(Terminated.class, terminated -> subscribers.remove(terminated.getActor()))
+				.match(DeleteAccount.class, this::onDeleteAccount).build());
 	}
 
 	@Data
@@ -45,13 +137,151 @@ public class AccountActor extends AbstractLoggingActor {
 		sender().tell(account, getSelf());
 	}
 
+	/**
+	 * Reads the account as it was at the given time, from its balance history.
+	 */
+	@Data
+	public static class GetAccountAsOf implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 6049237713874016390L;
+
+		private final long accountNumber;
+		// Milliseconds since the epoch
+		private final long timestamp;
+	}
+
+	private void onGetAccountAsOf(GetAccountAsOf getAccountAsOf) {
+		if (getAccountAsOf.getTimestamp() < history.since()) {
+			sender().tell(new Failure("Balance of account " + account.getAccountNumber() + " is only kept since "
+					+ Instant.ofEpochMilli(history.since())), self());
+			return;
+		}
+		BigDecimal balance = history.balanceAt(getAccountAsOf.getTimestamp());
+		sender().tell(balance == null ? new Failure("Account " + account.getAccountNumber() + " did not exist at "
+				+ Instant.ofEpochMilli(getAccountAsOf.getTimestamp())) : account.withBalance(balance), self());
+	}
+
+	/**
+	 * Reads the account with its balance history, for a snapshot. Replied with
+	 * {@link ExportedAccount}.
+	 */
+	@Data
+	public static class ExportAccount implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 3822019563475018871L;
+
+		private final long accountNumber;
+	}
+
+	@Data
+	public static class ExportedAccount implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -4177465530880436095L;
+
+		private final Account account;
+		// Written by BalanceHistory.toBytes()
+		private final byte[] history;
+	}
+
+	private void onExportAccount(ExportAccount exportAccount) {
+		sender().tell(new ExportedAccount(account, history.toBytes()), self());
+	}
+
+	/**
+	 * Replaces the balance history with one restored from a snapshot, the
+	 * current balance recorded after it. Told, not replied to.
+	 */
+	@Data
+	public static class RestoreHistory implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 7391840128816634706L;
+
+		private final byte[] history;
+	}
+
+	private void onRestoreHistory(RestoreHistory restoreHistory) {
+		history = HistoryRetention.get(getContext().getSystem()).restore(restoreHistory.getHistory());
+		recordBalance();
+	}
+
+	/**
+	 * Records the new balance and tells it to the analytics and the
+	 * subscribers.
+	 */
+	private void recordBalance() {
+		analytics.balanceChanged(account.getAccountNumber(), stripe, account.getCurrency(), account.getBalance());
+		try {
+			history.record(clock.millis(), account.getBalance());
+		} catch (ArithmeticException e) {
+			log().warning("Balance {} of account {} left out of its history: {}", account.getBalance(),
+					account.getAccountNumber(), e.getMessage());
+		}
+		if (subscribers != null) {
+			for (ActorRef subscriber : subscribers) {
+				subscriber.tell(account, self());
+			}
+		}
+	}
+
+	/**
+	 * Tells the subscriber the current account, then every new balance until
+	 * the subscriber stops. Replies {@link Success}.
+	 */
+	@Data
+	public static class SubscribeBalance implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -2179862262925390384L;
+
+		private final long accountNumber;
+		private final ActorRef subscriber;
+	}
+
+	private void onSubscribeBalance(SubscribeBalance subscribeBalance) {
+		if (subscribers == null) {
+			subscribers = new HashSet<>();
+		}
+		ActorRef subscriber = subscribeBalance.getSubscriber();
+		if (subscribers.add(subscriber)) {
+			getContext().watch(subscriber);
+		}
+		subscriber.tell(account, self());
+		sender().tell(new Success(), self());
+	}
+
+	/**
+	 * A withdraw with an operation id asked again is answered with the result it
+	 * first had instead of being applied twice, see {@link AppliedOperations}.
+	 */
 	@Data
+	@AllArgsConstructor
 	public static class Withdraw implements Serializable {
 		/**
 		 * 
 		 */
 		private static final long serialVersionUID = -7321232735063503252L;
 		private final BigDecimal amount;
+		// Reconciliation epoch the movement started in, see Cut
+		private final long epoch;
+		// Null when asking again is not safe
+		private final String operationId;
+
+		public Withdraw(BigDecimal amount, long epoch) {
+			this(amount, epoch, null);
+		}
+
+		public Withdraw(BigDecimal amount) {
+			this(amount, 0);
+		}
 	}
 	
 //
@@ -64,45 +294,289 @@ public class AccountActor extends AbstractLoggingActor {
 //		private final BigDecimal amount;
 //	}
 
+	/**
+	 * Ends a movement under way, a credit or a refund, so a priority mailbox
+	 * takes it ahead of new withdrawals. Replayed like a {@link Withdraw}.
+	 */
 	@Data
-	public static class Deposit implements Serializable {
+	@AllArgsConstructor
+	public static class Deposit implements Serializable, PriorityMailbox.Completion {
 		/**
 		 * 
 		 */
 		private static final long serialVersionUID = 1290932509175161923L;
 		private final BigDecimal amount;
+		// Reconciliation epoch the movement started in, see Cut
+		private final long epoch;
+		// Null when asking again is not safe
+		private final String operationId;
+
+		public Deposit(BigDecimal amount, long epoch) {
+			this(amount, epoch, null);
+		}
+
+		public Deposit(BigDecimal amount) {
+			this(amount, 0);
+		}
 	}
 
-	private void withdraw(BigDecimal amount) {
+	private void withdraw(Withdraw withdraw) {
+		analytics.accountActive(account.getAccountNumber());
+		String operationId = withdraw.getOperationId();
+		if (replayed(operationId)) {
+			return;
+		}
+		BigDecimal amount = withdraw.getAmount();
+		long now = 0;
+		if (!limits.isNone()) {
+			now = clock.millis();
+			String breach = breachedLimit(amount, now);
+			if (breach != null) {
+				log().info(breach);
+				reply(operationId, new Failure(breach));
+				return;
+			}
+		}
 		BigDecimal balance = account.getBalance();
 		if (amount.compareTo(balance) > 0) {
-			notifyInsufficientBalance(amount);
+			notifyInsufficientBalance(amount, operationId);
 		} else {
-			updateBalance(balance.subtract(amount), "Withdraw");
+			if (!limits.isNone()) {
+				dailyDebits.record(now, amount);
+				minuteDebits.record(now, amount);
+			}
+			beforeMovement(withdraw.getEpoch(), amount.negate());
+			updateBalance(balance.subtract(amount), "Withdraw", operationId);
+		}
+	}
+
+	/**
+	 * Answers an operation asked again with the result it first had.
+	 */
+	private boolean replayed(String operationId) {
+		Object result = operationId == null || applied == null ? null : applied.resultOf(operationId);
+		if (result == null) {
+			return false;
 		}
+		log().info("Operation {} on account {} replayed", operationId, account.getAccountNumber());
+		sender().tell(result, self());
+		return true;
 	}
 
-	private void notifyInsufficientBalance(BigDecimal amount) {
+	private void reply(String operationId, Object result) {
+		if (operationId != null) {
+			if (applied == null) {
+				applied = new AppliedOperations(HopRetry.get(getContext().getSystem()).getOperationWindow());
+			}
+			applied.record(operationId, result);
+		}
+		sender().tell(result, self());
+	}
+
+	/**
+	 * @return why the debit is refused, null when it is within every limit
+	 */
+	private String breachedLimit(BigDecimal amount, long now) {
+		long accountNumber = account.getAccountNumber();
+		BigDecimal maxSingleAmount = limits.getMaxSingleAmount();
+		if (maxSingleAmount != null && amount.compareTo(maxSingleAmount) > 0) {
+			metrics.increment(MAX_SINGLE_AMOUNT_BREACHES);
+			return "Amount " + amount + " is above the limit of " + maxSingleAmount + " per transfer on account "
+					+ accountNumber;
+		}
+		Integer transfersPerMinute = limits.getTransfersPerMinute();
+		if (transfersPerMinute != null && minuteDebits.count(now) >= transfersPerMinute) {
+			metrics.increment(TRANSFERS_PER_MINUTE_BREACHES);
+			return "Limit of " + transfersPerMinute + " transfers per minute reached on account " + accountNumber;
+		}
+		BigDecimal dailyDebitCap = limits.getDailyDebitCap();
+		if (dailyDebitCap != null) {
+			BigDecimal debited = dailyDebits.sum(now);
+			if (debited.add(amount).compareTo(dailyDebitCap) > 0) {
+				metrics.increment(DAILY_DEBIT_CAP_BREACHES);
+				return "Amount " + amount + " is above the daily debit cap of " + dailyDebitCap + " on account "
+						+ accountNumber + ", " + debited + " already debited over the last 24 hours";
+			}
+		}
+		return null;
+	}
+
+	private void notifyInsufficientBalance(BigDecimal amount, String operationId) {
 		String errorMsg = "Insufficient balance to withdraw " + amount + " from account " + account;
 		log().info(errorMsg);
-		sender().tell(new Failure(errorMsg), self());
+		reply(operationId, new Failure(errorMsg));
 	}
 	
 //	private void cashDeposit(BigDecimal amount) {
 //		updateBalance(amount, "Deposit");
 //	}	
 
-	private void deposit(BigDecimal amount) {
+	private void deposit(Deposit deposit) {
+		analytics.accountActive(account.getAccountNumber());
+		if (replayed(deposit.getOperationId())) {
+			return;
+		}
+		beforeMovement(deposit.getEpoch(), deposit.getAmount());
 		BigDecimal balance = account.getBalance();
-		updateBalance(balance.add(amount), "Deposit");
+		updateBalance(balance.add(deposit.getAmount()), "Deposit", deposit.getOperationId());
 	}
 
-	private void updateBalance(BigDecimal newBalance, String operation) {
-		account = new Account(account.getAccountNumber(), newBalance);
+	private void updateBalance(BigDecimal newBalance, String operation, String operationId) {
+		account = account.withBalance(newBalance);
+		recordBalance();
 		log().info("{} succeeded for {}", operation, account);
+		reply(operationId, new Success());
+	}
+
+	/**
+	 * Takes the whole balance out of the account and replies with the amount
+	 * taken. Used to consolidate the stripes of a {@link StripedAccountActor}.
+	 * Replayed like a {@link Withdraw}, with the amount first taken.
+	 */
+	@Data
+	@AllArgsConstructor
+	public static class Drain implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -2085301740942296187L;
+		// Reconciliation epoch of the debit the drain serves, see Cut
+		private final long epoch;
+		// Null when asking again is not safe
+		private final String operationId;
+
+		public Drain(long epoch) {
+			this(epoch, null);
+		}
+
+		public Drain() {
+			this(0);
+		}
+	}
+
+	private void onDrain(Drain drain) {
+		if (replayed(drain.getOperationId())) {
+			return;
+		}
+		beforeMovement(drain.getEpoch(), account.getBalance().negate());
+		Account drained = account;
+		account = account.withBalance(BigDecimal.ZERO);
+		recordBalance();
+		reply(drain.getOperationId(), drained);
+	}
+
+	/**
+	 * Marker of a reconciliation: the account records its balance as its part of
+	 * the consistent cut of the given epoch, a cut taken by every account
+	 * without stopping any of them.
+	 *
+	 * Every movement is tagged with the epoch it started in, the same on both of
+	 * its legs, and the account service sends the markers before any movement
+	 * of their epoch. A movement of an older epoch is part of the cut: applied
+	 * after the cut, it is reported as money in transit. A movement of a newer
+	 * epoch is not: an account reached by one before its marker, e.g. a stripe,
+	 * takes its cut first. So the balances at the cut plus the money in transit
+	 * hold every movement of an older epoch and none of a newer one.
+	 */
+	@Data
+	public static class Cut implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 2462349305591127431L;
+
+		private final long epoch;
+	}
+
+	/**
+	 * Reply to a {@link Cut}: the account with its balance at the cut.
+	 */
+	@Data
+	public static class AccountCut implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -6016839946440474413L;
+
+		private final long epoch;
+		private final Account account;
+	}
+
+	/**
+	 * Movement of an older epoch applied after the cut of the given epoch, sent
+	 * to the parent: a credit is money in transit at the cut, a debit money the
+	 * cut still counted in the account.
+	 */
+	@Data
+	public static class InTransit implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -1313994922460564004L;
+
+		private final long epoch;
+		private final String currency;
+		private final BigDecimal amount;
+	}
+
+	private void onCut(Cut cut) {
+		if (cut.getEpoch() > cutEpoch) {
+			takeCut(cut.getEpoch());
+		}
+		sender().tell(new AccountCut(cutEpoch, account.withBalance(cutBalance)), self());
+	}
+
+	private void takeCut(long epoch) {
+		cutEpoch = epoch;
+		cutBalance = account.getBalance();
+	}
+
+	/**
+	 * Keeps the cut consistent before the balance changes by the signed amount.
+	 */
+	private void beforeMovement(long epoch, BigDecimal amount) {
+		if (epoch > cutEpoch) {
+			takeCut(epoch);
+		} else if (epoch < cutEpoch && amount.signum() != 0) {
+			getContext().getParent().tell(new InTransit(cutEpoch, account.getCurrency(), amount), self());
+		}
+	}
+
+	/**
+	 * Replaces the limits of the account. Debits recorded under earlier limits
+	 * still count against the new ones, {@link VelocityLimits#NONE} lifts them.
+	 */
+	@Data
+	public static class SetLimits implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -3591538024985735566L;
+
+		private final long accountNumber;
+		private final VelocityLimits limits;
+	}
+
+	private void onSetLimits(SetLimits setLimits) {
+		limits = setLimits.getLimits();
+		if (!limits.isNone() && dailyDebits == null) {
+			dailyDebits = new SlidingWindow(DAY, DAY_BUCKETS);
+			minuteDebits = new SlidingWindow(MINUTE, MINUTE_BUCKETS);
+		}
+		log().info("Limits of account {} set to {}", account.getAccountNumber(), limits);
 		sender().tell(new Success(), self());
 	}
 
+	@Data
+	public static class GetLimits implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 8046342896180375127L;
+
+		private final long accountNumber;
+	}
+
 	@Data
 	public static class DeleteAccount implements Serializable {
 		/**
@@ -113,8 +587,13 @@ public class AccountActor extends AbstractLoggingActor {
 		private final long accountNumber;
 	}
 
+	/**
+	 * Replies with the final balance and stops, movements still queued are not
+	 * applied.
+	 */
 	private void onDeleteAccount(DeleteAccount deleteAccount) {
 		sender().tell(account, getSelf());
+		getContext().stop(self());
 	}
 
 }
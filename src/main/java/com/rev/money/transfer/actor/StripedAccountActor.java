@@ -0,0 +1,310 @@
+package com.rev.money.transfer.actor;
+
+import static akka.pattern.Patterns.ask;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.MessageStatus.Failure;
+import com.rev.money.transfer.model.MessageStatus.Success;
+import com.rev.money.transfer.util.AppliedOperations;
+import com.rev.money.transfer.util.HopRetry;
+
+import akka.actor.AbstractActorWithStash;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Hot account whose balance is spread over K stripes, each an
+ * {@link AccountActor} holding part of the balance. Credits can go straight to
+ * any stripe, so they no longer queue up behind a single mailbox.
+ *
+ * Reads and debits are serialized here. A debit is first tried on one stripe;
+ * when that stripe is short, every stripe is drained into this actor and the
+ * remainder is put back into one stripe, so a debit never overdraws a stripe
+ * and fails only when the whole account is short. The drains are put back
+ * when one of them fails.
+ *
+ * A reconciliation cut or a delete reaches every stripe once no debit is in
+ * flight; the moves between stripes carry the epoch of their debit.
+ *
+ * Debits asked again are replayed here, as a rebalance is not one operation
+ * of a stripe, once their outcome is known. A debit or a credit with an
+ * operation id always goes to the same stripe, which replays it, so a debit
+ * whose stripe did not answer in time is asked of that stripe again.
+ */
+public class StripedAccountActor extends AbstractActorWithStash {
+
+	private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+	private final long accountNumber;
+	private final String currency;
+	private final List<ActorRef> stripes;
+	private final Duration timeout;
+	private int nextStripe;
+	private boolean deleted;
+	private final AppliedOperations withdrawn;
+	private final HopRetry hopRetry = HopRetry.get(getContext().getSystem());
+
+	private StripedAccountActor(long accountNumber, String currency, List<ActorRef> stripes, Duration timeout) {
+		this.accountNumber = accountNumber;
+		this.currency = currency;
+		this.stripes = stripes;
+		this.timeout = timeout;
+		this.withdrawn = new AppliedOperations(hopRetry.getOperationWindow());
+	}
+
+	public static Props props(long accountNumber, String currency, List<ActorRef> stripes, Duration timeout) {
+		return Props.create(StripedAccountActor.class,
+				() -> new StripedAccountActor(accountNumber, currency, stripes, timeout));
+	}
+
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder().match(AccountActor.GetAccount.class, this::onGetAccount)
+				.match(AccountActor.GetAccountAsOf.class, this::onGetAccountAsOf)
+				.match(AccountActor.DeleteAccount.class, this::onDeleteAccount)
+				.match(AccountActor.Withdraw.class, this::onWithdraw)
+				.match(AccountActor.Cut.class, this::onCut)
+				.match(AccountActor.Deposit.class, deposit -> stripeOf(deposit).forward(deposit, getContext())).build();
+	}
+
+	/**
+	 * While a read or a debit is in flight, credits still go through and
+	 * everything else waits.
+	 */
+	private Receive busy() {
+		return receiveBuilder().match(Completed.class, this::onCompleted)
+				.match(AccountActor.GetAccountAsOf.class, this::onGetAccountAsOf)
+				.match(AccountActor.Deposit.class, deposit -> stripeOf(deposit).forward(deposit, getContext()))
+				.matchAny(message -> stash()).build();
+	}
+
+	private ActorRef stripeOf(AccountActor.Deposit deposit) {
+		String operationId = deposit.getOperationId();
+		return operationId == null ? nextStripe() : stripeOf(operationId);
+	}
+
+	/**
+	 * The stripe an operation asked again goes to, the one that replays it.
+	 */
+	private ActorRef stripeOf(String operationId) {
+		return stripes.get(Math.floorMod(operationId.hashCode(), stripes.size()));
+	}
+
+	private ActorRef nextStripe() {
+		ActorRef stripe = stripes.get(nextStripe);
+		nextStripe = (nextStripe + 1) % stripes.size();
+		return stripe;
+	}
+
+	private void onGetAccount(AccountActor.GetAccount getAccount) {
+		ActorRef replyTo = sender();
+		ActorRef self = self();
+		getContext().become(busy(), false);
+		mergedAccount().whenComplete((account, error) -> self
+				.tell(new Completed(replyTo, error == null ? account : new Failure(error.getMessage())), self));
+	}
+
+	private CompletionStage<Account> mergedAccount() {
+		return sumOfStripes(new AccountActor.GetAccount(accountNumber))
+				.thenApply(balance -> new Account(accountNumber, balance, currency));
+	}
+
+	/**
+	 * Sums the balances the stripes had at the time, read from their histories
+	 * so it waits for nothing. Money moved between stripes by a rebalance is in
+	 * none of them for the few milliseconds the move takes.
+	 */
+	private void onGetAccountAsOf(AccountActor.GetAccountAsOf getAccountAsOf) {
+		ActorRef replyTo = sender();
+		ActorRef self = self();
+		List<CompletableFuture<Object>> replies = stripes.stream()
+				.map(stripe -> ask(stripe, getAccountAsOf, timeout).toCompletableFuture()).collect(Collectors.toList());
+		CompletableFuture.allOf(replies.toArray(new CompletableFuture<?>[0])).whenComplete((done, error) -> {
+			if (error != null) {
+				replyTo.tell(new Failure(error.getMessage()), self);
+				return;
+			}
+			BigDecimal balance = BigDecimal.ZERO;
+			for (CompletableFuture<Object> reply : replies) {
+				if (reply.join() instanceof Failure) {
+					replyTo.tell(reply.join(), self);
+					return;
+				}
+				balance = balance.add(((Account) reply.join()).getBalance());
+			}
+			replyTo.tell(new Account(accountNumber, balance, currency), self);
+		});
+	}
+
+	private CompletionStage<BigDecimal> sumOfStripes(Object message) {
+		List<CompletableFuture<Object>> replies = stripes.stream()
+				.map(stripe -> ask(stripe, message, timeout).toCompletableFuture()).collect(Collectors.toList());
+		return CompletableFuture.allOf(replies.toArray(new CompletableFuture<?>[0]))
+				.thenApply(done -> replies.stream().map(reply -> balanceOf(reply.join()))
+						.reduce(BigDecimal.ZERO, BigDecimal::add));
+	}
+
+	private static BigDecimal balanceOf(Object reply) {
+		return reply instanceof AccountActor.AccountCut ? ((AccountActor.AccountCut) reply).getAccount().getBalance()
+				: ((Account) reply).getBalance();
+	}
+
+	private void onCut(AccountActor.Cut cut) {
+		ActorRef replyTo = sender();
+		ActorRef self = self();
+		getContext().become(busy(), false);
+		sumOfStripes(cut).whenComplete((balance, error) -> self.tell(new Completed(replyTo, error == null
+				? new AccountActor.AccountCut(cut.getEpoch(), new Account(accountNumber, balance, currency))
+				: new Failure(error.getMessage())), self));
+	}
+
+	/**
+	 * Replies with the final balance once every stripe stopped, then stops.
+	 */
+	private void onDeleteAccount(AccountActor.DeleteAccount deleteAccount) {
+		ActorRef replyTo = sender();
+		ActorRef self = self();
+		deleted = true;
+		getContext().become(busy(), false);
+		sumOfStripes(deleteAccount).whenComplete((balance, error) -> self.tell(new Completed(replyTo,
+				error == null ? new Account(accountNumber, balance, currency) : new Failure(error.getMessage())),
+				self));
+	}
+
+	private void onWithdraw(AccountActor.Withdraw withdraw) {
+		ActorRef replyTo = sender();
+		ActorRef self = self();
+		String operationId = withdraw.getOperationId();
+		Object result = operationId == null ? null : withdrawn.resultOf(operationId);
+		if (result != null) {
+			replyTo.tell(result, self);
+			return;
+		}
+		ActorRef stripe = operationId == null ? nextStripe() : stripeOf(operationId);
+		getContext().become(busy(), false);
+		// A failed ask leaves the outcome unknown, so it is not recorded: asked
+		// again, the stripe replays the debit if it applied it
+		ask(stripe, withdraw, timeout).thenCompose(response -> response instanceof Failure
+				? rebalanceAndWithdraw(withdraw, stripe)
+				: CompletableFuture.completedFuture(response))
+				.whenComplete((response, error) -> self.tell(error == null
+						? new Completed(replyTo, response, operationId)
+						: new Completed(replyTo, new Failure(error.getMessage())), self));
+	}
+
+	/**
+	 * Drains every stripe, takes the amount out of their total and puts the
+	 * remainder back into one stripe. The drains and the remainder carry
+	 * operation ids of this rebalance, so a timed out one is asked again and
+	 * replayed rather than applied twice. When a drain still fails or the
+	 * remainder is refused, what every stripe was drained of is put back and the
+	 * debit fails; when the remainder times out, the debit stands and the
+	 * remainder is logged, as it may have been put back.
+	 */
+	private CompletionStage<Object> rebalanceAndWithdraw(AccountActor.Withdraw withdraw, ActorRef stripe) {
+		BigDecimal amount = withdraw.getAmount();
+		long epoch = withdraw.getEpoch();
+		String rebalanceId = UUID.randomUUID().toString();
+		List<CompletableFuture<Object>> drains = stripes.stream().map(drained -> drain(drained, epoch, rebalanceId))
+				.collect(Collectors.toList());
+		return CompletableFuture.allOf(drains.toArray(new CompletableFuture<?>[0])).handle((done, error) -> {
+			if (error != null) {
+				log.warning("Rebalance {} of account {} failed, putting back what was drained: {}", rebalanceId,
+						accountNumber, error.getMessage());
+				return restore(epoch, rebalanceId).<Object>thenApply(restored -> new Failure(
+						"Withdraw of " + amount + " from account " + accountNumber + " failed: " + error.getMessage()));
+			}
+			BigDecimal total = drains.stream().map(drained -> balanceOf(drained.join())).reduce(BigDecimal.ZERO,
+					BigDecimal::add);
+			boolean sufficient = total.compareTo(amount) >= 0;
+			BigDecimal remainder = sufficient ? total.subtract(amount) : total;
+			Object response = sufficient ? new Success()
+					: new Failure("Insufficient balance to withdraw " + amount + " from account "
+							+ new Account(accountNumber, total, currency));
+			AccountActor.Deposit putBack = new AccountActor.Deposit(remainder, epoch, rebalanceId + "/remainder");
+			return hopRetry.ask(() -> ask(stripe, putBack, timeout)).handle((deposited, depositError) -> {
+				if (deposited instanceof Failure) {
+					// Refused, so nothing was put back yet
+					return restore(epoch, rebalanceId).<Object>thenApply(restored -> deposited);
+				}
+				if (depositError != null) {
+					log.error("Remainder {} of rebalance {} of account {} not confirmed: {}", remainder, rebalanceId,
+							accountNumber, depositError.getMessage());
+				}
+				return CompletableFuture.completedFuture(response);
+			}).thenCompose(Function.identity());
+		}).thenCompose(Function.identity());
+	}
+
+	private CompletableFuture<Object> drain(ActorRef stripe, long epoch, String rebalanceId) {
+		return hopRetry.ask(() -> ask(stripe, new AccountActor.Drain(epoch, rebalanceId), timeout))
+				.thenApply(drained -> {
+					if (drained instanceof Failure) {
+						throw new CompletionException(
+								new IllegalStateException(((Failure) drained).getMessage()));
+					}
+					return drained;
+				}).toCompletableFuture();
+	}
+
+	/**
+	 * Puts back into each stripe what the rebalance drained of it: the drain
+	 * asked again replays the amount taken, or drains a stripe it never reached,
+	 * and that amount is deposited back once.
+	 */
+	private CompletionStage<Void> restore(long epoch, String rebalanceId) {
+		return CompletableFuture.allOf(stripes.stream().map(stripe -> drain(stripe, epoch, rebalanceId)
+				.thenCompose(drained -> hopRetry.ask(() -> ask(stripe,
+						new AccountActor.Deposit(balanceOf(drained), epoch, rebalanceId + "/restore"), timeout))))
+				.map(CompletionStage::toCompletableFuture).toArray(CompletableFuture[]::new));
+	}
+
+	private void onCompleted(Completed completed) {
+		if (completed.getResponse() instanceof Failure) {
+			log.info(((Failure) completed.getResponse()).getMessage());
+		}
+		if (completed.getOperationId() != null) {
+			withdrawn.record(completed.getOperationId(), completed.getResponse());
+		}
+		completed.getReplyTo().tell(completed.getResponse(), self());
+		if (deleted) {
+			getContext().stop(self());
+			return;
+		}
+		getContext().unbecome();
+		unstashAll();
+	}
+
+	@Data
+	@AllArgsConstructor
+	private static class Completed implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 6085151442633710915L;
+
+		private final ActorRef replyTo;
+		private final Object response;
+		// Of the withdraw completed, null for anything else or when its outcome is unknown
+		private final String operationId;
+
+		Completed(ActorRef replyTo, Object response) {
+			this(replyTo, response, null);
+		}
+	}
+
+}
@@ -4,6 +4,8 @@ import java.io.Serializable;
 
 import com.rev.money.transfer.model.Transaction;
 import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.util.FaultInjector;
+import com.rev.money.transfer.util.PriorityMailbox;
 
 import akka.actor.AbstractActor;
 import akka.actor.Props;
@@ -23,8 +25,9 @@ public class TransactionActor extends AbstractActor {
 
 	@Override
 	public Receive createReceive() {
-		return receiveBuilder().match(GetTransaction.class, this::onGetTransactionInfo)
-				.match(ChangeStatus.class, this::onChangeStatus).build();
+		return FaultInjector.get(getContext().getSystem()).wrap(this,
+				receiveBuilder().match(GetTransaction.class, this::onGetTransactionInfo)
+						.match(ChangeStatus.class, this::onChangeStatus).build());
 	}
 
 	private void onGetTransactionInfo(GetTransaction getTransaction) {
@@ -33,14 +36,12 @@ public class TransactionActor extends AbstractActor {
 
 	private void onChangeStatus(ChangeStatus changeStatus) {
 		TransactionStatus status = changeStatus.status;
-		transactionInfo = new Transaction(transactionInfo.getId(), transactionInfo.getRemitterAccountId(),
-				transactionInfo.getBeneficieryAccountId(), transactionInfo.getAmount(), status,
-				transactionInfo.getRemarks());
+		transactionInfo = transactionInfo.withStatus(status);
 		sender().tell(transactionInfo, self());
 	}
 
 	@Data
-	public static class ChangeStatus implements Serializable {
+	public static class ChangeStatus implements Serializable, PriorityMailbox.Completion {
 		/**
 		 * 
 		 */
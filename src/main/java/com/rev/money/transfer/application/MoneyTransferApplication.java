@@ -1,25 +1,58 @@
 package com.rev.money.transfer.application;
 
+import static akka.pattern.Patterns.ask;
+
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
 import com.rev.money.transfer.factory.AccountFactory;
 import com.rev.money.transfer.factory.CustomerFactory;
 import com.rev.money.transfer.factory.TransactionFactory;
+import com.rev.money.transfer.ledger.ActorLedgerEngine;
+import com.rev.money.transfer.ledger.CasLedgerEngine;
+import com.rev.money.transfer.ledger.LedgerEngine;
+import com.rev.money.transfer.ledger.RingLedgerEngine;
+import com.rev.money.transfer.ledger.StripedLedgerEngine;
 import com.rev.money.transfer.route.AccountRoute;
+import com.rev.money.transfer.route.AdminRoute;
+import com.rev.money.transfer.route.AnalyticsRoute;
 import com.rev.money.transfer.route.CustomerRoute;
+import com.rev.money.transfer.route.ScheduleRoute;
 import com.rev.money.transfer.route.TransactionRoute;
 import com.rev.money.transfer.service.AccountService;
 import com.rev.money.transfer.service.CustomerService;
+import com.rev.money.transfer.service.LedgerService;
+import com.rev.money.transfer.service.OutboxService;
+import com.rev.money.transfer.service.ReconciliationService;
+import com.rev.money.transfer.service.SchedulerService;
+import com.rev.money.transfer.service.SnapshotService;
 import com.rev.money.transfer.service.TransactionService;
+import com.rev.money.transfer.store.FxRateTable;
+import com.rev.money.transfer.store.LedgerJournal;
+import com.rev.money.transfer.store.ScheduleStore;
+import com.rev.money.transfer.store.SnapshotFile;
+import com.rev.money.transfer.util.AccountAnalytics;
 import com.rev.money.transfer.util.Constant;
+import com.rev.money.transfer.util.HopRetry;
+import com.rev.money.transfer.util.MailboxStats;
+import com.rev.money.transfer.util.Metrics;
+import com.rev.money.transfer.util.TransactionResponseCache;
+import com.rev.money.transfer.util.TransferTimelines;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 
 import akka.NotUsed;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.actor.Props;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
 import akka.http.javadsl.ConnectHttp;
@@ -38,16 +71,69 @@ public class MoneyTransferApplication extends AllDirectives {
 	private final ActorRef customerService;
 	private final ActorRef accountService;
 	private final ActorRef transactionService;
+	private final LedgerEngine ledger;
+	private final FxRateTable fxRates = new FxRateTable();
+	private final ActorRef schedulerService;
+	private final ActorRef snapshotService;
+	private final ActorRef reconciliationService;
 	private final ActorSystem system = ActorSystem.create("money-transfer");
+	private final ActorMaterializer materializer = ActorMaterializer.create(system);
 	private final String address;
 	private final Duration timeout;
+	private final Duration payoutTimeout;
+	private final Duration snapshotTimeout;
+	private final Duration reconciliationTimeout;
+	private final int bulkBatchSize;
+	private final TransactionResponseCache transactionResponses;
 
 	public MoneyTransferApplication(CustomerFactory customerFactory, AccountFactory accountFactory,
 			TransactionFactory transactionFactory, String address, Duration timeout) {
-		accountService = system.actorOf(AccountService.props(accountFactory, timeout), Constant.ACCOUNT_SERVICE);
+		this(customerFactory, accountFactory, transactionFactory, address, timeout, ConfigFactory.load());
+	}
+
+	public MoneyTransferApplication(CustomerFactory customerFactory, AccountFactory accountFactory,
+			TransactionFactory transactionFactory, String address, Duration timeout, Config conf) {
+		int payoutParallelism = Integer
+				.parseInt(getPropertyValue(conf, Constant.PAYOUT_PARALLELISM, Constant.DEFAULT_PAYOUT_PARALLELISM));
+		int transactionCacheCapacity = Integer.parseInt(getPropertyValue(conf, Constant.TRANSACTION_CACHE_CAPACITY,
+				Constant.DEFAULT_TRANSACTION_CACHE_CAPACITY));
+		this.transactionResponses = new TransactionResponseCache(transactionCacheCapacity);
+		this.payoutTimeout = Duration
+				.parse(getPropertyValue(conf, Constant.PAYOUT_TIMEOUT, Constant.DEFAULT_PAYOUT_TIMEOUT));
+		String engine = getPropertyValue(conf, Constant.LEDGER_ENGINE, Constant.DEFAULT_LEDGER_ENGINE);
+		if (Constant.STRIPED_LEDGER_ENGINE.equals(engine) || Constant.CAS_LEDGER_ENGINE.equals(engine)
+				|| Constant.RING_LEDGER_ENGINE.equals(engine)) {
+			ledger = createInMemoryLedger(conf, engine, fxRates);
+			accountService = system.actorOf(LedgerService.props(ledger), Constant.LEDGER_SERVICE);
+			transactionService = accountService;
+		} else if (Constant.ACTOR_LEDGER_ENGINE.equals(engine)) {
+			accountService = system.actorOf(AccountService.props(accountFactory, timeout, payoutParallelism, fxRates),
+					Constant.ACCOUNT_SERVICE);
+			transactionService = system.actorOf(TransactionService.props(accountService, transactionFactory, timeout,
+					payoutTimeout, createOutboxService(conf)), Constant.TRANSACTION_SERVICE);
+			ledger = new ActorLedgerEngine(accountService, transactionService, timeout,
+					HopRetry.get(system).budget(timeout).multipliedBy(2));
+		} else {
+			throw new IllegalArgumentException("Unknown ledger engine " + engine);
+		}
 		customerService = system.actorOf(CustomerService.props(accountService, customerFactory, timeout), Constant.CUSTOMER_SERVICE);
-		transactionService = system.actorOf(TransactionService.props(accountService, transactionFactory, timeout),
-				Constant.TRANSACTION_SERVICE);
+		schedulerService = system.actorOf(createSchedulerService(conf), Constant.SCHEDULER_SERVICE);
+		this.bulkBatchSize = Integer.parseInt(
+				getPropertyValue(conf, Constant.CUSTOMER_BULK_BATCH_SIZE, Constant.DEFAULT_CUSTOMER_BULK_BATCH_SIZE));
+		this.snapshotTimeout = Duration
+				.parse(getPropertyValue(conf, Constant.SNAPSHOT_TIMEOUT, Constant.DEFAULT_SNAPSHOT_TIMEOUT));
+		snapshotService = system.actorOf(SnapshotService.props(accountService, customerService, transactionService,
+				Paths.get(getPropertyValue(conf, Constant.SNAPSHOT_DIR, Constant.DEFAULT_SNAPSHOT_DIR)),
+				Clock.systemUTC(), snapshotTimeout), Constant.SNAPSHOT_SERVICE);
+		this.reconciliationTimeout = Duration.parse(
+				getPropertyValue(conf, Constant.RECONCILIATION_TIMEOUT, Constant.DEFAULT_RECONCILIATION_TIMEOUT));
+		// Only the actor ledger engine reconciles, the others would fail every run
+		Duration reconciliationInterval = Constant.ACTOR_LEDGER_ENGINE.equals(engine) ? Duration.parse(
+				getPropertyValue(conf, Constant.RECONCILIATION_INTERVAL, Constant.DEFAULT_RECONCILIATION_INTERVAL))
+				: Duration.ZERO;
+		reconciliationService = system.actorOf(
+				ReconciliationService.props(accountService, reconciliationInterval, reconciliationTimeout),
+				Constant.RECONCILIATION_SERVICE);
 		this.timeout = timeout;
 		this.address = address;
 		this.log = Logging.getLogger(system, this);
@@ -59,7 +145,11 @@ public class MoneyTransferApplication extends AllDirectives {
 		Duration timeout = Duration
 				.parse(getPropertyValue(conf, Constant.ACTOR_TIMEOUT, Constant.DEFAULT_TIME_OUT_DURATION));
 		MoneyTransferApplication application = new MoneyTransferApplication(new CustomerFactory(), new AccountFactory(),
-				new TransactionFactory(), address, timeout);
+				new TransactionFactory(), address, timeout, conf);
+		String snapshotPath = getPropertyValue(conf, Constant.SNAPSHOT_LOAD_PATH, "");
+		if (!snapshotPath.isEmpty()) {
+			application.restoreSnapshot(Paths.get(snapshotPath));
+		}
 		CompletionStage<ServerBinding> binding = application.createServerBinding();
 		application.log.info("Server online at {}\nPress RETURN to stop...", application.address);
 		System.in.read();
@@ -67,16 +157,99 @@ public class MoneyTransferApplication extends AllDirectives {
 	}
 
 	private CompletionStage<ServerBinding> createServerBinding() {
-		ActorMaterializer materializer = ActorMaterializer.create(system);
 		Flow<HttpRequest, HttpResponse, NotUsed> routeFlow = buildRoutes().flow(system, materializer);
 		Http http = Http.get(system);
 		return http.bindAndHandle(routeFlow, ConnectHttp.toHost(address), materializer);
 	}
 
 	public Route buildRoutes() {
-		return route(new CustomerRoute(customerService, timeout).routes(),
-				new AccountRoute(accountService, timeout).routes(),
-				new TransactionRoute(transactionService, timeout).routes());
+		return route(new CustomerRoute(customerService, timeout, bulkBatchSize, HopRetry.get(system)).routes(),
+				new AccountRoute(ledger, materializer).routes(),
+				new TransactionRoute(ledger, transactionService, payoutTimeout, TransferTimelines.get(system),
+						transactionResponses).routes(),
+				new ScheduleRoute(schedulerService, timeout).routes(),
+				new AnalyticsRoute(AccountAnalytics.get(system), timeout).routes(),
+				new AdminRoute(snapshotService, snapshotTimeout, fxRates, Metrics.get(system), reconciliationService,
+						reconciliationTimeout, MailboxStats.get(system)).routes());
+	}
+
+	/**
+	 * Loads a snapshot taken by {@link SnapshotService} into the services. The
+	 * file is memory-mapped and its records are sent in large batches without
+	 * waiting for each batch, so loading is bound by actor creation rather than
+	 * by I/O or round trips.
+	 * 
+	 * @return header of the loaded snapshot
+	 */
+	public SnapshotFile.Header restoreSnapshot(Path path) throws IOException {
+		long start = System.nanoTime();
+		List<CompletableFuture<Object>> restored = new ArrayList<>();
+		SnapshotFile.Header header = SnapshotFile.read(path, Constant.SNAPSHOT_RESTORE_BATCH_SIZE,
+				accounts -> restored.add(restore(accountService, new AccountService.RestoreAccounts(accounts))),
+				customers -> restored.add(restore(customerService, new CustomerService.RestoreCustomers(customers))),
+				transactions -> restored
+						.add(restore(transactionService, new TransactionService.RestoreTransactions(transactions))),
+				histories -> restored.add(restore(accountService, new AccountService.RestoreHistories(histories))));
+		CompletableFuture.allOf(restored.toArray(new CompletableFuture<?>[0])).join();
+		log.info("Snapshot {} loaded in {} ms: {}", path, (System.nanoTime() - start) / 1_000_000, header);
+		return header;
+	}
+
+	private CompletableFuture<Object> restore(ActorRef service, Object batch) {
+		return ask(service, batch, snapshotTimeout).toCompletableFuture();
+	}
+
+	/**
+	 * @return null when no destination is configured
+	 */
+	private ActorRef createOutboxService(Config conf) {
+		String destinations = getPropertyValue(conf, Constant.OUTBOX_DESTINATIONS,
+				Constant.DEFAULT_OUTBOX_DESTINATIONS);
+		if (destinations.trim().isEmpty()) {
+			return null;
+		}
+		int batchSize = Integer
+				.parseInt(getPropertyValue(conf, Constant.OUTBOX_BATCH_SIZE, Constant.DEFAULT_OUTBOX_BATCH_SIZE));
+		int maxPending = Integer
+				.parseInt(getPropertyValue(conf, Constant.OUTBOX_MAX_PENDING, Constant.DEFAULT_OUTBOX_MAX_PENDING));
+		Duration pollInterval = Duration
+				.parse(getPropertyValue(conf, Constant.OUTBOX_POLL_INTERVAL, Constant.DEFAULT_OUTBOX_POLL_INTERVAL));
+		Duration minBackoff = Duration
+				.parse(getPropertyValue(conf, Constant.OUTBOX_MIN_BACKOFF, Constant.DEFAULT_OUTBOX_MIN_BACKOFF));
+		Duration maxBackoff = Duration
+				.parse(getPropertyValue(conf, Constant.OUTBOX_MAX_BACKOFF, Constant.DEFAULT_OUTBOX_MAX_BACKOFF));
+		return system.actorOf(OutboxService.props(Arrays.asList(destinations.trim().split("\\s*,\\s*")), batchSize,
+				maxPending, pollInterval, minBackoff, maxBackoff), Constant.OUTBOX_SERVICE);
+	}
+
+	private Props createSchedulerService(Config conf) {
+		String storePath = getPropertyValue(conf, Constant.SCHEDULER_STORE_PATH, "");
+		ScheduleStore scheduleStore = storePath.isEmpty() ? ScheduleStore.inMemory()
+				: new ScheduleStore(Paths.get(storePath));
+		Duration tick = Duration.parse(getPropertyValue(conf, Constant.SCHEDULER_TICK, Constant.DEFAULT_SCHEDULER_TICK));
+		int wheelSize = Integer
+				.parseInt(getPropertyValue(conf, Constant.SCHEDULER_WHEEL_SIZE, Constant.DEFAULT_SCHEDULER_WHEEL_SIZE));
+		int batchSize = Integer
+				.parseInt(getPropertyValue(conf, Constant.SCHEDULER_BATCH_SIZE, Constant.DEFAULT_SCHEDULER_BATCH_SIZE));
+		return SchedulerService.props(transactionService, scheduleStore, Clock.systemUTC(), tick, wheelSize, batchSize);
+	}
+
+	private static LedgerEngine createInMemoryLedger(Config conf, String engine, FxRateTable fxRates) {
+		if (Constant.CAS_LEDGER_ENGINE.equals(engine)) {
+			return new CasLedgerEngine(
+					Integer.parseInt(getPropertyValue(conf, Constant.LEDGER_CAPACITY, Constant.DEFAULT_LEDGER_CAPACITY)),
+					fxRates);
+		} else if (Constant.RING_LEDGER_ENGINE.equals(engine)) {
+			String journalPath = getPropertyValue(conf, Constant.LEDGER_JOURNAL_PATH, "");
+			LedgerJournal journal = journalPath.isEmpty() ? LedgerJournal.inMemory()
+					: new LedgerJournal(Paths.get(journalPath));
+			return new RingLedgerEngine(
+					Integer.parseInt(getPropertyValue(conf, Constant.LEDGER_RING_SIZE, Constant.DEFAULT_LEDGER_RING_SIZE)),
+					journal, fxRates);
+		}
+		return new StripedLedgerEngine(
+				Integer.parseInt(getPropertyValue(conf, Constant.LEDGER_STRIPES, Constant.DEFAULT_LEDGER_STRIPES)),
+				fxRates);
 	}
 
 	private static String getPropertyValue(Config conf, String property, String defaultValue) {
@@ -91,4 +264,24 @@ public class MoneyTransferApplication extends AllDirectives {
 		return transactionService;
 	}
 
+	public LedgerEngine getLedger() {
+		return ledger;
+	}
+
+	public FxRateTable getFxRates() {
+		return fxRates;
+	}
+
+	public ActorRef getSchedulerService() {
+		return schedulerService;
+	}
+
+	public ActorRef getSnapshotService() {
+		return snapshotService;
+	}
+
+	public ActorRef getReconciliationService() {
+		return reconciliationService;
+	}
+
 }
@@ -13,5 +13,17 @@ public class AccountDTO {
 	
 	private Long accountNumber;
 	private BigDecimal balance;
+	// ISO 4217 code, the base currency when left out on creation
+	private String currency;
+	// Number of stripes of a hot account, only on creation
+	private Integer stripes;
+
+	public AccountDTO(Long accountNumber, BigDecimal balance, String currency) {
+		this(accountNumber, balance, currency, null);
+	}
+
+	public AccountDTO(Long accountNumber, BigDecimal balance) {
+		this(accountNumber, balance, null);
+	}
 
 }
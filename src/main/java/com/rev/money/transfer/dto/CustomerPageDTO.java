@@ -0,0 +1,20 @@
+package com.rev.money.transfer.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CustomerPageDTO {
+
+	// Number of matching customers over all pages
+	private Long total;
+	private Integer offset;
+	private Integer limit;
+	private List<CustomerDTO> customers;
+
+}
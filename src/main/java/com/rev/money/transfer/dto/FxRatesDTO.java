@@ -0,0 +1,20 @@
+package com.rev.money.transfer.dto;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class FxRatesDTO {
+
+	// Version of the rates in use, only in responses
+	private Long version;
+	// Units of each currency one unit of the base currency buys
+	private Map<String, BigDecimal> rates;
+
+}
@@ -0,0 +1,18 @@
+package com.rev.money.transfer.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class OnboardedCustomerDTO {
+
+	// Line of the customer in the uploaded stream, starting at 1
+	private Long line;
+	// Assigned customer and account id, null when onboarding failed
+	private Long id;
+	private String error;
+
+}
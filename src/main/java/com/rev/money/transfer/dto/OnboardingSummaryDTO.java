@@ -0,0 +1,17 @@
+package com.rev.money.transfer.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class OnboardingSummaryDTO {
+
+	private Long customers;
+	private Long failures;
+	private Long durationMillis;
+	private Double customersPerSecond;
+
+}
@@ -0,0 +1,18 @@
+package com.rev.money.transfer.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class OutboxEventDTO {
+
+	// Position in the outbox, increasing in the order events are delivered
+	private long sequence;
+	private TransactionDTO transaction;
+	// Why the transaction was rolled back, null when it was committed
+	private String reason;
+
+}
@@ -0,0 +1,20 @@
+package com.rev.money.transfer.dto;
+
+import java.util.List;
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PayoutDTO {
+
+	private Long remitterAccountId;
+	private List<TransactionDTO> legs;
+	// Reasons of the failed legs by transaction id, only in responses
+	private Map<Long, String> failures;
+
+}
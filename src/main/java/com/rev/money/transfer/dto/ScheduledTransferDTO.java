@@ -0,0 +1,22 @@
+package com.rev.money.transfer.dto;
+
+import java.math.BigDecimal;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ScheduledTransferDTO {
+
+	private Long id;
+	private Long remitterAccountId;
+	private Long beneficieryAccountId;
+	private BigDecimal amount;
+	private Long nextExecution;
+	private Long intervalMillis;
+	private String remarks;
+
+}
@@ -19,5 +19,12 @@ public class TransactionDTO {
 	private BigDecimal amount;
 	private TransactionStatus status;
 	private String remarks;
+	// ISO 4217 code of the amount, the currency of the remitter when left out
+	private String currency;
+
+	public TransactionDTO(Long id, Long remitterAccountId, Long beneficieryAccountId, BigDecimal amount,
+			TransactionStatus status, String remarks) {
+		this(id, remitterAccountId, beneficieryAccountId, amount, status, remarks, null);
+	}
 
 }
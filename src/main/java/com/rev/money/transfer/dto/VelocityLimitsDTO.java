@@ -0,0 +1,19 @@
+package com.rev.money.transfer.dto;
+
+import java.math.BigDecimal;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class VelocityLimitsDTO {
+
+	// Each limit is off when left out
+	private BigDecimal dailyDebitCap;
+	private Integer transfersPerMinute;
+	private BigDecimal maxSingleAmount;
+
+}
@@ -1,6 +1,12 @@
 package com.rev.money.transfer.factory;
 
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
 import com.rev.money.transfer.actor.AccountActor;
+import com.rev.money.transfer.actor.StripedAccountActor;
 import com.rev.money.transfer.model.Account;
 
 import akka.actor.ActorContext;
@@ -12,4 +18,32 @@ public class AccountFactory {
 		return context.actorOf(AccountActor.props(account), "account_" + account.getAccountNumber());
 	}
 
+	/**
+	 * Starts the actor of an account going on with the balance history it had,
+	 * written by {@link com.rev.money.transfer.util.BalanceHistory#toBytes()}.
+	 */
+	public ActorRef get(ActorContext context, Account account, byte[] history) {
+		return context.actorOf(AccountActor.props(account, history), "account_" + account.getAccountNumber());
+	}
+
+	/**
+	 * Creates the stripes of a striped account, the first one holding the opening
+	 * balance.
+	 */
+	public List<ActorRef> getStripes(ActorContext context, Account account, int stripes) {
+		List<ActorRef> stripeActors = new ArrayList<>(stripes);
+		for (int i = 0; i < stripes; i++) {
+			Account stripe = account.withBalance(i == 0 ? account.getBalance() : BigDecimal.ZERO);
+			stripeActors.add(context.actorOf(AccountActor.stripeProps(stripe, i),
+					"account_" + account.getAccountNumber() + "_stripe_" + i));
+		}
+		return stripeActors;
+	}
+
+	public ActorRef getStriped(ActorContext context, Account account, List<ActorRef> stripes, Duration timeout) {
+		return context.actorOf(
+				StripedAccountActor.props(account.getAccountNumber(), account.getCurrency(), stripes, timeout),
+				"account_" + account.getAccountNumber());
+	}
+
 }
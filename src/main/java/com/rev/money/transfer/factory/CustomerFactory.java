@@ -1,15 +1,11 @@
 package com.rev.money.transfer.factory;
 
-import com.rev.money.transfer.actor.CustomerActor;
-import com.rev.money.transfer.model.Customer;
-
-import akka.actor.ActorContext;
-import akka.actor.ActorRef;
+import com.rev.money.transfer.store.CustomerStore;
 
 public class CustomerFactory {
 
-	public ActorRef get(ActorContext context, Customer customer) {
-		return context.actorOf(CustomerActor.props(customer), "customer_" + customer.getId());
+	public CustomerStore getStore() {
+		return new CustomerStore();
 	}
 
 }
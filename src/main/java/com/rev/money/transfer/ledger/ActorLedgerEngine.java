@@ -0,0 +1,122 @@
+package com.rev.money.transfer.ledger;
+
+import static akka.pattern.Patterns.ask;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+import com.rev.money.transfer.actor.AccountActor;
+import com.rev.money.transfer.actor.TransactionActor;
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.CashDeposit;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.model.VelocityLimits;
+import com.rev.money.transfer.service.AccountService;
+import com.rev.money.transfer.service.TransactionService;
+
+import akka.actor.ActorRef;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * The ledger as run by {@link AccountService} and {@link TransactionService}:
+ * one actor per account and per transaction, every call is an ask.
+ */
+@RequiredArgsConstructor
+public class ActorLedgerEngine implements LedgerEngine {
+
+	private final ActorRef accountService;
+	private final ActorRef transactionService;
+	private final Duration timeout;
+	// Covers the transaction service asking the transfer and then its status
+	// change again while they time out, so the client is not answered an error
+	// for a transfer that commits later
+	private final Duration transferTimeout;
+
+	@Override
+	public CompletionStage<Object> createAccount(Account account, int stripes) {
+		Object createAccount = stripes > 1 ? new AccountService.CreateStripedAccount(account, stripes) : account;
+		return ask(accountService, createAccount, timeout);
+	}
+
+	@Override
+	public CompletionStage<Object> getAccount(long accountNumber) {
+		return ask(accountService, new AccountActor.GetAccount(accountNumber), timeout);
+	}
+
+	@Override
+	public CompletionStage<Object> getAccountAsOf(long accountNumber, long timestamp) {
+		return ask(accountService, new AccountActor.GetAccountAsOf(accountNumber, timestamp), timeout);
+	}
+
+	@Override
+	public CompletionStage<Object> deleteAccount(long accountNumber) {
+		return ask(accountService, new AccountActor.DeleteAccount(accountNumber), timeout);
+	}
+
+	@Override
+	public CompletionStage<Object> listAccounts(long after, int limit) {
+		return ask(accountService, new AccountService.ListAccounts(after, limit), timeout);
+	}
+
+	@Override
+	public CompletionStage<Object> subscribeBalance(long accountNumber, ActorRef subscriber) {
+		return ask(accountService, new AccountActor.SubscribeBalance(accountNumber, subscriber), timeout);
+	}
+
+	@Override
+	public CompletionStage<Object> setLimits(long accountNumber, VelocityLimits limits) {
+		return ask(accountService, new AccountActor.SetLimits(accountNumber, limits), timeout);
+	}
+
+	@Override
+	public CompletionStage<Object> getLimits(long accountNumber) {
+		return ask(accountService, new AccountActor.GetLimits(accountNumber), timeout);
+	}
+
+	@Override
+	public CompletionStage<Object> transfer(Transaction transaction) {
+		return ask(transactionService, transaction, transferTimeout);
+	}
+
+	@Override
+	public CompletionStage<Object> deposit(CashDeposit cashDeposit) {
+		return ask(transactionService, cashDeposit, transferTimeout);
+	}
+
+	@Override
+	public CompletionStage<Object> getTransaction(long id) {
+		return ask(transactionService, new TransactionActor.GetTransaction(id), timeout);
+	}
+
+	@Override
+	public CompletionStage<Object> exportAccounts() {
+		return ask(accountService, new AccountService.ExportAccounts(), timeout);
+	}
+
+	@Override
+	public CompletionStage<Object> exportTransactions() {
+		return ask(transactionService, new TransactionService.ExportTransactions(), timeout);
+	}
+
+	@Override
+	public CompletionStage<Object> pauseTransfers() {
+		return ask(transactionService, new TransactionService.PauseTransfers(), timeout);
+	}
+
+	@Override
+	public CompletionStage<Object> resumeTransfers() {
+		return ask(transactionService, new TransactionService.ResumeTransfers(), timeout);
+	}
+
+	@Override
+	public CompletionStage<Object> restoreAccounts(List<Account> accounts) {
+		return ask(accountService, new AccountService.RestoreAccounts(accounts), timeout);
+	}
+
+	@Override
+	public CompletionStage<Object> restoreTransactions(List<Transaction> transactions) {
+		return ask(transactionService, new TransactionService.RestoreTransactions(transactions), timeout);
+	}
+
+}
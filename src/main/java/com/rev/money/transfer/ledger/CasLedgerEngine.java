@@ -0,0 +1,319 @@
+package com.rev.money.transfer.ledger;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.FxRates;
+import com.rev.money.transfer.model.MessageStatus.Failure;
+import com.rev.money.transfer.model.MessageStatus.Success;
+import com.rev.money.transfer.service.AccountService.AccountsExported;
+import com.rev.money.transfer.store.FxRateTable;
+
+/**
+ * Lock-free single node ledger. Every account gets a slot in a preallocated
+ * array of longs holding its balance, packed as the unscaled value shifted
+ * left by four bits with the scale in the low bits, so a balance is read and
+ * replaced with one compare-and-swap and keeps the scale {@link BigDecimal}
+ * arithmetic would give it.
+ *
+ * A deposit is one CAS loop. A transfer is two in a fixed order: the debit of
+ * the remitter, which checks the balance, then the credit of the beneficiary,
+ * refunded to the remitter should the credit fail. Calls run on the calling
+ * thread and never block, except while accounts are exported: new movements
+ * then wait for the export, which waits for the ones in flight, so exported
+ * balances always add up.
+ *
+ * Slots of deleted accounts are not reused; balances must fit 59 bits at a
+ * scale of at most 15. The currency of a slot is set once, when its account
+ * is created.
+ */
+public class CasLedgerEngine extends InMemoryLedgerEngine {
+
+	private static final int SCALE_BITS = 4;
+	private static final int MAX_SCALE = (1 << SCALE_BITS) - 1;
+	private static final long MAX_UNSCALED = Long.MAX_VALUE >> SCALE_BITS;
+	private static final long MIN_UNSCALED = Long.MIN_VALUE >> SCALE_BITS;
+	private static final long[] POWERS_OF_TEN = new long[MAX_SCALE + 1];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i <= MAX_SCALE; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	private final AtomicLongArray balances;
+	// Written before the slot is published in slotById, never changed after
+	private final String[] currencies;
+	private final Map<Long, Integer> slotById = new ConcurrentHashMap<>();
+	private final AtomicInteger nextSlot = new AtomicInteger();
+	// Movements between their first and last CAS, an adder as every call counts
+	private final LongAdder inFlight = new LongAdder();
+	private volatile boolean exporting;
+	private final Object exportLock = new Object();
+
+	public CasLedgerEngine(int capacity, FxRateTable fxRates) {
+		super(Runnable::run, fxRates);
+		this.balances = new AtomicLongArray(capacity);
+		this.currencies = new String[capacity];
+	}
+
+	public CasLedgerEngine(int capacity) {
+		this(capacity, new FxRateTable());
+	}
+
+	/**
+	 * @throws ArithmeticException if the amount does not fit a slot
+	 */
+	static long pack(BigDecimal amount) {
+		if (amount.scale() < 0) {
+			amount = amount.setScale(0);
+		}
+		if (amount.scale() > MAX_SCALE) {
+			throw new ArithmeticException("Scale of " + amount + " is above " + MAX_SCALE);
+		}
+		return pack(amount.unscaledValue().longValueExact(), amount.scale());
+	}
+
+	private static long pack(long unscaled, int scale) {
+		if (unscaled > MAX_UNSCALED || unscaled < MIN_UNSCALED) {
+			throw new ArithmeticException("Amount out of range");
+		}
+		return unscaled << SCALE_BITS | scale;
+	}
+
+	static BigDecimal unpack(long packed) {
+		return BigDecimal.valueOf(packed >> SCALE_BITS, (int) packed & MAX_SCALE);
+	}
+
+	private static long unscaled(long packed, int scale) {
+		return Math.multiplyExact(packed >> SCALE_BITS, POWERS_OF_TEN[scale - ((int) packed & MAX_SCALE)]);
+	}
+
+	/**
+	 * Sum of two packed amounts at the larger of their scales, as
+	 * {@link BigDecimal#add} gives it.
+	 */
+	private static long add(long packed, long amount) {
+		int scale = Math.max((int) packed & MAX_SCALE, (int) amount & MAX_SCALE);
+		return pack(Math.addExact(unscaled(packed, scale), unscaled(amount, scale)), scale);
+	}
+
+	private static long negate(long amount) {
+		return pack(-(amount >> SCALE_BITS), (int) amount & MAX_SCALE);
+	}
+
+	private static int compare(long packed, long amount) {
+		int scale = Math.max((int) packed & MAX_SCALE, (int) amount & MAX_SCALE);
+		return Long.compare(unscaled(packed, scale), unscaled(amount, scale));
+	}
+
+	private void enter() {
+		while (true) {
+			while (exporting) {
+				Thread.yield();
+			}
+			inFlight.increment();
+			if (!exporting) {
+				return;
+			}
+			inFlight.decrement();
+		}
+	}
+
+	private void exit() {
+		inFlight.decrement();
+	}
+
+	@Override
+	public CompletionStage<Object> createAccount(Account account, int stripes) {
+		long id = account.getAccountNumber();
+		return call(() -> {
+			if (slotById.containsKey(id)) {
+				return accountAlreadyExists(id);
+			}
+			String currency = FxRates.currencyCode(account.getCurrency());
+			if (currency == null) {
+				return unknownCurrency(account.getCurrency());
+			}
+			long balance;
+			try {
+				balance = pack(account.getBalance());
+			} catch (ArithmeticException e) {
+				return new Failure("Balance " + account.getBalance() + " does not fit the ledger: " + e.getMessage());
+			}
+			int slot = nextSlot.getAndIncrement();
+			if (slot >= balances.length()) {
+				return new Failure("Ledger is full, it holds " + balances.length() + " accounts");
+			}
+			balances.set(slot, balance);
+			currencies[slot] = currency;
+			if (slotById.putIfAbsent(id, slot) != null) {
+				return accountAlreadyExists(id);
+			}
+			accountNumbers.add(id);
+			return new Success();
+		});
+	}
+
+	@Override
+	public CompletionStage<Object> getAccount(long accountNumber) {
+		return call(() -> {
+			Account account = accountOf(accountNumber);
+			return account == null ? accountNotFound(accountNumber) : account;
+		});
+	}
+
+	@Override
+	Account accountOf(long accountNumber) {
+		Integer slot = slotById.get(accountNumber);
+		return slot == null ? null : new Account(accountNumber, unpack(balances.get(slot)), currencies[slot]);
+	}
+
+	@Override
+	public CompletionStage<Object> deleteAccount(long accountNumber) {
+		return call(() -> {
+			if (slotById.remove(accountNumber) == null) {
+				return accountNotFound(accountNumber);
+			}
+			accountNumbers.remove(accountNumber);
+			return new Success();
+		});
+	}
+
+	@Override
+	String move(long remitter, long beneficiary, BigDecimal amount, String currency) {
+		Integer from = slotById.get(remitter);
+		if (from == null) {
+			return accountNotFound(remitter).getMessage();
+		}
+		Integer to = slotById.get(beneficiary);
+		if (to == null) {
+			return accountNotFound(beneficiary).getMessage();
+		}
+		FxRates rates = rates();
+		String amountCurrency = currency == null ? currencies[from] : currency;
+		BigDecimal debit = rates.convert(amount, amountCurrency, currencies[from]);
+		BigDecimal credit = rates.convert(amount, amountCurrency, currencies[to]);
+		if (debit == null || credit == null) {
+			return noFxRate(amountCurrency, debit == null ? currencies[from] : currencies[to]);
+		}
+		long packedDebit;
+		long packedCredit;
+		try {
+			packedDebit = pack(debit);
+			packedCredit = credit == debit ? packedDebit : pack(credit);
+		} catch (ArithmeticException e) {
+			return "Amount " + amount + " does not fit the ledger: " + e.getMessage();
+		}
+		enter();
+		try {
+			String failure = debit(remitter, from, packedDebit, debit);
+			if (failure == null) {
+				failure = credit(to, packedCredit);
+				if (failure != null) {
+					credit(from, packedDebit);
+				}
+			}
+			return failure;
+		} finally {
+			exit();
+		}
+	}
+
+	private String debit(long accountNumber, int slot, long amount, BigDecimal requested) {
+		long balance;
+		long next;
+		do {
+			balance = balances.get(slot);
+			try {
+				if (compare(balance, amount) < 0) {
+					return insufficientBalance(requested,
+							new Account(accountNumber, unpack(balance), currencies[slot]));
+				}
+				next = add(balance, negate(amount));
+			} catch (ArithmeticException e) {
+				return "Balance out of range: " + e.getMessage();
+			}
+		} while (!balances.compareAndSet(slot, balance, next));
+		return null;
+	}
+
+	private String credit(int slot, long amount) {
+		long balance;
+		long next;
+		do {
+			balance = balances.get(slot);
+			try {
+				next = add(balance, amount);
+			} catch (ArithmeticException e) {
+				return "Balance out of range: " + e.getMessage();
+			}
+		} while (!balances.compareAndSet(slot, balance, next));
+		return null;
+	}
+
+	@Override
+	String credit(long accountNumber, BigDecimal amount) {
+		Integer slot = slotById.get(accountNumber);
+		if (slot == null) {
+			return accountNotFound(accountNumber).getMessage();
+		}
+		long packedAmount;
+		try {
+			packedAmount = pack(amount);
+		} catch (ArithmeticException e) {
+			return "Amount " + amount + " does not fit the ledger: " + e.getMessage();
+		}
+		enter();
+		try {
+			return credit(slot, packedAmount);
+		} finally {
+			exit();
+		}
+	}
+
+	@Override
+	public CompletionStage<Object> exportAccounts() {
+		return call(() -> {
+			synchronized (exportLock) {
+				exporting = true;
+				try {
+					while (inFlight.sum() > 0) {
+						Thread.yield();
+					}
+					List<Account> accounts = new ArrayList<>(slotById.size());
+					slotById.forEach(
+							(id, slot) -> accounts.add(new Account(id, unpack(balances.get(slot)), currencies[slot])));
+					return new AccountsExported(accounts);
+				} finally {
+					exporting = false;
+				}
+			}
+		});
+	}
+
+	@Override
+	public CompletionStage<Object> restoreAccounts(List<Account> accounts) {
+		return call(() -> {
+			for (Account account : accounts) {
+				if (!slotById.containsKey(account.getAccountNumber())) {
+					Object created = createAccount(account, 1).toCompletableFuture().join();
+					if (created instanceof Failure) {
+						return created;
+					}
+				}
+			}
+			return new Success();
+		});
+	}
+
+}
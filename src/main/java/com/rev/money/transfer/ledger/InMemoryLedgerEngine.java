@@ -0,0 +1,278 @@
+package com.rev.money.transfer.ledger;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.CashDeposit;
+import com.rev.money.transfer.model.FxRates;
+import com.rev.money.transfer.model.MessageStatus.Failure;
+import com.rev.money.transfer.model.MessageStatus.Success;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.model.VelocityLimits;
+import com.rev.money.transfer.service.AccountService.AccountsListed;
+import com.rev.money.transfer.service.TransactionService.TransactionRolledBack;
+import com.rev.money.transfer.service.TransactionService.TransactionsExported;
+import com.rev.money.transfer.store.FxRateTable;
+import com.rev.money.transfer.util.Constant;
+
+import akka.actor.ActorRef;
+
+/**
+ * Transactions of the engines keeping the whole ledger in this JVM: recorded
+ * in a map, checked for duplicates and settled the way the transaction
+ * service does it. Subclasses only move the money between balances and keep
+ * {@link #accountNumbers} in step with their accounts, so accounts are listed
+ * page by page in order without an export.
+ */
+abstract class InMemoryLedgerEngine implements LedgerEngine {
+
+	// Replied to transfers and deposits while paused, before they change anything
+	static final Failure TRANSFERS_PAUSED = new Failure("Transfers are paused while a snapshot is taken, try again");
+
+	private final Map<Long, Transaction> transactionsById = new ConcurrentHashMap<>();
+	// Numbers of the accounts, in order, added once created and removed once deleted
+	final NavigableSet<Long> accountNumbers = new ConcurrentSkipListSet<>();
+	// Transfers and deposits being recorded, none left once paused
+	private final LongAdder recording = new LongAdder();
+	private volatile boolean paused;
+	private final AtomicLong generatedIdSequence = new AtomicLong(Constant.GENERATED_TRANSACTION_ID_BASE);
+	private final Executor executor;
+	final FxRateTable fxRates;
+
+	InMemoryLedgerEngine(Executor executor, FxRateTable fxRates) {
+		this.executor = executor;
+		this.fxRates = fxRates;
+	}
+
+	/**
+	 * Moves the amount between the accounts, all or nothing, converted from its
+	 * currency to the currency of each account.
+	 *
+	 * @param currency currency of the amount, the one of the remitter when null
+	 * @return the reason the amount could not be moved, null once it is moved
+	 */
+	abstract String move(long remitter, long beneficiary, BigDecimal amount, String currency);
+
+	/**
+	 * @return the reason the amount could not be deposited, null once it is
+	 */
+	abstract String credit(long accountNumber, BigDecimal amount);
+
+	/**
+	 * @return the account with its balance, null if there is none
+	 */
+	abstract Account accountOf(long accountNumber);
+
+	CompletionStage<Object> call(Supplier<Object> action) {
+		return CompletableFuture.supplyAsync(action, executor);
+	}
+
+	static Failure accountNotFound(long accountNumber) {
+		return new Failure("Account " + accountNumber + " not found");
+	}
+
+	static Failure accountAlreadyExists(long accountNumber) {
+		return new Failure("Account " + accountNumber + " already exists");
+	}
+
+	/**
+	 * Rates to convert transfers with, the ones in use by default.
+	 */
+	FxRates rates() {
+		return fxRates.current();
+	}
+
+	static Failure unknownCurrency(String currency) {
+		return new Failure("Unknown currency " + currency);
+	}
+
+	static String noFxRate(String from, String to) {
+		return "No FX rate from " + from + " to " + to;
+	}
+
+	static String insufficientBalance(BigDecimal amount, Object account) {
+		return "Insufficient balance to withdraw " + amount + " from account " + account;
+	}
+
+	/**
+	 * Velocity limits are checked by the account actors only.
+	 */
+	@Override
+	public CompletionStage<Object> getAccountAsOf(long accountNumber, long timestamp) {
+		return CompletableFuture.completedFuture(new Failure("Balance history needs the actor ledger engine"));
+	}
+
+	@Override
+	public CompletionStage<Object> subscribeBalance(long accountNumber, ActorRef subscriber) {
+		return CompletableFuture.completedFuture(new Failure("Balance events need the actor ledger engine"));
+	}
+
+	@Override
+	public CompletionStage<Object> setLimits(long accountNumber, VelocityLimits limits) {
+		return CompletableFuture.completedFuture(new Failure("Limits need the actor ledger engine"));
+	}
+
+	@Override
+	public CompletionStage<Object> getLimits(long accountNumber) {
+		return CompletableFuture.completedFuture(new Failure("Limits need the actor ledger engine"));
+	}
+
+	@Override
+	public CompletionStage<Object> listAccounts(long after, int limit) {
+		return call(() -> listed(after, limit));
+	}
+
+	/**
+	 * Reads the accounts of the page one by one, not at a consistent cut, and
+	 * skips those deleted since their number was read.
+	 */
+	Object listed(long after, int limit) {
+		List<Account> accounts = new ArrayList<>(Math.min(limit, 1_024));
+		for (Iterator<Long> numbers = accountNumbers.tailSet(after, false).iterator(); numbers.hasNext()
+				&& accounts.size() < limit;) {
+			Account account = accountOf(numbers.next());
+			if (account != null) {
+				accounts.add(account);
+			}
+		}
+		return new AccountsListed(accounts);
+	}
+
+	@Override
+	public CompletionStage<Object> transfer(Transaction transaction) {
+		return call(() -> recordTransfer(transaction));
+	}
+
+	@Override
+	public CompletionStage<Object> deposit(CashDeposit cashDeposit) {
+		return call(() -> recordDeposit(cashDeposit));
+	}
+
+	/**
+	 * Records the transaction, moves its amount and settles it on the calling
+	 * thread.
+	 */
+	Object recordTransfer(Transaction transaction) {
+		recording.increment();
+		try {
+			if (paused) {
+				return TRANSFERS_PAUSED;
+			}
+			Transaction newTransaction = transaction.getId() == null ? withGeneratedId(transaction) : transaction;
+			if (transactionsById.putIfAbsent(newTransaction.getId(), newTransaction) != null) {
+				return transactionAlreadyExists(newTransaction.getId());
+			}
+			return settle(newTransaction,
+					move(newTransaction.getRemitterAccountId(), newTransaction.getBeneficieryAccountId(),
+							newTransaction.getAmount(), newTransaction.getCurrency()));
+		} finally {
+			recording.decrement();
+		}
+	}
+
+	Object recordDeposit(CashDeposit cashDeposit) {
+		recording.increment();
+		try {
+			if (paused) {
+				return TRANSFERS_PAUSED;
+			}
+			long id = cashDeposit.getId();
+			Transaction transaction = new Transaction(id, cashDeposit.getAccountNumber(), null,
+					cashDeposit.getAmount(), TransactionStatus.NEW, "Cash Deposit");
+			if (transactionsById.putIfAbsent(id, transaction) != null) {
+				return transactionAlreadyExists(id);
+			}
+			return settle(transaction, credit(cashDeposit.getAccountNumber(), cashDeposit.getAmount()));
+		} finally {
+			recording.decrement();
+		}
+	}
+
+	/**
+	 * A transfer counts itself as recording before it checks the flag, so once
+	 * the flag is set and none is recording, none will until resumed.
+	 */
+	@Override
+	public CompletionStage<Object> pauseTransfers() {
+		paused = true;
+		return call(() -> {
+			while (recording.sum() != 0) {
+				Thread.yield();
+			}
+			return new Success();
+		});
+	}
+
+	@Override
+	public CompletionStage<Object> resumeTransfers() {
+		paused = false;
+		return CompletableFuture.completedFuture(new Success());
+	}
+
+	private Transaction withGeneratedId(Transaction transaction) {
+		long id;
+		do {
+			id = generatedIdSequence.incrementAndGet();
+		} while (transactionsById.containsKey(id));
+		return transaction.withId(id);
+	}
+
+	private static Failure transactionAlreadyExists(long id) {
+		return new Failure("Transaction " + id + " already been processed");
+	}
+
+	/**
+	 * Records the outcome of the transaction and builds the reply the transaction
+	 * service would give.
+	 */
+	private Object settle(Transaction transaction, String failure) {
+		Transaction settled = transaction
+				.withStatus(failure == null ? TransactionStatus.SUCCESS : TransactionStatus.FAIL);
+		transactionsById.put(settled.getId(), settled);
+		return failure == null ? settled : new TransactionRolledBack(settled, failure);
+	}
+
+	@Override
+	public CompletionStage<Object> getTransaction(long id) {
+		return call(() -> findTransaction(id));
+	}
+
+	@Override
+	public CompletionStage<Object> exportTransactions() {
+		return call(this::transactionsExported);
+	}
+
+	@Override
+	public CompletionStage<Object> restoreTransactions(List<Transaction> transactions) {
+		return call(() -> addTransactions(transactions));
+	}
+
+	Object findTransaction(long id) {
+		Transaction transaction = transactionsById.get(id);
+		return transaction == null ? new Failure("Transaction " + id + " does not exist") : transaction;
+	}
+
+	Object transactionsExported() {
+		return new TransactionsExported(new ArrayList<>(transactionsById.values()));
+	}
+
+	Object addTransactions(List<Transaction> transactions) {
+		transactions.forEach(transaction -> transactionsById.putIfAbsent(transaction.getId(), transaction));
+		return new Success();
+	}
+
+}
@@ -0,0 +1,110 @@
+package com.rev.money.transfer.ledger;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.Collectors;
+
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.CashDeposit;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.model.VelocityLimits;
+import com.rev.money.transfer.service.AccountService;
+
+import akka.actor.ActorRef;
+
+/**
+ * Accounts, balances and the transactions moving money between them, behind
+ * one interface so the execution model can be chosen by configuration.
+ *
+ * Every call completes with the reply the actor services give to the same
+ * request, e.g. an {@link Account}, a {@link Transaction}, a
+ * {@link com.rev.money.transfer.service.TransactionService.TransactionRolledBack}
+ * or a {@link com.rev.money.transfer.model.MessageStatus.Failure}, so callers
+ * handle the replies of every engine the same way.
+ */
+public interface LedgerEngine {
+
+	/**
+	 * @param stripes number of stripes to spread a hot account over, engines
+	 *                without contention on a single account may ignore it
+	 */
+	CompletionStage<Object> createAccount(Account account, int stripes);
+
+	CompletionStage<Object> getAccount(long accountNumber);
+
+	/**
+	 * The account with the balance it had at the given time, in milliseconds
+	 * since the epoch.
+	 */
+	CompletionStage<Object> getAccountAsOf(long accountNumber, long timestamp);
+
+	CompletionStage<Object> deleteAccount(long accountNumber);
+
+	/**
+	 * At most {@code limit} accounts numbered after {@code after}, in account
+	 * number order, replied with an
+	 * {@link com.rev.money.transfer.service.AccountService.AccountsListed}. Read
+	 * from an export of every account unless the engine keeps them in order.
+	 */
+	default CompletionStage<Object> listAccounts(long after, int limit) {
+		return exportAccounts().thenApply(reply -> {
+			if (!(reply instanceof AccountService.AccountsExported)) {
+				return reply;
+			}
+			return new AccountService.AccountsListed(((AccountService.AccountsExported) reply).getAccounts().stream()
+					.filter(account -> account.getAccountNumber() > after)
+					.sorted(Comparator.comparing(Account::getAccountNumber)).limit(limit)
+					.collect(Collectors.toList()));
+		});
+	}
+
+	/**
+	 * Tells the subscriber the account, then the account with every new
+	 * balance until the subscriber stops.
+	 */
+	CompletionStage<Object> subscribeBalance(long accountNumber, ActorRef subscriber);
+
+	/**
+	 * Replaces the velocity limits checked on every debit of the account.
+	 */
+	CompletionStage<Object> setLimits(long accountNumber, VelocityLimits limits);
+
+	CompletionStage<Object> getLimits(long accountNumber);
+
+	/**
+	 * Moves the amount from the remitter to the beneficiary. Transactions without
+	 * an id get a generated one.
+	 */
+	CompletionStage<Object> transfer(Transaction transaction);
+
+	CompletionStage<Object> deposit(CashDeposit cashDeposit);
+
+	CompletionStage<Object> getTransaction(long id);
+
+	/**
+	 * Every account at one consistent cut, no money in between two accounts.
+	 */
+	CompletionStage<Object> exportAccounts();
+
+	CompletionStage<Object> exportTransactions();
+
+	/**
+	 * Turns down new transfers and deposits until resumed, completes once none
+	 * is in flight, so what is exported in between is one cut.
+	 */
+	CompletionStage<Object> pauseTransfers();
+
+	CompletionStage<Object> resumeTransfers();
+
+	/**
+	 * Adds the accounts that do not exist yet.
+	 */
+	CompletionStage<Object> restoreAccounts(List<Account> accounts);
+
+	/**
+	 * Adds the transactions that do not exist yet.
+	 */
+	CompletionStage<Object> restoreTransactions(List<Transaction> transactions);
+
+}
@@ -0,0 +1,422 @@
+package com.rev.money.transfer.ledger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.rev.money.transfer.actor.AccountActor.DeleteAccount;
+import com.rev.money.transfer.actor.AccountActor.GetAccount;
+import com.rev.money.transfer.actor.TransactionActor.GetTransaction;
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.CashDeposit;
+import com.rev.money.transfer.model.FxRates;
+import com.rev.money.transfer.model.MessageStatus.Failure;
+import com.rev.money.transfer.model.MessageStatus.Success;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.service.AccountService.AccountsExported;
+import com.rev.money.transfer.service.AccountService.ExportAccounts;
+import com.rev.money.transfer.service.AccountService.ListAccounts;
+import com.rev.money.transfer.service.AccountService.RestoreAccounts;
+import com.rev.money.transfer.service.TransactionService.ExportTransactions;
+import com.rev.money.transfer.service.TransactionService.RestoreTransactions;
+import com.rev.money.transfer.store.FxRateTable;
+import com.rev.money.transfer.store.LedgerJournal;
+
+/**
+ * Single writer ledger. Callers publish every call as a command into a
+ * preallocated ring; one logic thread takes the commands in ring order and
+ * applies them to plain maps nobody else touches, so nothing is locked and no
+ * balance is ever shared between threads. A second thread follows it through
+ * the ring: it journals the commands changing the ledger, flushes the journal
+ * to the disk once per batch and only then completes the replies of the batch.
+ * If the journal fails, the ledger in memory is ahead of it and can no longer
+ * be trusted: the engine stops, the batch and every later call fail, and the
+ * ledger comes back from the journal on restart.
+ *
+ * The order of the ring is the only order there is, so replaying the journal
+ * through the same logic rebuilds the ledger exactly, generated ids included.
+ * The logic thread picks up new FX rates between two transfers and the
+ * journal records them right before the first transfer converted with them.
+ * A full ring holds callers back until the journal catches up.
+ */
+public class RingLedgerEngine extends InMemoryLedgerEngine implements Closeable {
+
+	private static final int SPINS = 100;
+	private static final int YIELDS = 200;
+	private static final long MAX_PARK_NANOS = 1_000_000L;
+	// Commands applied before the replier hears of them, so it starts early
+	private static final int MAX_BATCH = 1_024;
+
+	private final Object[] commands;
+	private final Object[] results;
+	private final CompletableFuture<Object>[] replies;
+	// Rates the logic thread switched to before applying the command of a slot
+	private final FxRates[] rateChanges;
+	// Sequence published in each slot, so the logic thread knows it is filled
+	private final AtomicLongArray published;
+	private final int mask;
+
+	private final AtomicLong claimed = new AtomicLong(-1);
+	// Last sequence applied by the logic thread and last one replied to
+	private final AtomicLong applied = new AtomicLong(-1);
+	private final AtomicLong replied = new AtomicLong(-1);
+
+	private final Map<Long, Account> accountsById = new HashMap<>();
+	// Rates transfers are converted with, only touched by the logic thread
+	private FxRates rates = FxRates.BASE_ONLY;
+	private final LedgerJournal journal;
+	private final Thread logic;
+	private final Thread replier;
+	private volatile boolean running = true;
+	// First journal failure, the threads keep running until closed but only to
+	// fail the calls published meanwhile
+	private volatile RuntimeException journalFailure;
+
+	/**
+	 * @param size slots of the ring, rounded up to a power of two
+	 */
+	@SuppressWarnings("unchecked")
+	public RingLedgerEngine(int size, LedgerJournal journal, FxRateTable fxRates) {
+		super(Runnable::run, fxRates);
+		int capacity = size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+		this.commands = new Object[capacity];
+		this.results = new Object[capacity];
+		this.replies = (CompletableFuture<Object>[]) new CompletableFuture<?>[capacity];
+		this.rateChanges = new FxRates[capacity];
+		this.published = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			published.set(i, -1);
+		}
+		this.mask = capacity - 1;
+		this.journal = journal;
+		journal.load(this::apply);
+		this.logic = new Thread(this::applyCommands, "ledger-logic");
+		this.replier = new Thread(this::replyToCommands, "ledger-journal");
+		logic.setDaemon(true);
+		replier.setDaemon(true);
+		logic.start();
+		replier.start();
+	}
+
+	public RingLedgerEngine(int size, LedgerJournal journal) {
+		this(size, journal, new FxRateTable());
+	}
+
+	public RingLedgerEngine(int size) {
+		this(size, LedgerJournal.inMemory());
+	}
+
+	/**
+	 * Busy spins first, then yields, then parks for longer and longer, so an
+	 * idle engine does not hold on to a core.
+	 */
+	private static void idle(int attempt) {
+		if (attempt < SPINS) {
+			Thread.onSpinWait();
+		} else if (attempt < YIELDS) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, 1_000L << Math.min(attempt - YIELDS, 10)));
+		}
+	}
+
+	private CompletionStage<Object> publish(Object command) {
+		CompletableFuture<Object> reply = new CompletableFuture<>();
+		if (journalFailure != null) {
+			reply.completeExceptionally(
+					new IllegalStateException("Ledger stopped on a journal failure", journalFailure));
+			return reply;
+		}
+		if (!running) {
+			reply.completeExceptionally(new IllegalStateException("Ledger is closed"));
+			return reply;
+		}
+		long sequence = claimed.incrementAndGet();
+		for (int attempt = 0; sequence - commands.length > replied.get(); attempt++) {
+			idle(attempt);
+		}
+		int slot = (int) sequence & mask;
+		commands[slot] = command;
+		replies[slot] = reply;
+		published.lazySet(slot, sequence);
+		return reply;
+	}
+
+	private void applyCommands() {
+		long next = 0;
+		int attempt = 0;
+		while (running || published.get((int) next & mask) == next) {
+			int slot = (int) next & mask;
+			if (published.get(slot) != next) {
+				idle(attempt++);
+				continue;
+			}
+			attempt = 0;
+			// Applies what is published in a row before telling the replier
+			long end = next + MAX_BATCH;
+			do {
+				// Published before the engine stopped, failed by the replier
+				if (journalFailure == null) {
+					if (commands[slot] instanceof Transaction) {
+						pickUpRates(slot);
+					}
+					results[slot] = applySafely(commands[slot]);
+				}
+				slot = (int) ++next & mask;
+			} while (next < end && published.get(slot) == next);
+			applied.lazySet(next - 1);
+		}
+	}
+
+	private void pickUpRates(int slot) {
+		FxRates current = fxRates.current();
+		if (current != rates) {
+			rates = current;
+			rateChanges[slot] = current;
+		}
+	}
+
+	@Override
+	FxRates rates() {
+		return rates;
+	}
+
+	private void replyToCommands() {
+		long next = 0;
+		int attempt = 0;
+		while (logic.isAlive() || next <= applied.get()) {
+			long last = applied.get();
+			if (last < next) {
+				idle(attempt++);
+				continue;
+			}
+			attempt = 0;
+			RuntimeException failure = journalFailure;
+			if (failure == null) {
+				try {
+					journal(next, last);
+				} catch (RuntimeException e) {
+					failure = e;
+					journalFailure = e;
+				}
+			}
+			for (long sequence = next; sequence <= last; sequence++) {
+				int slot = (int) sequence & mask;
+				CompletableFuture<Object> reply = replies[slot];
+				Object result = results[slot];
+				commands[slot] = null;
+				results[slot] = null;
+				rateChanges[slot] = null;
+				replies[slot] = null;
+				if (failure == null) {
+					reply.complete(result);
+				} else {
+					reply.completeExceptionally(failure);
+				}
+			}
+			next = last + 1;
+			replied.lazySet(last);
+		}
+	}
+
+	private void journal(long first, long last) {
+		for (long sequence = first; sequence <= last; sequence++) {
+			int slot = (int) sequence & mask;
+			if (rateChanges[slot] != null) {
+				journal.append(rateChanges[slot]);
+			}
+			// Turned down before changing anything, so not replayed either
+			if (results[slot] != TRANSFERS_PAUSED) {
+				journal.append(commands[slot]);
+			}
+		}
+		journal.flush();
+	}
+
+	private Object applySafely(Object command) {
+		try {
+			return apply(command);
+		} catch (RuntimeException e) {
+			return new Failure("Ledger call failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Applies one command on the logic thread, or while replaying the journal.
+	 */
+	private Object apply(Object command) {
+		if (command instanceof Transaction) {
+			return recordTransfer((Transaction) command);
+		} else if (command instanceof CashDeposit) {
+			return recordDeposit((CashDeposit) command);
+		} else if (command instanceof GetAccount) {
+			long id = ((GetAccount) command).getAccountNumber();
+			Account account = accountsById.get(id);
+			return account == null ? accountNotFound(id) : account;
+		} else if (command instanceof Account) {
+			Account account = (Account) command;
+			long id = account.getAccountNumber();
+			if (FxRates.currencyCode(account.getCurrency()) == null) {
+				return unknownCurrency(account.getCurrency());
+			}
+			if (accountsById.putIfAbsent(id, account) != null) {
+				return accountAlreadyExists(id);
+			}
+			accountNumbers.add(id);
+			return new Success();
+		} else if (command instanceof DeleteAccount) {
+			long id = ((DeleteAccount) command).getAccountNumber();
+			if (accountsById.remove(id) == null) {
+				return accountNotFound(id);
+			}
+			accountNumbers.remove(id);
+			return new Success();
+		} else if (command instanceof ListAccounts) {
+			return listed(((ListAccounts) command).getAfter(), ((ListAccounts) command).getLimit());
+		} else if (command instanceof GetTransaction) {
+			return findTransaction(((GetTransaction) command).getId());
+		} else if (command instanceof ExportAccounts) {
+			return new AccountsExported(new ArrayList<>(accountsById.values()));
+		} else if (command instanceof ExportTransactions) {
+			return transactionsExported();
+		} else if (command instanceof RestoreAccounts) {
+			for (Account account : ((RestoreAccounts) command).getAccounts()) {
+				if (accountsById.putIfAbsent(account.getAccountNumber(), account) == null) {
+					accountNumbers.add(account.getAccountNumber());
+				}
+			}
+			return new Success();
+		} else if (command instanceof RestoreTransactions) {
+			return addTransactions(((RestoreTransactions) command).getTransactions());
+		} else if (command instanceof FxRates) {
+			rates = (FxRates) command;
+			return new Success();
+		}
+		throw new IllegalArgumentException("Unknown ledger command " + command);
+	}
+
+	@Override
+	String move(long remitter, long beneficiary, BigDecimal amount, String currency) {
+		Account from = accountsById.get(remitter);
+		if (from == null) {
+			return accountNotFound(remitter).getMessage();
+		}
+		Account to = accountsById.get(beneficiary);
+		if (to == null) {
+			return accountNotFound(beneficiary).getMessage();
+		}
+		String amountCurrency = currency == null ? from.getCurrency() : currency;
+		BigDecimal debit = rates.convert(amount, amountCurrency, from.getCurrency());
+		BigDecimal credit = rates.convert(amount, amountCurrency, to.getCurrency());
+		if (debit == null || credit == null) {
+			return noFxRate(amountCurrency, debit == null ? from.getCurrency() : to.getCurrency());
+		}
+		if (debit.compareTo(from.getBalance()) > 0) {
+			return insufficientBalance(debit, from);
+		}
+		accountsById.put(remitter, from.withBalance(from.getBalance().subtract(debit)));
+		to = accountsById.get(beneficiary);
+		accountsById.put(beneficiary, to.withBalance(to.getBalance().add(credit)));
+		return null;
+	}
+
+	@Override
+	Account accountOf(long accountNumber) {
+		return accountsById.get(accountNumber);
+	}
+
+	@Override
+	String credit(long accountNumber, BigDecimal amount) {
+		Account account = accountsById.get(accountNumber);
+		if (account == null) {
+			return accountNotFound(accountNumber).getMessage();
+		}
+		accountsById.put(accountNumber, account.withBalance(account.getBalance().add(amount)));
+		return null;
+	}
+
+	@Override
+	public CompletionStage<Object> createAccount(Account account, int stripes) {
+		return publish(account);
+	}
+
+	@Override
+	public CompletionStage<Object> getAccount(long accountNumber) {
+		return publish(new GetAccount(accountNumber));
+	}
+
+	@Override
+	public CompletionStage<Object> deleteAccount(long accountNumber) {
+		return publish(new DeleteAccount(accountNumber));
+	}
+
+	@Override
+	public CompletionStage<Object> listAccounts(long after, int limit) {
+		return publish(new ListAccounts(after, limit));
+	}
+
+	@Override
+	public CompletionStage<Object> transfer(Transaction transaction) {
+		return publish(transaction);
+	}
+
+	@Override
+	public CompletionStage<Object> deposit(CashDeposit cashDeposit) {
+		return publish(cashDeposit);
+	}
+
+	@Override
+	public CompletionStage<Object> getTransaction(long id) {
+		return publish(new GetTransaction(id));
+	}
+
+	@Override
+	public CompletionStage<Object> exportAccounts() {
+		return publish(new ExportAccounts());
+	}
+
+	@Override
+	public CompletionStage<Object> exportTransactions() {
+		return publish(new ExportTransactions());
+	}
+
+	@Override
+	public CompletionStage<Object> restoreAccounts(List<Account> accounts) {
+		return publish(new RestoreAccounts(accounts));
+	}
+
+	@Override
+	public CompletionStage<Object> restoreTransactions(List<Transaction> transactions) {
+		return publish(new RestoreTransactions(transactions));
+	}
+
+	/**
+	 * Applies and replies to the commands published so far, then stops both
+	 * threads and closes the journal, or abandons it if it failed.
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		try {
+			logic.join();
+			replier.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (journalFailure == null) {
+			journal.close();
+		} else {
+			journal.abandon();
+		}
+	}
+
+}
@@ -0,0 +1,239 @@
+package com.rev.money.transfer.ledger;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.FxRates;
+import com.rev.money.transfer.model.MessageStatus.Success;
+import com.rev.money.transfer.service.AccountService.AccountsExported;
+import com.rev.money.transfer.store.FxRateTable;
+
+/**
+ * Synchronous ledger: balances live in a map and every account is guarded by
+ * one of a fixed number of locks, picked by its account number. A transfer
+ * takes the locks of both accounts in stripe order, so two opposite transfers
+ * can not deadlock, and applies the withdraw and the deposit under them: no
+ * balance is ever seen half transferred and nothing needs rolling back.
+ *
+ * Calls run on a virtual thread each on JDKs that have them and on a bounded
+ * pool of daemon threads otherwise, never on the calling thread, which may be
+ * a dispatcher thread of the routes; locks are held for a few map operations
+ * only.
+ */
+public class StripedLedgerEngine extends InMemoryLedgerEngine {
+
+	// Calls waiting for a thread of the pool before the caller runs them itself
+	private static final int POOL_QUEUE_SIZE = 65_536;
+	// Threads of the pool are let go after this long idle
+	private static final long POOL_KEEP_ALIVE_SECONDS = 60;
+
+	private final ReentrantLock[] locks;
+	private final Map<Long, Account> accountsById = new ConcurrentHashMap<>();
+
+	public StripedLedgerEngine(int stripes, Executor executor, FxRateTable fxRates) {
+		super(executor, fxRates);
+		int size = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+		this.locks = new ReentrantLock[size];
+		for (int i = 0; i < size; i++) {
+			locks[i] = new ReentrantLock();
+		}
+	}
+
+	public StripedLedgerEngine(int stripes, FxRateTable fxRates) {
+		this(stripes, defaultExecutor(), fxRates);
+	}
+
+	public StripedLedgerEngine(int stripes) {
+		this(stripes, new FxRateTable());
+	}
+
+	/**
+	 * A virtual thread per call where the JDK has them, otherwise a pool of one
+	 * daemon thread per processor: calls hold a lock for a few map operations and
+	 * never block, so more threads would only contend. Past
+	 * {@value #POOL_QUEUE_SIZE} calls waiting, the caller runs the call itself,
+	 * which slows callers down instead of queueing without bound.
+	 */
+	public static Executor defaultExecutor() {
+		try {
+			return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return boundedPool(Runtime.getRuntime().availableProcessors());
+		}
+	}
+
+	static ThreadPoolExecutor boundedPool(int threads) {
+		AtomicInteger created = new AtomicInteger();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, POOL_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(POOL_QUEUE_SIZE), runnable -> {
+					Thread thread = new Thread(runnable, "striped-ledger-" + created.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
+		// An engine no longer used does not keep its threads
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	private int stripe(long accountNumber) {
+		return Long.hashCode(accountNumber * 0x9E3779B97F4A7C15L) & (locks.length - 1);
+	}
+
+	private <T> T locked(long accountNumber, Supplier<T> action) {
+		ReentrantLock lock = locks[stripe(accountNumber)];
+		lock.lock();
+		try {
+			return action.get();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Runs the action holding the locks of both accounts, taken in stripe order.
+	 */
+	private <T> T locked(long first, long second, Supplier<T> action) {
+		int firstStripe = stripe(first);
+		int secondStripe = stripe(second);
+		if (firstStripe == secondStripe) {
+			return locked(first, action);
+		}
+		ReentrantLock outer = locks[Math.min(firstStripe, secondStripe)];
+		ReentrantLock inner = locks[Math.max(firstStripe, secondStripe)];
+		outer.lock();
+		try {
+			inner.lock();
+			try {
+				return action.get();
+			} finally {
+				inner.unlock();
+			}
+		} finally {
+			outer.unlock();
+		}
+	}
+
+	private <T> T lockedAll(Supplier<T> action) {
+		int locked = 0;
+		try {
+			for (ReentrantLock lock : locks) {
+				lock.lock();
+				locked++;
+			}
+			return action.get();
+		} finally {
+			for (int i = locked - 1; i >= 0; i--) {
+				locks[i].unlock();
+			}
+		}
+	}
+
+	@Override
+	public CompletionStage<Object> createAccount(Account account, int stripes) {
+		long id = account.getAccountNumber();
+		if (FxRates.currencyCode(account.getCurrency()) == null) {
+			return call(() -> unknownCurrency(account.getCurrency()));
+		}
+		return call(() -> locked(id, () -> {
+			if (accountsById.putIfAbsent(id, account) != null) {
+				return accountAlreadyExists(id);
+			}
+			accountNumbers.add(id);
+			return new Success();
+		}));
+	}
+
+	@Override
+	public CompletionStage<Object> getAccount(long accountNumber) {
+		return call(() -> {
+			Account account = accountsById.get(accountNumber);
+			return account == null ? accountNotFound(accountNumber) : account;
+		});
+	}
+
+	@Override
+	Account accountOf(long accountNumber) {
+		return accountsById.get(accountNumber);
+	}
+
+	@Override
+	public CompletionStage<Object> deleteAccount(long accountNumber) {
+		return call(() -> locked(accountNumber, () -> {
+			if (accountsById.remove(accountNumber) == null) {
+				return accountNotFound(accountNumber);
+			}
+			accountNumbers.remove(accountNumber);
+			return new Success();
+		}));
+	}
+
+	@Override
+	String move(long remitter, long beneficiary, BigDecimal amount, String currency) {
+		FxRates rates = rates();
+		return locked(remitter, beneficiary, () -> {
+			Account from = accountsById.get(remitter);
+			if (from == null) {
+				return accountNotFound(remitter).getMessage();
+			}
+			Account to = accountsById.get(beneficiary);
+			if (to == null) {
+				return accountNotFound(beneficiary).getMessage();
+			}
+			String amountCurrency = currency == null ? from.getCurrency() : currency;
+			BigDecimal debit = rates.convert(amount, amountCurrency, from.getCurrency());
+			BigDecimal credit = rates.convert(amount, amountCurrency, to.getCurrency());
+			if (debit == null || credit == null) {
+				return noFxRate(amountCurrency, debit == null ? from.getCurrency() : to.getCurrency());
+			}
+			if (debit.compareTo(from.getBalance()) > 0) {
+				return insufficientBalance(debit, from);
+			}
+			accountsById.put(remitter, from.withBalance(from.getBalance().subtract(debit)));
+			to = accountsById.get(beneficiary);
+			accountsById.put(beneficiary, to.withBalance(to.getBalance().add(credit)));
+			return null;
+		});
+	}
+
+	@Override
+	String credit(long accountNumber, BigDecimal amount) {
+		return locked(accountNumber, () -> {
+			Account account = accountsById.get(accountNumber);
+			if (account == null) {
+				return accountNotFound(accountNumber).getMessage();
+			}
+			accountsById.put(accountNumber, account.withBalance(account.getBalance().add(amount)));
+			return null;
+		});
+	}
+
+	@Override
+	public CompletionStage<Object> exportAccounts() {
+		return call(() -> lockedAll(() -> new AccountsExported(new ArrayList<>(accountsById.values()))));
+	}
+
+	@Override
+	public CompletionStage<Object> restoreAccounts(List<Account> accounts) {
+		return call(() -> {
+			for (Account account : accounts) {
+				long id = account.getAccountNumber();
+				locked(id, () -> accountsById.putIfAbsent(id, account) == null && accountNumbers.add(id));
+			}
+			return new Success();
+		});
+	}
+
+}
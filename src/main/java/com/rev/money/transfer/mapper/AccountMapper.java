@@ -14,7 +14,7 @@ public class AccountMapper {
 
 		@Override
 		public AccountDTO apply(Account account) {
-			return new AccountDTO(account.getAccountNumber(), account.getBalance());
+			return new AccountDTO(account.getAccountNumber(), account.getBalance(), account.getCurrency());
 		}
 	}
 
@@ -22,7 +22,8 @@ public class AccountMapper {
 
 		@Override
 		public Account apply(AccountDTO accountDto) {
-			return new Account(accountDto.getAccountNumber(), accountDto.getBalance());
+			return accountDto.getCurrency() == null ? new Account(accountDto.getAccountNumber(), accountDto.getBalance())
+					: new Account(accountDto.getAccountNumber(), accountDto.getBalance(), accountDto.getCurrency());
 		}
 	}
 }
@@ -0,0 +1,45 @@
+package com.rev.money.transfer.mapper;
+
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import com.rev.money.transfer.dto.PayoutDTO;
+import com.rev.money.transfer.dto.TransactionDTO;
+import com.rev.money.transfer.model.Payout;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.service.TransactionService.PayoutCompleted;
+
+import lombok.experimental.UtilityClass;
+
+@UtilityClass
+public class PayoutMapper {
+
+	public static class PayoutCompletedToDtoMapper implements Function<PayoutCompleted, PayoutDTO> {
+
+		@Override
+		public PayoutDTO apply(PayoutCompleted payout) {
+			TransactionMapper.TransactionToDtoMapper legMapper = new TransactionMapper.TransactionToDtoMapper();
+			return new PayoutDTO(payout.getRemitterAccountId(),
+					payout.getLegs().stream().map(legMapper).collect(Collectors.toList()), payout.getFailures());
+		}
+
+	}
+
+	public static class PayoutDtoToModelMapper implements Function<PayoutDTO, Payout> {
+
+		@Override
+		public Payout apply(PayoutDTO payoutDto) {
+			Long remitter = payoutDto.getRemitterAccountId();
+			return new Payout(remitter, payoutDto.getLegs().stream().map(leg -> toLeg(remitter, leg))
+					.collect(Collectors.toList()));
+		}
+
+		private static Transaction toLeg(Long remitter, TransactionDTO leg) {
+			return new Transaction(leg.getId(), remitter, leg.getBeneficieryAccountId(), leg.getAmount(),
+					TransactionStatus.NEW, leg.getRemarks());
+		}
+
+	}
+
+}
@@ -0,0 +1,36 @@
+package com.rev.money.transfer.mapper;
+
+import java.util.function.Function;
+
+import com.rev.money.transfer.dto.ScheduledTransferDTO;
+import com.rev.money.transfer.model.ScheduledTransfer;
+
+import lombok.experimental.UtilityClass;
+
+@UtilityClass
+public class ScheduledTransferMapper {
+
+	public static class ScheduledTransferToDtoMapper implements Function<ScheduledTransfer, ScheduledTransferDTO> {
+
+		@Override
+		public ScheduledTransferDTO apply(ScheduledTransfer schedule) {
+			return new ScheduledTransferDTO(schedule.getId(), schedule.getRemitterAccountId(),
+					schedule.getBeneficieryAccountId(), schedule.getAmount(), schedule.getNextExecution(),
+					schedule.getIntervalMillis(), schedule.getRemarks());
+		}
+
+	}
+
+	public static class ScheduledTransferDtoToModelMapper implements Function<ScheduledTransferDTO, ScheduledTransfer> {
+
+		@Override
+		public ScheduledTransfer apply(ScheduledTransferDTO scheduleDto) {
+			Long intervalMillis = scheduleDto.getIntervalMillis() == null ? 0L : scheduleDto.getIntervalMillis();
+			return new ScheduledTransfer(scheduleDto.getId(), scheduleDto.getRemitterAccountId(),
+					scheduleDto.getBeneficieryAccountId(), scheduleDto.getAmount(), scheduleDto.getNextExecution(),
+					intervalMillis, scheduleDto.getRemarks());
+		}
+
+	}
+
+}
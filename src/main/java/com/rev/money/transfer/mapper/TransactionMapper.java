@@ -16,7 +16,7 @@ public class TransactionMapper {
 		public TransactionDTO apply(Transaction transaction) {
 			return new TransactionDTO(transaction.getId(), transaction.getRemitterAccountId(),
 					transaction.getBeneficieryAccountId(), transaction.getAmount(), transaction.getStatus(),
-					transaction.getRemarks());
+					transaction.getRemarks(), transaction.getCurrency());
 		}
 
 	}
@@ -27,7 +27,7 @@ public class TransactionMapper {
 		public Transaction apply(TransactionDTO transactionDto) {
 			return new Transaction(transactionDto.getId(), transactionDto.getRemitterAccountId(),
 					transactionDto.getBeneficieryAccountId(), transactionDto.getAmount(), transactionDto.getStatus(),
-					transactionDto.getRemarks());
+					transactionDto.getRemarks(), transactionDto.getCurrency());
 		}
 
 	}
@@ -0,0 +1,31 @@
+package com.rev.money.transfer.mapper;
+
+import java.util.function.Function;
+
+import com.rev.money.transfer.dto.VelocityLimitsDTO;
+import com.rev.money.transfer.model.VelocityLimits;
+
+import lombok.experimental.UtilityClass;
+
+@UtilityClass
+public class VelocityLimitsMapper {
+
+	public static class VelocityLimitsToDtoMapper implements Function<VelocityLimits, VelocityLimitsDTO> {
+
+		@Override
+		public VelocityLimitsDTO apply(VelocityLimits limits) {
+			return new VelocityLimitsDTO(limits.getDailyDebitCap(), limits.getTransfersPerMinute(),
+					limits.getMaxSingleAmount());
+		}
+	}
+
+	public static class VelocityLimitsDtoToModelMapper implements Function<VelocityLimitsDTO, VelocityLimits> {
+
+		@Override
+		public VelocityLimits apply(VelocityLimitsDTO limitsDto) {
+			return new VelocityLimits(limitsDto.getDailyDebitCap(), limitsDto.getTransfersPerMinute(),
+					limitsDto.getMaxSingleAmount());
+		}
+	}
+
+}
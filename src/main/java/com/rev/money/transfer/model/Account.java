@@ -3,9 +3,13 @@ package com.rev.money.transfer.model;
 import java.io.Serializable;
 import java.math.BigDecimal;
 
+import com.rev.money.transfer.util.Constant;
+
+import lombok.AllArgsConstructor;
 import lombok.Value;
 
 @Value
+@AllArgsConstructor
 public class Account implements Serializable {
 
 	/**
@@ -15,5 +19,15 @@ public class Account implements Serializable {
 
 	private Long accountNumber;
 	private BigDecimal balance;
+	// ISO 4217 code of the balance
+	private String currency;
+
+	public Account(Long accountNumber, BigDecimal balance) {
+		this(accountNumber, balance, Constant.BASE_CURRENCY);
+	}
+
+	public Account withBalance(BigDecimal balance) {
+		return new Account(accountNumber, balance, currency);
+	}
 
 }
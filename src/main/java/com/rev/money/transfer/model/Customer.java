@@ -3,10 +3,14 @@ package com.rev.money.transfer.model;
 import java.io.Serializable;
 
 import lombok.Builder;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
+import lombok.ToString;
 
 @Getter
 @Builder
+@EqualsAndHashCode
+@ToString
 public class Customer implements Serializable {
 
 	/**
@@ -0,0 +1,134 @@
+package com.rev.money.transfer.model;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.rev.money.transfer.util.Constant;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Immutable set of FX rates, each the units of a currency one unit of the
+ * {@link Constant#BASE_CURRENCY base currency} buys. The rate between every
+ * pair of currencies is worked out once when the set is built, so a
+ * conversion is two map lookups and a multiplication rounded to the minor
+ * unit of the target currency.
+ */
+@ToString(of = { "version", "rates" })
+@EqualsAndHashCode(of = { "version", "rates" })
+public final class FxRates implements Serializable {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 4418826530147207310L;
+
+	private static final MathContext CROSS_RATE_PRECISION = MathContext.DECIMAL64;
+	// Minor unit of currencies without one, e.g. gold
+	private static final int DEFAULT_FRACTION_DIGITS = 2;
+
+	public static final FxRates BASE_ONLY = of(0, Collections.emptyMap());
+
+	@Getter
+	private final long version;
+	@Getter
+	private final Map<String, BigDecimal> rates;
+	private final transient Map<String, Map<String, CrossRate>> crossRates;
+
+	private FxRates(long version, Map<String, BigDecimal> rates) {
+		this.version = version;
+		this.rates = Collections.unmodifiableMap(rates);
+		this.crossRates = new HashMap<>();
+		rates.forEach((from, fromRate) -> {
+			Map<String, CrossRate> toRates = new HashMap<>();
+			rates.forEach((to, toRate) -> toRates.put(to, new CrossRate(
+					toRate.divide(fromRate, CROSS_RATE_PRECISION), fractionDigits(Currency.getInstance(to)))));
+			crossRates.put(from, toRates);
+		});
+	}
+
+	/**
+	 * @param rates units of each currency one unit of the base currency buys, the
+	 *              base currency itself may be left out
+	 * @throws IllegalArgumentException for unknown currencies and rates that are
+	 *                                  not positive
+	 */
+	public static FxRates of(long version, Map<String, BigDecimal> rates) {
+		Map<String, BigDecimal> checked = new TreeMap<>();
+		checked.put(Constant.BASE_CURRENCY, BigDecimal.ONE);
+		rates.forEach((code, rate) -> {
+			String currency = currencyCode(code);
+			if (currency == null) {
+				throw new IllegalArgumentException("Unknown currency " + code);
+			}
+			if (rate == null || rate.signum() <= 0) {
+				throw new IllegalArgumentException("Rate of " + code + " must be positive");
+			}
+			if (currency.equals(Constant.BASE_CURRENCY) && rate.compareTo(BigDecimal.ONE) != 0) {
+				throw new IllegalArgumentException("Rate of the base currency " + code + " must be 1");
+			}
+			checked.put(currency, rate);
+		});
+		return new FxRates(version, checked);
+	}
+
+	/**
+	 * @return the ISO 4217 code of the currency, always the same instance for
+	 *         one currency, or null if there is no such currency
+	 */
+	public static String currencyCode(String code) {
+		if (code == null) {
+			return null;
+		}
+		try {
+			return Currency.getInstance(code).getCurrencyCode();
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static int fractionDigits(Currency currency) {
+		int digits = currency.getDefaultFractionDigits();
+		return digits < 0 ? DEFAULT_FRACTION_DIGITS : digits;
+	}
+
+	/**
+	 * @return the amount itself when both currencies are the same, the amount in
+	 *         the target currency otherwise, null if either has no rate
+	 */
+	public BigDecimal convert(BigDecimal amount, String from, String to) {
+		if (from.equals(to)) {
+			return amount;
+		}
+		Map<String, CrossRate> toRates = crossRates.get(from);
+		CrossRate crossRate = toRates == null ? null : toRates.get(to);
+		return crossRate == null ? null
+				: amount.multiply(crossRate.rate).setScale(crossRate.fractionDigits, RoundingMode.HALF_EVEN);
+	}
+
+	private Object readResolve() {
+		return new FxRates(version, rates);
+	}
+
+	private static final class CrossRate {
+
+		private final BigDecimal rate;
+		private final int fractionDigits;
+
+		private CrossRate(BigDecimal rate, int fractionDigits) {
+			this.rate = rate;
+			this.fractionDigits = fractionDigits;
+		}
+
+	}
+
+}
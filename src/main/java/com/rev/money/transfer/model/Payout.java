@@ -0,0 +1,23 @@
+package com.rev.money.transfer.model;
+
+import java.io.Serializable;
+import java.util.List;
+
+import lombok.Value;
+
+/**
+ * One remitter paying many beneficiaries; every leg is a {@link Transaction} of
+ * its own.
+ */
+@Value
+public class Payout implements Serializable {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -2950962931431383185L;
+
+	private Long remitterAccountId;
+	private List<Transaction> legs;
+
+}
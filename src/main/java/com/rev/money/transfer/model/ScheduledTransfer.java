@@ -0,0 +1,35 @@
+package com.rev.money.transfer.model;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+import lombok.Value;
+
+@Value
+public class ScheduledTransfer implements Serializable {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 4617202512063409127L;
+
+	private Long id;
+	private Long remitterAccountId;
+	private Long beneficieryAccountId;
+	private BigDecimal amount;
+	// Epoch millis of the next execution
+	private Long nextExecution;
+	// Zero for a one-off transfer
+	private Long intervalMillis;
+	private String remarks;
+
+	public ScheduledTransfer withNextExecution(long nextExecution) {
+		return new ScheduledTransfer(id, remitterAccountId, beneficieryAccountId, amount, nextExecution, intervalMillis,
+				remarks);
+	}
+
+	public boolean isRecurring() {
+		return intervalMillis != null && intervalMillis > 0;
+	}
+
+}
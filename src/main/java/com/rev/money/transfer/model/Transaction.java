@@ -3,9 +3,11 @@ package com.rev.money.transfer.model;
 import java.io.Serializable;
 import java.math.BigDecimal;
 
+import lombok.AllArgsConstructor;
 import lombok.Value;
 
 @Value
+@AllArgsConstructor
 public class Transaction implements Serializable {
 
 	/**
@@ -19,5 +21,20 @@ public class Transaction implements Serializable {
 	private BigDecimal amount;
 	private TransactionStatus status;
 	private String remarks;
+	// ISO 4217 code of the amount, the currency of the remitter when null
+	private String currency;
+
+	public Transaction(Long id, Long remitterAccountId, Long beneficieryAccountId, BigDecimal amount,
+			TransactionStatus status, String remarks) {
+		this(id, remitterAccountId, beneficieryAccountId, amount, status, remarks, null);
+	}
+
+	public Transaction withId(Long id) {
+		return new Transaction(id, remitterAccountId, beneficieryAccountId, amount, status, remarks, currency);
+	}
+
+	public Transaction withStatus(TransactionStatus status) {
+		return new Transaction(id, remitterAccountId, beneficieryAccountId, amount, status, remarks, currency);
+	}
 
 }
@@ -1,5 +1,5 @@
 package com.rev.money.transfer.model;
 
 public enum TransactionStatus {
-	NEW, SUCCESS, FAIL
+	NEW, SUCCESS, FAIL, UNRESOLVED
 }
\ No newline at end of file
@@ -0,0 +1,32 @@
+package com.rev.money.transfer.model;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+import lombok.Value;
+
+/**
+ * Fraud rules checked on every debit of an account, each one off when null.
+ */
+@Value
+public class VelocityLimits implements Serializable {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 3316086154512418775L;
+
+	public static final VelocityLimits NONE = new VelocityLimits(null, null, null);
+
+	// Most that may be debited over the last 24 hours
+	private BigDecimal dailyDebitCap;
+	// Most debits over the last minute
+	private Integer transfersPerMinute;
+	// Largest single debit
+	private BigDecimal maxSingleAmount;
+
+	public boolean isNone() {
+		return dailyDebitCap == null && transfersPerMinute == null && maxSingleAmount == null;
+	}
+
+}
@@ -1,35 +1,61 @@
 package com.rev.money.transfer.route;
 
-import static akka.pattern.Patterns.ask;
 import static io.vavr.API.$;
 import static io.vavr.API.Case;
 import static io.vavr.API.Match;
 import static io.vavr.API.Match.Pattern0.any;
 import static io.vavr.Predicates.instanceOf;
 
+import java.math.BigDecimal;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
-import com.rev.money.transfer.actor.AccountActor;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.rev.money.transfer.dto.AccountDTO;
+import com.rev.money.transfer.dto.VelocityLimitsDTO;
+import com.rev.money.transfer.ledger.LedgerEngine;
 import com.rev.money.transfer.mapper.AccountMapper;
+import com.rev.money.transfer.mapper.VelocityLimitsMapper;
 import com.rev.money.transfer.model.Account;
 import com.rev.money.transfer.model.MessageStatus;
+import com.rev.money.transfer.model.VelocityLimits;
+import com.rev.money.transfer.service.AccountService;
+import com.rev.money.transfer.util.BalanceEvents;
 import com.rev.money.transfer.util.Constant;
 
+import akka.NotUsed;
 import akka.actor.ActorRef;
 import akka.http.javadsl.marshallers.jackson.Jackson;
+import akka.http.javadsl.marshalling.sse.EventStreamMarshalling;
+import akka.http.javadsl.common.EntityStreamingSupport;
 import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.sse.ServerSentEvent;
 import akka.http.javadsl.server.AllDirectives;
 import akka.http.javadsl.server.PathMatchers;
 import akka.http.javadsl.server.Route;
+import akka.http.javadsl.unmarshalling.StringUnmarshallers;
+import akka.japi.Pair;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
 import lombok.RequiredArgsConstructor;
 
 @RequiredArgsConstructor
 public class AccountRoute extends AllDirectives {
 
-	private final ActorRef accountService;
-	private final Duration timeout;
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private final LedgerEngine ledger;
+	private final ActorMaterializer materializer;
 
 	/**
 	 * Registers the routes with the mappings between URLs and actions to be performed for each patterns
@@ -37,8 +63,11 @@ public class AccountRoute extends AllDirectives {
 	 * @return {@link Route}
 	 */
 	public Route routes() {
-		return pathPrefix(Constant.ACCOUNT_ROUTE_PATH, () -> route(createAccount(), path(PathMatchers.longSegment(),
-				accountNumber -> route(getAccount(accountNumber), deleteAccount(accountNumber)))));
+		return pathPrefix(Constant.ACCOUNT_ROUTE_PATH,
+				() -> route(createAccount(), listAccounts(), accountsEvents(), pathPrefix(PathMatchers.longSegment(),
+						accountNumber -> route(
+								pathEnd(() -> route(getAccount(accountNumber), deleteAccount(accountNumber))),
+								limits(accountNumber), accountEvents(accountNumber)))));
 	}
 
 	/************************************************************************************************************
@@ -47,8 +76,14 @@ public class AccountRoute extends AllDirectives {
 
 	private Route createAccount() {
 		return pathEnd(() -> post(() -> entity(Jackson.unmarshaller(AccountDTO.class), accountDto -> {
-			CompletionStage<Object> createAccountResponse = ask(accountService,
-					new AccountMapper.AccountDtoToModelMapper().apply(accountDto), timeout);
+			Account account = new AccountMapper.AccountDtoToModelMapper().apply(accountDto);
+			Integer stripes = accountDto.getStripes();
+			if (stripes != null && (stripes < 1 || stripes > Constant.MAX_ACCOUNT_STRIPES)) {
+				return complete(StatusCodes.BAD_REQUEST,
+						"Stripes must be between 1 and " + Constant.MAX_ACCOUNT_STRIPES);
+			}
+			CompletionStage<Object> createAccountResponse = ledger.createAccount(account,
+					stripes == null ? 1 : stripes);
 			return onSuccess(createAccountResponse, this::handleCreateAccountResponse);
 		})));
 	}
@@ -66,11 +101,29 @@ public class AccountRoute extends AllDirectives {
 	 ************************************************************************************************************/
 
 	private Route getAccount(Long accountNumber) {
-		return get(() -> {
-			CompletionStage<Object> getAccountResponse = ask(accountService, new AccountActor.GetAccount(accountNumber),
-					timeout);
+		return get(() -> parameterOptional("asOf", asOf -> {
+			if (asOf.isPresent()) {
+				return getAccountAsOf(accountNumber, asOf.get());
+			}
+			CompletionStage<Object> getAccountResponse = ledger.getAccount(accountNumber);
 			return onSuccess(() -> getAccountResponse, this::handleGetAccountResponse);
-		});
+		}));
+	}
+
+	/**
+	 * @param asOf an ISO-8601 instant or milliseconds since the epoch
+	 */
+	private Route getAccountAsOf(Long accountNumber, String asOf) {
+		long timestamp;
+		try {
+			timestamp = asOf.chars().allMatch(Character::isDigit) ? Long.parseLong(asOf)
+					: Instant.parse(asOf).toEpochMilli();
+		} catch (NumberFormatException | DateTimeParseException e) {
+			return complete(StatusCodes.BAD_REQUEST, new MessageStatus.Failure("Invalid asOf " + asOf
+					+ ", expected an ISO-8601 instant or milliseconds since the epoch"), Jackson.marshaller());
+		}
+		CompletionStage<Object> getAccountResponse = ledger.getAccountAsOf(accountNumber, timestamp);
+		return onSuccess(() -> getAccountResponse, this::handleGetAccountResponse);
 	}
 
 	private Route handleGetAccountResponse(Object getCustomerResponse) {
@@ -83,14 +136,60 @@ public class AccountRoute extends AllDirectives {
 				Case($(any()), x -> complete(StatusCodes.INTERNAL_SERVER_ERROR)));
 	}
 
+	/************************************************************************************************************
+	 * 							Methods for listing the Accounts in account number order						*
+	 ************************************************************************************************************/
+
+	private Route listAccounts() {
+		return pathEnd(() -> get(() -> parameterOptional(StringUnmarshallers.LONG, "after",
+				after -> parameterOptional(StringUnmarshallers.INTEGER, "limit", limit -> listAccounts(
+						after.orElse(Long.MIN_VALUE), limit.orElse(Constant.DEFAULT_ACCOUNT_LIST_LIMIT))))));
+	}
+
+	/**
+	 * Streams a JSON array of the accounts numbered after {@code after}, asking
+	 * the ledger for them a batch at a time as the client reads them. The last
+	 * account number streamed is the {@code after} of the next page.
+	 */
+	private Route listAccounts(long after, int limit) {
+		if (limit <= 0 || limit > Constant.MAX_ACCOUNT_LIST_LIMIT) {
+			return complete(StatusCodes.BAD_REQUEST,
+					"Limit must be between 1 and " + Constant.MAX_ACCOUNT_LIST_LIMIT);
+		}
+		// The account number to go on after and the number of accounts still to stream
+		Source<AccountDTO, NotUsed> accounts = Source.unfoldAsync(Pair.create(after, limit), this::nextBatch)
+				.mapConcat(batch -> batch).map(new AccountMapper.AccountToDtoMapper()::apply);
+		return completeOKWithSource(accounts, Jackson.marshaller(), EntityStreamingSupport.json());
+	}
+
+	private CompletionStage<Optional<Pair<Pair<Long, Integer>, List<Account>>>> nextBatch(
+			Pair<Long, Integer> cursor) {
+		int remaining = cursor.second();
+		if (remaining == 0) {
+			return CompletableFuture.completedFuture(Optional.empty());
+		}
+		int batchSize = Math.min(remaining, Constant.ACCOUNT_LIST_BATCH_SIZE);
+		return ledger.listAccounts(cursor.first(), batchSize).thenApply(reply -> {
+			if (!(reply instanceof AccountService.AccountsListed)) {
+				throw new IllegalStateException("Listing accounts after " + cursor.first() + " failed: " + reply);
+			}
+			List<Account> batch = ((AccountService.AccountsListed) reply).getAccounts();
+			if (batch.isEmpty()) {
+				return Optional.empty();
+			}
+			// A short batch is the last one
+			int left = batch.size() < batchSize ? 0 : remaining - batch.size();
+			return Optional.of(Pair.create(Pair.create(batch.get(batch.size() - 1).getAccountNumber(), left), batch));
+		});
+	}
+
 	/************************************************************************************************************
 	 * 							Methods for deleting/deactivating the Account 								    *
 	 ************************************************************************************************************/
 
 	private Route deleteAccount(Long accountNumber) {
 		return delete(() -> {
-			CompletionStage<Object> deleteAccountResponse = ask(accountService, new AccountActor.DeleteAccount(accountNumber),
-					timeout);
+			CompletionStage<Object> deleteAccountResponse = ledger.deleteAccount(accountNumber);
 			return onSuccess(() -> deleteAccountResponse, this::handleDeleteAccountResponse);
 		});
 	}
@@ -103,4 +202,120 @@ public class AccountRoute extends AllDirectives {
 				Case($(any()), x -> complete(StatusCodes.INTERNAL_SERVER_ERROR)));
 	}
 
+	/************************************************************************************************************
+	 * 							Methods for reading and setting the velocity limits 							*
+	 ************************************************************************************************************/
+
+	private Route limits(Long accountNumber) {
+		return path(Constant.LIMITS_ROUTE_PATH, () -> route(get(() -> {
+			CompletionStage<Object> getLimitsResponse = ledger.getLimits(accountNumber);
+			return onSuccess(() -> getLimitsResponse, this::handleGetLimitsResponse);
+		}), put(() -> entity(Jackson.unmarshaller(VelocityLimitsDTO.class),
+				limitsDto -> setLimits(accountNumber, limitsDto)))));
+	}
+
+	private Route setLimits(Long accountNumber, VelocityLimitsDTO limitsDto) {
+		VelocityLimits limits = new VelocityLimitsMapper.VelocityLimitsDtoToModelMapper().apply(limitsDto);
+		if (isNegative(limits.getDailyDebitCap()) || isNegative(limits.getMaxSingleAmount())
+				|| (limits.getTransfersPerMinute() != null && limits.getTransfersPerMinute() < 0)) {
+			return complete(StatusCodes.BAD_REQUEST, new MessageStatus.Failure("Limits must not be negative"),
+					Jackson.marshaller());
+		}
+		CompletionStage<Object> setLimitsResponse = ledger.setLimits(accountNumber, limits);
+		return onSuccess(() -> setLimitsResponse, this::handleSetLimitsResponse);
+	}
+
+	private static boolean isNegative(BigDecimal amount) {
+		return amount != null && amount.signum() < 0;
+	}
+
+	private Route handleSetLimitsResponse(Object setLimitsResponse) {
+		return Match(setLimitsResponse).of(
+				Case($(instanceOf(MessageStatus.Success.class)), success -> complete(StatusCodes.OK)),
+				Case($(instanceOf(MessageStatus.Failure.class)),
+						failure -> complete(StatusCodes.BAD_REQUEST, failure, Jackson.marshaller())),
+				Case($(any()), x -> complete(StatusCodes.INTERNAL_SERVER_ERROR)));
+	}
+
+	private Route handleGetLimitsResponse(Object getLimitsResponse) {
+		return Match(getLimitsResponse).of(
+				Case($(instanceOf(VelocityLimits.class)),
+						limits -> complete(StatusCodes.OK,
+								new VelocityLimitsMapper.VelocityLimitsToDtoMapper().apply(limits),
+								Jackson.marshaller())),
+				Case($(instanceOf(MessageStatus.Failure.class)),
+						failure -> complete(StatusCodes.NOT_FOUND, failure, Jackson.marshaller())),
+				Case($(any()), x -> complete(StatusCodes.INTERNAL_SERVER_ERROR)));
+	}
+
+	/************************************************************************************************************
+	 * 							Methods for streaming the balance changes as Server-Sent Events					*
+	 ************************************************************************************************************/
+
+	private Route accountEvents(Long accountNumber) {
+		return path(Constant.EVENTS_ROUTE_PATH, () -> get(() -> streamBalanceEvents(Set.of(accountNumber))));
+	}
+
+	/**
+	 * One stream for many accounts, given as {@code ids=1,2,3}.
+	 */
+	private Route accountsEvents() {
+		return path(Constant.EVENTS_ROUTE_PATH, () -> get(() -> parameter("ids", ids -> {
+			Set<Long> accountNumbers = new LinkedHashSet<>();
+			try {
+				for (String id : ids.split(",")) {
+					accountNumbers.add(Long.parseLong(id.trim()));
+				}
+			} catch (NumberFormatException e) {
+				return complete(StatusCodes.BAD_REQUEST,
+						new MessageStatus.Failure("Invalid account numbers " + ids), Jackson.marshaller());
+			}
+			if (accountNumbers.size() > Constant.MAX_BALANCE_EVENTS_ACCOUNTS) {
+				return complete(StatusCodes.BAD_REQUEST, new MessageStatus.Failure(
+						"At most " + Constant.MAX_BALANCE_EVENTS_ACCOUNTS + " accounts per event stream"),
+						Jackson.marshaller());
+			}
+			return streamBalanceEvents(accountNumbers);
+		})));
+	}
+
+	/**
+	 * Subscribes one conflating event source to every account: the current
+	 * account comes first, then each new balance. Nothing is streamed unless
+	 * every subscription succeeds.
+	 */
+	private Route streamBalanceEvents(Set<Long> accountNumbers) {
+		Pair<ActorRef, Source<Account, NotUsed>> events = BalanceEvents
+				.source(Constant.BALANCE_EVENTS_BUFFER_SIZE, materializer.system())
+				.preMaterialize(materializer);
+		List<CompletableFuture<Object>> subscriptions = new ArrayList<>(accountNumbers.size());
+		for (long accountNumber : accountNumbers) {
+			subscriptions.add(ledger.subscribeBalance(accountNumber, events.first()).toCompletableFuture());
+		}
+		CompletionStage<Object> subscribed = CompletableFuture.allOf(subscriptions.toArray(new CompletableFuture<?>[0]))
+				.thenApply(done -> subscriptions.stream().map(CompletableFuture::join)
+						.filter(MessageStatus.Failure.class::isInstance).findFirst()
+						.orElse(new MessageStatus.Success()));
+		subscribed.whenComplete((reply, error) -> {
+			// Stops the event source, which unsubscribes it
+			if (error != null || reply instanceof MessageStatus.Failure) {
+				events.second().runWith(Sink.cancelled(), materializer);
+			}
+		});
+		return onSuccess(() -> subscribed, reply -> Match(reply).of(
+				Case($(instanceOf(MessageStatus.Success.class)),
+						success -> complete(StatusCodes.OK, events.second().map(AccountRoute::toServerSentEvent)
+								.keepAlive(Duration.ofSeconds(Constant.BALANCE_EVENTS_KEEP_ALIVE_SECONDS),
+										ServerSentEvent::heartbeat),
+								EventStreamMarshalling.toEventStream())),
+				Case($(instanceOf(MessageStatus.Failure.class)),
+						failure -> complete(StatusCodes.NOT_FOUND, failure, Jackson.marshaller())),
+				Case($(any()), x -> complete(StatusCodes.INTERNAL_SERVER_ERROR))));
+	}
+
+	private static ServerSentEvent toServerSentEvent(Account account) throws JsonProcessingException {
+		return ServerSentEvent.create(MAPPER.writeValueAsString(new AccountMapper.AccountToDtoMapper().apply(account)),
+				"balance");
+	}
+
 }
@@ -0,0 +1,144 @@
+package com.rev.money.transfer.route;
+
+import static akka.pattern.Patterns.ask;
+import static io.vavr.API.$;
+import static io.vavr.API.Case;
+import static io.vavr.API.Match;
+import static io.vavr.API.Match.Pattern0.any;
+import static io.vavr.Predicates.instanceOf;
+
+import java.time.Duration;
+import java.util.concurrent.CompletionStage;
+
+import com.rev.money.transfer.dto.FxRatesDTO;
+import com.rev.money.transfer.model.FxRates;
+import com.rev.money.transfer.model.MessageStatus;
+import com.rev.money.transfer.service.AccountService;
+import com.rev.money.transfer.service.ReconciliationService;
+import com.rev.money.transfer.service.SnapshotService;
+import com.rev.money.transfer.store.FxRateTable;
+import com.rev.money.transfer.util.Constant;
+import com.rev.money.transfer.util.MailboxStats;
+import com.rev.money.transfer.util.Metrics;
+
+import akka.actor.ActorRef;
+import akka.http.javadsl.marshallers.jackson.Jackson;
+import akka.http.javadsl.model.StatusCode;
+import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.server.AllDirectives;
+import akka.http.javadsl.server.Route;
+import akka.http.javadsl.unmarshalling.StringUnmarshallers;
+import lombok.RequiredArgsConstructor;
+
+@RequiredArgsConstructor
+public class AdminRoute extends AllDirectives {
+
+	private final ActorRef snapshotService;
+	private final Duration snapshotTimeout;
+	private final FxRateTable fxRates;
+	private final Metrics metrics;
+	private final ActorRef reconciliationService;
+	private final Duration reconciliationTimeout;
+	private final MailboxStats mailboxStats;
+
+	/**
+	 * Registers the routes with the mappings between URLs and actions to be
+	 * performed for each patterns
+	 * 
+	 * @return {@link Route}
+	 */
+	public Route routes() {
+		return pathPrefix(Constant.ADMIN_ROUTE_PATH,
+				() -> route(takeSnapshot(), fxRates(), metrics(), reconciliation(), mailboxes()));
+	}
+
+	/************************************************************************************************************
+	 * 								Methods for taking a full-state snapshot									*
+	 ************************************************************************************************************/
+
+	private Route takeSnapshot() {
+		return path(Constant.SNAPSHOT_ROUTE_PATH, () -> post(() -> {
+			CompletionStage<Object> snapshotResponse = ask(snapshotService, new SnapshotService.TakeSnapshot(),
+					snapshotTimeout);
+			return onSuccess(() -> snapshotResponse, this::handleSnapshotResponse);
+		}));
+	}
+
+	private Route handleSnapshotResponse(Object snapshotResponse) {
+		return Match(snapshotResponse).of(
+				Case($(instanceOf(SnapshotService.SnapshotTaken.class)),
+						snapshot -> complete(StatusCodes.CREATED, snapshot, Jackson.marshaller())),
+				Case($(instanceOf(MessageStatus.Failure.class)),
+						failure -> complete(StatusCodes.INTERNAL_SERVER_ERROR, failure, Jackson.marshaller())),
+				Case($(any()), x -> complete(StatusCodes.INTERNAL_SERVER_ERROR)));
+	}
+
+	/************************************************************************************************************
+	 * 								Methods for reading and replacing the FX rates								*
+	 ************************************************************************************************************/
+
+	private Route fxRates() {
+		return path(Constant.FX_RATES_ROUTE_PATH, () -> route(
+				get(() -> complete(StatusCodes.OK, toDto(fxRates.current()), Jackson.marshaller())),
+				put(() -> entity(Jackson.unmarshaller(FxRatesDTO.class), this::publishFxRates))));
+	}
+
+	private Route publishFxRates(FxRatesDTO fxRatesDto) {
+		if (fxRatesDto.getRates() == null) {
+			return complete(StatusCodes.BAD_REQUEST, new MessageStatus.Failure("Rates are missing"),
+					Jackson.marshaller());
+		}
+		try {
+			return complete(StatusCodes.OK, toDto(fxRates.publish(fxRatesDto.getRates())), Jackson.marshaller());
+		} catch (IllegalArgumentException e) {
+			return complete(StatusCodes.BAD_REQUEST, new MessageStatus.Failure(e.getMessage()), Jackson.marshaller());
+		}
+	}
+
+	private static FxRatesDTO toDto(FxRates rates) {
+		return new FxRatesDTO(rates.getVersion(), rates.getRates());
+	}
+
+	/************************************************************************************************************
+	 * 								Methods for reading the metrics												*
+	 ************************************************************************************************************/
+
+	private Route metrics() {
+		return path(Constant.METRICS_ROUTE_PATH,
+				() -> get(() -> complete(StatusCodes.OK, metrics.snapshot(), Jackson.marshaller())));
+	}
+
+	/************************************************************************************************************
+	 * 						Methods for reading the queues of the instrumented mailboxes						*
+	 ************************************************************************************************************/
+
+	private Route mailboxes() {
+		return path(Constant.MAILBOXES_ROUTE_PATH, () -> get(() -> parameterOptional(StringUnmarshallers.INTEGER, "top",
+				top -> complete(StatusCodes.OK, mailboxStats.report(top.orElse(Constant.DEFAULT_MAILBOXES_TOP)),
+						Jackson.marshaller()))));
+	}
+
+	/************************************************************************************************************
+	 * 						Methods for running and reading the reconciliation of the balances					*
+	 ************************************************************************************************************/
+
+	private Route reconciliation() {
+		return path(Constant.RECONCILIATION_ROUTE_PATH, () -> route(
+				get(() -> askReconciliation(new ReconciliationService.GetReconciliation(), StatusCodes.OK,
+						StatusCodes.NOT_FOUND)),
+				post(() -> askReconciliation(new ReconciliationService.RunReconciliation(), StatusCodes.CREATED,
+						StatusCodes.INTERNAL_SERVER_ERROR))));
+	}
+
+	private Route askReconciliation(Object message, StatusCode status, StatusCode failureStatus) {
+		CompletionStage<Object> reconciliationResponse = ask(reconciliationService, message,
+				reconciliationTimeout.multipliedBy(2));
+		return onSuccess(() -> reconciliationResponse, response -> Match(response).of(
+				Case($(instanceOf(AccountService.Reconciled.class)),
+						reconciled -> complete(status, reconciled, Jackson.marshaller())),
+				Case($(instanceOf(MessageStatus.Failure.class)),
+						failure -> complete(failureStatus, failure, Jackson.marshaller())),
+				Case($(any()), x -> complete(StatusCodes.INTERNAL_SERVER_ERROR))));
+	}
+
+}
@@ -0,0 +1,57 @@
+package com.rev.money.transfer.route;
+
+import java.time.Duration;
+import java.util.stream.Collectors;
+
+import com.rev.money.transfer.mapper.AccountMapper;
+import com.rev.money.transfer.model.FxRates;
+import com.rev.money.transfer.model.MessageStatus;
+import com.rev.money.transfer.util.AccountAnalytics;
+import com.rev.money.transfer.util.Constant;
+
+import akka.http.javadsl.marshallers.jackson.Jackson;
+import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.server.AllDirectives;
+import akka.http.javadsl.server.Route;
+import lombok.RequiredArgsConstructor;
+
+@RequiredArgsConstructor
+public class AnalyticsRoute extends AllDirectives {
+
+	private final AccountAnalytics analytics;
+	private final Duration timeout;
+
+	/**
+	 * Registers the routes with the mappings between URLs and actions to be
+	 * performed for each patterns
+	 * 
+	 * @return {@link Route}
+	 */
+	public Route routes() {
+		return pathPrefix(Constant.ANALYTICS_ROUTE_PATH, () -> route(topBalances(), hotAccounts()));
+	}
+
+	/************************************************************************************************************
+	 * 							Methods for reading the largest balances and busiest accounts					*
+	 ************************************************************************************************************/
+
+	private Route topBalances() {
+		return path(Constant.TOP_BALANCES_ROUTE_PATH, () -> get(() -> parameterOptional("currency", currency -> {
+			String code = FxRates.currencyCode(currency.orElse(Constant.BASE_CURRENCY));
+			if (code == null) {
+				return complete(StatusCodes.BAD_REQUEST,
+						new MessageStatus.Failure("Unknown currency " + currency.get()), Jackson.marshaller());
+			}
+			return onSuccess(() -> analytics.topBalances(code, timeout), top -> complete(StatusCodes.OK,
+					top.stream().map(new AccountMapper.AccountToDtoMapper()).collect(Collectors.toList()),
+					Jackson.marshaller()));
+		})));
+	}
+
+	private Route hotAccounts() {
+		return path(Constant.HOT_ACCOUNTS_ROUTE_PATH,
+				() -> get(() -> onSuccess(() -> analytics.hotAccounts(timeout),
+						hot -> complete(StatusCodes.OK, hot, Jackson.marshaller()))));
+	}
+
+}
@@ -7,29 +7,67 @@ import static io.vavr.API.Match;
 import static io.vavr.API.Match.Pattern0.any;
 import static io.vavr.Predicates.instanceOf;
 
+import java.io.IOException;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import com.rev.money.transfer.actor.CustomerActor;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.rev.money.transfer.dto.CustomerDTO;
+import com.rev.money.transfer.dto.CustomerPageDTO;
+import com.rev.money.transfer.dto.OnboardedCustomerDTO;
+import com.rev.money.transfer.dto.OnboardingSummaryDTO;
 import com.rev.money.transfer.mapper.CustomerMapper;
 import com.rev.money.transfer.model.Customer;
 import com.rev.money.transfer.model.MessageStatus;
+import com.rev.money.transfer.service.CustomerService;
+import com.rev.money.transfer.service.CustomerService.CustomersFound;
+import com.rev.money.transfer.service.CustomerService.CustomersOnboarded;
 import com.rev.money.transfer.util.Constant;
+import com.rev.money.transfer.util.HopRetry;
 
 import akka.actor.ActorRef;
 import akka.http.javadsl.marshallers.jackson.Jackson;
+import akka.http.javadsl.model.ContentType;
+import akka.http.javadsl.model.HttpCharsets;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.MediaTypes;
 import akka.http.javadsl.model.StatusCodes;
 import akka.http.javadsl.server.AllDirectives;
 import akka.http.javadsl.server.PathMatchers;
 import akka.http.javadsl.server.Route;
+import akka.http.javadsl.unmarshalling.StringUnmarshallers;
+import akka.stream.javadsl.Framing;
+import akka.stream.javadsl.FramingTruncation;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
 import lombok.RequiredArgsConstructor;
 
 @RequiredArgsConstructor
 public class CustomerRoute extends AllDirectives {
 
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	private static final ContentType NDJSON = MediaTypes.applicationWithOpenCharset("x-ndjson")
+			.toContentType(HttpCharsets.UTF_8);
+	private static final int MAX_LINE_BYTES = 64 * 1024;
+	// Batches in flight to the customer service, replies still come back in order
+	private static final int BULK_PARALLELISM = 4;
+
 	private final ActorRef customerService;
 	private final Duration timeout;
+	private final int bulkBatchSize;
+	private final HopRetry retries;
 
 	/**
 	 * Registers the routes with the mappings between URLs and actions to be
@@ -38,7 +76,7 @@ public class CustomerRoute extends AllDirectives {
 	 * @return {@link Route}
 	 */
 	public Route routes() {
-		return pathPrefix(Constant.CUSTOMER_ROUTE_PATH, () -> route(createCustomer(),
+		return pathPrefix(Constant.CUSTOMER_ROUTE_PATH, () -> route(createCustomer(), searchCustomers(), onboardCustomers(),
 				path(PathMatchers.longSegment(), id -> route(getCustomer(id), deleteCustomer(id)))));
 	}
 	
@@ -63,6 +101,98 @@ public class CustomerRoute extends AllDirectives {
 				Case($(any()), x -> complete(StatusCodes.INTERNAL_SERVER_ERROR)));
 	}
 	
+	/************************************************************************************************************
+	 * 						Methods for onboarding customers in bulk from newline-delimited JSON				*
+	 ************************************************************************************************************/
+
+	/**
+	 * Takes one {@link CustomerDTO} per line and streams back one
+	 * {@link OnboardedCustomerDTO} per customer, in upload order, followed by an
+	 * {@link OnboardingSummaryDTO} with the throughput. Lines are parsed and sent
+	 * to the customer service in batches as they arrive, so the upload is never
+	 * held in memory as a whole. A batch that times out is asked again under the
+	 * same id, and gets the reply of the batch already onboarded.
+	 */
+	private Route onboardCustomers() {
+		return path(Constant.BULK_ROUTE_PATH, () -> post(() -> extractRequestEntity(entity -> {
+			long start = System.nanoTime();
+			AtomicLong lineNumber = new AtomicLong();
+			AtomicLong onboarded = new AtomicLong();
+			AtomicLong failed = new AtomicLong();
+			Source<ByteString, ?> results = entity.getDataBytes()
+					.via(Framing.delimiter(ByteString.fromString("\n"), MAX_LINE_BYTES, FramingTruncation.ALLOW))
+					.map(line -> Tuple.of(lineNumber.incrementAndGet(), line.utf8String()))
+					.filter(line -> !line._2.trim().isEmpty())
+					.grouped(bulkBatchSize)
+					.mapAsync(BULK_PARALLELISM, this::onboard)
+					.mapConcat(batch -> batch)
+					.map(Optional::of)
+					// The empty marker comes after every result has been counted
+					.concat(Source.single(Optional.empty()))
+					.map(result -> {
+						if (!result.isPresent()) {
+							return toLine(summary(onboarded.get(), failed.get(), start));
+						}
+						(result.get().getError() == null ? onboarded : failed).incrementAndGet();
+						return toLine(result.get());
+					});
+			return complete(HttpResponse.create().withStatus(StatusCodes.OK)
+					.withEntity(HttpEntities.createChunked(NDJSON, results)));
+		})));
+	}
+
+	private CompletionStage<List<OnboardedCustomerDTO>> onboard(List<Tuple2<Long, String>> lines) {
+		List<OnboardedCustomerDTO> results = new ArrayList<>(lines.size());
+		List<OnboardedCustomerDTO> parsed = new ArrayList<>(lines.size());
+		List<Customer> customers = new ArrayList<>(lines.size());
+		for (Tuple2<Long, String> line : lines) {
+			OnboardedCustomerDTO result = new OnboardedCustomerDTO(line._1, null, null);
+			try {
+				customers.add(new CustomerMapper.CustomerDtoToModelMapper()
+						.apply(MAPPER.readValue(line._2, CustomerDTO.class)));
+				parsed.add(result);
+			} catch (IOException e) {
+				result.setError("Malformed customer: " + e.getMessage());
+			}
+			results.add(result);
+		}
+		if (customers.isEmpty()) {
+			return CompletableFuture.completedFuture(results);
+		}
+		CustomerService.OnboardCustomers onboardCustomers = new CustomerService.OnboardCustomers(
+				UUID.randomUUID().toString(), customers);
+		return retries.ask(() -> ask(customerService, onboardCustomers, timeout))
+				.handle((response, error) -> {
+					CustomersOnboarded customersOnboarded = response instanceof CustomersOnboarded
+							? (CustomersOnboarded) response
+							: null;
+					for (int i = 0; i < parsed.size(); i++) {
+						OnboardedCustomerDTO result = parsed.get(i);
+						if (customersOnboarded == null) {
+							result.setError("Customer onboarding failed");
+							continue;
+						}
+						Long id = customersOnboarded.getIds().get(i);
+						String failure = customersOnboarded.getFailures().get(id);
+						if (failure == null) {
+							result.setId(id);
+						} else {
+							result.setError(failure);
+						}
+					}
+					return results;
+				});
+	}
+
+	private static OnboardingSummaryDTO summary(long onboarded, long failed, long start) {
+		long elapsed = Math.max(System.nanoTime() - start, 1);
+		return new OnboardingSummaryDTO(onboarded, failed, elapsed / 1_000_000, onboarded * 1e9 / elapsed);
+	}
+
+	private static ByteString toLine(Object result) throws JsonProcessingException {
+		return ByteString.fromString(MAPPER.writeValueAsString(result)).concat(ByteString.fromString("\n"));
+	}
+
 	/************************************************************************************************************
 	 * 								     Methods for retrieving the Customer 								    *
 	 ************************************************************************************************************/
@@ -85,6 +215,47 @@ public class CustomerRoute extends AllDirectives {
 				Case($(any()), x -> complete(StatusCodes.INTERNAL_SERVER_ERROR)));
 	}
 	
+	/************************************************************************************************************
+	 * 						Methods for searching the Customers by email, contact and zip code					*
+	 ************************************************************************************************************/
+
+	private Route searchCustomers() {
+		return pathEnd(() -> get(() -> parameterOptional("email", email -> parameterOptional(StringUnmarshallers.LONG,
+				"contact", contact -> parameterOptional("zipPrefix", zipPrefix -> parameterOptional(
+						StringUnmarshallers.INTEGER, "offset", offset -> parameterOptional(StringUnmarshallers.INTEGER,
+								"limit", limit -> searchCustomers(email.orElse(null), contact.orElse(null),
+										zipPrefix.orElse(null), offset.orElse(0),
+										limit.orElse(Constant.DEFAULT_SEARCH_LIMIT)))))))));
+	}
+
+	private Route searchCustomers(String email, Long contact, String zipPrefix, int offset, int limit) {
+		if (email == null && contact == null && zipPrefix == null) {
+			return complete(StatusCodes.BAD_REQUEST, "At least one of email, contact or zipPrefix is required");
+		}
+		if (zipPrefix != null && !zipPrefix.matches("\\d+")) {
+			return complete(StatusCodes.BAD_REQUEST, "Zip prefix must be digits");
+		}
+		if (offset < 0 || limit <= 0 || limit > Constant.MAX_SEARCH_LIMIT) {
+			return complete(StatusCodes.BAD_REQUEST,
+					"Offset can not be negative and limit must be between 1 and " + Constant.MAX_SEARCH_LIMIT);
+		}
+		CompletionStage<Object> searchResponse = ask(customerService,
+				new CustomerService.FindCustomers(email, contact, zipPrefix, offset, limit), timeout);
+		return onSuccess(searchResponse, response -> handleSearchResponse(response, offset, limit));
+	}
+
+	private Route handleSearchResponse(Object searchResponse, int offset, int limit) {
+		return Match(searchResponse).of(
+				Case($(instanceOf(CustomersFound.class)),
+						found -> complete(StatusCodes.OK, new CustomerPageDTO(found.getTotal(), offset, limit,
+								found.getCustomers().stream().map(new CustomerMapper.CustomerToDtoMapper())
+										.collect(Collectors.toList())),
+								Jackson.marshaller())),
+				Case($(instanceOf(MessageStatus.Failure.class)),
+						failure -> complete(StatusCodes.INTERNAL_SERVER_ERROR, failure, Jackson.marshaller())),
+				Case($(any()), x -> complete(StatusCodes.INTERNAL_SERVER_ERROR)));
+	}
+
 	/************************************************************************************************************
 	 * 							Methods for deleting/deactivating the Customer 								    *
 	 ************************************************************************************************************/
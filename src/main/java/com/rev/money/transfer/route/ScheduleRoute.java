@@ -0,0 +1,127 @@
+package com.rev.money.transfer.route;
+
+import static akka.pattern.Patterns.ask;
+import static io.vavr.API.$;
+import static io.vavr.API.Case;
+import static io.vavr.API.Match;
+import static io.vavr.API.Match.Pattern0.any;
+import static io.vavr.Predicates.instanceOf;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.concurrent.CompletionStage;
+
+import com.rev.money.transfer.dto.ScheduledTransferDTO;
+import com.rev.money.transfer.mapper.ScheduledTransferMapper;
+import com.rev.money.transfer.model.MessageStatus;
+import com.rev.money.transfer.model.ScheduledTransfer;
+import com.rev.money.transfer.service.SchedulerService;
+import com.rev.money.transfer.util.Constant;
+
+import akka.actor.ActorRef;
+import akka.http.javadsl.marshallers.jackson.Jackson;
+import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.server.AllDirectives;
+import akka.http.javadsl.server.PathMatchers;
+import akka.http.javadsl.server.Route;
+import lombok.RequiredArgsConstructor;
+
+@RequiredArgsConstructor
+public class ScheduleRoute extends AllDirectives {
+
+	private final ActorRef schedulerService;
+	private final Duration timeout;
+
+	/**
+	 * Registers the routes with the mappings between URLs and actions to be
+	 * performed for each patterns
+	 * 
+	 * @return {@link Route}
+	 */
+	public Route routes() {
+		return pathPrefix(Constant.SCHEDULE_ROUTE_PATH, () -> route(createSchedule(),
+				path(PathMatchers.longSegment(), id -> route(getSchedule(id), cancelSchedule(id)))));
+	}
+
+	/************************************************************************************************************
+	 * 								Methods for registering the scheduled transfer								*
+	 ************************************************************************************************************/
+
+	private Route createSchedule() {
+		return pathEnd(() -> post(() -> entity(Jackson.unmarshaller(ScheduledTransferDTO.class), this::schedule)));
+	}
+
+	private Route schedule(ScheduledTransferDTO scheduleDto) {
+		if (scheduleDto.getRemitterAccountId() == null || scheduleDto.getBeneficieryAccountId() == null) {
+			return complete(StatusCodes.BAD_REQUEST, "Remitter and beneficiery accounts can not be null");
+		}
+		BigDecimal amount = scheduleDto.getAmount();
+		if (amount == null || amount.compareTo(BigDecimal.ZERO) <= 0) {
+			return complete(StatusCodes.BAD_REQUEST, "Amount can not be null or less than or equal to zero");
+		}
+		if (scheduleDto.getNextExecution() == null) {
+			return complete(StatusCodes.BAD_REQUEST, "Next execution can not be null");
+		}
+		if (scheduleDto.getIntervalMillis() != null && scheduleDto.getIntervalMillis() < 0) {
+			return complete(StatusCodes.BAD_REQUEST, "Interval can not be less than zero");
+		}
+		CompletionStage<Object> scheduleResponse = ask(schedulerService,
+				new ScheduledTransferMapper.ScheduledTransferDtoToModelMapper().apply(scheduleDto), timeout);
+		return onSuccess(scheduleResponse, this::handleScheduleResponse);
+	}
+
+	private Route handleScheduleResponse(Object scheduleResponse) {
+		return Match(scheduleResponse).of(
+				Case($(instanceOf(ScheduledTransfer.class)),
+						schedule -> complete(StatusCodes.CREATED,
+								new ScheduledTransferMapper.ScheduledTransferToDtoMapper().apply(schedule),
+								Jackson.marshaller())),
+				Case($(instanceOf(MessageStatus.Failure.class)),
+						failure -> complete(StatusCodes.BAD_REQUEST, failure, Jackson.marshaller())),
+				Case($(any()), x -> complete(StatusCodes.INTERNAL_SERVER_ERROR)));
+	}
+
+	/************************************************************************************************************
+	 * 								Methods for retrieving the scheduled transfer								*
+	 ************************************************************************************************************/
+
+	private Route getSchedule(Long id) {
+		return get(() -> {
+			CompletionStage<Object> getScheduleResponse = ask(schedulerService, new SchedulerService.GetSchedule(id),
+					timeout);
+			return onSuccess(() -> getScheduleResponse, this::handleGetScheduleResponse);
+		});
+	}
+
+	private Route handleGetScheduleResponse(Object getScheduleResponse) {
+		return Match(getScheduleResponse).of(
+				Case($(instanceOf(ScheduledTransfer.class)),
+						schedule -> complete(StatusCodes.OK,
+								new ScheduledTransferMapper.ScheduledTransferToDtoMapper().apply(schedule),
+								Jackson.marshaller())),
+				Case($(instanceOf(MessageStatus.Failure.class)),
+						failure -> complete(StatusCodes.NOT_FOUND, failure, Jackson.marshaller())),
+				Case($(any()), x -> complete(StatusCodes.INTERNAL_SERVER_ERROR)));
+	}
+
+	/************************************************************************************************************
+	 * 								Methods for cancelling the scheduled transfer								*
+	 ************************************************************************************************************/
+
+	private Route cancelSchedule(Long id) {
+		return delete(() -> {
+			CompletionStage<Object> cancelScheduleResponse = ask(schedulerService,
+					new SchedulerService.CancelSchedule(id), timeout);
+			return onSuccess(() -> cancelScheduleResponse, this::handleCancelScheduleResponse);
+		});
+	}
+
+	private Route handleCancelScheduleResponse(Object cancelScheduleResponse) {
+		return Match(cancelScheduleResponse).of(
+				Case($(instanceOf(MessageStatus.Success.class)), success -> complete(StatusCodes.OK)),
+				Case($(instanceOf(MessageStatus.Failure.class)),
+						failure -> complete(StatusCodes.NOT_FOUND, failure, Jackson.marshaller())),
+				Case($(any()), x -> complete(StatusCodes.INTERNAL_SERVER_ERROR)));
+	}
+
+}
@@ -10,21 +10,33 @@ import static io.vavr.Predicates.instanceOf;
 
 import java.math.BigDecimal;
 import java.time.Duration;
+import java.util.Map;
 import java.util.concurrent.CompletionStage;
 
-import com.rev.money.transfer.actor.TransactionActor;
 import com.rev.money.transfer.dto.CashDepositDTO;
+import com.rev.money.transfer.dto.PayoutDTO;
 import com.rev.money.transfer.dto.TransactionDTO;
+import com.rev.money.transfer.ledger.LedgerEngine;
 import com.rev.money.transfer.mapper.CashDepositMapper;
+import com.rev.money.transfer.mapper.PayoutMapper;
 import com.rev.money.transfer.mapper.TransactionMapper;
 import com.rev.money.transfer.model.MessageStatus.Failure;
 import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.service.TransactionService.PayoutCompleted;
 import com.rev.money.transfer.service.TransactionService.TransactionRolledBack;
 import com.rev.money.transfer.util.Constant;
+import com.rev.money.transfer.util.TransactionResponseCache;
+import com.rev.money.transfer.util.TransferTimelines;
+import com.rev.money.transfer.util.TransferTimelines.Stage;
 
 import akka.actor.ActorRef;
 import akka.http.javadsl.marshallers.jackson.Jackson;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpEntities;
 import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.headers.CacheControl;
+import akka.http.javadsl.model.headers.CacheDirectives;
+import akka.http.javadsl.model.headers.EntityTag;
 import akka.http.javadsl.server.AllDirectives;
 import akka.http.javadsl.server.PathMatchers;
 import akka.http.javadsl.server.Route;
@@ -33,8 +45,19 @@ import lombok.RequiredArgsConstructor;
 @RequiredArgsConstructor
 public class TransactionRoute extends AllDirectives {
 
+	// A finalized transaction never changes, others are read again every time. Both belong to the account
+	// holder, so only the client may keep them, never a shared cache
+	private static final CacheControl FINALIZED = CacheControl.create(CacheDirectives.PRIVATE(),
+			CacheDirectives.MAX_AGE(Duration.ofDays(1).getSeconds()));
+	private static final CacheControl NOT_FINALIZED = CacheControl.create(CacheDirectives.PRIVATE(),
+			CacheDirectives.NO_CACHE);
+
+	private final LedgerEngine ledger;
+	// Payouts are only offered by the actor services
 	private final ActorRef transactionService;
-	private final Duration timeout;
+	private final Duration payoutTimeout;
+	private final TransferTimelines timelines;
+	private final TransactionResponseCache responses;
 
 	/**
 	 * Registers the routes with the mappings between URLs and actions to be
@@ -46,7 +69,11 @@ public class TransactionRoute extends AllDirectives {
 		return pathPrefix(Constant.TRANSACTION_ROUTE_PATH,
 				() -> route(postTransaction(),
 						path(separateOnSlashes(Constant.DEPOSIT_ROUTE_PATH), () -> depositAmount()),
-						path(PathMatchers.longSegment(), id -> route(getTransaction(id)))));
+						path(separateOnSlashes(Constant.PAYOUT_ROUTE_PATH), () -> postPayout()),
+						path(separateOnSlashes(Constant.TIMELINES_ROUTE_PATH), () -> getTimelines()),
+						path(PathMatchers.longSegment(), id -> route(getTransaction(id))),
+						path(PathMatchers.longSegment().slash(Constant.TIMELINE_ROUTE_PATH),
+								id -> route(getTimeline(id)))));
 	}
 
 	/************************************************************************************************************
@@ -66,8 +93,10 @@ public class TransactionRoute extends AllDirectives {
 		if (amount == null || amount.compareTo(BigDecimal.ZERO) < 0) {
 			return complete(StatusCodes.BAD_REQUEST, "Amount can not be null or less than zero");
 		}
-		CompletionStage<Object> transferResponse = ask(transactionService,
-				new TransactionMapper.TransactionDtoToModelMapper().apply(transactionDto), timeout);
+		timelines.record(id, Stage.ROUTE);
+		CompletionStage<Object> transferResponse = ledger
+				.transfer(new TransactionMapper.TransactionDtoToModelMapper().apply(transactionDto))
+				.whenComplete((response, error) -> timelines.record(id, Stage.REPLIED));
 		return onSuccess(transferResponse, this::handleTransferResponse);
 	}
 
@@ -92,10 +121,17 @@ public class TransactionRoute extends AllDirectives {
 	 * 									Methods for retrieving the Transaction 									*
 	 ************************************************************************************************************/
 
+	/**
+	 * A finalized transaction is served from the response cache, without
+	 * asking the ledger.
+	 */
 	private Route getTransaction(long id) {
 		return get(() -> {
-			CompletionStage<Object> getTransactionResponse = ask(transactionService,
-					new TransactionActor.GetTransaction(id), timeout);
+			TransactionResponseCache.Response cached = responses.get(id);
+			if (cached != null) {
+				return completeConditionally(cached);
+			}
+			CompletionStage<Object> getTransactionResponse = ledger.getTransaction(id);
 			return onSuccess(() -> getTransactionResponse, this::handleGetTransactionResponse);
 		});
 	}
@@ -105,10 +141,40 @@ public class TransactionRoute extends AllDirectives {
 				Case($(instanceOf(Failure.class)),
 						failure -> complete(StatusCodes.NOT_FOUND, failure, Jackson.marshaller())),
 				Case($(instanceOf(Transaction.class)),
-						transaction -> complete(StatusCodes.OK, transaction, Jackson.marshaller())),
+						transaction -> completeConditionally(responses.response(transaction))),
 				Case($(any()), x -> complete(StatusCodes.INTERNAL_SERVER_ERROR)));
 	}
+
+	/**
+	 * Completes with the response and its strong entity tag, or with 304 Not
+	 * Modified when the client sent the tag in If-None-Match.
+	 */
+	private Route completeConditionally(TransactionResponseCache.Response response) {
+		return respondWithHeader(response.isFinalized() ? FINALIZED : NOT_FINALIZED,
+				() -> conditional(EntityTag.create(response.getEntityTag(), false), () -> complete(
+						HttpEntities.create(ContentTypes.APPLICATION_JSON, response.getBody()))));
+	}
 	
+	/************************************************************************************************************
+	 * 							Methods for retrieving where the time of transfers went							*
+	 ************************************************************************************************************/
+
+	private Route getTimeline(long id) {
+		return get(() -> {
+			Map<Stage, Long> timeline = timelines.timeline(id);
+			if (timeline == null) {
+				return complete(StatusCodes.NOT_FOUND,
+						new Failure("No timeline of transaction " + id + ", it was not sampled or is no longer kept"),
+						Jackson.marshaller());
+			}
+			return complete(StatusCodes.OK, timeline, Jackson.marshaller());
+		});
+	}
+
+	private Route getTimelines() {
+		return get(() -> complete(StatusCodes.OK, timelines.summary(), Jackson.marshaller()));
+	}
+
 	/************************************************************************************************************
 	 * 									Methods for depositing the amount 										*
 	 ************************************************************************************************************/
@@ -126,9 +192,50 @@ public class TransactionRoute extends AllDirectives {
 		if (amount == null || amount.compareTo(BigDecimal.ZERO) < 0) {
 			return complete(StatusCodes.BAD_REQUEST, "Amount can not be null or less than zero");
 		}
-		CompletionStage<Object> transferResponse = ask(transactionService,
-				new CashDepositMapper.CashDepositDtoToModelMapper().apply(cashDeposit), timeout);
+		CompletionStage<Object> transferResponse = ledger
+				.deposit(new CashDepositMapper.CashDepositDtoToModelMapper().apply(cashDeposit));
 		return onSuccess(transferResponse, this::handleTransferResponse);
 	}
-	
+
+	/************************************************************************************************************
+	 * 							Methods for paying out from one account to many accounts						*
+	 ************************************************************************************************************/
+
+	private Route postPayout() {
+		return pathEnd(() -> post(() -> entity(Jackson.unmarshaller(PayoutDTO.class), this::payout)));
+	}
+
+	private Route payout(PayoutDTO payoutDto) {
+		if (payoutDto.getRemitterAccountId() == null) {
+			return complete(StatusCodes.BAD_REQUEST, "Remitter account can not be null");
+		}
+		if (payoutDto.getLegs() == null || payoutDto.getLegs().isEmpty()) {
+			return complete(StatusCodes.BAD_REQUEST, "Payout needs at least one leg");
+		}
+		for (TransactionDTO leg : payoutDto.getLegs()) {
+			if (leg.getId() != null && leg.getId() <= 0) {
+				return complete(StatusCodes.BAD_REQUEST, "Id can not be less than zero");
+			}
+			if (leg.getBeneficieryAccountId() == null) {
+				return complete(StatusCodes.BAD_REQUEST, "Beneficiery account can not be null");
+			}
+			if (leg.getAmount() == null || leg.getAmount().compareTo(BigDecimal.ZERO) < 0) {
+				return complete(StatusCodes.BAD_REQUEST, "Amount can not be null or less than zero");
+			}
+		}
+		CompletionStage<Object> payoutResponse = ask(transactionService,
+				new PayoutMapper.PayoutDtoToModelMapper().apply(payoutDto), payoutTimeout);
+		return onSuccess(payoutResponse, this::handlePayoutResponse);
+	}
+
+	private Route handlePayoutResponse(Object payoutResponse) {
+		return Match(payoutResponse).of(
+				Case($(instanceOf(Failure.class)),
+						failure -> complete(StatusCodes.BAD_REQUEST, failure, Jackson.marshaller())),
+				Case($(instanceOf(PayoutCompleted.class)),
+						payout -> complete(StatusCodes.CREATED, new PayoutMapper.PayoutCompletedToDtoMapper().apply(payout),
+								Jackson.marshaller())),
+				Case($(any()), x -> complete(StatusCodes.INTERNAL_SERVER_ERROR)));
+	}
+
 }
@@ -1,40 +1,145 @@
 package com.rev.money.transfer.service;
 
 import static akka.pattern.Patterns.ask;
+import static akka.pattern.Patterns.pipe;
 
+import java.io.Serializable;
 import java.math.BigDecimal;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
 
 import com.rev.money.transfer.actor.AccountActor;
 import com.rev.money.transfer.actor.AccountActor.DeleteAccount;
 import com.rev.money.transfer.factory.AccountFactory;
 import com.rev.money.transfer.model.Account;
 import com.rev.money.transfer.model.Customer;
+import com.rev.money.transfer.model.FxRates;
 import com.rev.money.transfer.model.MessageStatus.Failure;
 import com.rev.money.transfer.model.MessageStatus.Success;
+import com.rev.money.transfer.model.Payout;
 import com.rev.money.transfer.service.TransactionService.CashDepositTransaction;
+import com.rev.money.transfer.store.AccountIndex;
+import com.rev.money.transfer.store.DormantAccounts;
+import com.rev.money.transfer.store.FxRateTable;
+import com.rev.money.transfer.util.AccountAnalytics;
+import com.rev.money.transfer.util.AppliedOperations;
+import com.rev.money.transfer.util.Constant;
+import com.rev.money.transfer.util.FaultInjector;
+import com.rev.money.transfer.util.HopRetry;
+import com.rev.money.transfer.util.Metrics;
+import com.rev.money.transfer.util.PriorityMailbox;
+import com.rev.money.transfer.util.TransferTimelines;
+import com.rev.money.transfer.util.TransferTimelines.Stage;
+import com.rev.money.transfer.util.Gather;
 import com.rev.money.transfer.model.Transaction;
 
-import akka.actor.AbstractLoggingActor;
+import akka.actor.AbstractActorWithStash;
 import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
 import akka.actor.Props;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import io.vavr.Tuple;
+import io.vavr.Tuple4;
+import lombok.Data;
 
-public class AccountService extends AbstractLoggingActor {
+public class AccountService extends AbstractActorWithStash {
 
+	// Accounts read at once while taking a snapshot
+	private static final int EXPORT_PARALLELISM = 64;
+	// Accounts read at once for a page of a listing
+	private static final int LIST_PARALLELISM = 16;
+	// Transfers whose outcome is kept for a transfer asked again
+	private static final int RECENT_TRANSFERS = 65_536;
+
+	public static final String REFUND_RETRIES = "transfers.refund.retries";
+	public static final String UNRESOLVED = "transfers.unresolved";
+
+	private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
 	private final AccountFactory accountFactory;
 	private final Map<Long, ActorRef> accountsById = new HashMap<>();
+	// Accounts restored from a snapshot and not used since, they get an actor when first used
+	private final DormantAccounts dormantAccounts = new DormantAccounts();
+	// Balance histories restored for dormant accounts, handed to their actors when started
+	private final Map<Long, byte[]> dormantHistories = new HashMap<>();
+	private final AccountAnalytics analytics = AccountAnalytics.get(getContext().getSystem());
+	// Numbers of the accounts in accountsById and dormantAccounts, in order
+	private final AccountIndex accountIndex = new AccountIndex();
+	// Stripes of the hot accounts, credits go straight to one of them
+	private final Map<Long, List<ActorRef>> stripesById = new HashMap<>();
+	// Currency of the accounts not held in the base currency
+	private final Map<Long, String> currencyById = new HashMap<>();
+	private final FxRateTable fxRates;
 	private final Duration timeout;
+	private final int payoutParallelism;
+	private final Materializer materializer;
+	private final TransferTimelines timelines = TransferTimelines.get(getContext().getSystem());
+	private final HopRetry retries = HopRetry.get(getContext().getSystem());
+	private final Metrics metrics = Metrics.get(getContext().getSystem());
+	// Reply to the last batches of accounts opened, by batch id
+	private final AppliedOperations createdBatches = new AppliedOperations(retries.getOperationWindow());
+	// Outcome of the last transfers and cash deposits by transaction, pending while they run
+	private final Map<Object, CompletableFuture<Object>> outcomes = new LinkedHashMap<Object,
+			CompletableFuture<Object>>() {
+		private static final long serialVersionUID = 1L;
 
-	private AccountService(AccountFactory accountFactory, Duration timeout) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Object, CompletableFuture<Object>> eldest) {
+			return size() > RECENT_TRANSFERS;
+		}
+	};
+	// Transfers, deposits and payouts whose money may be between two accounts
+	private int inFlight;
+	private ActorRef exportReplyTo;
+	// Reconciliation cuts started, every movement is tagged with the epoch it starts in
+	private long epoch;
+	// Money brought in per currency by opening balances and cash deposits, net of
+	// FX conversions and deleted accounts
+	private final Map<String, BigDecimal> entered = new HashMap<>();
+	// Money withdrawn per currency and neither delivered nor refunded
+	private final Map<String, BigDecimal> unresolved = new HashMap<>();
+	private Reconciliation reconciliation;
+
+	private AccountService(AccountFactory accountFactory, Duration timeout, int payoutParallelism,
+			FxRateTable fxRates) {
 		this.accountFactory = accountFactory;
+		this.fxRates = fxRates;
 		this.timeout = timeout;
+		this.payoutParallelism = payoutParallelism;
+		this.materializer = ActorMaterializer.create(context());
+	}
+
+	public static Props props(AccountFactory accountFactory, Duration timeout, int payoutParallelism,
+			FxRateTable fxRates) {
+		return Props.create(AccountService.class,
+				() -> new AccountService(accountFactory, timeout, payoutParallelism, fxRates));
+	}
+
+	public static Props props(AccountFactory accountFactory, Duration timeout, int payoutParallelism) {
+		return AccountService.props(accountFactory, timeout, payoutParallelism, new FxRateTable());
 	}
 
 	public static Props props(AccountFactory accountFactory, Duration timeout) {
-		return Props.create(AccountService.class, () -> new AccountService(accountFactory, timeout));
+		return AccountService.props(accountFactory, timeout, Integer.parseInt(Constant.DEFAULT_PAYOUT_PARALLELISM));
 	}
 
 	public static Props props(AccountFactory accountFactory) {
@@ -43,39 +148,206 @@ public class AccountService extends AbstractLoggingActor {
 
 	@Override
 	public Receive createReceive() {
-		return receiveBuilder().match(Account.class, this::onAccountInfo)
+		return FaultInjector.get(getContext().getSystem()).wrap(this, receiveBuilder()
+				.match(Account.class, this::onAccountInfo)
+				.match(CreateStripedAccount.class, this::onCreateStripedAccount)
 				.match(Customer.class, this::onCustomer)
+				.match(CreateAccounts.class, this::onCreateAccounts)
+				.match(DiscardAccounts.class, this::onDiscardAccounts)
 				.match(AccountActor.GetAccount.class, this::onGetAccount)
+				.match(AccountActor.GetAccountAsOf.class, this::onGetAccountAsOf)
+				.match(AccountActor.SubscribeBalance.class, this::onSubscribeBalance)
 				.match(DeleteAccount.class, this::onDeleteAccount)
+				.match(AccountActor.SetLimits.class, setLimits -> forwardLimits(setLimits.getAccountNumber(), setLimits))
+				.match(AccountActor.GetLimits.class, getLimits -> forwardLimits(getLimits.getAccountNumber(), getLimits))
 				.match(Transaction.class, this::onTransfer)
-				.match(CashDepositTransaction.class, this::onDeposit).build();
+				.match(CashDepositTransaction.class, this::onDeposit)
+				.match(Payout.class, this::onPayout)
+				.match(MovementSettled.class, this::onMovementSettled)
+				.match(Refund.class, this::onRefund)
+				.match(MovementUnresolved.class, this::onMovementUnresolved)
+				.match(ListAccounts.class, this::onListAccounts)
+				.match(ExportAccounts.class, this::onExportAccounts)
+				.match(RestoreAccounts.class, this::onRestoreAccounts)
+				.match(RestoreHistories.class, this::onRestoreHistories)
+				.match(Reconcile.class, this::onReconcile)
+				.match(AccountActor.AccountCut.class, this::onAccountCut)
+				.match(AccountActor.InTransit.class, this::onInTransit)
+				.match(Converted.class, this::onConverted)
+				.match(CashEntered.class, this::onCashEntered)
+				.match(AccountRetired.class, this::onAccountRetired)
+				.match(CutSummed.class, this::onCutSummed)
+				.match(ReconciliationExpired.class, this::onReconciliationExpired)
+				.match(Failure.class, this::onCutFailed).build());
+	}
+
+	/**
+	 * While a snapshot is taken no new money movement starts: new ones are turned
+	 * down right away rather than held past the timeout of their sender, reads
+	 * still go through and everything else waits until the balances are
+	 * collected.
+	 */
+	private Receive exporting() {
+		return receiveBuilder().match(Transaction.class, this::turnDownWhileExporting)
+				.match(CashDepositTransaction.class, this::turnDownWhileExporting)
+				.match(Payout.class, this::turnDownWhileExporting)
+				.match(AccountActor.GetAccount.class, this::onGetAccount)
+				.match(ListAccounts.class, this::onListAccounts)
+				.match(AccountActor.GetAccountAsOf.class, this::onGetAccountAsOf)
+				.match(AccountActor.SubscribeBalance.class, this::onSubscribeBalance)
+				.match(MovementSettled.class, this::onMovementSettled)
+				.match(Refund.class, this::onRefund)
+				.match(MovementUnresolved.class, this::onMovementUnresolved)
+				.match(AccountsCollected.class, this::onAccountsCollected)
+				.match(AccountActor.AccountCut.class, this::onAccountCut)
+				.match(AccountActor.InTransit.class, this::onInTransit)
+				.match(Converted.class, this::onConverted)
+				.match(CashEntered.class, this::onCashEntered)
+				.match(AccountRetired.class, this::onAccountRetired)
+				.match(CutSummed.class, this::onCutSummed)
+				.match(ReconciliationExpired.class, this::onReconciliationExpired)
+				.match(Failure.class, this::onCutFailed)
+				.matchAny(message -> stash()).build();
 	}
 	
 	private void onCustomer(Customer customer) {
 		Account account = new Account(customer.getId(), BigDecimal.ZERO);
 		long id = account.getAccountNumber();
-		if (accountsById.containsKey(id)) {
+		if (exists(id)) {
 			replyAccountAlreadyExists(id);
 			return;
 		}
 		ActorRef accountActor = accountFactory.get(context(), account);
 		accountsById.put(id, accountActor);
-		log().info("Account {} created", id);
+		accountIndex.add(id);
+		log.info("Account {} created", id);
 		sender().tell(new Success(), getSelf());
 	}
 
+	/**
+	 * Opens a batch of accounts with one message instead of one ask per account.
+	 * Accounts that already exist are reported back and left as they are.
+	 */
+	private void onCreateAccounts(CreateAccounts createAccounts) {
+		String batchId = createAccounts.getBatchId();
+		Object created = batchId == null ? null : createdBatches.resultOf(batchId);
+		if (created != null) {
+			sender().tell(created, self());
+			return;
+		}
+		Map<Long, String> failures = new HashMap<>();
+		for (Account account : createAccounts.getAccounts()) {
+			long id = account.getAccountNumber();
+			String currency = FxRates.currencyCode(account.getCurrency());
+			if (exists(id)) {
+				failures.put(id, "Account " + id + " already exists");
+			} else if (currency == null) {
+				failures.put(id, "Unknown currency " + account.getCurrency());
+			} else {
+				accountsById.put(id, accountFactory.get(context(), account));
+				accountIndex.add(id);
+				registerCurrency(id, currency);
+				enter(currency, account.getBalance());
+			}
+		}
+		log.info("{} accounts created", createAccounts.getAccounts().size() - failures.size());
+		AccountsCreated accountsCreated = new AccountsCreated(failures);
+		if (batchId != null) {
+			createdBatches.record(batchId, accountsCreated);
+		}
+		sender().tell(accountsCreated, self());
+	}
+
+	/**
+	 * A batch opened is looked up by its id, one not opened yet is recorded as
+	 * failed so that it is turned down when it comes.
+	 */
+	private void onDiscardAccounts(DiscardAccounts discardAccounts) {
+		Object created = createdBatches.resultOf(discardAccounts.getBatchId());
+		Map<Long, String> discarded = new HashMap<>();
+		discardAccounts.getAccountNumbers().forEach(id -> discarded.put(id, "Account creation was given up"));
+		createdBatches.record(discardAccounts.getBatchId(), new AccountsCreated(discarded));
+		if (!(created instanceof AccountsCreated)) {
+			return;
+		}
+		for (long id : discardAccounts.getAccountNumbers()) {
+			if (!((AccountsCreated) created).getFailures().containsKey(id) && retire(id)) {
+				log.info("Account {} discarded", id);
+			}
+		}
+	}
+
 	private void onAccountInfo(Account account) {
 		long id = account.getAccountNumber();
-		if (accountsById.containsKey(id)) {
+		if (exists(id)) {
 			replyAccountAlreadyExists(id);
 			return;
 		}
+		if (!hasKnownCurrency(account)) {
+			return;
+		}
 		createAccount(account);
 	}
 
+	private boolean hasKnownCurrency(Account account) {
+		if (FxRates.currencyCode(account.getCurrency()) == null) {
+			String errorMsg = "Unknown currency " + account.getCurrency();
+			log.info(errorMsg);
+			sender().tell(new Failure(errorMsg), self());
+			return false;
+		}
+		return true;
+	}
+
+	private void registerCurrency(long id, String currency) {
+		String code = FxRates.currencyCode(currency);
+		if (code != null && !Constant.BASE_CURRENCY.equals(code)) {
+			currencyById.put(id, code);
+		}
+	}
+
+	private String currencyOf(long id) {
+		return currencyById.getOrDefault(id, Constant.BASE_CURRENCY);
+	}
+
+	private boolean exists(long id) {
+		return accountsById.containsKey(id) || dormantAccounts.contains(id);
+	}
+
+	/**
+	 * @return the actor of the account, started first when the account is
+	 *         dormant, null when there is no such account
+	 */
+	private ActorRef accountOf(long id) {
+		ActorRef account = accountsById.get(id);
+		if (account == null) {
+			Account dormant = dormantAccounts.remove(id);
+			if (dormant != null) {
+				byte[] history = dormantHistories.remove(id);
+				account = history == null ? accountFactory.get(context(), dormant)
+						: accountFactory.get(context(), dormant, history);
+				accountsById.put(id, account);
+			}
+		}
+		return account;
+	}
+
+	/**
+	 * Currency an account balance is held in, the base currency for accounts
+	 * opened without one.
+	 */
+	private static String ledgerCurrency(String currency) {
+		String code = FxRates.currencyCode(currency);
+		return code == null ? Constant.BASE_CURRENCY : code;
+	}
+
+	private void enter(String currency, BigDecimal amount) {
+		entered.merge(currency, amount, BigDecimal::add);
+	}
+
 	private void replyAccountAlreadyExists(long id) {
 		String errorMsg = "Account " + id + " already exists";
-		log().info(errorMsg);
+		log.info(errorMsg);
 		sender().tell(new Failure(errorMsg), self());
 	}
 
@@ -83,28 +355,89 @@ public class AccountService extends AbstractLoggingActor {
 		long id = account.getAccountNumber();
 		ActorRef actorRef = accountFactory.get(context(), account);
 		accountsById.put(id, actorRef);
-		log().info("Account {} created", id);
+		accountIndex.add(id);
+		registerCurrency(id, account.getCurrency());
+		enter(currencyOf(id), account.getBalance());
+		log.info("Account {} created", id);
+		sender().tell(new Success(), self());
+	}
+
+	private void onCreateStripedAccount(CreateStripedAccount createStripedAccount) {
+		Account account = createStripedAccount.getAccount();
+		long id = account.getAccountNumber();
+		if (exists(id)) {
+			replyAccountAlreadyExists(id);
+			return;
+		}
+		if (!hasKnownCurrency(account)) {
+			return;
+		}
+		List<ActorRef> stripes = accountFactory.getStripes(context(), account, createStripedAccount.getStripes());
+		accountsById.put(id, accountFactory.getStriped(context(), account, stripes, timeout));
+		accountIndex.add(id);
+		stripesById.put(id, stripes);
+		registerCurrency(id, account.getCurrency());
+		enter(currencyOf(id), account.getBalance());
+		log.info("Account {} created with {} stripes", id, stripes.size());
 		sender().tell(new Success(), self());
 	}
 
+	/**
+	 * Actor to send a credit to: any stripe of a striped account, the account
+	 * itself otherwise.
+	 */
+	private ActorRef creditTarget(long id, ActorRef account) {
+		List<ActorRef> stripes = stripesById.get(id);
+		return stripes == null ? account : stripes.get(ThreadLocalRandom.current().nextInt(stripes.size()));
+	}
+
 	private void onDeleteAccount(DeleteAccount deleteAccount) {
 		long id = deleteAccount.getAccountNumber();
-		ActorRef account = accountsById.remove(id);
-		if (account == null) {
+		if (!retire(id)) {
 			replyAccountNotFound(id);
 			return;
 		}
-		context().stop(account);
 		replyAccountDeleted(id);
 	}
 
+	/**
+	 * @return false if there is no such account
+	 */
+	private boolean retire(long id) {
+		ActorRef account = accountOf(id);
+		if (account == null) {
+			return false;
+		}
+		accountsById.remove(id);
+		accountIndex.remove(id);
+		currencyById.remove(id);
+		stripesById.remove(id);
+		// The account stops itself, its final balance leaves the ledger
+		ActorRef self = self();
+		long tag = epoch;
+		track(ask(account, new DeleteAccount(id), timeout).thenAccept(reply -> {
+			if (reply instanceof Account) {
+				self.tell(new AccountRetired(tag, (Account) reply), self);
+			}
+		}), tag);
+		return true;
+	}
+
 	private void replyAccountDeleted(long id) {
-		log().info("Account {} deleted", id);
+		log.info("Account {} deleted", id);
 		sender().tell(new Success(), self());
 	}
 
+	/**
+	 * A dormant account is read without starting its actor.
+	 */
 	private void onGetAccount(AccountActor.GetAccount getAccount) {
 		long id = getAccount.getAccountNumber();
+		Account dormant = dormantAccounts.get(id);
+		if (dormant != null) {
+			sender().tell(dormant, self());
+			return;
+		}
 		ActorRef accountActor = accountsById.get(id);
 		if (accountActor == null) {
 			replyAccountNotFound(id);
@@ -118,33 +451,146 @@ public class AccountService extends AbstractLoggingActor {
 		ask(account, getAccount, timeout).thenAcceptAsync(accountInfo -> replyTo.tell(accountInfo, self()));
 	}
 
+	/**
+	 * Answered by the account actor from its balance history, a deleted account
+	 * takes its history with it.
+	 */
+	private void onGetAccountAsOf(AccountActor.GetAccountAsOf getAccountAsOf) {
+		long id = getAccountAsOf.getAccountNumber();
+		ActorRef accountActor = accountOf(id);
+		if (accountActor == null) {
+			replyAccountNotFound(id);
+			return;
+		}
+		accountActor.forward(getAccountAsOf, context());
+	}
+
+	/**
+	 * Subscribers get the balances straight from the account actor. Stripes
+	 * only know their part of a striped account, so those have no events.
+	 */
+	private void onSubscribeBalance(AccountActor.SubscribeBalance subscribeBalance) {
+		long id = subscribeBalance.getAccountNumber();
+		ActorRef accountActor = accountOf(id);
+		if (accountActor == null) {
+			replyAccountNotFound(id);
+		} else if (stripesById.containsKey(id)) {
+			sender().tell(new Failure("Balance events are not supported on striped account " + id), self());
+		} else {
+			accountActor.forward(subscribeBalance, context());
+		}
+	}
+
+	/**
+	 * Limits are checked by the account actor itself, the stripes of a striped
+	 * account have none of their own.
+	 */
+	private void forwardLimits(long id, Object message) {
+		ActorRef accountActor = accountOf(id);
+		if (accountActor == null) {
+			replyAccountNotFound(id);
+		} else if (stripesById.containsKey(id)) {
+			sender().tell(new Failure("Limits are not supported on striped account " + id), self());
+		} else {
+			accountActor.forward(message, context());
+		}
+	}
+
 	private void onDeposit(CashDepositTransaction accountDepositTransaction) {
 		Transaction transaction = accountDepositTransaction.getTransaction();
-		log().info("Processing deposit transaction {}", transaction);
+		log.info("Processing deposit transaction {}", transaction);
 		ActorRef selfAccount = getAccount(transaction.getRemitterAccountId(), transaction);
 		if (selfAccount == null)
 			return;
-		transfer(transaction, selfAccount);
+		CompletableFuture<Object> outcome = newOutcome(accountDepositTransaction);
+		if (outcome == null)
+			return;
+		transfer(transaction, creditTarget(transaction.getRemitterAccountId(), selfAccount), outcome);
 	}
 
-	private void transfer(Transaction transaction, ActorRef selfAccount) {
-		ActorRef replyTo = sender();
-		cashDeposit(selfAccount, transaction.getAmount()).thenAcceptAsync(response -> {
-			if (response instanceof Failure) {
-				replyTransferFailed(transaction, (Failure) response, replyTo);
-			} else {
-				log().info("Transaction {} succeeded", transaction.getId());
-				replyTo.tell(new Success(), self());
+	/**
+	 * The cash is counted as brought in once the deposit is applied, so a
+	 * deposit refused or never answered is not reported as drift.
+	 */
+	private void transfer(Transaction transaction, ActorRef selfAccount, CompletableFuture<Object> outcome) {
+		long tag = epoch;
+		ActorRef self = self();
+		CashEntered entered = new CashEntered(tag, currencyOf(transaction.getRemitterAccountId()),
+				transaction.getAmount());
+		track(settle(cashDeposit(selfAccount, transaction.getAmount(), tag, transaction.getId()).thenAcceptAsync(
+				response -> {
+					if (response instanceof Failure) {
+						replyTransferFailed(transaction, (Failure) response, outcome);
+					} else {
+						self.tell(entered, self);
+						log.info("Transaction {} succeeded", transaction.getId());
+						outcome.complete(new Success());
+					}
+				}), outcome), tag);
+	}
+
+	private CompletionStage<Object> cashDeposit(ActorRef selfAccount, BigDecimal amount, long tag,
+			Long transactionId) {
+		String operationId = operationId(transactionId, "cash-deposit");
+		return askAccount(selfAccount, new AccountActor.Deposit(amount, tag, operationId), operationId);
+	}
+
+	/**
+	 * The outcome a transfer or cash deposit replies with. Asked again while or
+	 * after it runs, e.g. by the retry of a timed out ask, it is not run again:
+	 * the sender gets the outcome of the first ask, so the money is neither
+	 * entered nor converted twice.
+	 *
+	 * @param transaction the message asking for it, equal to the one asking
+	 *                    again
+	 * @return the outcome to complete, null when the transaction was asked
+	 *         before
+	 */
+	private CompletableFuture<Object> newOutcome(Object transaction) {
+		CompletableFuture<Object> outcome = outcomes.get(transaction);
+		if (outcome != null) {
+			log.info("Transaction {} asked again, replying with its first outcome", transaction);
+			pipe(outcome, getContext().dispatcher()).to(sender(), self());
+			return null;
+		}
+		outcome = new CompletableFuture<>();
+		outcomes.put(transaction, outcome);
+		pipe(outcome, getContext().dispatcher()).to(sender(), self());
+		return outcome;
+	}
+
+	/**
+	 * Fails the outcome when the movement ends without one, e.g. every retry of
+	 * a hop timed out, so nobody waits on it.
+	 */
+	private static CompletionStage<?> settle(CompletionStage<?> movement, CompletableFuture<Object> outcome) {
+		return movement.whenComplete((done, error) -> {
+			if (error != null) {
+				outcome.completeExceptionally(error);
 			}
 		});
 	}
 
-	private CompletionStage<Object> cashDeposit(ActorRef selfAccount, BigDecimal amount) {
-		return ask(selfAccount, new AccountActor.Deposit(amount), timeout);
+	/**
+	 * Id making a withdraw or deposit of the transaction applied once however
+	 * often it is asked, null without a transaction id.
+	 */
+	private static String operationId(Long transactionId, String operation) {
+		return transactionId == null ? null : transactionId + "/" + operation;
+	}
+
+	/**
+	 * Asks an account, again after a backoff while it times out if the operation
+	 * id makes that safe.
+	 */
+	private CompletionStage<Object> askAccount(ActorRef account, Object operation, String operationId) {
+		return operationId == null ? ask(account, operation, timeout)
+				: retries.ask(() -> ask(account, operation, timeout));
 	}
 
 	private void onTransfer(Transaction transactionInfo) {
-		log().info("Processing transaction {}", transactionInfo);
+		timelines.record(transactionInfo.getId(), Stage.ACCOUNT_SERVICE);
+		log.info("Processing transaction {}", transactionInfo);
 
 		ActorRef srcAccount = getAccount(transactionInfo.getRemitterAccountId(), transactionInfo);
 		if (srcAccount == null)
@@ -154,11 +600,30 @@ public class AccountService extends AbstractLoggingActor {
 		if (targetAccount == null)
 			return;
 
-		transfer(transactionInfo, srcAccount, targetAccount);
+		FxRates rates = fxRates.current();
+		String remitterCurrency = currencyOf(transactionInfo.getRemitterAccountId());
+		String beneficiaryCurrency = currencyOf(transactionInfo.getBeneficieryAccountId());
+		String currency = transactionInfo.getCurrency() == null ? remitterCurrency : transactionInfo.getCurrency();
+		BigDecimal debit = rates.convert(transactionInfo.getAmount(), currency, remitterCurrency);
+		BigDecimal credit = rates.convert(transactionInfo.getAmount(), currency, beneficiaryCurrency);
+		if (debit == null || credit == null) {
+			replyTransferFailed(transactionInfo,
+					noFxRate(currency, debit == null ? remitterCurrency : beneficiaryCurrency), sender());
+			return;
+		}
+
+		Converted conversion = remitterCurrency.equals(beneficiaryCurrency) ? null
+				: new Converted(epoch, remitterCurrency, debit, beneficiaryCurrency, credit);
+		transfer(transactionInfo, srcAccount, remitterCurrency,
+				creditTarget(transactionInfo.getBeneficieryAccountId(), targetAccount), debit, credit, conversion);
+	}
+
+	private static Failure noFxRate(String from, String to) {
+		return new Failure("No FX rate from " + from + " to " + to);
 	}
 
 	private ActorRef getAccount(long srcAccountId, Transaction transactionInfo) {
-		ActorRef srcAccount = accountsById.get(srcAccountId);
+		ActorRef srcAccount = accountOf(srcAccountId);
 		if (srcAccount == null) {
 			replyTransactionWithNonExistingAccount(srcAccountId, transactionInfo);
 			return null;
@@ -167,52 +632,967 @@ public class AccountService extends AbstractLoggingActor {
 	}
 
 	private void replyTransactionWithNonExistingAccount(long targetAccountId, Transaction transactionInfo) {
-		log().warning("Transaction {} failed", transactionInfo);
+		log.warning("Transaction {} failed", transactionInfo);
 		replyAccountNotFound(targetAccountId);
 	}
 
 	private void replyAccountNotFound(long id) {
 		String errorMsg = "Account " + id + " not found";
-		log().warning(errorMsg);
+		log.warning(errorMsg);
 		sender().tell(new Failure(errorMsg), self());
 	}
 
-	private void transfer(Transaction transactionInfo, ActorRef srcAccount, ActorRef targetAccount) {
-		ActorRef replyTo = sender();
-		withdrawSrcAccount(srcAccount, transactionInfo.getAmount()).thenAcceptAsync(responseFromSrc -> {
-			if (responseFromSrc instanceof Failure) {
-				replyTransferFailed(transactionInfo, (Failure) responseFromSrc, replyTo);
-			} else {
-				depositTargetAccount(transactionInfo, srcAccount, targetAccount, replyTo);
-			}
-		});
+	/**
+	 * Withdraws the debit in the currency of the remitter and deposits the credit
+	 * in the currency of the beneficiary, both the transaction amount when the
+	 * accounts share a currency.
+	 *
+	 * @param conversion recorded once both legs are applied, null when the
+	 *                   accounts share a currency
+	 */
+	private void transfer(Transaction transactionInfo, ActorRef srcAccount, String remitterCurrency,
+			ActorRef targetAccount, BigDecimal debit, BigDecimal credit, Converted conversion) {
+		CompletableFuture<Object> outcome = newOutcome(transactionInfo);
+		if (outcome == null)
+			return;
+		long tag = epoch;
+		Long id = transactionInfo.getId();
+		track(settle(withdrawSrcAccount(srcAccount, debit, tag, operationId(id, "withdraw"))
+				.thenComposeAsync(responseFromSrc -> {
+					timelines.record(id, Stage.WITHDRAWN);
+					if (responseFromSrc instanceof Failure) {
+						replyTransferFailed(transactionInfo, (Failure) responseFromSrc, outcome);
+						return CompletableFuture.completedFuture(null);
+					}
+					return depositTargetAccount(transactionInfo, srcAccount, remitterCurrency, targetAccount, debit,
+							credit, conversion, tag, outcome);
+				}), outcome), tag);
 	}
 
-	private CompletionStage<Object> withdrawSrcAccount(ActorRef srcAccount, BigDecimal amount) {
-		return ask(srcAccount, new AccountActor.Withdraw(amount), timeout);
+	private CompletionStage<Object> withdrawSrcAccount(ActorRef srcAccount, BigDecimal amount, long tag,
+			String operationId) {
+		return askAccount(srcAccount, new AccountActor.Withdraw(amount, tag, operationId), operationId);
 	}
 
-	private void depositTargetAccount(Transaction transactionInfo, ActorRef srcAccount, ActorRef targetAccount,
-			ActorRef replyTo) {
-		ask(targetAccount, new AccountActor.Deposit(transactionInfo.getAmount()), timeout)
-				.thenAcceptAsync(depositResponse -> {
+	/**
+	 * A deposit refused is refunded. A deposit unanswered on every retry may
+	 * have been applied, so like a payout leg it is not refunded: the debit is
+	 * recorded unresolved and the transfer answered so.
+	 */
+	private CompletionStage<?> depositTargetAccount(Transaction transactionInfo, ActorRef srcAccount,
+			String remitterCurrency, ActorRef targetAccount, BigDecimal debit, BigDecimal credit,
+			Converted conversion, long tag, CompletableFuture<Object> outcome) {
+		ActorRef self = self();
+		Long id = transactionInfo.getId();
+		String operationId = operationId(id, "deposit");
+		return askAccount(targetAccount, new AccountActor.Deposit(credit, tag, operationId), operationId)
+				.handle((depositResponse, error) -> error == null ? depositResponse
+						: error instanceof CompletionException ? error.getCause() : error)
+				.thenComposeAsync(depositResponse -> {
+					timelines.record(id, Stage.DEPOSITED);
+					if (depositResponse instanceof Throwable) {
+						Failure unknown = new Failure(
+								"Deposit outcome unknown: " + ((Throwable) depositResponse).getMessage());
+						self.tell(new MovementUnresolved(remitterCurrency, debit, operationId), self);
+						replyTransferUnresolved(transactionInfo, unknown, outcome);
+						return CompletableFuture.completedFuture(null);
+					}
 					if (depositResponse instanceof Failure) {
-						replyTransferFailed(transactionInfo, (Failure) depositResponse, replyTo);
-						revertSrcAccountBalance(transactionInfo, srcAccount);
-					} else {
-						log().info("Transaction {} succeeded", transactionInfo.getId());
-						replyTo.tell(new Success(), self());
+						// Replied once refunded, so the remitter reads its balance back whole
+						return revertSrcAccountBalance(self, transactionInfo.getRemitterAccountId(), srcAccount,
+								remitterCurrency, debit, tag, operationId(id, "refund")).thenAccept(refund -> {
+									if (refund instanceof Failure) {
+										replyTransferUnresolved(transactionInfo, (Failure) refund, outcome);
+									} else {
+										replyTransferFailed(transactionInfo, (Failure) depositResponse, outcome);
+									}
+								});
+					}
+					if (conversion != null) {
+						self.tell(conversion, self);
 					}
+					log.info("Transaction {} succeeded", id);
+					outcome.complete(new Success());
+					return CompletableFuture.completedFuture(null);
 				});
 	}
 
 	private void replyTransferFailed(Transaction transactionInfo, Failure failure, ActorRef replyTo) {
-		log().warning("Transaction {} failed with reason: {}", transactionInfo.getId(), failure.getMessage());
+		log.warning("Transaction {} failed with reason: {}", transactionInfo.getId(), failure.getMessage());
 		replyTo.tell(failure, self());
 	}
 
-	private void revertSrcAccountBalance(Transaction transactionInfo, ActorRef srcAccount) {
-		srcAccount.tell(new AccountActor.Deposit(transactionInfo.getAmount()), self());
+	private void replyTransferFailed(Transaction transactionInfo, Failure failure,
+			CompletableFuture<Object> outcome) {
+		log.warning("Transaction {} failed with reason: {}", transactionInfo.getId(), failure.getMessage());
+		outcome.complete(failure);
+	}
+
+	/**
+	 * The money left the remitter and reached nobody, answered apart from a
+	 * failure so the transaction is not taken for rolled back cleanly.
+	 */
+	private void replyTransferUnresolved(Transaction transactionInfo, Failure failure,
+			CompletableFuture<Object> outcome) {
+		log.error("Transaction {} left unresolved: {}", transactionInfo.getId(), failure.getMessage());
+		outcome.complete(new TransferUnresolved(failure.getMessage()));
+	}
+
+	/**
+	 * Refunds the remitter, asked rather than told so the movement stays in
+	 * flight until the refund is applied.
+	 *
+	 * @return completed once the refund is applied, with a {@link Failure} only
+	 *         when the remitter was deleted first
+	 */
+	private static CompletionStage<Object> revertSrcAccountBalance(ActorRef self, long srcAccountId,
+			ActorRef srcAccount, String currency, BigDecimal debit, long tag, String operationId) {
+		CompletableFuture<Object> refunded = new CompletableFuture<>();
+		self.tell(new Refund(srcAccountId, srcAccount, currency, debit, tag, operationId, refunded), self);
+		return refunded;
+	}
+
+	/**
+	 * Asks the refund again after a backoff until the remitter applies it:
+	 * whatever failed, a fault or every retry timing out, the refund carries its
+	 * operation id and is applied once however often it is asked. A remitter
+	 * deleted meanwhile can take nothing back, the money is then recorded
+	 * unresolved.
+	 */
+	private void onRefund(Refund refund) {
+		if (accountsById.get(refund.getAccountNumber()) != refund.getAccount()) {
+			String reason = "Account " + refund.getAccountNumber() + " deleted before refund "
+					+ refund.getOperationId();
+			recordUnresolved(refund.getCurrency(), refund.getAmount(), reason);
+			refund.getRefunded().complete(new Failure(reason));
+			return;
+		}
+		ActorRef self = self();
+		ActorSystem system = getContext().getSystem();
+		String operationId = refund.getOperationId();
+		askAccount(refund.getAccount(), new AccountActor.Deposit(refund.getAmount(), refund.getTag(), operationId),
+				operationId).whenComplete((reply, error) -> {
+					if (error == null && !(reply instanceof Failure)) {
+						refund.getRefunded().complete(reply);
+						return;
+					}
+					log.warning("Refund {} not applied, asked again: {}", operationId,
+							error == null ? ((Failure) reply).getMessage() : error.getMessage());
+					metrics.increment(REFUND_RETRIES);
+					system.scheduler().scheduleOnce(retries.getMaxBackoff(), self, refund, system.dispatcher(),
+							self);
+				});
+	}
+
+	private void onMovementUnresolved(MovementUnresolved movement) {
+		recordUnresolved(movement.getCurrency(), movement.getAmount(),
+				"no reply to " + movement.getOperationId() + " on any retry");
+	}
+
+	/**
+	 * Counted under {@value #UNRESOLVED} and reported with every reconciliation:
+	 * unless it was applied after all, the drift is short of it.
+	 */
+	private void recordUnresolved(String currency, BigDecimal amount, String reason) {
+		log.error("{} {} neither delivered nor refunded: {}", amount, currency, reason);
+		unresolved.merge(currency, amount, BigDecimal::add);
+		metrics.increment(UNRESOLVED);
+	}
+
+	/************************************************************************************************************
+	 * 					Payout: one debit of the remitter, parallel credits of the beneficiaries				*
+	 ************************************************************************************************************/
+
+	private void onPayout(Payout payout) {
+		log.info("Processing payout of {} legs from account {}", payout.getLegs().size(),
+				payout.getRemitterAccountId());
+		ActorRef srcAccount = accountOf(payout.getRemitterAccountId());
+		if (srcAccount == null) {
+			replyAccountNotFound(payout.getRemitterAccountId());
+			return;
+		}
+		Map<Long, String> failures = new ConcurrentHashMap<>();
+		List<Tuple4<Transaction, ActorRef, BigDecimal, Converted>> credits = new ArrayList<>(payout.getLegs().size());
+		BigDecimal total = BigDecimal.ZERO;
+		FxRates rates = fxRates.current();
+		String remitterCurrency = currencyOf(payout.getRemitterAccountId());
+		for (Transaction leg : payout.getLegs()) {
+			ActorRef targetAccount = accountOf(leg.getBeneficieryAccountId());
+			String beneficiaryCurrency = currencyOf(leg.getBeneficieryAccountId());
+			// Legs are in the currency of the remitter
+			BigDecimal credit = rates.convert(leg.getAmount(), remitterCurrency, beneficiaryCurrency);
+			if (targetAccount == null) {
+				failures.put(leg.getId(), "Account " + leg.getBeneficieryAccountId() + " not found");
+			} else if (credit == null) {
+				failures.put(leg.getId(), noFxRate(remitterCurrency, beneficiaryCurrency).getMessage());
+			} else {
+				Converted conversion = remitterCurrency.equals(beneficiaryCurrency) ? null
+						: new Converted(epoch, remitterCurrency, leg.getAmount(), beneficiaryCurrency, credit);
+				credits.add(Tuple.of(leg, creditTarget(leg.getBeneficieryAccountId(), targetAccount), credit,
+						conversion));
+				total = total.add(leg.getAmount());
+			}
+		}
+		// Asked again, e.g. after a timeout, the payout replies its first outcome
+		CompletableFuture<Object> outcome = newOutcome(payout);
+		if (outcome == null) {
+			return;
+		}
+		if (credits.isEmpty()) {
+			outcome.complete(new PayoutSettled(failures, Collections.emptySet()));
+			return;
+		}
+		long tag = epoch;
+		// Leg ids are unique, the first one names the debit and the refund of the payout
+		Long payoutId = credits.get(0)._1.getId();
+		String debitId = operationId(payoutId, "payout");
+		track(settle(withdrawSrcAccount(srcAccount, total, tag, debitId).thenComposeAsync(responseFromSrc -> {
+			if (responseFromSrc instanceof Failure) {
+				String reason = ((Failure) responseFromSrc).getMessage();
+				credits.forEach(credit -> failures.put(credit._1.getId(), reason));
+				log.warning("Payout from account {} failed with reason: {}", payout.getRemitterAccountId(), reason);
+				outcome.complete(new PayoutSettled(failures, Collections.emptySet()));
+				return CompletableFuture.completedFuture(null);
+			}
+			return creditBeneficiaries(payout.getRemitterAccountId(), srcAccount, remitterCurrency, credits, failures,
+					tag, operationId(payoutId, "payout-refund"), outcome);
+		}), outcome), tag);
+	}
+
+	/**
+	 * Deposits into at most {@code payoutParallelism} beneficiaries at a time.
+	 * Failed legs are refunded to the remitter with a single deposit; legs whose
+	 * deposit timed out on every retry may have been applied, so they are
+	 * reported unresolved and not refunded.
+	 */
+	private CompletionStage<?> creditBeneficiaries(long srcAccountId, ActorRef srcAccount, String remitterCurrency,
+			List<Tuple4<Transaction, ActorRef, BigDecimal, Converted>> credits, Map<Long, String> failures, long tag,
+			String refundId, CompletableFuture<Object> outcome) {
+		Set<Long> unresolved = ConcurrentHashMap.newKeySet();
+		ActorRef self = self();
+		return Source.from(credits)
+				.mapAsyncUnordered(payoutParallelism,
+						credit -> depositLeg(credit._2, credit._3, tag, operationId(credit._1.getId(), "deposit"))
+								.handle((response, error) -> Tuple.of(credit, error == null ? response : error)))
+				.runWith(Sink.fold(BigDecimal.ZERO, (refund, result) -> {
+					Transaction leg = result._1._1;
+					if (result._2 instanceof Failure) {
+						failures.put(leg.getId(), ((Failure) result._2).getMessage());
+						return refund.add(leg.getAmount());
+					}
+					if (result._2 instanceof Throwable) {
+						failures.put(leg.getId(), "Deposit outcome unknown: " + ((Throwable) result._2).getMessage());
+						unresolved.add(leg.getId());
+						self.tell(new MovementUnresolved(remitterCurrency, leg.getAmount(),
+								operationId(leg.getId(), "deposit")), self);
+					} else if (result._1._4 != null) {
+						self.tell(result._1._4, self);
+					}
+					return refund;
+				}), materializer)
+				.thenCompose(refund -> {
+					log.info("Payout settled with {} failed legs", failures.size());
+					outcome.complete(new PayoutSettled(failures, unresolved));
+					return refund.signum() > 0 ? revertSrcAccountBalance(self, srcAccountId, srcAccount,
+							remitterCurrency, refund, tag, refundId) : CompletableFuture.completedFuture(null);
+				});
+	}
+
+	private CompletionStage<Object> depositLeg(ActorRef targetAccount, BigDecimal credit, long tag,
+			String operationId) {
+		return askAccount(targetAccount, new AccountActor.Deposit(credit, tag, operationId), operationId);
+	}
+
+	/**
+	 * Counts the money movement as in flight until the given stage completes, so
+	 * a snapshot can wait until every withdrawn amount landed somewhere.
+	 */
+	private void track(CompletionStage<?> movement, long tag) {
+		ActorRef self = self();
+		inFlight++;
+		movement.whenComplete((done, error) -> self.tell(new MovementSettled(tag), ActorRef.noSender()));
+	}
+
+	private void onMovementSettled(MovementSettled settled) {
+		inFlight--;
+		if (exportReplyTo != null && inFlight == 0) {
+			collectAccounts();
+		}
+		if (reconciliation != null && settled.getEpoch() < reconciliation.epoch) {
+			reconciliation.movementsInFlight--;
+			completeCut();
+		}
+	}
+
+	/************************************************************************************************************
+	 * 				Reconciliation: balances at a consistent cut against the money brought in					*
+	 ************************************************************************************************************/
+
+	/**
+	 * Starts a cut of a new epoch without holding back any movement: every
+	 * account gets its marker before a movement of the new epoch is sent, and
+	 * the report is made once every account replied and every movement of an
+	 * older epoch settled. Dormant accounts are cut right away: a movement
+	 * starts their actor before it reaches them, so none of an older epoch can.
+	 */
+	private void onReconcile(Reconcile reconcile) {
+		if (reconciliation != null) {
+			sender().tell(new Failure("Reconciliation " + reconciliation.epoch + " is still running"), self());
+			return;
+		}
+		epoch++;
+		reconciliation = new Reconciliation(epoch, sender(), accountsById.size(), inFlight, new HashMap<>(entered),
+				dormantAccounts.size(), dormantAccounts.balances());
+		AccountActor.Cut cut = new AccountActor.Cut(epoch);
+		accountsById.values().forEach(account -> account.tell(cut, self()));
+		getContext().getSystem().scheduler().scheduleOnce(reconcile.getTimeout(), self(),
+				new ReconciliationExpired(epoch), getContext().getDispatcher(), self());
+		log.info("Reconciliation {} started over {} accounts and {} dormant ones, {} movements in flight", epoch,
+				accountsById.size(), dormantAccounts.size(), inFlight);
+		completeCut();
+	}
+
+	private boolean isReconciling(long cutEpoch) {
+		return reconciliation != null && reconciliation.epoch == cutEpoch;
+	}
+
+	private void onAccountCut(AccountActor.AccountCut cut) {
+		if (isReconciling(cut.getEpoch())) {
+			reconciliation.cuts.add(cut.getAccount());
+			reconciliation.pendingCuts--;
+			completeCut();
+		}
+	}
+
+	private void onInTransit(AccountActor.InTransit inTransit) {
+		if (isReconciling(inTransit.getEpoch())) {
+			reconciliation.inTransit.merge(ledgerCurrency(inTransit.getCurrency()), inTransit.getAmount(),
+					BigDecimal::add);
+		}
+	}
+
+	/**
+	 * Money of a movement converted between currencies, counted as brought in
+	 * in the currency credited rather than the one debited.
+	 */
+	private void onConverted(Converted converted) {
+		convert(entered, converted);
+		if (reconciliation != null && converted.getEpoch() < reconciliation.epoch) {
+			convert(reconciliation.expected, converted);
+		}
+	}
+
+	/**
+	 * Cash deposit applied, told before its movement settles so a cut waiting
+	 * for the movement expects it.
+	 */
+	private void onCashEntered(CashEntered cashEntered) {
+		enter(cashEntered.getCurrency(), cashEntered.getAmount());
+		if (reconciliation != null && cashEntered.getEpoch() < reconciliation.epoch) {
+			reconciliation.expected.merge(cashEntered.getCurrency(), cashEntered.getAmount(), BigDecimal::add);
+		}
+	}
+
+	private static void convert(Map<String, BigDecimal> totals, Converted converted) {
+		totals.merge(converted.getFromCurrency(), converted.getDebit().negate(), BigDecimal::add);
+		totals.merge(converted.getToCurrency(), converted.getCredit(), BigDecimal::add);
+	}
+
+	private void onAccountRetired(AccountRetired retired) {
+		String currency = ledgerCurrency(retired.getAccount().getCurrency());
+		BigDecimal balance = retired.getAccount().getBalance();
+		entered.merge(currency, balance.negate(), BigDecimal::add);
+		if (reconciliation != null && retired.getEpoch() < reconciliation.epoch) {
+			reconciliation.expected.merge(currency, balance.negate(), BigDecimal::add);
+		}
+	}
+
+	/**
+	 * Sums the balances at the cut off the actor, with a fork-join reduction
+	 * over the accounts.
+	 */
+	private void completeCut() {
+		if (reconciliation.pendingCuts > 0 || reconciliation.movementsInFlight > 0 || reconciliation.summing) {
+			return;
+		}
+		reconciliation.summing = true;
+		ActorRef self = self();
+		long cutEpoch = reconciliation.epoch;
+		List<Account> cuts = reconciliation.cuts;
+		CompletableFuture.supplyAsync(() -> cuts.parallelStream()
+				.collect(Collectors.groupingBy(account -> ledgerCurrency(account.getCurrency()),
+						Collectors.reducing(BigDecimal.ZERO, Account::getBalance, BigDecimal::add))))
+				.whenComplete((balances, error) -> self.tell(new CutSummed(cutEpoch, balances, error), self));
+	}
+
+	private void onCutSummed(CutSummed summed) {
+		if (!isReconciling(summed.getEpoch())) {
+			return;
+		}
+		if (summed.getError() != null) {
+			endReconciliation(new Failure("Reconciliation failed: " + summed.getError().getMessage()));
+			return;
+		}
+		Map<String, BigDecimal> balances = new TreeMap<>(summed.getBalances());
+		reconciliation.dormantBalances.forEach(
+				(currency, balance) -> balances.merge(ledgerCurrency(currency), balance, BigDecimal::add));
+		Map<String, BigDecimal> inTransit = new TreeMap<>(reconciliation.inTransit);
+		Map<String, BigDecimal> expected = new TreeMap<>(reconciliation.expected);
+		Set<String> currencies = new TreeSet<>(balances.keySet());
+		currencies.addAll(inTransit.keySet());
+		currencies.addAll(expected.keySet());
+		Map<String, BigDecimal> drift = new TreeMap<>();
+		for (String currency : currencies) {
+			BigDecimal difference = balances.getOrDefault(currency, BigDecimal.ZERO)
+					.add(inTransit.getOrDefault(currency, BigDecimal.ZERO))
+					.subtract(expected.getOrDefault(currency, BigDecimal.ZERO));
+			if (difference.signum() != 0) {
+				drift.put(currency, difference);
+			}
+		}
+		long durationMillis = (System.nanoTime() - reconciliation.startNanos) / 1_000_000;
+		endReconciliation(new Reconciled(reconciliation.epoch,
+				reconciliation.cuts.size() + reconciliation.dormantAccounts, durationMillis, balances, inTransit,
+				expected, drift, new TreeMap<>(unresolved)));
+	}
+
+	private void onReconciliationExpired(ReconciliationExpired expired) {
+		if (isReconciling(expired.getEpoch())) {
+			endReconciliation(new Failure("Reconciliation " + expired.getEpoch() + " timed out with "
+					+ reconciliation.pendingCuts + " accounts and " + reconciliation.movementsInFlight
+					+ " movements outstanding"));
+		}
+	}
+
+	/**
+	 * A striped account failing to gather the cuts of its stripes.
+	 */
+	private void onCutFailed(Failure failure) {
+		if (reconciliation != null) {
+			endReconciliation(new Failure("Reconciliation failed: " + failure.getMessage()));
+		} else {
+			log.info(failure.getMessage());
+		}
+	}
+
+	private void endReconciliation(Object result) {
+		if (result instanceof Failure) {
+			log.warning(((Failure) result).getMessage());
+		} else {
+			log.info("Reconciliation {} done in {} ms", reconciliation.epoch,
+					((Reconciled) result).getDurationMillis());
+		}
+		reconciliation.replyTo.tell(result, self());
+		reconciliation = null;
+	}
+
+	/************************************************************************************************************
+	 * 						Listing: accounts in account number order, page by page								*
+	 ************************************************************************************************************/
+
+	/**
+	 * Reads the accounts of the page from their actors, at most
+	 * {@value #LIST_PARALLELISM} at a time, and the dormant ones from their
+	 * store, and replies them in order. An account deleted while it is read is
+	 * left out; balances are read one by one, not at a consistent cut.
+	 */
+	private void onListAccounts(ListAccounts listAccounts) {
+		long[] accountNumbers = accountIndex.after(listAccounts.getAfter(), listAccounts.getLimit());
+		// The actor of each account, or the account itself when dormant
+		List<Object> accounts = new ArrayList<>(accountNumbers.length);
+		for (long accountNumber : accountNumbers) {
+			ActorRef account = accountsById.get(accountNumber);
+			accounts.add(account == null ? dormantAccounts.get(accountNumber) : account);
+		}
+		ActorRef replyTo = sender();
+		ActorRef self = self();
+		Source.range(0, accountNumbers.length - 1)
+				.mapAsync(LIST_PARALLELISM, i -> accounts.get(i) instanceof ActorRef
+						? ask((ActorRef) accounts.get(i), new AccountActor.GetAccount(accountNumbers[i]), timeout)
+								.exceptionally(error -> null)
+						: CompletableFuture.completedFuture(accounts.get(i)))
+				.filter(Account.class::isInstance).map(Account.class::cast).runWith(Sink.seq(), materializer)
+				.whenComplete((listed, error) -> replyTo.tell(error == null ? new AccountsListed(listed)
+						: new Failure("Listing failed: " + error.getMessage()), self));
+	}
+
+	/************************************************************************************************************
+	 * 				Snapshot: consistent cut of every balance, bulk restore at start up							*
+	 ************************************************************************************************************/
+
+	/**
+	 * Stops starting new transfers, waits for the ones in flight and then reads
+	 * every account, so the balances of the snapshot add up.
+	 */
+	private void onExportAccounts(ExportAccounts exportAccounts) {
+		log.info("Exporting {} accounts, waiting for {} transfers in flight",
+				accountsById.size() + dormantAccounts.size(), inFlight);
+		exportReplyTo = sender();
+		getContext().become(exporting(), false);
+		if (inFlight == 0) {
+			collectAccounts();
+		}
+	}
+
+	/**
+	 * Dormant accounts are read when the actors are, an account started after
+	 * is in one of them only. Accounts are read with their balance history,
+	 * striped accounts have none of their own.
+	 */
+	private void collectAccounts() {
+		ActorRef self = self();
+		List<Account> dormant = dormantAccounts.accounts();
+		Map<Long, byte[]> histories = new HashMap<>(dormantHistories);
+		Set<Long> striped = new HashSet<>(stripesById.keySet());
+		Gather.replies(accountsById,
+				id -> striped.contains(id) ? new AccountActor.GetAccount(id) : new AccountActor.ExportAccount(id),
+				timeout, EXPORT_PARALLELISM, materializer)
+				.whenComplete((replies, error) -> self.tell(new AccountsCollected(error == null
+						? exported(replies, dormant, histories)
+						: new Failure("Export failed: " + error.getMessage())), self));
+	}
+
+	private static Object exported(List<Object> replies, List<Account> dormant, Map<Long, byte[]> histories) {
+		List<Account> accounts = new ArrayList<>(replies.size() + dormant.size());
+		accounts.addAll(dormant);
+		for (Object reply : replies) {
+			if (reply instanceof AccountActor.ExportedAccount) {
+				AccountActor.ExportedAccount exported = (AccountActor.ExportedAccount) reply;
+				accounts.add(exported.getAccount());
+				histories.put(exported.getAccount().getAccountNumber(), exported.getHistory());
+			} else if (reply instanceof Account) {
+				accounts.add((Account) reply);
+			} else {
+				return reply;
+			}
+		}
+		return new AccountsExported(accounts, histories);
+	}
+
+	private void onAccountsCollected(AccountsCollected collected) {
+		exportReplyTo.tell(collected.getResult(), self());
+		exportReplyTo = null;
+		getContext().unbecome();
+		unstashAll();
+	}
+
+	/**
+	 * A transfer asked again gets its first outcome, it does not move money now.
+	 */
+	private void turnDownWhileExporting(Object movement) {
+		CompletableFuture<Object> outcome = outcomes.get(movement);
+		if (outcome != null) {
+			pipe(outcome, getContext().dispatcher()).to(sender(), self());
+			return;
+		}
+		String errorMsg = "Transfers are paused while a snapshot is taken, try again";
+		log.info("{}: {}", errorMsg, movement);
+		sender().tell(new Failure(errorMsg), self());
+	}
+
+	/**
+	 * Restored accounts are kept dormant, without an actor, until first used.
+	 * Their balances are told to the analytics as their actors would.
+	 */
+	private void onRestoreAccounts(RestoreAccounts restoreAccounts) {
+		int restored = 0;
+		for (Account account : restoreAccounts.getAccounts()) {
+			if (!exists(account.getAccountNumber())) {
+				if (dormantAccounts.put(account)) {
+					analytics.balanceChanged(account.getAccountNumber(), AccountAnalytics.NOT_STRIPED,
+							account.getCurrency(), account.getBalance());
+				} else {
+					accountsById.put(account.getAccountNumber(), accountFactory.get(context(), account));
+				}
+				accountIndex.add(account.getAccountNumber());
+				registerCurrency(account.getAccountNumber(), account.getCurrency());
+				enter(currencyOf(account.getAccountNumber()), account.getBalance());
+				restored++;
+			}
+		}
+		log.debug("Restored {} accounts", restored);
+		sender().tell(new Success(), self());
+	}
+
+	/**
+	 * Histories of dormant accounts are kept until their actors start, the
+	 * others are told to their actors. Histories of accounts not restored, or
+	 * striped, are left out.
+	 */
+	private void onRestoreHistories(RestoreHistories restoreHistories) {
+		restoreHistories.getHistories().forEach((id, history) -> {
+			if (dormantAccounts.contains(id)) {
+				dormantHistories.put(id, history);
+			} else if (accountsById.containsKey(id) && !stripesById.containsKey(id)) {
+				accountsById.get(id).tell(new AccountActor.RestoreHistory(history), self());
+			}
+		});
+		sender().tell(new Success(), self());
+	}
+
+	/**
+	 * Opens a batch of accounts. A batch asked again with the same id is
+	 * answered with the {@link AccountsCreated} it first had.
+	 */
+	@Data
+	public static class CreateAccounts implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 5934981565409862770L;
+
+		// Null for a batch that is never asked again
+		private final String batchId;
+		private final List<Account> accounts;
+
+		public CreateAccounts(String batchId, List<Account> accounts) {
+			this.batchId = batchId;
+			this.accounts = accounts;
+		}
+
+		public CreateAccounts(List<Account> accounts) {
+			this(null, accounts);
+		}
+	}
+
+	/**
+	 * Gives up on a batch whose {@link AccountsCreated} never came back: the
+	 * accounts it opened are deleted, and a batch not opened yet never is. Not
+	 * replied to.
+	 */
+	@Data
+	public static class DiscardAccounts implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -2853154377402866915L;
+
+		private final String batchId;
+		private final List<Long> accountNumbers;
+	}
+
+	@Data
+	public static class AccountsCreated implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -1599320733498211085L;
+
+		// Failure reason by account number, accounts not in here were created
+		private final Map<Long, String> failures;
+	}
+
+	@Data
+	public static class CreateStripedAccount implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -4461328796091367914L;
+
+		private final Account account;
+		private final int stripes;
+	}
+
+	@Data
+	public static class PayoutSettled implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 5119412585326391024L;
+
+		// Failure reason by leg transaction id, legs not in here succeeded
+		private final Map<Long, String> failures;
+		// Failed legs whose deposit may still have been applied
+		private final Set<Long> unresolved;
+	}
+
+	/**
+	 * Replied with {@link AccountsListed}.
+	 */
+	@Data
+	public static class ListAccounts implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 6402915507367380512L;
+
+		// Account number the page starts after, Long.MIN_VALUE for the first page
+		private final long after;
+		private final int limit;
+	}
+
+	@Data
+	public static class AccountsListed implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -2203826617395168704L;
+
+		// In account number order
+		private final List<Account> accounts;
+	}
+
+	@Data
+	public static class ExportAccounts implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 3207126127146540787L;
+	}
+
+	@Data
+	public static class AccountsExported implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -6339553930768129517L;
+
+		private final List<Account> accounts;
+		// Balance histories by account number, written by BalanceHistory.toBytes(), of the accounts that keep one
+		private final Map<Long, byte[]> histories;
+
+		public AccountsExported(List<Account> accounts, Map<Long, byte[]> histories) {
+			this.accounts = accounts;
+			this.histories = histories;
+		}
+
+		/**
+		 * Accounts of a ledger that keeps no balance history.
+		 */
+		public AccountsExported(List<Account> accounts) {
+			this(accounts, Collections.emptyMap());
+		}
+	}
+
+	@Data
+	public static class RestoreAccounts implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 1718150287645738036L;
+
+		private final List<Account> accounts;
+	}
+
+	/**
+	 * Balance histories of restored accounts, by account number, sent after the
+	 * accounts themselves.
+	 */
+	@Data
+	public static class RestoreHistories implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -3092866014558172947L;
+
+		private final Map<Long, byte[]> histories;
+	}
+
+	/**
+	 * Takes a consistent cut of every balance while movements go on and checks
+	 * it against the money brought into the ledger, replied with
+	 * {@link Reconciled}.
+	 */
+	@Data
+	public static class Reconcile implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -3046112873609725917L;
+
+		// Failure is replied if the cut is not complete by then
+		private final Duration timeout;
+	}
+
+	/**
+	 * Outcome of a reconciliation, amounts by currency. The balances at the cut
+	 * plus the money in transit at it add up to the money expected, net of
+	 * deposits, conversions and deleted accounts, unless there is a drift.
+	 */
+	@Data
+	public static class Reconciled implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 7630851734032398451L;
+
+		private final long epoch;
+		private final int accounts;
+		private final long durationMillis;
+		private final Map<String, BigDecimal> balances;
+		private final Map<String, BigDecimal> inTransit;
+		private final Map<String, BigDecimal> expected;
+		// Balances plus money in transit minus the money expected, currencies
+		// adding up are left out
+		private final Map<String, BigDecimal> drift;
+		// Money withdrawn and neither delivered nor refunded since the service
+		// started, the drift is short of it unless it was delivered after all
+		private final Map<String, BigDecimal> unresolved;
+
+		public boolean isConserved() {
+			return drift.isEmpty();
+		}
+	}
+
+	/**
+	 * Reply to a transfer that withdrew from the remitter and could neither
+	 * deliver nor refund the money.
+	 */
+	@Data
+	public static class TransferUnresolved implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -6104518230157389162L;
+
+		private final String reason;
+	}
+
+	@Data
+	private static class MovementSettled implements Serializable, PriorityMailbox.Completion {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 4419925165466094163L;
+
+		private final long epoch;
+	}
+
+	@Data
+	private static class Refund implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 2290857713364152021L;
+
+		private final long accountNumber;
+		private final ActorRef account;
+		private final String currency;
+		private final BigDecimal amount;
+		private final long tag;
+		private final String operationId;
+		// Completed once applied, with a Failure if the account was deleted first
+		private final transient CompletableFuture<Object> refunded;
+	}
+
+	/**
+	 * Money withdrawn whose deposit stayed unanswered, told before its movement
+	 * settles so the reconciliation waiting for it reports it.
+	 */
+	@Data
+	private static class MovementUnresolved implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -1942866071215385042L;
+
+		private final String currency;
+		private final BigDecimal amount;
+		private final String operationId;
+	}
+
+	@Data
+	private static class Converted implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -8837204563912540154L;
+
+		private final long epoch;
+		private final String fromCurrency;
+		private final BigDecimal debit;
+		private final String toCurrency;
+		private final BigDecimal credit;
+	}
+
+	@Data
+	private static class CashEntered implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 3375071282436395140L;
+
+		private final long epoch;
+		private final String currency;
+		private final BigDecimal amount;
+	}
+
+	@Data
+	private static class AccountRetired implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 3935367714598316112L;
+
+		private final long epoch;
+		// With the final balance
+		private final Account account;
+	}
+
+	@Data
+	private static class CutSummed implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -5474401330719006216L;
+
+		private final long epoch;
+		private final Map<String, BigDecimal> balances;
+		private final Throwable error;
+	}
+
+	@Data
+	private static class ReconciliationExpired implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 1489377036524166390L;
+
+		private final long epoch;
+	}
+
+	/**
+	 * Reconciliation in progress.
+	 */
+	private static class Reconciliation {
+
+		private final long epoch;
+		private final ActorRef replyTo;
+		private final long startNanos = System.nanoTime();
+		private final List<Account> cuts;
+		private int pendingCuts;
+		// Movements of older epochs not settled yet
+		private int movementsInFlight;
+		// Money brought in when the cut started
+		private final Map<String, BigDecimal> expected;
+		private final Map<String, BigDecimal> inTransit = new HashMap<>();
+		private boolean summing;
+		// Dormant accounts and their balances by currency when the cut started
+		private final int dormantAccounts;
+		private final Map<String, BigDecimal> dormantBalances;
+
+		private Reconciliation(long epoch, ActorRef replyTo, int accounts, int movementsInFlight,
+				Map<String, BigDecimal> expected, int dormantAccounts, Map<String, BigDecimal> dormantBalances) {
+			this.epoch = epoch;
+			this.replyTo = replyTo;
+			this.cuts = new ArrayList<>(accounts);
+			this.pendingCuts = accounts;
+			this.movementsInFlight = movementsInFlight;
+			this.expected = expected;
+			this.dormantAccounts = dormantAccounts;
+			this.dormantBalances = dormantBalances;
+		}
+	}
+
+	@Data
+	private static class AccountsCollected implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -2707460359120624178L;
+
+		// AccountsExported or Failure
+		private final Object result;
 	}
 
 }
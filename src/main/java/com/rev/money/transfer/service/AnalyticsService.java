@@ -0,0 +1,298 @@
+package com.rev.money.transfer.service;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.util.AccountAnalytics;
+import com.rev.money.transfer.util.Constant;
+import com.rev.money.transfer.util.DecayingCountMinSketch;
+import com.rev.money.transfer.util.TopAccounts;
+
+import akka.actor.AbstractLoggingActor;
+import akka.actor.Props;
+import lombok.Data;
+import lombok.Value;
+
+/**
+ * The largest balances and the most active accounts, told by the account
+ * actors as they change balances and handle withdraws and deposits, so
+ * neither is read by asking every account and no account waits on the
+ * analytics. Read through {@code GET /analytics/top-balances} and
+ * {@code GET /analytics/hot-accounts}.
+ *
+ * Only bounded candidates are kept. Per currency, a heap of the
+ * {@value #SLACK} times {@code topSize} largest balances reported: an account
+ * with a larger balance than the smallest kept comes in, the smallest goes.
+ * An account left out is not remembered and comes back in on its next
+ * change, so when balances kept fall below one left out that did not change
+ * since, the list misses it until it does; the slack keeps that to the
+ * accounts ranked last. The stripes of a striped account report their own
+ * balances, which are added up here, for striped accounts only.
+ *
+ * Activity is counted per account in a {@link DecayingCountMinSketch} over
+ * {@code activityWindow}, the estimates of the {@value #SLACK} times
+ * {@code topSize} most active accounts kept in a bounded heap. Accounts
+ * handling the most withdraws and deposits are the ones whose mailboxes fill
+ * up under load.
+ */
+public class AnalyticsService extends AbstractLoggingActor {
+
+	// Accounts kept in each heap per account reported
+	private static final int SLACK = 2;
+	private static final int ACTIVITY_BUCKETS = 12;
+	private static final int SKETCH_DEPTH = 4;
+	private static final int SKETCH_WIDTH = 4_096;
+
+	private final int topSize;
+	private final Clock clock;
+	private final Map<String, BalanceRanking> balancesByCurrency = new HashMap<>();
+	private final DecayingCountMinSketch activity;
+	private final TopAccounts mostActive;
+	// Activity bucket the heap was last scored in
+	private long scoredBucket = Long.MIN_VALUE;
+
+	private AnalyticsService(int topSize, Duration activityWindow, Clock clock) {
+		this.topSize = topSize;
+		this.clock = clock;
+		this.activity = new DecayingCountMinSketch(activityWindow, ACTIVITY_BUCKETS, SKETCH_DEPTH, SKETCH_WIDTH);
+		this.mostActive = new TopAccounts(topSize * SLACK);
+	}
+
+	public static Props props(int topSize, Duration activityWindow, Clock clock) {
+		return Props.create(AnalyticsService.class, () -> new AnalyticsService(topSize, activityWindow, clock));
+	}
+
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder().match(BalanceChanged.class, this::onBalanceChanged)
+				.match(AccountActive.class, this::onAccountActive)
+				.match(GetTopBalances.class, this::onGetTopBalances)
+				.match(GetHotAccounts.class, this::onGetHotAccounts).build();
+	}
+
+	/************************************************************************************************************
+	 * 								Methods for ranking the largest balances									*
+	 ************************************************************************************************************/
+
+	/**
+	 * New balance of an account or of one stripe of it, zero when it stops.
+	 */
+	@Data
+	public static class BalanceChanged implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 4518377236309571823L;
+
+		private final long accountNumber;
+		// Index of the stripe, AccountAnalytics.NOT_STRIPED for an account that is not striped
+		private final int stripe;
+		private final String currency;
+		private final BigDecimal balance;
+	}
+
+	private void onBalanceChanged(BalanceChanged balanceChanged) {
+		String currency = balanceChanged.getCurrency() == null ? Constant.BASE_CURRENCY
+				: balanceChanged.getCurrency();
+		BalanceRanking ranking = balancesByCurrency.get(currency);
+		if (ranking == null) {
+			if (balanceChanged.getBalance().signum() <= 0) {
+				return;
+			}
+			ranking = new BalanceRanking(topSize * SLACK);
+			balancesByCurrency.put(currency, ranking);
+		}
+		ranking.change(balanceChanged.getAccountNumber(), balanceChanged.getStripe(), balanceChanged.getBalance());
+	}
+
+	@Data
+	public static class GetTopBalances implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -6480012981570398147L;
+
+		private final String currency;
+	}
+
+	/**
+	 * Reply to {@link GetTopBalances}: the accounts with the largest balances in
+	 * the currency, largest first.
+	 */
+	@Data
+	public static class TopBalances implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 2962218318470390427L;
+
+		private final List<Account> accounts;
+	}
+
+	private void onGetTopBalances(GetTopBalances getTopBalances) {
+		String currency = getTopBalances.getCurrency();
+		BalanceRanking ranking = balancesByCurrency.get(currency);
+		sender().tell(new TopBalances(ranking == null ? List.of() : ranking.top(topSize, currency)), self());
+	}
+
+	/**
+	 * Balances of the candidate accounts in one currency.
+	 */
+	private static final class BalanceRanking {
+
+		private final TopAccounts largest;
+		// Balances of the accounts in the heap, which scores them as doubles
+		private final Map<Long, BigDecimal> balances = new HashMap<>();
+		// Balances of the stripes of striped accounts, by stripe
+		private final Map<Long, Map<Integer, BigDecimal>> stripes = new HashMap<>();
+
+		BalanceRanking(int capacity) {
+			this.largest = new TopAccounts(capacity);
+		}
+
+		void change(long accountNumber, int stripe, BigDecimal balance) {
+			if (stripe != AccountAnalytics.NOT_STRIPED) {
+				balance = stripedBalance(accountNumber, stripe, balance);
+			}
+			if (balance.signum() <= 0) {
+				// Closed or emptied, ranked with nothing in it
+				largest.remove(accountNumber);
+				balances.remove(accountNumber);
+				return;
+			}
+			double score = balance.doubleValue();
+			boolean evicts = !largest.contains(accountNumber) && largest.isFull();
+			if (evicts && score <= largest.minScore()) {
+				return;
+			}
+			long evicted = evicts ? largest.minAccountNumber() : accountNumber;
+			largest.offer(accountNumber, score);
+			if (evicts) {
+				balances.remove(evicted);
+			}
+			balances.put(accountNumber, balance);
+		}
+
+		/**
+		 * @return the balance of the account, the stripe now having the given one
+		 */
+		private BigDecimal stripedBalance(long accountNumber, int stripe, BigDecimal balance) {
+			Map<Integer, BigDecimal> parts = stripes.computeIfAbsent(accountNumber, key -> new HashMap<>());
+			if (balance.signum() == 0) {
+				parts.remove(stripe);
+			} else {
+				parts.put(stripe, balance);
+			}
+			if (parts.isEmpty()) {
+				stripes.remove(accountNumber);
+			}
+			return parts.values().stream().reduce(BigDecimal.ZERO, BigDecimal::add);
+		}
+
+		List<Account> top(int size, String currency) {
+			long[] ranked = largest.ranked();
+			List<Account> top = new ArrayList<>(Math.min(size, ranked.length));
+			for (int i = 0; i < ranked.length && i < size; i++) {
+				top.add(new Account(ranked[i], balances.get(ranked[i]), currency));
+			}
+			return top;
+		}
+	}
+
+	/************************************************************************************************************
+	 * 								Methods for ranking the most active accounts								*
+	 ************************************************************************************************************/
+
+	/**
+	 * A withdraw or deposit handled by the account.
+	 */
+	@Data
+	public static class AccountActive implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -3368516226357012795L;
+
+		private final long accountNumber;
+	}
+
+	private void onAccountActive(AccountActive accountActive) {
+		long accountNumber = accountActive.getAccountNumber();
+		long now = clock.millis();
+		rescoreIfAged(now);
+		long estimate = activity.add(accountNumber, now);
+		if (mostActive.contains(accountNumber) || estimate > mostActive.minScore() || !mostActive.isFull()) {
+			mostActive.offer(accountNumber, estimate);
+		}
+	}
+
+	@Data
+	public static class GetHotAccounts implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 1697934516392466117L;
+	}
+
+	/**
+	 * Reply to {@link GetHotAccounts}: the accounts with the most withdraws and
+	 * deposits over the activity window, most first, with an estimate never
+	 * below their count.
+	 */
+	@Data
+	public static class HotAccounts implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -1036584283541386024L;
+
+		private final List<HotAccount> accounts;
+	}
+
+	@Value
+	public static class HotAccount {
+		long accountNumber;
+		// Withdraws and deposits over the activity window
+		long operations;
+	}
+
+	private void onGetHotAccounts(GetHotAccounts getHotAccounts) {
+		long now = clock.millis();
+		rescoreIfAged(now);
+		List<HotAccount> hot = new ArrayList<>(mostActive.size());
+		for (long accountNumber : mostActive.ranked()) {
+			hot.add(new HotAccount(accountNumber, activity.estimate(accountNumber, now)));
+		}
+		hot.sort(Comparator.comparingLong(HotAccount::getOperations).reversed());
+		sender().tell(new HotAccounts(new ArrayList<>(hot.subList(0, Math.min(topSize, hot.size())))), self());
+	}
+
+	/**
+	 * Scores the heap again once counts aged out, so an account that was busy
+	 * does not keep its place over one busy now.
+	 */
+	private void rescoreIfAged(long now) {
+		long bucket = activity.bucketOf(now);
+		if (bucket == scoredBucket) {
+			return;
+		}
+		scoredBucket = bucket;
+		for (long accountNumber : mostActive.ranked()) {
+			long estimate = activity.estimate(accountNumber, now);
+			if (estimate == 0) {
+				mostActive.remove(accountNumber);
+			} else {
+				mostActive.offer(accountNumber, estimate);
+			}
+		}
+	}
+
+}
@@ -2,34 +2,54 @@ package com.rev.money.transfer.service;
 
 import static akka.pattern.Patterns.ask;
 
+import java.io.Serializable;
+import java.math.BigDecimal;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import com.rev.money.transfer.actor.CustomerActor;
 import com.rev.money.transfer.factory.CustomerFactory;
+import com.rev.money.transfer.model.Account;
 import com.rev.money.transfer.model.Customer;
 import com.rev.money.transfer.model.MessageStatus;
 import com.rev.money.transfer.model.MessageStatus.Failure;
 import com.rev.money.transfer.model.MessageStatus.Success;
+import com.rev.money.transfer.service.AccountService.AccountsCreated;
+import com.rev.money.transfer.service.AccountService.CreateAccounts;
+import com.rev.money.transfer.service.AccountService.DiscardAccounts;
+import com.rev.money.transfer.store.CustomerIndex;
+import com.rev.money.transfer.store.CustomerStore;
+import com.rev.money.transfer.util.AppliedOperations;
+import com.rev.money.transfer.util.HopRetry;
 
 import akka.actor.AbstractLoggingActor;
 import akka.actor.ActorRef;
 import akka.actor.Props;
+import lombok.Data;
 
 public class CustomerService extends AbstractLoggingActor {
 
-	private final CustomerFactory customerFactory;
-	// In-memory store for CRUD operations
-	private final Map<Long, ActorRef> customersById = new HashMap<>();
+	// In-memory store for CRUD operations, read directly by this service
+	private final CustomerStore customersById;
+	private final CustomerIndex customerIndex = new CustomerIndex();
 	private final ActorRef accountService;
 	private final Duration timeout;
 	private final AtomicLong sequence;
+	private final HopRetry retries = HopRetry.get(getContext().getSystem());
+	// Reply to the last batches onboarded, by batch id
+	private final AppliedOperations onboardedBatches = new AppliedOperations(retries.getOperationWindow());
+	// Senders waiting for the batches being onboarded, by batch id
+	private final Map<String, List<ActorRef>> onboarding = new HashMap<>();
 
 	private CustomerService(ActorRef accountService, CustomerFactory customerFactory, Duration timeout) {
 		this.accountService = accountService;
-		this.customerFactory = customerFactory;
+		this.customersById = customerFactory.getStore();
 		this.timeout = timeout;
 		this.sequence = new AtomicLong(0);
 	}
@@ -44,8 +64,14 @@ public class CustomerService extends AbstractLoggingActor {
 	@Override
 	public Receive createReceive() {
 		return receiveBuilder().match(Customer.class, this::onCustomer)
+				.match(OnboardCustomers.class, this::onOnboardCustomers)
+				.match(AccountsOpened.class, this::onAccountsOpened)
 				.match(CustomerActor.GetCustomer.class, this::onGetCustomer)
-				.match(CustomerActor.DeleteCustomer.class, this::onDeleteCustomer).build();
+				.match(CustomerActor.DeleteCustomer.class, this::onDeleteCustomer)
+				.match(RemoveCustomer.class, this::onRemoveCustomer)
+				.match(FindCustomers.class, this::onFindCustomers)
+				.match(ExportCustomers.class, this::onExportCustomers)
+				.match(RestoreCustomers.class, this::onRestoreCustomers).build();
 	}
 
 	/**
@@ -54,9 +80,13 @@ public class CustomerService extends AbstractLoggingActor {
 	 * @param customer
 	 */
 	private void onCustomer(Customer customer) {
+		if (customerIndex.containsEmail(customer.getEmail())) {
+			replyEmailAlreadyExists(customer.getEmail());
+			return;
+		}
 		long id = sequence.incrementAndGet();
 		log().debug("Sequence for Customer and Account Id: {}", sequence);
-		if (customersById.containsKey(id)) {
+		if (customersById.contains(id)) {
 			replyCustomerAlreadyExists(id);
 			return;
 		}
@@ -74,13 +104,23 @@ public class CustomerService extends AbstractLoggingActor {
 		sender().tell(new MessageStatus.Failure(errorMsg), self());
 	}
 
+	private void replyEmailAlreadyExists(String email) {
+		String errorMsg = emailAlreadyExists(email);
+		log().info(errorMsg);
+		sender().tell(new MessageStatus.Failure(errorMsg), self());
+	}
+
+	private static String emailAlreadyExists(String email) {
+		return "Customer with email " + email + " already exists";
+	}
+
 	private void createCustomer(Customer customer) {
 		long id = sequence.longValue();
 		customer = Customer.builder().id(id).name(customer.getName()).accountNumber(id)
 				.contactNumber(customer.getContactNumber()).email(customer.getEmail()).zipCode(customer.getZipCode())
 				.build();
-		ActorRef actorRef = customerFactory.get(context(), customer);
-		customersById.put(id, actorRef);
+		customersById.put(customer);
+		customerIndex.add(customer);
 		log().info("Customer {} created", id);
 		createAccount(customer);
 	}
@@ -88,14 +128,17 @@ public class CustomerService extends AbstractLoggingActor {
 	private void createAccount(Customer customer) {
 		ActorRef replyTo = sender();
 		log().debug("In progress of creating Account for new customer");
+		ActorRef self = self();
 		ask(accountService, customer, timeout)
-				.thenAcceptAsync(accountCreationResponse -> handleCreateAccountResponse(customer.getId(),
-						accountCreationResponse, replyTo));
+				.thenAcceptAsync(accountCreationResponse -> handleCreateAccountResponse(customer,
+						accountCreationResponse, replyTo, self));
 	}
 
-	private void handleCreateAccountResponse(Long id, Object accountCreationResponse, ActorRef replyTo) {
+	private void handleCreateAccountResponse(Customer customer, Object accountCreationResponse, ActorRef replyTo,
+			ActorRef self) {
+		long id = customer.getId();
 		if (accountCreationResponse instanceof Failure) {
-			customersById.remove(id);
+			self.tell(new RemoveCustomer(customer), self);
 			sequence.decrementAndGet();
 			String errorMsg = "Customer Account creation failed";
 			log().warning(errorMsg);
@@ -106,6 +149,87 @@ public class CustomerService extends AbstractLoggingActor {
 		}
 	}
 
+	/**
+	 * Onboards a batch of customers: takes a block of ids at once, creates the
+	 * customers and opens all their accounts with a single message to the account
+	 * service. A batch asked again while it is onboarded, or after, is answered
+	 * with its reply instead of being onboarded twice. The accounts are asked
+	 * again when the account service times out, and discarded along with the
+	 * customers once it never replied.
+	 * 
+	 * @param onboardCustomers
+	 */
+	private void onOnboardCustomers(OnboardCustomers onboardCustomers) {
+		String batchId = onboardCustomers.getBatchId();
+		if (batchId != null) {
+			Object onboarded = onboardedBatches.resultOf(batchId);
+			if (onboarded != null) {
+				sender().tell(onboarded, self());
+				return;
+			}
+			List<ActorRef> waiting = onboarding.get(batchId);
+			if (waiting != null) {
+				waiting.add(sender());
+				return;
+			}
+			onboarding.put(batchId, new ArrayList<>(List.of(sender())));
+		}
+		List<Customer> batch = onboardCustomers.getCustomers();
+		long firstId = sequence.getAndAdd(batch.size()) + 1;
+		List<Long> ids = new ArrayList<>(batch.size());
+		List<Customer> created = new ArrayList<>(batch.size());
+		List<Account> accounts = new ArrayList<>(batch.size());
+		Map<Long, String> rejected = new HashMap<>();
+		for (int i = 0; i < batch.size(); i++) {
+			long id = firstId + i;
+			Customer customer = batch.get(i);
+			ids.add(id);
+			if (customerIndex.containsEmail(customer.getEmail())) {
+				rejected.put(id, emailAlreadyExists(customer.getEmail()));
+				continue;
+			}
+			customer = Customer.builder().id(id).name(customer.getName()).accountNumber(id)
+					.contactNumber(customer.getContactNumber()).email(customer.getEmail())
+					.zipCode(customer.getZipCode()).build();
+			customersById.put(customer);
+			customerIndex.add(customer);
+			created.add(customer);
+			accounts.add(new Account(id, BigDecimal.ZERO));
+		}
+		ActorRef replyTo = sender();
+		ActorRef self = self();
+		CreateAccounts createAccounts = new CreateAccounts(UUID.randomUUID().toString(), accounts);
+		retries.ask(() -> ask(accountService, createAccounts, timeout)).whenComplete((response, error) -> {
+			Map<Long, String> failures = new HashMap<>(rejected);
+			if (response instanceof AccountsCreated) {
+				failures.putAll(((AccountsCreated) response).getFailures());
+			} else {
+				accountService.tell(new DiscardAccounts(createAccounts.getBatchId(),
+						created.stream().map(Customer::getId).collect(Collectors.toList())), self);
+				created.forEach(customer -> failures.put(customer.getId(), "Customer Account creation failed"));
+			}
+			self.tell(new AccountsOpened(batchId, ids, created, failures, replyTo), self);
+		});
+	}
+
+	private void onAccountsOpened(AccountsOpened accountsOpened) {
+		for (Customer customer : accountsOpened.getCreated()) {
+			if (accountsOpened.getFailures().containsKey(customer.getId())) {
+				customersById.remove(customer.getId());
+				customerIndex.remove(customer);
+			}
+		}
+		log().info("{} customers onboarded", accountsOpened.getIds().size() - accountsOpened.getFailures().size());
+		CustomersOnboarded onboarded = new CustomersOnboarded(accountsOpened.getIds(), accountsOpened.getFailures());
+		String batchId = accountsOpened.getBatchId();
+		if (batchId == null) {
+			accountsOpened.getReplyTo().tell(onboarded, self());
+			return;
+		}
+		onboardedBatches.record(batchId, onboarded);
+		onboarding.remove(batchId).forEach(waiting -> waiting.tell(onboarded, self()));
+	}
+
 	/**
 	 * Get the customer by customerId
 	 * 
@@ -113,17 +237,12 @@ public class CustomerService extends AbstractLoggingActor {
 	 */
 	private void onGetCustomer(CustomerActor.GetCustomer getCustomer) {
 		long id = getCustomer.getId();
-		ActorRef customer = customersById.get(id);
+		Customer customer = customersById.get(id);
 		if (customer == null) {
 			replyCustomerNotFound(id);
 			return;
 		}
-		forwardGetCustomer(customer, getCustomer);
-	}
-
-	private void forwardGetCustomer(ActorRef customer, CustomerActor.GetCustomer getCustomer) {
-		ActorRef replyTo = sender();
-		ask(customer, getCustomer, timeout).thenAcceptAsync(c -> replyTo.tell(c, self()));
+		sender().tell(customer, self());
 	}
 
 	private void replyCustomerNotFound(long id) {
@@ -139,12 +258,189 @@ public class CustomerService extends AbstractLoggingActor {
 	 */
 	private void onDeleteCustomer(CustomerActor.DeleteCustomer deleteCustomer) {
 		long id = deleteCustomer.getId();
-		if (!customersById.containsKey(id)) {
+		Customer customer = customersById.remove(id);
+		if (customer == null) {
 			replyCustomerNotFound(id);
 			return;
 		}
-		customersById.remove(id);
+		customerIndex.remove(customer);
 		sender().tell(new MessageStatus.Success(), self());
 	}
 
+	/**
+	 * Drops a customer whose account could not be created, unless the id was
+	 * taken by another customer meanwhile
+	 * 
+	 * @param removeCustomer
+	 */
+	private void onRemoveCustomer(RemoveCustomer removeCustomer) {
+		Customer customer = removeCustomer.getCustomer();
+		if (customer.equals(customersById.get(customer.getId()))) {
+			customersById.remove(customer.getId());
+			customerIndex.remove(customer);
+		}
+	}
+
+	/**
+	 * Search customers by email, contact number and zip code prefix through the
+	 * secondary indexes
+	 * 
+	 * @param findCustomers
+	 */
+	private void onFindCustomers(FindCustomers findCustomers) {
+		CustomerIndex.Page page = customerIndex.find(findCustomers.getEmail(), findCustomers.getContactNumber(),
+				findCustomers.getZipPrefix(), findCustomers.getOffset(), findCustomers.getLimit());
+		List<Customer> customers = new ArrayList<>(page.getIds().length);
+		for (long id : page.getIds()) {
+			Customer customer = customersById.get(id);
+			if (customer != null) {
+				customers.add(customer);
+			}
+		}
+		sender().tell(new CustomersFound(page.getTotal(), customers), self());
+	}
+
+	/**
+	 * Reads every customer for a snapshot
+	 * 
+	 * @param exportCustomers
+	 */
+	private void onExportCustomers(ExportCustomers exportCustomers) {
+		List<Customer> customers = new ArrayList<>(customersById.size());
+		customersById.forEach(customers::add);
+		sender().tell(new CustomersExported(customers), self());
+	}
+
+	/**
+	 * Recreates customers from a snapshot. Their accounts are restored by the
+	 * account service, so none is created here.
+	 * 
+	 * @param restoreCustomers
+	 */
+	private void onRestoreCustomers(RestoreCustomers restoreCustomers) {
+		for (Customer customer : restoreCustomers.getCustomers()) {
+			long id = customer.getId();
+			if (!customersById.contains(id)) {
+				customersById.put(customer);
+				customerIndex.add(customer);
+			}
+			sequence.accumulateAndGet(id, Math::max);
+		}
+		log().debug("Restored {} customers", restoreCustomers.getCustomers().size());
+		sender().tell(new Success(), self());
+	}
+
+	@Data
+	public static class FindCustomers implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -3180538424734398735L;
+
+		// Criteria left null are ignored
+		private final String email;
+		private final Long contactNumber;
+		private final String zipPrefix;
+		private final int offset;
+		private final int limit;
+	}
+
+	@Data
+	public static class CustomersFound implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 6263216409101575853L;
+
+		// Number of matching customers over all pages
+		private final long total;
+		private final List<Customer> customers;
+	}
+
+	@Data
+	private static class RemoveCustomer implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -6961813813209958447L;
+
+		private final Customer customer;
+	}
+
+	@Data
+	public static class OnboardCustomers implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 2230574318406125117L;
+
+		// Null for a batch that is never asked again
+		private final String batchId;
+		private final List<Customer> customers;
+
+		public OnboardCustomers(String batchId, List<Customer> customers) {
+			this.batchId = batchId;
+			this.customers = customers;
+		}
+
+		public OnboardCustomers(List<Customer> customers) {
+			this(null, customers);
+		}
+	}
+
+	@Data
+	public static class CustomersOnboarded implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -4045512722916183532L;
+
+		// Assigned ids in the order of the onboarded customers
+		private final List<Long> ids;
+		// Failure reason by id, customers not in here were created
+		private final Map<Long, String> failures;
+	}
+
+	@Data
+	private static class AccountsOpened implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 8135530046802826052L;
+
+		private final String batchId;
+		private final List<Long> ids;
+		private final List<Customer> created;
+		private final Map<Long, String> failures;
+		private final ActorRef replyTo;
+	}
+
+	@Data
+	public static class ExportCustomers implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -1052207926012436436L;
+	}
+
+	@Data
+	public static class CustomersExported implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 7346826155807563591L;
+
+		private final List<Customer> customers;
+	}
+
+	@Data
+	public static class RestoreCustomers implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -4770962962300316212L;
+
+		private final List<Customer> customers;
+	}
+
 }
@@ -0,0 +1,147 @@
+package com.rev.money.transfer.service;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.rev.money.transfer.actor.AccountActor;
+import com.rev.money.transfer.actor.TransactionActor;
+import com.rev.money.transfer.ledger.LedgerEngine;
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.CashDeposit;
+import com.rev.money.transfer.model.Customer;
+import com.rev.money.transfer.model.MessageStatus.Failure;
+import com.rev.money.transfer.model.MessageStatus.Success;
+import com.rev.money.transfer.model.Payout;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.service.AccountService.AccountsCreated;
+import com.rev.money.transfer.service.AccountService.CreateAccounts;
+import com.rev.money.transfer.service.AccountService.CreateStripedAccount;
+import com.rev.money.transfer.service.AccountService.DiscardAccounts;
+import com.rev.money.transfer.service.AccountService.ExportAccounts;
+import com.rev.money.transfer.service.AccountService.RestoreAccounts;
+import com.rev.money.transfer.service.AccountService.RestoreHistories;
+import com.rev.money.transfer.service.TransactionService.ExportTransactions;
+import com.rev.money.transfer.service.TransactionService.PauseTransfers;
+import com.rev.money.transfer.service.TransactionService.ResumeTransfers;
+import com.rev.money.transfer.service.TransactionService.RestoreTransactions;
+import com.rev.money.transfer.util.AppliedOperations;
+import com.rev.money.transfer.util.HopRetry;
+
+import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+
+/**
+ * Answers the messages of {@link AccountService} and
+ * {@link TransactionService} from a {@link LedgerEngine}, so the customer,
+ * scheduler and snapshot services run unchanged on any engine. Payouts are
+ * only offered by the actor engine.
+ */
+public class LedgerService extends AbstractLoggingActor {
+
+	private final LedgerEngine ledger;
+	// Outcome of the last batches of accounts opened, by batch id
+	private final AppliedOperations createdBatches = new AppliedOperations(
+			HopRetry.get(getContext().getSystem()).getOperationWindow());
+
+	private LedgerService(LedgerEngine ledger) {
+		this.ledger = ledger;
+	}
+
+	public static Props props(LedgerEngine ledger) {
+		return Props.create(LedgerService.class, () -> new LedgerService(ledger));
+	}
+
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder()
+				.match(Customer.class,
+						customer -> reply(ledger.createAccount(new Account(customer.getId(), BigDecimal.ZERO), 1)))
+				.match(Account.class, account -> reply(ledger.createAccount(account, 1)))
+				.match(CreateStripedAccount.class,
+						create -> reply(ledger.createAccount(create.getAccount(), create.getStripes())))
+				.match(CreateAccounts.class, this::onCreateAccounts)
+				.match(DiscardAccounts.class, this::onDiscardAccounts)
+				.match(AccountActor.GetAccount.class, get -> reply(ledger.getAccount(get.getAccountNumber())))
+				.match(AccountActor.SubscribeBalance.class, subscribe -> reply(
+						ledger.subscribeBalance(subscribe.getAccountNumber(), subscribe.getSubscriber())))
+				.match(AccountActor.GetAccountAsOf.class,
+						get -> reply(ledger.getAccountAsOf(get.getAccountNumber(), get.getTimestamp())))
+				.match(AccountActor.DeleteAccount.class,
+						delete -> reply(ledger.deleteAccount(delete.getAccountNumber())))
+				.match(AccountActor.SetLimits.class,
+						set -> reply(ledger.setLimits(set.getAccountNumber(), set.getLimits())))
+				.match(AccountActor.GetLimits.class, get -> reply(ledger.getLimits(get.getAccountNumber())))
+				.match(Transaction.class, transaction -> reply(ledger.transfer(transaction)))
+				.match(CashDeposit.class, cashDeposit -> reply(ledger.deposit(cashDeposit)))
+				.match(TransactionActor.GetTransaction.class, get -> reply(ledger.getTransaction(get.getId())))
+				.match(Payout.class,
+						payout -> sender().tell(new Failure("Payouts need the actor ledger engine"), self()))
+				.match(AccountService.Reconcile.class,
+						reconcile -> sender().tell(new Failure("Reconciliation needs the actor ledger engine"), self()))
+				.match(ExportAccounts.class, export -> reply(ledger.exportAccounts()))
+				.match(ExportTransactions.class, export -> reply(ledger.exportTransactions()))
+				.match(PauseTransfers.class, pause -> reply(ledger.pauseTransfers()))
+				.match(ResumeTransfers.class, resume -> reply(ledger.resumeTransfers()))
+				.match(RestoreAccounts.class, restore -> reply(ledger.restoreAccounts(restore.getAccounts())))
+				// Only account actors keep a balance history
+				.match(RestoreHistories.class, restore -> sender().tell(new Success(), self()))
+				.match(RestoreTransactions.class,
+						restore -> reply(ledger.restoreTransactions(restore.getTransactions())))
+				.build();
+	}
+
+	private void reply(CompletionStage<Object> response) {
+		ActorRef replyTo = sender();
+		ActorRef self = self();
+		response.whenComplete((reply, error) -> replyTo
+				.tell(error == null ? reply : new Failure("Ledger call failed: " + error.getMessage()), self));
+	}
+
+	@SuppressWarnings("unchecked")
+	private void onCreateAccounts(CreateAccounts createAccounts) {
+		String batchId = createAccounts.getBatchId();
+		Object opened = batchId == null ? null : createdBatches.resultOf(batchId);
+		if (opened != null) {
+			reply((CompletionStage<Object>) opened);
+			return;
+		}
+		Map<Long, String> failures = new ConcurrentHashMap<>();
+		CompletableFuture<?>[] created = createAccounts.getAccounts().stream()
+				.map(account -> ledger.createAccount(account, 1).thenAccept(response -> {
+					if (response instanceof Failure) {
+						failures.put(account.getAccountNumber(), ((Failure) response).getMessage());
+					}
+				}).toCompletableFuture()).toArray(CompletableFuture[]::new);
+		CompletionStage<Object> accountsCreated = CompletableFuture.allOf(created)
+				.thenApply(done -> new AccountsCreated(failures));
+		if (batchId != null) {
+			createdBatches.record(batchId, accountsCreated);
+		}
+		reply(accountsCreated);
+	}
+
+	/**
+	 * Deletes the accounts a batch opened once it is done, a batch not opened
+	 * yet is recorded as failed instead.
+	 */
+	@SuppressWarnings("unchecked")
+	private void onDiscardAccounts(DiscardAccounts discardAccounts) {
+		Object opened = createdBatches.resultOf(discardAccounts.getBatchId());
+		Map<Long, String> discarded = new HashMap<>();
+		discardAccounts.getAccountNumbers().forEach(id -> discarded.put(id, "Account creation was given up"));
+		createdBatches.record(discardAccounts.getBatchId(),
+				CompletableFuture.completedFuture(new AccountsCreated(discarded)));
+		if (opened == null) {
+			return;
+		}
+		((CompletionStage<Object>) opened).thenAccept(created -> discardAccounts.getAccountNumbers().stream()
+				.filter(id -> !((AccountsCreated) created).getFailures().containsKey(id))
+				.forEach(ledger::deleteAccount));
+	}
+
+}
@@ -0,0 +1,301 @@
+package com.rev.money.transfer.service;
+
+import static akka.pattern.Patterns.ask;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rev.money.transfer.dto.OutboxEventDTO;
+import com.rev.money.transfer.mapper.TransactionMapper;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.util.Metrics;
+
+import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.Scheduler;
+import akka.event.LoggingAdapter;
+import akka.http.javadsl.Http;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpRequest;
+import akka.pattern.Patterns;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.RestartSource;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import lombok.Data;
+import scala.concurrent.ExecutionContextExecutor;
+
+/**
+ * Outbox of finished transactions for the systems downstream of the ledger,
+ * such as a ledger export or notifications. The transaction service appends
+ * every transaction it commits or rolls back and moves on, so the latency of
+ * the downstream systems is never added to a transfer.
+ *
+ * Every destination gets every event through its own stream: each poll takes
+ * the next events of the destination, up to a batch, and posts them as one
+ * JSON array. A batch is retried with exponential backoff until the
+ * destination answers it with a 2xx, and the next batch of a destination is
+ * only posted once the one before was accepted, so a destination receives the
+ * events in the order they were appended, and so in order for every account.
+ * Events stay in the outbox until their destination accepted them. The outbox
+ * lives in memory: events not delivered by shutdown are lost.
+ *
+ * A stream that fails or completes is started again after a backoff, and
+ * posts again the batch the stream before may have been posting, so a
+ * destination can get an event twice and should drop sequences it already
+ * has. At most {@code maxPending} events wait for a destination: once a
+ * destination is that far behind, new events for it are counted and sent to
+ * the dead letters instead of growing the outbox without bound.
+ */
+public class OutboxService extends AbstractLoggingActor {
+
+	public static final String APPENDED = "outbox.appended";
+	public static final String DELIVERED = "outbox.delivered";
+	public static final String RETRIES = "outbox.retries";
+	public static final String RESTARTS = "outbox.restarts";
+	public static final String DROPPED = "outbox.dropped";
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	// Polls are answered straight from memory, a stream only misses one once the outbox stopped
+	private static final Duration POLL_TIMEOUT = Duration.ofMinutes(1);
+
+	private final List<String> destinations;
+	private final int batchSize;
+	private final int maxPending;
+	private final Duration pollInterval;
+	private final Duration minBackoff;
+	private final Duration maxBackoff;
+	// Events not accepted yet by each destination, oldest first
+	private final Map<String, Deque<OutboxEvent>> pending = new HashMap<>();
+	// How many of the oldest pending events of each destination are being posted
+	private final Map<String, Integer> posting = new HashMap<>();
+	private final Metrics metrics = Metrics.get(context().system());
+	private final Materializer materializer;
+	private final Http http = Http.get(context().system());
+	private final Scheduler scheduler = context().system().scheduler();
+	private final ExecutionContextExecutor dispatcher = context().dispatcher();
+	private long sequence;
+
+	private OutboxService(List<String> destinations, int batchSize, int maxPending, Duration pollInterval,
+			Duration minBackoff, Duration maxBackoff) {
+		this.destinations = destinations;
+		this.batchSize = batchSize;
+		this.maxPending = maxPending;
+		this.pollInterval = pollInterval;
+		this.minBackoff = minBackoff;
+		this.maxBackoff = maxBackoff;
+		this.materializer = ActorMaterializer.create(context());
+	}
+
+	/**
+	 * @param destinations URLs every event is posted to
+	 * @param batchSize    events posted at most in one request
+	 * @param maxPending   events kept at most for a destination that did not
+	 *                     accept them yet
+	 * @param pollInterval between two looks for new events of a destination
+	 *                     whose last batch was accepted
+	 * @param minBackoff   wait before the first retry of a batch, or restart
+	 *                     of a stream, doubled every time up to
+	 *                     {@code maxBackoff}
+	 */
+	public static Props props(List<String> destinations, int batchSize, int maxPending, Duration pollInterval,
+			Duration minBackoff, Duration maxBackoff) {
+		return Props.create(OutboxService.class, () -> new OutboxService(destinations, batchSize, maxPending,
+				pollInterval, minBackoff, maxBackoff));
+	}
+
+	@Override
+	public void preStart() {
+		for (String destination : destinations) {
+			pending.put(destination, new ArrayDeque<>());
+			posting.put(destination, 0);
+			deliver(destination);
+		}
+	}
+
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder().match(Append.class, this::onAppend)
+				.match(Poll.class, this::onPoll)
+				.match(Acknowledge.class, this::onAcknowledge).build();
+	}
+
+	private void onAppend(Append append) {
+		OutboxEvent event = new OutboxEvent(++sequence, append.getTransaction(), append.getReason());
+		pending.forEach((destination, events) -> {
+			if (events.size() < maxPending) {
+				events.add(event);
+			} else {
+				metrics.increment(DROPPED);
+				log().warning("Outbox of {} is full with {} events, event {} dropped", destination, events.size(),
+						event.getSequence());
+				context().system().deadLetters().tell(event, self());
+			}
+		});
+		metrics.increment(APPENDED);
+	}
+
+	/**
+	 * Hands out the next events of the destination after those being posted,
+	 * or from the oldest pending one for the first poll of a stream.
+	 */
+	private void onPoll(Poll poll) {
+		String destination = poll.getDestination();
+		if (poll.isRewind()) {
+			posting.put(destination, 0);
+		}
+		int skipped = posting.get(destination);
+		Iterator<OutboxEvent> events = pending.get(destination).iterator();
+		for (int i = 0; i < skipped; i++) {
+			events.next();
+		}
+		List<OutboxEvent> batch = new ArrayList<>(Math.min(batchSize, pending.get(destination).size() - skipped));
+		while (events.hasNext() && batch.size() < batchSize) {
+			batch.add(events.next());
+		}
+		posting.put(destination, skipped + batch.size());
+		sender().tell(new Batch(batch), self());
+	}
+
+	private void onAcknowledge(Acknowledge acknowledge) {
+		String destination = acknowledge.getDestination();
+		Deque<OutboxEvent> events = pending.get(destination);
+		for (int i = 0; i < acknowledge.getEvents(); i++) {
+			events.poll();
+			metrics.increment(DELIVERED);
+		}
+		// Never below zero, should a stream that was started again be acknowledged late
+		posting.merge(destination, -acknowledge.getEvents(), (left, right) -> Math.max(0, left + right));
+	}
+
+	/************************************************************************************************************
+	 * 							Delivery: one stream per destination, one batch at a time						*
+	 ************************************************************************************************************/
+
+	private void deliver(String destination) {
+		ActorRef self = self();
+		LoggingAdapter log = log();
+		AtomicBoolean started = new AtomicBoolean();
+		RestartSource.withBackoff(minBackoff, maxBackoff, 0.2, () -> {
+			boolean restarted = started.getAndSet(true);
+			if (restarted) {
+				metrics.increment(RESTARTS);
+				log.warning("Outbox delivery to {} stopped, started again", destination);
+			}
+			AtomicBoolean rewind = new AtomicBoolean(restarted);
+			return Source.tick(Duration.ZERO, pollInterval, destination)
+					.mapAsync(1, tick -> ask(self, new Poll(destination, rewind.getAndSet(false)), POLL_TIMEOUT))
+					.map(Batch.class::cast)
+					.filter(batch -> !batch.getEvents().isEmpty())
+					.mapAsync(1, batch -> post(log, destination, batch, minBackoff));
+		}).runWith(Sink.foreach(batch -> self.tell(new Acknowledge(destination, batch.getEvents().size()), self)),
+				materializer);
+	}
+
+	private CompletionStage<Batch> post(LoggingAdapter log, String destination, Batch batch, Duration backoff) {
+		HttpRequest request;
+		try {
+			request = HttpRequest.POST(destination).withEntity(ContentTypes.APPLICATION_JSON, toJson(batch));
+		} catch (JsonProcessingException e) {
+			// Cannot happen for these DTOs, retrying would not help either
+			throw new IllegalStateException(e);
+		}
+		return http.singleRequest(request).thenApply(response -> {
+			response.discardEntityBytes(materializer);
+			return response.status().isSuccess() ? null : response.status().toString();
+		}).exceptionally(Throwable::toString).thenCompose(error -> {
+			if (error == null) {
+				return CompletableFuture.completedFuture(batch);
+			}
+			metrics.increment(RETRIES);
+			log.warning("Outbox delivery of {} events to {} failed with {}, retrying in {}", batch.getEvents().size(),
+					destination, error, backoff);
+			Duration nextBackoff = backoff.multipliedBy(2).compareTo(maxBackoff) > 0 ? maxBackoff
+					: backoff.multipliedBy(2);
+			return Patterns.after(backoff, scheduler, dispatcher,
+					() -> post(log, destination, batch, nextBackoff));
+		});
+	}
+
+	private static String toJson(Batch batch) throws JsonProcessingException {
+		TransactionMapper.TransactionToDtoMapper mapper = new TransactionMapper.TransactionToDtoMapper();
+		return MAPPER.writeValueAsString(batch.getEvents().stream()
+				.map(event -> new OutboxEventDTO(event.getSequence(), mapper.apply(event.getTransaction()),
+						event.getReason()))
+				.collect(Collectors.toList()));
+	}
+
+	@Data
+	public static class Append implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 3416885402935627154L;
+
+		private final Transaction transaction;
+		// Why the transaction was rolled back, null when it was committed
+		private final String reason;
+	}
+
+	@Data
+	public static class OutboxEvent implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -1875309512407412648L;
+
+		private final long sequence;
+		private final Transaction transaction;
+		private final String reason;
+	}
+
+	@Data
+	public static class Poll implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 7736214903584012865L;
+
+		private final String destination;
+		// First poll of a stream started again, the events being posted are handed out again
+		private final boolean rewind;
+	}
+
+	@Data
+	public static class Batch implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -4403172618927314520L;
+
+		private final List<OutboxEvent> events;
+	}
+
+	@Data
+	public static class Acknowledge implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 5102937731264861405L;
+
+		private final String destination;
+		// Oldest pending events of the destination it accepted
+		private final int events;
+	}
+
+}
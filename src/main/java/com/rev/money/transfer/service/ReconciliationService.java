@@ -0,0 +1,135 @@
+package com.rev.money.transfer.service;
+
+import static akka.pattern.Patterns.ask;
+
+import java.io.Serializable;
+import java.time.Duration;
+
+import com.rev.money.transfer.model.MessageStatus.Failure;
+import com.rev.money.transfer.service.AccountService.Reconcile;
+import com.rev.money.transfer.service.AccountService.Reconciled;
+import com.rev.money.transfer.util.Metrics;
+
+import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import lombok.Data;
+
+/**
+ * Reconciles the ledger every {@code interval} and on request: the account
+ * service takes a consistent cut of every balance while transfers go on and
+ * checks it against the money brought in. The last report is kept, drifts are
+ * logged and counted. One reconciliation runs at a time.
+ */
+public class ReconciliationService extends AbstractLoggingActor {
+
+	public static final String RUNS = "reconciliation.runs";
+	public static final String DRIFTS = "reconciliation.drifts";
+	public static final String FAILURES = "reconciliation.failures";
+
+	private final ActorRef accountService;
+	private final Duration interval;
+	private final Duration timeout;
+	private final Metrics metrics = Metrics.get(context().system());
+	private Reconciled last;
+	private Cancellable ticker;
+
+	private ReconciliationService(ActorRef accountService, Duration interval, Duration timeout) {
+		this.accountService = accountService;
+		this.interval = interval;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @param interval between two scheduled reconciliations, zero to only run
+	 *                 them on request
+	 */
+	public static Props props(ActorRef accountService, Duration interval, Duration timeout) {
+		return Props.create(ReconciliationService.class,
+				() -> new ReconciliationService(accountService, interval, timeout));
+	}
+
+	@Override
+	public void preStart() {
+		if (!interval.isZero()) {
+			ticker = context().system().scheduler().schedule(interval, interval, self(), Tick.INSTANCE,
+					context().dispatcher(), ActorRef.noSender());
+		}
+	}
+
+	@Override
+	public void postStop() {
+		if (ticker != null) {
+			ticker.cancel();
+		}
+	}
+
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder().match(RunReconciliation.class, run -> reconcile(sender()))
+				.match(Tick.class, tick -> reconcile(ActorRef.noSender()))
+				.match(GetReconciliation.class, this::onGetReconciliation)
+				.match(Reconciled.class, this::onReconciled).build();
+	}
+
+	private void reconcile(ActorRef replyTo) {
+		ActorRef self = self();
+		ask(accountService, new Reconcile(timeout), timeout.multipliedBy(2)).whenComplete((reply, error) -> {
+			Object result = error == null ? reply : new Failure("Reconciliation failed: " + error.getMessage());
+			if (result instanceof Reconciled) {
+				self.tell(result, self);
+			} else {
+				metrics.increment(FAILURES);
+				log().warning(((Failure) result).getMessage());
+			}
+			if (replyTo != ActorRef.noSender()) {
+				replyTo.tell(result, self);
+			}
+		});
+	}
+
+	private void onReconciled(Reconciled reconciled) {
+		metrics.increment(RUNS);
+		if (!reconciled.isConserved()) {
+			metrics.increment(DRIFTS);
+			log().warning("Reconciliation {} drifted by {}", reconciled.getEpoch(), reconciled.getDrift());
+		}
+		if (last == null || reconciled.getEpoch() > last.getEpoch()) {
+			last = reconciled;
+		}
+	}
+
+	private void onGetReconciliation(GetReconciliation getReconciliation) {
+		sender().tell(last == null ? new Failure("No reconciliation has run yet") : last, self());
+	}
+
+	@Data
+	public static class RunReconciliation implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -6178226307516433810L;
+	}
+
+	@Data
+	public static class GetReconciliation implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 4040150806938152219L;
+	}
+
+	public static final class Tick implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -2650735004131542208L;
+
+		public static final Tick INSTANCE = new Tick();
+
+		private Tick() {
+		}
+	}
+
+}
@@ -0,0 +1,225 @@
+package com.rev.money.transfer.service;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rev.money.transfer.model.MessageStatus.Failure;
+import com.rev.money.transfer.model.MessageStatus.Success;
+import com.rev.money.transfer.model.ScheduledTransfer;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.service.TransactionService.TransactionRolledBack;
+import com.rev.money.transfer.store.ScheduleStore;
+import com.rev.money.transfer.util.TimingWheel;
+
+import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import lombok.Data;
+
+/**
+ * Keeps one-off and recurring transfers in a hashed timing wheel and releases
+ * the due ones into the {@link TransactionService}. Due transfers are queued and
+ * at most {@code batchSize} of them are released per tick, so catching up after
+ * a restart or a stall never floods the ledger.
+ */
+public class SchedulerService extends AbstractLoggingActor {
+
+	private final ActorRef transactionService;
+	private final ScheduleStore scheduleStore;
+	private final Clock clock;
+	private final Duration tickInterval;
+	private final int batchSize;
+	// In-memory store for CRUD operations
+	private final Map<Long, ScheduledTransfer> schedulesById = new HashMap<>();
+	private final TimingWheel<ScheduledTransfer> wheel;
+	private final Queue<ScheduledTransfer> dueTransfers = new ArrayDeque<>();
+	private final AtomicLong sequence = new AtomicLong(0);
+	private Cancellable ticker;
+
+	private SchedulerService(ActorRef transactionService, ScheduleStore scheduleStore, Clock clock,
+			Duration tickInterval, int wheelSize, int batchSize) {
+		this.transactionService = transactionService;
+		this.scheduleStore = scheduleStore;
+		this.clock = clock;
+		this.tickInterval = tickInterval;
+		this.batchSize = batchSize;
+		this.wheel = new TimingWheel<>(tickInterval.toMillis(), wheelSize, clock.millis());
+	}
+
+	public static Props props(ActorRef transactionService, ScheduleStore scheduleStore, Clock clock,
+			Duration tickInterval, int wheelSize, int batchSize) {
+		return Props.create(SchedulerService.class, () -> new SchedulerService(transactionService, scheduleStore,
+				clock, tickInterval, wheelSize, batchSize));
+	}
+
+	@Override
+	public void preStart() {
+		for (ScheduledTransfer schedule : scheduleStore.load()) {
+			schedulesById.put(schedule.getId(), schedule);
+			wheel.schedule(schedule, schedule.getNextExecution());
+			sequence.accumulateAndGet(schedule.getId(), Math::max);
+		}
+		log().info("Restored {} scheduled transfers", schedulesById.size());
+		ticker = context().system().scheduler().schedule(tickInterval, tickInterval, self(), Tick.INSTANCE,
+				context().dispatcher(), ActorRef.noSender());
+	}
+
+	@Override
+	public void postStop() throws IOException {
+		if (ticker != null) {
+			ticker.cancel();
+		}
+		scheduleStore.close();
+	}
+
+	/**
+	 * Mail box to receive the messages
+	 */
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder().match(ScheduledTransfer.class, this::onScheduledTransfer)
+				.match(GetSchedule.class, this::onGetSchedule)
+				.match(CancelSchedule.class, this::onCancelSchedule)
+				.match(Tick.class, tick -> onTick())
+				.match(Transaction.class, this::onTransferCompleted)
+				.match(TransactionRolledBack.class, this::onTransferRolledBack)
+				.match(Failure.class, failure -> log().warning("Scheduled transfer rejected: {}", failure.getMessage()))
+				.build();
+	}
+
+	/************************************************************************************************************
+	 * 									Register a scheduled transfer											*
+	 ************************************************************************************************************/
+
+	private void onScheduledTransfer(ScheduledTransfer request) {
+		long id = sequence.incrementAndGet();
+		ScheduledTransfer schedule = new ScheduledTransfer(id, request.getRemitterAccountId(),
+				request.getBeneficieryAccountId(), request.getAmount(), request.getNextExecution(),
+				request.getIntervalMillis(), request.getRemarks());
+		schedulesById.put(id, schedule);
+		wheel.schedule(schedule, schedule.getNextExecution());
+		scheduleStore.register(schedule);
+		scheduleStore.flush();
+		log().info("Scheduled transfer {} registered", id);
+		sender().tell(schedule, self());
+	}
+
+	private void onGetSchedule(GetSchedule getSchedule) {
+		long id = getSchedule.getId();
+		ScheduledTransfer schedule = schedulesById.get(id);
+		if (schedule == null) {
+			replyScheduleNotFound(id);
+			return;
+		}
+		sender().tell(schedule, self());
+	}
+
+	private void onCancelSchedule(CancelSchedule cancelSchedule) {
+		long id = cancelSchedule.getId();
+		// Entries left in the wheel or the due queue are dropped when they come up
+		if (schedulesById.remove(id) == null) {
+			replyScheduleNotFound(id);
+			return;
+		}
+		scheduleStore.remove(id);
+		scheduleStore.flush();
+		log().info("Scheduled transfer {} cancelled", id);
+		sender().tell(new Success(), self());
+	}
+
+	private void replyScheduleNotFound(long id) {
+		String errorMsg = "Scheduled transfer " + id + " not found";
+		log().warning(errorMsg);
+		sender().tell(new Failure(errorMsg), self());
+	}
+
+	/************************************************************************************************************
+	 * 								Release the due transfers in rate-limited batches							*
+	 ************************************************************************************************************/
+
+	private void onTick() {
+		wheel.advanceTo(clock.millis(), dueTransfers::add);
+		int released = 0;
+		while (released < batchSize && !dueTransfers.isEmpty()) {
+			if (release(dueTransfers.poll())) {
+				released++;
+			}
+		}
+		if (released > 0) {
+			scheduleStore.flush();
+			log().info("Released {} scheduled transfers, {} still due", released, dueTransfers.size());
+		}
+	}
+
+	private boolean release(ScheduledTransfer schedule) {
+		if (schedulesById.get(schedule.getId()) != schedule) {
+			return false;
+		}
+		String remarks = schedule.getRemarks() != null ? schedule.getRemarks()
+				: "Scheduled transfer " + schedule.getId();
+		transactionService.tell(new Transaction(null, schedule.getRemitterAccountId(),
+				schedule.getBeneficieryAccountId(), schedule.getAmount(), TransactionStatus.NEW, remarks), self());
+		if (schedule.isRecurring()) {
+			// Missed occurrences come due one after another and stay behind the rate limit
+			ScheduledTransfer next = schedule.withNextExecution(schedule.getNextExecution() + schedule.getIntervalMillis());
+			schedulesById.put(next.getId(), next);
+			wheel.schedule(next, next.getNextExecution());
+			scheduleStore.reschedule(next.getId(), next.getNextExecution());
+		} else {
+			schedulesById.remove(schedule.getId());
+			scheduleStore.remove(schedule.getId());
+		}
+		return true;
+	}
+
+	private void onTransferCompleted(Transaction transaction) {
+		log().info("Scheduled transaction {} completed with status {}", transaction.getId(), transaction.getStatus());
+	}
+
+	private void onTransferRolledBack(TransactionRolledBack rolledBack) {
+		log().warning("Scheduled transaction {} rolled back: {}", rolledBack.getTransactionInfo().getId(),
+				rolledBack.getReason());
+	}
+
+	@Data
+	public static class GetSchedule implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 3362113928771834105L;
+
+		private final long id;
+	}
+
+	@Data
+	public static class CancelSchedule implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -1243370468214719062L;
+
+		private final long id;
+	}
+
+	public static final class Tick implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 5712093395411208813L;
+
+		public static final Tick INSTANCE = new Tick();
+
+		private Tick() {
+		}
+	}
+
+}
@@ -0,0 +1,178 @@
+package com.rev.money.transfer.service;
+
+import static akka.pattern.Patterns.ask;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import com.rev.money.transfer.model.MessageStatus.Failure;
+import com.rev.money.transfer.service.AccountService.AccountsExported;
+import com.rev.money.transfer.service.AccountService.ExportAccounts;
+import com.rev.money.transfer.service.CustomerService.CustomersExported;
+import com.rev.money.transfer.service.CustomerService.ExportCustomers;
+import com.rev.money.transfer.service.TransactionService.ExportTransactions;
+import com.rev.money.transfer.service.TransactionService.PauseTransfers;
+import com.rev.money.transfer.service.TransactionService.ResumeTransfers;
+import com.rev.money.transfer.service.TransactionService.TransactionsExported;
+import com.rev.money.transfer.store.SnapshotFile;
+
+import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import lombok.Data;
+
+/**
+ * Takes full-state snapshots on request. New transfers are turned down and
+ * the ones in flight finish before anything is read, and every state is read
+ * before transfers resume, so the balances of a snapshot are a consistent cut
+ * and every transaction in it has its money movement in them, or none of it.
+ * The whole is written as one {@link SnapshotFile}. One snapshot is taken at a
+ * time.
+ */
+public class SnapshotService extends AbstractLoggingActor {
+
+	private final ActorRef accountService;
+	private final ActorRef customerService;
+	private final ActorRef transactionService;
+	private final Path directory;
+	private final Clock clock;
+	private final Duration timeout;
+	private boolean inProgress;
+
+	private SnapshotService(ActorRef accountService, ActorRef customerService, ActorRef transactionService,
+			Path directory, Clock clock, Duration timeout) {
+		this.accountService = accountService;
+		this.customerService = customerService;
+		this.transactionService = transactionService;
+		this.directory = directory;
+		this.clock = clock;
+		this.timeout = timeout;
+	}
+
+	public static Props props(ActorRef accountService, ActorRef customerService, ActorRef transactionService,
+			Path directory, Clock clock, Duration timeout) {
+		return Props.create(SnapshotService.class, () -> new SnapshotService(accountService, customerService,
+				transactionService, directory, clock, timeout));
+	}
+
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder().match(TakeSnapshot.class, this::onTakeSnapshot)
+				.match(SnapshotFinished.class, finished -> inProgress = false).build();
+	}
+
+	private void onTakeSnapshot(TakeSnapshot takeSnapshot) {
+		if (inProgress) {
+			sender().tell(new Failure("A snapshot is already in progress"), self());
+			return;
+		}
+		inProgress = true;
+		ActorRef replyTo = sender();
+		ActorRef self = self();
+		long createdAt = clock.millis();
+		long start = System.nanoTime();
+		Path path = directory.resolve("snapshot-" + createdAt + ".bin");
+		log().info("Taking snapshot {}", path);
+		ask(transactionService, new PauseTransfers(), timeout)
+				.thenCompose(paused -> paused instanceof Failure ? CompletableFuture.completedFuture(paused) : export())
+				// Resumed once read, also when pausing or reading failed
+				.whenComplete((exported, error) -> ask(transactionService, new ResumeTransfers(), timeout))
+				.thenCompose(exported -> exported instanceof Exported
+						? write(path, createdAt, start, (Exported) exported)
+						: CompletableFuture.completedFuture(exported))
+				.whenComplete((response, error) -> {
+					Object reply = error == null ? response : new Failure("Snapshot failed: " + error.getMessage());
+					if (reply instanceof Failure) {
+						log().warning(((Failure) reply).getMessage());
+					} else {
+						log().info("Snapshot taken: {}", reply);
+					}
+					replyTo.tell(reply, self);
+					self.tell(new SnapshotFinished(), self);
+				});
+	}
+
+	/**
+	 * Customers first, so each has its account in the accounts read after.
+	 */
+	private CompletionStage<Object> export() {
+		return ask(customerService, new ExportCustomers(), timeout)
+				.thenCompose(customers -> ask(accountService, new ExportAccounts(), timeout)
+						.thenCompose(accounts -> ask(transactionService, new ExportTransactions(), timeout)
+								.<Object>thenApply(transactions -> new Exported(accounts, customers, transactions))));
+	}
+
+	private CompletionStage<Object> write(Path path, long createdAt, long start, Exported exported) {
+		Object accounts = exported.getAccounts();
+		Object customers = exported.getCustomers();
+		Object transactions = exported.getTransactions();
+		for (Object export : new Object[] { accounts, customers, transactions }) {
+			if (export instanceof Failure) {
+				return CompletableFuture.completedFuture(export);
+			}
+		}
+		AccountsExported exportedAccounts = (AccountsExported) accounts;
+		CustomersExported exportedCustomers = (CustomersExported) customers;
+		TransactionsExported exportedTransactions = (TransactionsExported) transactions;
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				Files.createDirectories(directory);
+				SnapshotFile.write(path, createdAt, exportedAccounts.getAccounts(), exportedCustomers.getCustomers(),
+						exportedTransactions.getTransactions(), exportedAccounts.getHistories());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return new SnapshotTaken(path.toString(), exportedAccounts.getAccounts().size(),
+					exportedCustomers.getCustomers().size(), exportedTransactions.getTransactions().size(),
+					(System.nanoTime() - start) / 1_000_000);
+		});
+	}
+
+	@Data
+	public static class TakeSnapshot implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -5207437263000389342L;
+	}
+
+	@Data
+	public static class SnapshotTaken implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 8650744590227640193L;
+
+		private final String path;
+		private final long accounts;
+		private final long customers;
+		private final long transactions;
+		private final long durationMillis;
+	}
+
+	/**
+	 * Replies to the exports, each a Failure or what was exported.
+	 */
+	@Data
+	private static class Exported {
+		private final Object accounts;
+		private final Object customers;
+		private final Object transactions;
+	}
+
+	@Data
+	private static class SnapshotFinished implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 2716352316185925311L;
+	}
+
+}
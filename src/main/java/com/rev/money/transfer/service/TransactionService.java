@@ -1,42 +1,100 @@
 package com.rev.money.transfer.service;
 
 import static akka.pattern.Patterns.ask;
+import static io.vavr.API.$;
+import static io.vavr.API.Case;
+import static io.vavr.API.Match;
+import static io.vavr.Predicates.instanceOf;
 
 import java.io.Serializable;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import com.rev.money.transfer.actor.TransactionActor;
 import com.rev.money.transfer.factory.TransactionFactory;
 import com.rev.money.transfer.model.CashDeposit;
 import com.rev.money.transfer.model.MessageStatus.Failure;
 import com.rev.money.transfer.model.MessageStatus.Success;
+import com.rev.money.transfer.model.Payout;
 import com.rev.money.transfer.model.Transaction;
 import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.service.AccountService.PayoutSettled;
+import com.rev.money.transfer.service.AccountService.TransferUnresolved;
+import com.rev.money.transfer.util.Constant;
+import com.rev.money.transfer.util.Gather;
+import com.rev.money.transfer.util.HopRetry;
+import com.rev.money.transfer.util.TransferTimelines;
+import com.rev.money.transfer.util.TransferTimelines.Stage;
 
 import akka.actor.AbstractLoggingActor;
 import akka.actor.ActorRef;
 import akka.actor.Props;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
 import lombok.Data;
 
 public class TransactionService extends AbstractLoggingActor {
 
+	// Transactions read at once while taking a snapshot
+	private static final int EXPORT_PARALLELISM = 64;
+
 	// In-memory store for CRUD operations
 	private final Map<Long, ActorRef> transactionsById = new HashMap<>();
 	private final TransactionFactory transactionFactory;
 	private final ActorRef accountService;
 	private final Duration timeout;
+	private final Duration payoutTimeout;
+	private final AtomicLong generatedIdSequence = new AtomicLong(Constant.GENERATED_TRANSACTION_ID_BASE);
+	private final Materializer materializer;
+	// Told every committed and rolled back transaction, null when nothing is downstream
+	private final ActorRef outbox;
+	private final TransferTimelines timelines = TransferTimelines.get(context().system());
+	// Transfers and status changes timing out are asked again, the account service replays a transfer asked twice
+	private final HopRetry retries = HopRetry.get(context().system());
+	// Transfers, cash deposits and payouts accepted and not finished yet
+	private int inFlight;
+	// Asked to pause transfers, told once the ones in flight finished
+	private ActorRef pauseReplyTo;
 
-	private TransactionService(ActorRef accountService, TransactionFactory transactionFactory, Duration timeout) {
+	private TransactionService(ActorRef accountService, TransactionFactory transactionFactory, Duration timeout,
+			Duration payoutTimeout, ActorRef outbox) {
 		this.accountService = accountService;
 		this.transactionFactory = transactionFactory;
 		this.timeout = timeout;
+		this.payoutTimeout = payoutTimeout;
+		this.outbox = outbox;
+		this.materializer = ActorMaterializer.create(context());
 	}
 
-	public static Props props(ActorRef accountService, TransactionFactory transactionFactory, Duration timeout) {
+	/**
+	 * @param outbox {@link OutboxService} told every committed and rolled back
+	 *               transaction, null for none
+	 */
+	public static Props props(ActorRef accountService, TransactionFactory transactionFactory, Duration timeout,
+			Duration payoutTimeout, ActorRef outbox) {
 		return Props.create(TransactionService.class,
-				() -> new TransactionService(accountService, transactionFactory, timeout));
+				() -> new TransactionService(accountService, transactionFactory, timeout, payoutTimeout, outbox));
+	}
+
+	public static Props props(ActorRef accountService, TransactionFactory transactionFactory, Duration timeout,
+			Duration payoutTimeout) {
+		return TransactionService.props(accountService, transactionFactory, timeout, payoutTimeout, null);
+	}
+
+	public static Props props(ActorRef accountService, TransactionFactory transactionFactory, Duration timeout) {
+		return TransactionService.props(accountService, transactionFactory, timeout,
+				Duration.parse(Constant.DEFAULT_PAYOUT_TIMEOUT));
 	}
 
 	/**
@@ -48,8 +106,26 @@ public class TransactionService extends AbstractLoggingActor {
 							   .match(TransactionActor.GetTransaction.class, this::onGetTransactionInfo)
 							   .match(DeleteTransaction.class, this::onDeleteTransaction)
 							   .match(CashDeposit.class, this::doCashDeposit)
+							   .match(Payout.class, this::doPayout)
+							   .match(ExportTransactions.class, this::onExportTransactions)
+							   .match(RestoreTransactions.class, this::onRestoreTransactions)
+							   .match(PauseTransfers.class, this::onPauseTransfers)
+							   .match(OperationFinished.class, this::onOperationFinished)
 							   .build();
 	}
+
+	/**
+	 * While a snapshot is taken no new money movement is accepted: they are
+	 * turned down right away rather than held past the timeout of their sender,
+	 * everything else goes through.
+	 */
+	private Receive paused() {
+		return receiveBuilder().match(Transaction.class, this::turnDownWhilePaused)
+							   .match(CashDeposit.class, this::turnDownWhilePaused)
+							   .match(Payout.class, this::turnDownWhilePaused)
+							   .match(ResumeTransfers.class, this::onResumeTransfers)
+							   .build().orElse(createReceive());
+	}
 	
 	private void doCashDeposit(CashDeposit cashDeposit) {
 		log().info("In cash deposit");
@@ -73,8 +149,8 @@ public class TransactionService extends AbstractLoggingActor {
 	
 	private void depositTransaction(CashDepositTransaction accountDeposit, ActorRef transactionActor) {
 		ActorRef replyTo = sender();
-		ask(accountService, accountDeposit, timeout).thenAcceptAsync(
-				transferResponse -> handleTransferResponse(transactionActor, transferResponse, replyTo));
+		track(settle(accountDeposit.getId(), transactionActor,
+				retries.ask(() -> ask(accountService, accountDeposit, timeout)), replyTo));
 	}
 
 	/************************************************************************************************************
@@ -88,16 +164,34 @@ public class TransactionService extends AbstractLoggingActor {
 	 */
 	private void doTransaction(Transaction transaction) {
 		log().info("In Money Transfer");
+		if (transaction.getId() == null) {
+			transaction = withGeneratedId(transaction);
+		}
 		long transactionId = transaction.getId();
 		if (transactionsById.containsKey(transactionId)) {
 			replyTransactionAlreadyExists(transactionId);
 			return;
 		}
+		timelines.record(transactionId, Stage.TRANSACTION_SERVICE);
 		ActorRef transactionActor = transactionFactory.get(context(), transaction);
 		transactionsById.put(transactionId, transactionActor);
 		doTransaction(transaction, transactionActor);
 	}
 
+	/**
+	 * Transactions raised inside the system (e.g. by the scheduler) come without an
+	 * id. They get one from a range far above the ids clients pick themselves.
+	 * 
+	 * @param transaction
+	 */
+	private Transaction withGeneratedId(Transaction transaction) {
+		long id;
+		do {
+			id = generatedIdSequence.incrementAndGet();
+		} while (transactionsById.containsKey(id));
+		return transaction.withId(id);
+	}
+
 	private void replyTransactionAlreadyExists(long transactionId) {
 		String errorMsg = "Transaction " + transactionId + " already been processed";
 		log().warning(errorMsg);
@@ -106,32 +200,171 @@ public class TransactionService extends AbstractLoggingActor {
 
 	private void doTransaction(Transaction transaction, ActorRef transactionActor) {
 		ActorRef replyTo = sender();
-		ask(accountService, transaction, timeout).thenAcceptAsync(
-				transferResponse -> handleTransferResponse(transactionActor, transferResponse, replyTo));
+		track(settle(transaction.getId(), transactionActor,
+				retries.ask(() -> ask(accountService, transaction, timeout)), replyTo));
 	}
 
-	private void handleTransferResponse(ActorRef transactionActor, Object transferResponse, ActorRef replyTo) {
-		if (transferResponse instanceof Failure) {
-			rollbackTransaction(transactionActor, replyTo, (Failure) transferResponse);
-		} else {
-			commitTransaction(transactionActor, replyTo);
-		}
+	/**
+	 * Ends the transaction whatever the transfer replied, failed when it
+	 * replied nothing on any retry, and always answers: a transaction is never
+	 * left NEW with its sender waiting.
+	 */
+	private CompletionStage<Void> settle(Long id, ActorRef transactionActor, CompletionStage<Object> transfer,
+			ActorRef replyTo) {
+		return transfer
+				.handle((transferResponse, error) -> error == null ? transferResponse
+						: error instanceof CompletionException ? error.getCause() : error)
+				.thenComposeAsync(transferResponse -> handleTransferResponse(id, transactionActor, transferResponse,
+						replyTo))
+				.exceptionally(error -> {
+					log().error("Transaction {} left unsettled: {}", id, error.getMessage());
+					replyTo.tell(new Failure("Transaction " + id + " could not be settled: " + error.getMessage()),
+							replyTo);
+					return null;
+				});
+	}
+
+	private CompletionStage<Void> handleTransferResponse(Long id, ActorRef transactionActor, Object transferResponse,
+			ActorRef replyTo) {
+		return Match(transferResponse).of(
+				Case($(instanceOf(Failure.class)),
+						failure -> rollbackTransaction(transactionActor, replyTo, failure, TransactionStatus.FAIL)),
+				Case($(instanceOf(TransferUnresolved.class)),
+						unresolved -> rollbackTransaction(transactionActor, replyTo,
+								new Failure(unresolved.getReason()), TransactionStatus.UNRESOLVED)),
+				Case($(instanceOf(Throwable.class)), error -> {
+					log().error("Transaction {} ended without an outcome: {}", id, error.getMessage());
+					return rollbackTransaction(transactionActor, replyTo,
+							new Failure("Transfer outcome unknown: " + error.getMessage()), TransactionStatus.FAIL);
+				}),
+				Case($(), success -> commitTransaction(transactionActor, replyTo)));
 	}
 
-	private void rollbackTransaction(ActorRef transactionActor, ActorRef replyTo, Failure response) {
-		ask(transactionActor, new TransactionActor.ChangeStatus(TransactionStatus.FAIL), timeout).thenAcceptAsync(
+	/**
+	 * @param status FAIL, or UNRESOLVED when the money left the remitter and
+	 *               reached nobody
+	 */
+	private CompletionStage<Void> rollbackTransaction(ActorRef transactionActor, ActorRef replyTo,
+			Failure response, TransactionStatus status) {
+		return changeStatus(transactionActor, status).thenAcceptAsync(
 				updatedTransaction -> replyTransactionRolledBack(replyTo, response, (Transaction) updatedTransaction));
 	}
 
 	private void replyTransactionRolledBack(ActorRef replyTo, Failure response, Transaction updatedTransaction) {
+		timelines.record(updatedTransaction.getId(), Stage.STATUS_CHANGED);
+		appendToOutbox(updatedTransaction, response.getMessage());
 		replyTo.tell(new TransactionRolledBack(updatedTransaction, response.getMessage()), replyTo);
 	}
 
-	private void commitTransaction(ActorRef transactionActor, ActorRef replyTo) {
-		ask(transactionActor, new TransactionActor.ChangeStatus(TransactionStatus.SUCCESS), timeout)
-				.thenAcceptAsync(updatedTransaction -> replyTo.tell(updatedTransaction, replyTo));
+	private CompletionStage<Void> commitTransaction(ActorRef transactionActor, ActorRef replyTo) {
+		return changeStatus(transactionActor, TransactionStatus.SUCCESS).thenAcceptAsync(updatedTransaction -> {
+			timelines.record(((Transaction) updatedTransaction).getId(), Stage.STATUS_CHANGED);
+			appendToOutbox((Transaction) updatedTransaction, null);
+			replyTo.tell(updatedTransaction, replyTo);
+		});
+	}
+
+	/**
+	 * Setting a status twice leaves it set, so a status change timing out is
+	 * asked again.
+	 */
+	private CompletionStage<Object> changeStatus(ActorRef transactionActor, TransactionStatus status) {
+		return retries.ask(() -> ask(transactionActor, new TransactionActor.ChangeStatus(status), timeout));
+	}
+
+	/**
+	 * Hands the finished transaction to the outbox without waiting, delivery
+	 * downstream happens after the reply.
+	 */
+	private void appendToOutbox(Transaction transaction, String reason) {
+		if (outbox != null) {
+			outbox.tell(new OutboxService.Append(transaction, reason), ActorRef.noSender());
+		}
 	}
 	
+	/************************************************************************************************************
+	 * 						Pay out from one remitter to many beneficiaries, one transaction per leg			*
+	 ************************************************************************************************************/
+
+	private void doPayout(Payout payout) {
+		log().info("In Payout");
+		List<Transaction> legs = new ArrayList<>(payout.getLegs().size());
+		Set<Long> legIds = new HashSet<>();
+		for (Transaction leg : payout.getLegs()) {
+			leg = leg.getId() == null ? withGeneratedId(leg) : leg;
+			if (transactionsById.containsKey(leg.getId()) || !legIds.add(leg.getId())) {
+				replyTransactionAlreadyExists(leg.getId());
+				return;
+			}
+			legs.add(leg);
+		}
+		Map<Long, ActorRef> legActors = new LinkedHashMap<>();
+		for (Transaction leg : legs) {
+			ActorRef transactionActor = transactionFactory.get(context(), leg);
+			transactionsById.put(leg.getId(), transactionActor);
+			legActors.put(leg.getId(), transactionActor);
+		}
+		ActorRef replyTo = sender();
+		Payout withIds = new Payout(payout.getRemitterAccountId(), legs);
+		// The account service replies a payout asked again with its first outcome
+		track(retries.ask(() -> ask(accountService, withIds, payoutTimeout))
+				.handle((payoutResponse, error) -> error == null ? payoutResponse
+						: error instanceof CompletionException ? error.getCause() : error)
+				.thenComposeAsync(payoutResponse -> handlePayoutResponse(payout.getRemitterAccountId(), legActors,
+						payoutResponse, replyTo)));
+	}
+
+	private CompletionStage<Void> handlePayoutResponse(Long remitterAccountId, Map<Long, ActorRef> legActors,
+			Object payoutResponse, ActorRef replyTo) {
+		return Match(payoutResponse).of(
+				Case($(instanceOf(PayoutSettled.class)),
+						settled -> settleLegs(remitterAccountId, legActors, settled.getFailures(), replyTo)),
+				Case($(instanceOf(Failure.class)),
+						failure -> settleLegs(remitterAccountId, legActors,
+								failEveryLeg(legActors, failure.getMessage()), replyTo)),
+				Case($(), unexpected -> {
+					log().error("Payout from account {} ended without an outcome: {}", remitterAccountId,
+							unexpected);
+					return settleLegs(remitterAccountId, legActors,
+							failEveryLeg(legActors, "Payout outcome unknown: " + (unexpected instanceof Throwable
+									? ((Throwable) unexpected).getMessage() : unexpected)), replyTo);
+				}));
+	}
+
+	private static Map<Long, String> failEveryLeg(Map<Long, ActorRef> legActors, String reason) {
+		Map<Long, String> failures = new HashMap<>();
+		legActors.keySet().forEach(id -> failures.put(id, reason));
+		return failures;
+	}
+
+	/**
+	 * Every leg ends SUCCESS or FAIL, so none is left NEW. Legs whose deposit
+	 * outcome stayed unknown are failed with that reason and not refunded: if
+	 * their deposit was applied after all, a reconciliation reports it as
+	 * drift.
+	 */
+	private CompletionStage<Void> settleLegs(Long remitterAccountId, Map<Long, ActorRef> legActors,
+			Map<Long, String> failures, ActorRef replyTo) {
+		List<CompletableFuture<Object>> settledLegs = legActors.entrySet().stream()
+				.map(leg -> changeStatus(leg.getValue(),
+						failures.containsKey(leg.getKey()) ? TransactionStatus.FAIL : TransactionStatus.SUCCESS))
+				.map(CompletionStage::toCompletableFuture).collect(Collectors.toList());
+		return CompletableFuture.allOf(settledLegs.toArray(new CompletableFuture<?>[0])).handleAsync((done, error) -> {
+			if (error != null) {
+				log().error("Legs of the payout from account {} left unsettled: {}", remitterAccountId,
+						error.getMessage());
+				replyTo.tell(new Failure("Payout from account " + remitterAccountId + " could not be settled: "
+						+ error.getMessage()), replyTo);
+				return null;
+			}
+			List<Transaction> legs = settledLegs.stream().map(leg -> (Transaction) leg.join())
+					.collect(Collectors.toList());
+			legs.forEach(leg -> appendToOutbox(leg, failures.get(leg.getId())));
+			replyTo.tell(new PayoutCompleted(remitterAccountId, legs, failures), replyTo);
+			return null;
+		});
+	}
+
 	/************************************************************************************************************
 	 * 										Get the Transaction by id											*
 	 ************************************************************************************************************/
@@ -183,6 +416,83 @@ public class TransactionService extends AbstractLoggingActor {
 		sender().tell(new Success(), sender());
 	}
 
+	/************************************************************************************************************
+	 * 							Snapshot: read every transaction, bulk restore at start up						*
+	 ************************************************************************************************************/
+
+	private void onExportTransactions(ExportTransactions exportTransactions) {
+		ActorRef replyTo = sender();
+		Gather.replies(transactionsById, TransactionActor.GetTransaction::new, timeout, EXPORT_PARALLELISM,
+				materializer).whenComplete((replies, error) -> {
+					if (error != null) {
+						replyTo.tell(new Failure("Export failed: " + error.getMessage()), self());
+						return;
+					}
+					List<Transaction> transactions = new ArrayList<>(replies.size());
+					replies.forEach(transaction -> transactions.add((Transaction) transaction));
+					replyTo.tell(new TransactionsExported(transactions), self());
+				});
+	}
+
+	private void onRestoreTransactions(RestoreTransactions restoreTransactions) {
+		for (Transaction transaction : restoreTransactions.getTransactions()) {
+			if (!transactionsById.containsKey(transaction.getId())) {
+				transactionsById.put(transaction.getId(), transactionFactory.get(context(), transaction));
+			}
+		}
+		log().debug("Restored {} transactions", restoreTransactions.getTransactions().size());
+		sender().tell(new Success(), self());
+	}
+
+	/**
+	 * Counts the transfer, cash deposit or payout as in flight until it is
+	 * answered or given up on.
+	 */
+	private void track(CompletionStage<?> operation) {
+		inFlight++;
+		ActorRef self = self();
+		operation.whenComplete((done, error) -> self.tell(new OperationFinished(), self));
+	}
+
+	private void onOperationFinished(OperationFinished operationFinished) {
+		inFlight--;
+		if (inFlight == 0 && pauseReplyTo != null) {
+			replyTransfersPaused();
+		}
+	}
+
+	/**
+	 * Stops accepting transfers and replies once the ones in flight finished, so
+	 * every transaction read until the transfers are resumed has its money
+	 * movement applied to the balances, or none of it.
+	 */
+	private void onPauseTransfers(PauseTransfers pauseTransfers) {
+		log().info("Pausing transfers, waiting for {} in flight", inFlight);
+		pauseReplyTo = sender();
+		getContext().become(paused());
+		if (inFlight == 0) {
+			replyTransfersPaused();
+		}
+	}
+
+	private void replyTransfersPaused() {
+		pauseReplyTo.tell(new Success(), self());
+		pauseReplyTo = null;
+	}
+
+	private void onResumeTransfers(ResumeTransfers resumeTransfers) {
+		log().info("Resuming transfers");
+		pauseReplyTo = null;
+		getContext().become(createReceive());
+		sender().tell(new Success(), self());
+	}
+
+	private void turnDownWhilePaused(Object transfer) {
+		String errorMsg = "Transfers are paused while a snapshot is taken, try again";
+		log().info("{}: {}", errorMsg, transfer);
+		sender().tell(new Failure(errorMsg), self());
+	}
+
 	@Data
 	public static class DeleteTransaction implements Serializable {
 		/**
@@ -215,4 +525,73 @@ public class TransactionService extends AbstractLoggingActor {
 		private final Transaction transaction;
 	}
 
+	@Data
+	public static class PayoutCompleted implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -3716400925513770157L;
+
+		private final Long remitterAccountId;
+		private final List<Transaction> legs;
+		// Failure reason by leg transaction id
+		private final Map<Long, String> failures;
+	}
+
+	@Data
+	public static class ExportTransactions implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 6512790472830958414L;
+	}
+
+	@Data
+	public static class TransactionsExported implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -8166353361316787075L;
+
+		private final List<Transaction> transactions;
+	}
+
+	/**
+	 * Replied with a {@link Success} once no transfer is in flight, until
+	 * {@link ResumeTransfers} new ones are turned down.
+	 */
+	@Data
+	public static class PauseTransfers implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -2281625016931706488L;
+	}
+
+	@Data
+	public static class ResumeTransfers implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 5063399813842573140L;
+	}
+
+	@Data
+	private static class OperationFinished implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -6627150331862624913L;
+	}
+
+	@Data
+	public static class RestoreTransactions implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 2900962342963826645L;
+
+		private final List<Transaction> transactions;
+	}
+
 }
@@ -0,0 +1,157 @@
+package com.rev.money.transfer.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Account numbers in order, for listing accounts page by page. Kept as a list
+ * of sorted primitive leaves of at most {@link #LEAF_CAPACITY} numbers, like
+ * the bottom level of a B-tree: a lookup is a binary search over the first
+ * number of each leaf and then within one leaf, an insert or a remove shifts
+ * at most one leaf, and a leaf splits in two halves when it is full.
+ *
+ * Maintained incrementally on create and delete. Not thread safe: meant to be
+ * owned by the account service.
+ */
+public class AccountIndex {
+
+	static final int LEAF_CAPACITY = 512;
+
+	private final List<Leaf> leaves = new ArrayList<>();
+	private int size;
+
+	/**
+	 * @return false if the account number was already there
+	 */
+	public boolean add(long accountNumber) {
+		if (leaves.isEmpty()) {
+			leaves.add(new Leaf());
+		}
+		int leafIndex = leafOf(accountNumber);
+		Leaf leaf = leaves.get(leafIndex);
+		if (!leaf.add(accountNumber)) {
+			return false;
+		}
+		if (leaf.size == LEAF_CAPACITY) {
+			leaves.add(leafIndex + 1, leaf.split());
+		}
+		size++;
+		return true;
+	}
+
+	/**
+	 * @return false if the account number was not there
+	 */
+	public boolean remove(long accountNumber) {
+		if (leaves.isEmpty()) {
+			return false;
+		}
+		int leafIndex = leafOf(accountNumber);
+		Leaf leaf = leaves.get(leafIndex);
+		if (!leaf.remove(accountNumber)) {
+			return false;
+		}
+		if (leaf.size == 0) {
+			leaves.remove(leafIndex);
+		}
+		size--;
+		return true;
+	}
+
+	/**
+	 * @param after account number the page starts after, {@link Long#MIN_VALUE}
+	 *              for the first page
+	 * @param limit maximum number of account numbers to return
+	 * @return the account numbers greater than {@code after}, in order
+	 */
+	public long[] after(long after, int limit) {
+		long[] page = new long[Math.max(0, Math.min(limit, size))];
+		int length = 0;
+		for (int leafIndex = leaves.isEmpty() ? 0 : leafOf(after); leafIndex < leaves.size()
+				&& length < page.length; leafIndex++) {
+			Leaf leaf = leaves.get(leafIndex);
+			int from = Arrays.binarySearch(leaf.numbers, 0, leaf.size, after);
+			from = from < 0 ? -from - 1 : from + 1;
+			int count = Math.min(leaf.size - from, page.length - length);
+			if (count > 0) {
+				System.arraycopy(leaf.numbers, from, page, length, count);
+				length += count;
+			}
+		}
+		return length == page.length ? page : Arrays.copyOf(page, length);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Index of the last leaf starting at or before the account number, the
+	 * first leaf if none does.
+	 */
+	private int leafOf(long accountNumber) {
+		int low = 0;
+		int high = leaves.size() - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (leaves.get(middle).numbers[0] <= accountNumber) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Sorted account numbers, never empty once in the index. Accounts are mostly
+	 * opened in increasing order, so an insert is usually an append to the last
+	 * leaf.
+	 */
+	private static final class Leaf {
+
+		private long[] numbers = new long[16];
+		private int size;
+
+		boolean add(long accountNumber) {
+			int index = size == 0 || numbers[size - 1] < accountNumber ? size
+					: Arrays.binarySearch(numbers, 0, size, accountNumber);
+			if (index < 0) {
+				index = -index - 1;
+			} else if (index < size) {
+				return false;
+			}
+			if (size == numbers.length) {
+				numbers = Arrays.copyOf(numbers, Math.min(size << 1, LEAF_CAPACITY));
+			}
+			System.arraycopy(numbers, index, numbers, index + 1, size - index);
+			numbers[index] = accountNumber;
+			size++;
+			return true;
+		}
+
+		boolean remove(long accountNumber) {
+			int index = Arrays.binarySearch(numbers, 0, size, accountNumber);
+			if (index < 0) {
+				return false;
+			}
+			System.arraycopy(numbers, index + 1, numbers, index, size - index - 1);
+			size--;
+			return true;
+		}
+
+		/**
+		 * Moves the upper half of the numbers to a new leaf.
+		 */
+		Leaf split() {
+			Leaf upper = new Leaf();
+			int half = size >>> 1;
+			upper.numbers = Arrays.copyOfRange(numbers, half, LEAF_CAPACITY);
+			upper.size = size - half;
+			size = half;
+			return upper;
+		}
+	}
+
+}
@@ -0,0 +1,187 @@
+package com.rev.money.transfer.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import com.rev.money.transfer.model.Customer;
+
+import lombok.Value;
+
+/**
+ * Secondary indexes over customers: a hash index of unique emails, a hash
+ * index of contact numbers and a sorted index of zip codes for prefix lookups.
+ * Every index maps to customer ids; ids of one key are kept in a sorted
+ * primitive array, so a key shared by many customers costs eight bytes per
+ * customer and results come out in id order.
+ *
+ * Maintained incrementally on create and delete. Not thread safe: meant to be
+ * owned by the customer service.
+ */
+public class CustomerIndex {
+
+	private final Map<String, Long> idByEmail = new HashMap<>();
+	private final Map<Long, SortedIds> idsByContactNumber = new HashMap<>();
+	private final NavigableMap<String, SortedIds> idsByZipCode = new TreeMap<>();
+
+	/**
+	 * Emails are compared ignoring case and surrounding blanks.
+	 */
+	public static String normalizeEmail(String email) {
+		return email.trim().toLowerCase(Locale.ROOT);
+	}
+
+	public boolean containsEmail(String email) {
+		return email != null && idByEmail.containsKey(normalizeEmail(email));
+	}
+
+	public void add(Customer customer) {
+		long id = customer.getId();
+		if (customer.getEmail() != null) {
+			idByEmail.put(normalizeEmail(customer.getEmail()), id);
+		}
+		if (customer.getContactNumber() != null) {
+			idsByContactNumber.computeIfAbsent(customer.getContactNumber(), contact -> new SortedIds()).add(id);
+		}
+		if (customer.getZipCode() != null) {
+			idsByZipCode.computeIfAbsent(customer.getZipCode().toString(), zip -> new SortedIds()).add(id);
+		}
+	}
+
+	public void remove(Customer customer) {
+		long id = customer.getId();
+		if (customer.getEmail() != null) {
+			idByEmail.remove(normalizeEmail(customer.getEmail()), id);
+		}
+		if (customer.getContactNumber() != null) {
+			remove(idsByContactNumber, customer.getContactNumber(), id);
+		}
+		if (customer.getZipCode() != null) {
+			remove(idsByZipCode, customer.getZipCode().toString(), id);
+		}
+	}
+
+	private static <K> void remove(Map<K, SortedIds> index, K key, long id) {
+		SortedIds ids = index.get(key);
+		if (ids != null && ids.remove(id) && ids.size == 0) {
+			index.remove(key);
+		}
+	}
+
+	/**
+	 * Ids of the customers matching every given criterion, in id order. Criteria
+	 * left null are ignored; at least one must be given.
+	 *
+	 * @param offset number of matching ids to skip
+	 * @param limit  maximum number of ids to return
+	 */
+	public Page find(String email, Long contactNumber, String zipPrefix, int offset, int limit) {
+		List<long[]> matches = new ArrayList<>(3);
+		if (email != null) {
+			Long id = idByEmail.get(normalizeEmail(email));
+			matches.add(id == null ? new long[0] : new long[] { id });
+		}
+		if (contactNumber != null) {
+			SortedIds ids = idsByContactNumber.get(contactNumber);
+			matches.add(ids == null ? new long[0] : ids.toArray());
+		}
+		if (zipPrefix != null) {
+			matches.add(idsWithZipPrefix(zipPrefix));
+		}
+		if (matches.isEmpty()) {
+			throw new IllegalArgumentException("At least one search criterion is required");
+		}
+		matches.sort(Comparator.comparingInt(ids -> ids.length));
+		long[] result = matches.get(0);
+		for (int i = 1; i < matches.size(); i++) {
+			result = intersect(result, matches.get(i));
+		}
+		int from = Math.min(result.length, Math.max(offset, 0));
+		int to = (int) Math.min(result.length, (long) from + limit);
+		return new Page(result.length, Arrays.copyOfRange(result, from, to));
+	}
+
+	private long[] idsWithZipPrefix(String zipPrefix) {
+		NavigableMap<String, SortedIds> zipCodes = idsByZipCode.subMap(zipPrefix, true, zipPrefix + Character.MAX_VALUE,
+				false);
+		int total = zipCodes.values().stream().mapToInt(ids -> ids.size).sum();
+		long[] result = new long[total];
+		int length = 0;
+		for (SortedIds ids : zipCodes.values()) {
+			System.arraycopy(ids.ids, 0, result, length, ids.size);
+			length += ids.size;
+		}
+		if (zipCodes.size() > 1) {
+			Arrays.sort(result);
+		}
+		return result;
+	}
+
+	/**
+	 * Intersection of two sorted arrays, looking every id of the smaller one up in
+	 * the larger one.
+	 */
+	private static long[] intersect(long[] smaller, long[] larger) {
+		long[] result = new long[smaller.length];
+		int length = 0;
+		for (long id : smaller) {
+			if (Arrays.binarySearch(larger, id) >= 0) {
+				result[length++] = id;
+			}
+		}
+		return Arrays.copyOf(result, length);
+	}
+
+	@Value
+	public static class Page {
+		// Number of matching customers over all pages
+		private final long total;
+		private final long[] ids;
+	}
+
+	/**
+	 * Growable sorted array of ids. Ids are mostly added in increasing order, so
+	 * an insert is usually an append.
+	 */
+	private static final class SortedIds {
+
+		private long[] ids = new long[1];
+		private int size;
+
+		void add(long id) {
+			int index = size == 0 || ids[size - 1] < id ? size : Arrays.binarySearch(ids, 0, size, id);
+			if (index < 0) {
+				index = -index - 1;
+			} else if (index < size) {
+				return;
+			}
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size << 1);
+			}
+			System.arraycopy(ids, index, ids, index + 1, size - index);
+			ids[index] = id;
+			size++;
+		}
+
+		boolean remove(long id) {
+			int index = Arrays.binarySearch(ids, 0, size, id);
+			if (index < 0) {
+				return false;
+			}
+			System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+			size--;
+			return true;
+		}
+
+		long[] toArray() {
+			return Arrays.copyOf(ids, size);
+		}
+	}
+
+}
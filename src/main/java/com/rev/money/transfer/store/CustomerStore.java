@@ -0,0 +1,380 @@
+package com.rev.money.transfer.store;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import com.rev.money.transfer.model.Customer;
+
+/**
+ * Flat in-memory store of customers. Ids are kept in an open addressing hash
+ * table of primitive longs pointing into large byte pages, where every
+ * customer is packed as one record:
+ *
+ * <pre>
+ * flags byte, contact number (varint), zip code (varint),
+ * account number (varint, omitted when equal to the id),
+ * name and email (varint length + UTF-8 bytes)
+ * </pre>
+ *
+ * Absent fields take no space and nothing but the pages and the two slot
+ * arrays lives on the heap, so a customer costs its packed size plus about 21
+ * bytes of table instead of a {@link Customer} object graph. Records are
+ * decoded into a new {@link Customer} on every read. Space of removed or
+ * replaced records is reclaimed by compacting the pages once it outweighs the
+ * live records.
+ *
+ * Not thread safe: meant to be owned by the customer service.
+ */
+public class CustomerStore {
+
+	private static final int PAGE_BITS = 20;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int MIN_CAPACITY = 16;
+	private static final long EMPTY = 0L;
+
+	private static final int HAS_CONTACT_NUMBER = 1;
+	private static final int HAS_ZIP_CODE = 1 << 1;
+	private static final int HAS_ACCOUNT_NUMBER = 1 << 2;
+	private static final int HAS_NAME = 1 << 3;
+	private static final int HAS_EMAIL = 1 << 4;
+	// Set when the account number is the customer id, as for every new customer
+	private static final int ACCOUNT_IS_ID = 1 << 5;
+	private static final int NEGATIVE_ZIP_CODE = 1 << 6;
+
+	// Id 0 marks a free slot, it is held outside of the table
+	private long[] ids = new long[MIN_CAPACITY];
+	private long[] records = new long[MIN_CAPACITY];
+	private int size;
+	private boolean hasZeroId;
+	private long zeroIdRecord;
+
+	private byte[][] pages = new byte[0][];
+	private int writeOffset = PAGE_SIZE;
+	private long usedBytes;
+	private long deadBytes;
+	private byte[] scratch = new byte[256];
+
+	public int size() {
+		return size + (hasZeroId ? 1 : 0);
+	}
+
+	public boolean contains(long id) {
+		return id == EMPTY ? hasZeroId : ids[slot(id)] == id;
+	}
+
+	/**
+	 * Stores the customer under its id, replacing any previous one.
+	 */
+	public void put(Customer customer) {
+		long id = customer.getId();
+		long record = append(customer);
+		if (id == EMPTY) {
+			if (hasZeroId) {
+				deadBytes += recordLength(zeroIdRecord);
+			}
+			hasZeroId = true;
+			zeroIdRecord = record;
+			return;
+		}
+		int slot = slot(id);
+		if (ids[slot] == id) {
+			deadBytes += recordLength(records[slot]);
+		} else {
+			ids[slot] = id;
+			size++;
+		}
+		records[slot] = record;
+		if (size * 4 > ids.length * 3) {
+			resize(ids.length << 1);
+		}
+		compactIfWasteful();
+	}
+
+	/**
+	 * @return the customer stored under the id, null if there is none
+	 */
+	public Customer get(long id) {
+		if (id == EMPTY) {
+			return hasZeroId ? decode(id, zeroIdRecord) : null;
+		}
+		int slot = slot(id);
+		return ids[slot] == id ? decode(id, records[slot]) : null;
+	}
+
+	/**
+	 * @return the removed customer, null if there was none
+	 */
+	public Customer remove(long id) {
+		Customer customer = get(id);
+		if (customer == null) {
+			return null;
+		}
+		if (id == EMPTY) {
+			deadBytes += recordLength(zeroIdRecord);
+			hasZeroId = false;
+			return customer;
+		}
+		int slot = slot(id);
+		deadBytes += recordLength(records[slot]);
+		deleteSlot(slot);
+		size--;
+		compactIfWasteful();
+		return customer;
+	}
+
+	public void forEach(Consumer<Customer> action) {
+		if (hasZeroId) {
+			action.accept(decode(EMPTY, zeroIdRecord));
+		}
+		for (int slot = 0; slot < ids.length; slot++) {
+			if (ids[slot] != EMPTY) {
+				action.accept(decode(ids[slot], records[slot]));
+			}
+		}
+	}
+
+	/**
+	 * Heap taken by the store: slot arrays and allocated pages.
+	 */
+	public long sizeInBytes() {
+		return 2L * Long.BYTES * ids.length + (long) PAGE_SIZE * pages.length;
+	}
+
+	/**
+	 * Bytes taken by the packed records still in use.
+	 */
+	public long recordBytes() {
+		return usedBytes - deadBytes;
+	}
+
+	private int slot(long id) {
+		int mask = ids.length - 1;
+		int slot = hash(id) & mask;
+		while (ids[slot] != EMPTY && ids[slot] != id) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private static int hash(long id) {
+		long h = id * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * Linear probing delete: later entries of the same probe run are shifted back
+	 * into the freed slot so lookups never stop early.
+	 */
+	private void deleteSlot(int slot) {
+		int mask = ids.length - 1;
+		int free = slot;
+		int next = (free + 1) & mask;
+		while (ids[next] != EMPTY) {
+			int home = hash(ids[next]) & mask;
+			// Move the entry back unless its home lies cyclically in (free, next]
+			if (((next - home) & mask) >= ((next - free) & mask)) {
+				ids[free] = ids[next];
+				records[free] = records[next];
+				free = next;
+			}
+			next = (next + 1) & mask;
+		}
+		ids[free] = EMPTY;
+		records[free] = 0L;
+	}
+
+	private void resize(int capacity) {
+		long[] oldIds = ids;
+		long[] oldRecords = records;
+		ids = new long[capacity];
+		records = new long[capacity];
+		for (int i = 0; i < oldIds.length; i++) {
+			if (oldIds[i] != EMPTY) {
+				int slot = slot(oldIds[i]);
+				ids[slot] = oldIds[i];
+				records[slot] = oldRecords[i];
+			}
+		}
+	}
+
+	private void compactIfWasteful() {
+		if (deadBytes > PAGE_SIZE && deadBytes > usedBytes - deadBytes) {
+			byte[][] oldPages = pages;
+			pages = new byte[0][];
+			writeOffset = PAGE_SIZE;
+			usedBytes = 0;
+			deadBytes = 0;
+			if (hasZeroId) {
+				zeroIdRecord = copy(oldPages, zeroIdRecord);
+			}
+			for (int slot = 0; slot < ids.length; slot++) {
+				if (ids[slot] != EMPTY) {
+					records[slot] = copy(oldPages, records[slot]);
+				}
+			}
+		}
+	}
+
+	private long copy(byte[][] fromPages, long record) {
+		byte[] page = fromPages[(int) (record >>> PAGE_BITS)];
+		int offset = (int) record & (PAGE_SIZE - 1);
+		return write(page, offset, recordLength(page, offset));
+	}
+
+	private long append(Customer customer) {
+		long id = customer.getId();
+		byte[] name = utf8(customer.getName());
+		byte[] email = utf8(customer.getEmail());
+		ensureScratch(1 + 3 * 10 + 2 * 5 + (name == null ? 0 : name.length) + (email == null ? 0 : email.length));
+		int flags = 0;
+		int length = 1;
+		if (customer.getContactNumber() != null) {
+			flags |= HAS_CONTACT_NUMBER;
+			length = writeVarLong(customer.getContactNumber(), length);
+		}
+		if (customer.getZipCode() != null) {
+			int zipCode = customer.getZipCode();
+			flags |= HAS_ZIP_CODE | (zipCode < 0 ? NEGATIVE_ZIP_CODE : 0);
+			length = writeVarLong(Math.abs((long) zipCode), length);
+		}
+		if (customer.getAccountNumber() != null) {
+			flags |= HAS_ACCOUNT_NUMBER;
+			if (customer.getAccountNumber() == id) {
+				flags |= ACCOUNT_IS_ID;
+			} else {
+				length = writeVarLong(customer.getAccountNumber(), length);
+			}
+		}
+		if (name != null) {
+			flags |= HAS_NAME;
+			length = writeBytes(name, length);
+		}
+		if (email != null) {
+			flags |= HAS_EMAIL;
+			length = writeBytes(email, length);
+		}
+		scratch[0] = (byte) flags;
+		if (length > PAGE_SIZE) {
+			throw new IllegalArgumentException("Customer " + id + " takes more than " + PAGE_SIZE + " bytes");
+		}
+		return write(scratch, 0, length);
+	}
+
+	private long write(byte[] from, int offset, int length) {
+		if (writeOffset + length > PAGE_SIZE) {
+			pages = Arrays.copyOf(pages, pages.length + 1);
+			pages[pages.length - 1] = new byte[PAGE_SIZE];
+			writeOffset = 0;
+		}
+		System.arraycopy(from, offset, pages[pages.length - 1], writeOffset, length);
+		long record = ((long) (pages.length - 1) << PAGE_BITS) | writeOffset;
+		writeOffset += length;
+		usedBytes += length;
+		return record;
+	}
+
+	private void ensureScratch(int length) {
+		if (scratch.length < length) {
+			scratch = new byte[Integer.highestOneBit(length) << 1];
+		}
+	}
+
+	private int writeVarLong(long value, int offset) {
+		while ((value & ~0x7FL) != 0) {
+			scratch[offset++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		scratch[offset++] = (byte) value;
+		return offset;
+	}
+
+	private int writeBytes(byte[] bytes, int offset) {
+		offset = writeVarLong(bytes.length, offset);
+		System.arraycopy(bytes, 0, scratch, offset, bytes.length);
+		return offset + bytes.length;
+	}
+
+	private static byte[] utf8(String value) {
+		return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private Customer decode(long id, long record) {
+		Reader reader = new Reader(pages[(int) (record >>> PAGE_BITS)], (int) record & (PAGE_SIZE - 1));
+		int flags = reader.page[reader.offset++];
+		Customer.CustomerBuilder customer = Customer.builder().id(id);
+		if ((flags & HAS_CONTACT_NUMBER) != 0) {
+			customer.contactNumber(reader.varLong());
+		}
+		if ((flags & HAS_ZIP_CODE) != 0) {
+			long zipCode = reader.varLong();
+			customer.zipCode((int) ((flags & NEGATIVE_ZIP_CODE) != 0 ? -zipCode : zipCode));
+		}
+		if ((flags & HAS_ACCOUNT_NUMBER) != 0) {
+			customer.accountNumber((flags & ACCOUNT_IS_ID) != 0 ? id : reader.varLong());
+		}
+		if ((flags & HAS_NAME) != 0) {
+			customer.name(reader.string());
+		}
+		if ((flags & HAS_EMAIL) != 0) {
+			customer.email(reader.string());
+		}
+		return customer.build();
+	}
+
+	private int recordLength(long record) {
+		return recordLength(pages[(int) (record >>> PAGE_BITS)], (int) record & (PAGE_SIZE - 1));
+	}
+
+	private static int recordLength(byte[] page, int offset) {
+		Reader reader = new Reader(page, offset);
+		int flags = page[reader.offset++];
+		if ((flags & HAS_CONTACT_NUMBER) != 0) {
+			reader.varLong();
+		}
+		if ((flags & HAS_ZIP_CODE) != 0) {
+			reader.varLong();
+		}
+		if ((flags & HAS_ACCOUNT_NUMBER) != 0 && (flags & ACCOUNT_IS_ID) == 0) {
+			reader.varLong();
+		}
+		if ((flags & HAS_NAME) != 0) {
+			reader.offset += (int) reader.varLong();
+		}
+		if ((flags & HAS_EMAIL) != 0) {
+			reader.offset += (int) reader.varLong();
+		}
+		return reader.offset - offset;
+	}
+
+	private static final class Reader {
+
+		private final byte[] page;
+		private int offset;
+
+		Reader(byte[] page, int offset) {
+			this.page = page;
+			this.offset = offset;
+		}
+
+		long varLong() {
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = page[offset++];
+				value |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			return value;
+		}
+
+		String string() {
+			int length = (int) varLong();
+			String value = new String(page, offset, length, StandardCharsets.UTF_8);
+			offset += length;
+			return value;
+		}
+	}
+
+}
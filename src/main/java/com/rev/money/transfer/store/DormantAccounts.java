@@ -0,0 +1,223 @@
+package com.rev.money.transfer.store;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.rev.money.transfer.model.Account;
+
+/**
+ * Accounts restored from a snapshot and not used since, kept without an actor
+ * so a restore costs a few array writes per account instead of starting one
+ * actor each. The account service reads their balances from here and starts
+ * the actor of an account the first time it moves money or needs anything
+ * else from it.
+ *
+ * An open-addressing hash table over primitive arrays: the number, the
+ * unscaled balance, its scale and the index of the currency of each account,
+ * 19 bytes a slot and 25 to 51 bytes an account. Balances that do not fit in
+ * a long, and accounts past {@link #MAX_CURRENCIES} currencies, are not taken.
+ *
+ * Not thread safe: meant to be owned by the account service.
+ */
+public class DormantAccounts {
+
+	static final int MAX_CURRENCIES = 255;
+
+	private static final int INITIAL_CAPACITY = 1_024;
+	private static final byte FREE = 0;
+	private static final byte FULL = 1;
+	private static final byte REMOVED = 2;
+
+	private long[] numbers = new long[INITIAL_CAPACITY];
+	private long[] unscaled = new long[INITIAL_CAPACITY];
+	private byte[] scales = new byte[INITIAL_CAPACITY];
+	// Index in currencyCodes plus one, zero for an account without a currency
+	private byte[] currencies = new byte[INITIAL_CAPACITY];
+	private byte[] states = new byte[INITIAL_CAPACITY];
+	private final List<String> currencyCodes = new ArrayList<>();
+	private final Map<String, Integer> currencyIndex = new HashMap<>();
+	private int size;
+	// Full and removed slots, kept under three quarters of the capacity
+	private int occupied;
+
+	public int size() {
+		return size;
+	}
+
+	public boolean contains(long accountNumber) {
+		return slotOf(accountNumber) >= 0;
+	}
+
+	/**
+	 * Adds an account that is not in here yet.
+	 *
+	 * @return false if its balance or currency cannot be held, the account is
+	 *         then left out
+	 */
+	public boolean put(Account account) {
+		BigDecimal balance = account.getBalance();
+		if (balance.unscaledValue().bitLength() > 63 || balance.scale() != (byte) balance.scale()) {
+			return false;
+		}
+		int currency = currencyOf(account.getCurrency());
+		if (currency < 0) {
+			return false;
+		}
+		if ((occupied + 1) * 4L > numbers.length * 3L) {
+			resize(size * 2 > numbers.length / 2 ? numbers.length * 2 : numbers.length);
+		}
+		int slot = freeSlotOf(account.getAccountNumber());
+		if (states[slot] == FREE) {
+			occupied++;
+		}
+		numbers[slot] = account.getAccountNumber();
+		unscaled[slot] = balance.unscaledValue().longValue();
+		scales[slot] = (byte) balance.scale();
+		currencies[slot] = (byte) currency;
+		states[slot] = FULL;
+		size++;
+		return true;
+	}
+
+	/**
+	 * @return the account, null if it is not in here
+	 */
+	public Account get(long accountNumber) {
+		int slot = slotOf(accountNumber);
+		return slot < 0 ? null : accountAt(slot);
+	}
+
+	/**
+	 * Takes the account out, e.g. once it gets an actor or is deleted.
+	 *
+	 * @return the account, null if it was not in here
+	 */
+	public Account remove(long accountNumber) {
+		int slot = slotOf(accountNumber);
+		if (slot < 0) {
+			return null;
+		}
+		Account account = accountAt(slot);
+		states[slot] = REMOVED;
+		size--;
+		return account;
+	}
+
+	/**
+	 * @return every account in here, in no particular order
+	 */
+	public List<Account> accounts() {
+		List<Account> accounts = new ArrayList<>(size);
+		for (int slot = 0; slot < states.length; slot++) {
+			if (states[slot] == FULL) {
+				accounts.add(accountAt(slot));
+			}
+		}
+		return accounts;
+	}
+
+	/**
+	 * @return the balances added up per currency of the accounts, null for the
+	 *         accounts without one
+	 */
+	public Map<String, BigDecimal> balances() {
+		Map<String, BigDecimal> balances = new HashMap<>();
+		for (int slot = 0; slot < states.length; slot++) {
+			if (states[slot] == FULL) {
+				BigDecimal balance = BigDecimal.valueOf(unscaled[slot], scales[slot]);
+				balances.merge(currencyAt(slot), balance, BigDecimal::add);
+			}
+		}
+		return balances;
+	}
+
+	private Account accountAt(int slot) {
+		return new Account(numbers[slot], new BigDecimal(BigInteger.valueOf(unscaled[slot]), scales[slot]),
+				currencyAt(slot));
+	}
+
+	private String currencyAt(int slot) {
+		int currency = currencies[slot] & 0xFF;
+		return currency == 0 ? null : currencyCodes.get(currency - 1);
+	}
+
+	/**
+	 * @return the index stored for the currency, -1 once there are too many
+	 */
+	private int currencyOf(String currency) {
+		if (currency == null) {
+			return 0;
+		}
+		Integer index = currencyIndex.get(currency);
+		if (index == null) {
+			if (currencyCodes.size() == MAX_CURRENCIES) {
+				return -1;
+			}
+			currencyCodes.add(currency);
+			index = currencyCodes.size();
+			currencyIndex.put(currency, index);
+		}
+		return index;
+	}
+
+	private static int hash(long accountNumber) {
+		long hash = accountNumber * 0x9E37_79B9_7F4A_7C15L;
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	/**
+	 * @return the slot holding the account, -1 if none does
+	 */
+	private int slotOf(long accountNumber) {
+		int mask = states.length - 1;
+		for (int slot = hash(accountNumber) & mask;; slot = (slot + 1) & mask) {
+			if (states[slot] == FREE) {
+				return -1;
+			}
+			if (states[slot] == FULL && numbers[slot] == accountNumber) {
+				return slot;
+			}
+		}
+	}
+
+	private int freeSlotOf(long accountNumber) {
+		int mask = states.length - 1;
+		int slot = hash(accountNumber) & mask;
+		while (states[slot] == FULL) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Rehashes the accounts into new arrays, dropping the removed slots.
+	 */
+	private void resize(int capacity) {
+		long[] oldNumbers = numbers;
+		long[] oldUnscaled = unscaled;
+		byte[] oldScales = scales;
+		byte[] oldCurrencies = currencies;
+		byte[] oldStates = states;
+		numbers = new long[capacity];
+		unscaled = new long[capacity];
+		scales = new byte[capacity];
+		currencies = new byte[capacity];
+		states = new byte[capacity];
+		occupied = size;
+		for (int old = 0; old < oldStates.length; old++) {
+			if (oldStates[old] == FULL) {
+				int slot = freeSlotOf(oldNumbers[old]);
+				numbers[slot] = oldNumbers[old];
+				unscaled[slot] = oldUnscaled[old];
+				scales[slot] = oldScales[old];
+				currencies[slot] = oldCurrencies[old];
+				states[slot] = FULL;
+			}
+		}
+	}
+
+}
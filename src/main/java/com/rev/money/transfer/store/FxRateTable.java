@@ -0,0 +1,39 @@
+package com.rev.money.transfer.store;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.rev.money.transfer.model.FxRates;
+
+/**
+ * The FX rates in use. Readers take the current {@link FxRates} with one
+ * volatile read and keep using it for a whole conversion; an update builds a
+ * complete new set aside and swaps it in at once, so nobody ever sees half of
+ * an update and nobody waits for one.
+ */
+public class FxRateTable {
+
+	private final AtomicReference<FxRates> current = new AtomicReference<>(FxRates.BASE_ONLY);
+
+	public FxRates current() {
+		return current.get();
+	}
+
+	/**
+	 * Replaces every rate with the given ones.
+	 *
+	 * @return the rates now in use
+	 * @throws IllegalArgumentException if a currency or a rate is invalid
+	 */
+	public FxRates publish(Map<String, BigDecimal> rates) {
+		FxRates published;
+		FxRates previous;
+		do {
+			previous = current.get();
+			published = FxRates.of(previous.getVersion() + 1, rates);
+		} while (!current.compareAndSet(previous, published));
+		return published;
+	}
+
+}
@@ -0,0 +1,346 @@
+package com.rev.money.transfer.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import com.rev.money.transfer.actor.AccountActor.DeleteAccount;
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.CashDeposit;
+import com.rev.money.transfer.model.FxRates;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.service.AccountService.RestoreAccounts;
+import com.rev.money.transfer.service.TransactionService.RestoreTransactions;
+
+/**
+ * Append-only journal of the commands changing a ledger, in the order they
+ * were applied: accounts created or deleted, transfers, deposits, restores and
+ * the FX rates transfers were converted with.
+ * Commands are recorded as received, so replaying them in order through the
+ * same logic rebuilds the same balances, transactions and generated ids.
+ *
+ * {@link #flush()} forces the commands to the disk before returning, so a
+ * command flushed survives a crash of the process or of the machine.
+ *
+ * A journal created by {@link #inMemory()} keeps nothing.
+ */
+public class LedgerJournal implements Closeable {
+
+	private static final int MAGIC = 0x4C44_4752;
+	private static final int VERSION = 1;
+
+	private static final byte CREATE_ACCOUNT = 1;
+	private static final byte DELETE_ACCOUNT = 2;
+	private static final byte TRANSFER = 3;
+	private static final byte DEPOSIT = 4;
+	private static final byte RESTORE_ACCOUNTS = 5;
+	private static final byte RESTORE_TRANSACTIONS = 6;
+	private static final byte FX_RATES = 7;
+
+	private final Path path;
+	private FileChannel channel;
+	private DataOutputStream out;
+	// Size of the file once the last flush was forced to the disk
+	private long flushed;
+
+	public LedgerJournal(Path path) {
+		this.path = path;
+	}
+
+	public static LedgerJournal inMemory() {
+		return new LedgerJournal(null);
+	}
+
+	/**
+	 * Hands every recorded command to the consumer in order, then opens the
+	 * journal for appending.
+	 */
+	public void load(Consumer<Object> commands) {
+		if (path == null) {
+			return;
+		}
+		try {
+			if (Files.exists(path) && Files.size(path) > 0) {
+				replay(commands);
+			}
+			channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.APPEND);
+			out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			if (channel.size() == 0) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				flush();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to load ledger journal " + path, e);
+		}
+	}
+
+	/**
+	 * Buffers the command, commands not changing the ledger are ignored.
+	 */
+	public void append(Object command) {
+		if (out == null) {
+			return;
+		}
+		try {
+			if (command instanceof Account) {
+				out.writeByte(CREATE_ACCOUNT);
+				writeAccount(out, (Account) command);
+			} else if (command instanceof DeleteAccount) {
+				out.writeByte(DELETE_ACCOUNT);
+				out.writeLong(((DeleteAccount) command).getAccountNumber());
+			} else if (command instanceof Transaction) {
+				out.writeByte(TRANSFER);
+				writeTransaction(out, (Transaction) command);
+			} else if (command instanceof CashDeposit) {
+				CashDeposit cashDeposit = (CashDeposit) command;
+				out.writeByte(DEPOSIT);
+				out.writeLong(cashDeposit.getId());
+				out.writeLong(cashDeposit.getAccountNumber());
+				out.writeUTF(cashDeposit.getAmount().toString());
+			} else if (command instanceof RestoreAccounts) {
+				List<Account> accounts = ((RestoreAccounts) command).getAccounts();
+				out.writeByte(RESTORE_ACCOUNTS);
+				out.writeInt(accounts.size());
+				for (Account account : accounts) {
+					writeAccount(out, account);
+				}
+			} else if (command instanceof RestoreTransactions) {
+				List<Transaction> transactions = ((RestoreTransactions) command).getTransactions();
+				out.writeByte(RESTORE_TRANSACTIONS);
+				out.writeInt(transactions.size());
+				for (Transaction transaction : transactions) {
+					writeTransaction(out, transaction);
+				}
+			} else if (command instanceof FxRates) {
+				FxRates rates = (FxRates) command;
+				out.writeByte(FX_RATES);
+				out.writeLong(rates.getVersion());
+				out.writeInt(rates.getRates().size());
+				for (Map.Entry<String, BigDecimal> rate : rates.getRates().entrySet()) {
+					out.writeUTF(rate.getKey());
+					out.writeUTF(rate.getValue().toString());
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Writes buffered commands to the file and forces them to the disk, once
+	 * per batch rather than per command.
+	 */
+	public void flush() {
+		if (out == null) {
+			return;
+		}
+		try {
+			out.flush();
+			// The file size is forced with the rest, a replay reads up to it
+			channel.force(true);
+			flushed = channel.size();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Closes the journal after a failure, dropping what was appended since the
+	 * last flush, some of which may have reached the file already, so commands
+	 * whose callers were told they failed are not replayed.
+	 */
+	public void abandon() throws IOException {
+		if (out == null) {
+			return;
+		}
+		try {
+			channel.truncate(flushed);
+		} finally {
+			channel.close();
+			out = null;
+			channel = null;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (out != null) {
+			out.close();
+			out = null;
+			channel = null;
+		}
+	}
+
+	private void replay(Consumer<Object> commands) throws IOException {
+		long complete = 0;
+		try (CountingInputStream counting = new CountingInputStream(
+				new BufferedInputStream(Files.newInputStream(path)));
+				DataInputStream in = new DataInputStream(counting)) {
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+					throw new IOException("Unsupported ledger journal " + path);
+				}
+				while (true) {
+					complete = counting.count;
+					commands.accept(readCommand(in));
+				}
+			} catch (EOFException e) {
+				// End of journal, possibly a command torn by a crash
+			}
+		}
+		// Drops the torn command so appended ones stay readable
+		if (complete < Files.size(path)) {
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+				channel.truncate(complete);
+			}
+		}
+	}
+
+	private Object readCommand(DataInputStream in) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+		case CREATE_ACCOUNT:
+			return readAccount(in);
+		case DELETE_ACCOUNT:
+			return new DeleteAccount(in.readLong());
+		case TRANSFER:
+			return readTransaction(in);
+		case DEPOSIT:
+			return new CashDeposit(in.readLong(), in.readLong(), new BigDecimal(in.readUTF()));
+		case RESTORE_ACCOUNTS:
+			int accounts = in.readInt();
+			List<Account> restoredAccounts = new ArrayList<>(accounts);
+			for (int i = 0; i < accounts; i++) {
+				restoredAccounts.add(readAccount(in));
+			}
+			return new RestoreAccounts(restoredAccounts);
+		case RESTORE_TRANSACTIONS:
+			int transactions = in.readInt();
+			List<Transaction> restoredTransactions = new ArrayList<>(transactions);
+			for (int i = 0; i < transactions; i++) {
+				restoredTransactions.add(readTransaction(in));
+			}
+			return new RestoreTransactions(restoredTransactions);
+		case FX_RATES:
+			long version = in.readLong();
+			int currencies = in.readInt();
+			Map<String, BigDecimal> rates = new HashMap<>();
+			for (int i = 0; i < currencies; i++) {
+				rates.put(in.readUTF(), new BigDecimal(in.readUTF()));
+			}
+			return FxRates.of(version, rates);
+		default:
+			throw new IOException("Corrupted ledger journal " + path);
+		}
+	}
+
+	private static void writeAccount(DataOutputStream out, Account account) throws IOException {
+		out.writeLong(account.getAccountNumber());
+		out.writeUTF(account.getBalance().toString());
+		writeNullableString(out, account.getCurrency());
+	}
+
+	private static Account readAccount(DataInputStream in) throws IOException {
+		return new Account(in.readLong(), new BigDecimal(in.readUTF()), readNullableString(in));
+	}
+
+	private static void writeTransaction(DataOutputStream out, Transaction transaction) throws IOException {
+		writeNullableLong(out, transaction.getId());
+		writeNullableLong(out, transaction.getRemitterAccountId());
+		writeNullableLong(out, transaction.getBeneficieryAccountId());
+		out.writeUTF(transaction.getAmount().toString());
+		out.writeByte(transaction.getStatus() == null ? -1 : transaction.getStatus().ordinal());
+		writeNullableString(out, transaction.getRemarks());
+		writeNullableString(out, transaction.getCurrency());
+	}
+
+	private static Transaction readTransaction(DataInputStream in) throws IOException {
+		Long id = readNullableLong(in);
+		Long remitter = readNullableLong(in);
+		Long beneficiery = readNullableLong(in);
+		BigDecimal amount = new BigDecimal(in.readUTF());
+		byte status = in.readByte();
+		String remarks = readNullableString(in);
+		return new Transaction(id, remitter, beneficiery, amount, status < 0 ? null : TransactionStatus.values()[status],
+				remarks, readNullableString(in));
+	}
+
+	private static void writeNullableLong(DataOutputStream out, Long value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeLong(value);
+		}
+	}
+
+	private static Long readNullableLong(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readLong() : null;
+	}
+
+	private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readNullableString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+
+		private long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int read = super.read();
+			if (read >= 0) {
+				count++;
+			}
+			return read;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0) {
+				count += read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+
+	}
+
+}
@@ -0,0 +1,194 @@
+package com.rev.money.transfer.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.rev.money.transfer.model.ScheduledTransfer;
+
+/**
+ * Append-only journal of scheduled transfers so that schedules survive a
+ * restart. Every registration, reschedule and removal is one record; on load
+ * the journal is replayed and compacted into one record per live schedule.
+ * 
+ * A store created by {@link #inMemory()} keeps nothing.
+ */
+public class ScheduleStore implements Closeable {
+
+	private static final int MAGIC = 0x5343_4844;
+	private static final int VERSION = 1;
+
+	private static final byte REGISTER = 1;
+	private static final byte RESCHEDULE = 2;
+	private static final byte REMOVE = 3;
+
+	private final Path path;
+	private DataOutputStream out;
+
+	public ScheduleStore(Path path) {
+		this.path = path;
+	}
+
+	public static ScheduleStore inMemory() {
+		return new ScheduleStore(null);
+	}
+
+	/**
+	 * Replays the journal, rewrites it compacted and opens it for appending.
+	 * 
+	 * @return live schedules in registration order
+	 */
+	public Collection<ScheduledTransfer> load() {
+		if (path == null) {
+			return Collections.emptyList();
+		}
+		try {
+			Map<Long, ScheduledTransfer> schedules = Files.exists(path) ? replay() : new LinkedHashMap<>();
+			compact(schedules.values());
+			out = new DataOutputStream(new BufferedOutputStream(
+					Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+			return schedules.values();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to load schedules from " + path, e);
+		}
+	}
+
+	public void register(ScheduledTransfer schedule) {
+		if (out == null) {
+			return;
+		}
+		try {
+			out.writeByte(REGISTER);
+			writeSchedule(out, schedule);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public void reschedule(long id, long nextExecution) {
+		if (out == null) {
+			return;
+		}
+		try {
+			out.writeByte(RESCHEDULE);
+			out.writeLong(id);
+			out.writeLong(nextExecution);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public void remove(long id) {
+		if (out == null) {
+			return;
+		}
+		try {
+			out.writeByte(REMOVE);
+			out.writeLong(id);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Pushes buffered records to the file. Called once per registration and once
+	 * per batch of fired schedules rather than per record.
+	 */
+	public void flush() {
+		if (out == null) {
+			return;
+		}
+		try {
+			out.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (out != null) {
+			out.close();
+			out = null;
+		}
+	}
+
+	private Map<Long, ScheduledTransfer> replay() throws IOException {
+		Map<Long, ScheduledTransfer> schedules = new LinkedHashMap<>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Unsupported schedule journal " + path);
+			}
+			while (true) {
+				byte type = in.readByte();
+				if (type == REGISTER) {
+					ScheduledTransfer schedule = readSchedule(in);
+					schedules.put(schedule.getId(), schedule);
+				} else if (type == RESCHEDULE) {
+					long id = in.readLong();
+					long nextExecution = in.readLong();
+					schedules.computeIfPresent(id, (key, s) -> s.withNextExecution(nextExecution));
+				} else if (type == REMOVE) {
+					schedules.remove(in.readLong());
+				} else {
+					throw new IOException("Corrupted schedule journal " + path);
+				}
+			}
+		} catch (EOFException e) {
+			// End of journal, possibly a record torn by a crash which is dropped
+		}
+		return schedules;
+	}
+
+	private void compact(Collection<ScheduledTransfer> schedules) throws IOException {
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (DataOutputStream compacted = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+			compacted.writeInt(MAGIC);
+			compacted.writeInt(VERSION);
+			for (ScheduledTransfer schedule : schedules) {
+				compacted.writeByte(REGISTER);
+				writeSchedule(compacted, schedule);
+			}
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void writeSchedule(DataOutputStream out, ScheduledTransfer schedule) throws IOException {
+		out.writeLong(schedule.getId());
+		out.writeLong(schedule.getRemitterAccountId());
+		out.writeLong(schedule.getBeneficieryAccountId());
+		out.writeUTF(schedule.getAmount().toPlainString());
+		out.writeLong(schedule.getNextExecution());
+		out.writeLong(schedule.getIntervalMillis());
+		out.writeBoolean(schedule.getRemarks() != null);
+		if (schedule.getRemarks() != null) {
+			out.writeUTF(schedule.getRemarks());
+		}
+	}
+
+	private static ScheduledTransfer readSchedule(DataInputStream in) throws IOException {
+		long id = in.readLong();
+		long remitter = in.readLong();
+		long beneficiery = in.readLong();
+		BigDecimal amount = new BigDecimal(in.readUTF());
+		long nextExecution = in.readLong();
+		long intervalMillis = in.readLong();
+		String remarks = in.readBoolean() ? in.readUTF() : null;
+		return new ScheduledTransfer(id, remitter, beneficiery, amount, nextExecution, intervalMillis, remarks);
+	}
+
+}
@@ -0,0 +1,465 @@
+package com.rev.money.transfer.store;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.Customer;
+import com.rev.money.transfer.model.FxRates;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.model.TransactionStatus;
+
+import lombok.Value;
+
+/**
+ * Versioned binary snapshot of the whole state: accounts, customers,
+ * transactions and the balance histories of the accounts.
+ *
+ * The file starts with a fixed header (magic, version, creation time, record
+ * count of each section and the offsets of the sections) followed by the
+ * sections. Account records have a fixed width and are read straight out of
+ * memory-mapped chunks; customer, transaction and history records have
+ * variable length and each of their sections is mapped as a whole. A snapshot
+ * is written to a temporary file and moved in place, so a reader never sees
+ * half a snapshot. Snapshots of version 2, without histories, are still read.
+ */
+public final class SnapshotFile {
+
+	public static final int VERSION = 3;
+
+	private static final int MAGIC = 0x4D54_534E;
+	private static final int HEADER_BYTES = 80;
+	// Version 2 has no history count and offset
+	private static final int HEADER_BYTES_V2 = 64;
+	// ISO 4217 code in ASCII, zeros when there is none
+	private static final int CURRENCY_BYTES = 3;
+	// account number, unscaled balance, scale, currency
+	private static final int ACCOUNT_BYTES = Long.BYTES + Long.BYTES + Integer.BYTES + CURRENCY_BYTES;
+	private static final int BUFFER_BYTES = 1 << 20;
+
+	private static final byte HAS_ID = 1;
+	private static final byte HAS_CONTACT_NUMBER = 1 << 1;
+	private static final byte HAS_ZIP_CODE = 1 << 2;
+	private static final byte HAS_ACCOUNT_NUMBER = 1 << 3;
+	private static final byte HAS_REMITTER = 1 << 1;
+	private static final byte HAS_BENEFICIERY = 1 << 2;
+	private static final byte HAS_CURRENCY = 1 << 3;
+
+	private SnapshotFile() {
+	}
+
+	/**
+	 * Writes the snapshot to the given path, replacing any previous snapshot
+	 * there, without balance histories.
+	 */
+	public static void write(Path path, long createdAt, Collection<Account> accounts, Collection<Customer> customers,
+			Collection<Transaction> transactions) throws IOException {
+		write(path, createdAt, accounts, customers, transactions, Collections.emptyMap());
+	}
+
+	/**
+	 * Writes the snapshot to the given path, replacing any previous snapshot
+	 * there.
+	 *
+	 * @param histories balance histories by account number, as written by
+	 *                  {@link com.rev.money.transfer.util.BalanceHistory#toBytes()}
+	 */
+	public static void write(Path path, long createdAt, Collection<Account> accounts, Collection<Customer> customers,
+			Collection<Transaction> transactions, Map<Long, byte[]> histories) throws IOException {
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			Writer writer = new Writer(channel, HEADER_BYTES);
+			for (Account account : accounts) {
+				writer.ensure(ACCOUNT_BYTES);
+				writer.buffer.putLong(account.getAccountNumber());
+				writer.putAmount(account.getBalance());
+				writer.putCurrency(account.getCurrency());
+			}
+			long customersOffset = writer.position();
+			for (Customer customer : customers) {
+				writeCustomer(writer, customer);
+			}
+			long transactionsOffset = writer.position();
+			for (Transaction transaction : transactions) {
+				writeTransaction(writer, transaction);
+			}
+			long historiesOffset = writer.position();
+			for (Map.Entry<Long, byte[]> history : histories.entrySet()) {
+				writer.ensure(Long.BYTES);
+				writer.buffer.putLong(history.getKey());
+				writer.putBytes(history.getValue());
+			}
+			long end = writer.position();
+			writer.flush();
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putInt(MAGIC).putInt(VERSION).putLong(createdAt).putLong(accounts.size())
+					.putLong(customers.size()).putLong(transactions.size()).putLong(histories.size())
+					.putLong(customersOffset).putLong(transactionsOffset).putLong(historiesOffset).putLong(end).flip();
+			long position = 0;
+			while (header.hasRemaining()) {
+				position += channel.write(header, position);
+			}
+			channel.force(false);
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void writeCustomer(Writer writer, Customer customer) throws IOException {
+		byte flags = (byte) ((customer.getId() != null ? HAS_ID : 0)
+				| (customer.getContactNumber() != null ? HAS_CONTACT_NUMBER : 0)
+				| (customer.getZipCode() != null ? HAS_ZIP_CODE : 0)
+				| (customer.getAccountNumber() != null ? HAS_ACCOUNT_NUMBER : 0));
+		writer.ensure(1 + 3 * Long.BYTES + Integer.BYTES);
+		writer.buffer.put(flags);
+		if (customer.getId() != null) {
+			writer.buffer.putLong(customer.getId());
+		}
+		if (customer.getContactNumber() != null) {
+			writer.buffer.putLong(customer.getContactNumber());
+		}
+		if (customer.getZipCode() != null) {
+			writer.buffer.putInt(customer.getZipCode());
+		}
+		if (customer.getAccountNumber() != null) {
+			writer.buffer.putLong(customer.getAccountNumber());
+		}
+		writer.putString(customer.getName());
+		writer.putString(customer.getEmail());
+	}
+
+	private static void writeTransaction(Writer writer, Transaction transaction) throws IOException {
+		byte flags = (byte) ((transaction.getId() != null ? HAS_ID : 0)
+				| (transaction.getRemitterAccountId() != null ? HAS_REMITTER : 0)
+				| (transaction.getBeneficieryAccountId() != null ? HAS_BENEFICIERY : 0)
+				| (transaction.getCurrency() != null ? HAS_CURRENCY : 0));
+		writer.ensure(1 + 3 * Long.BYTES + 1);
+		writer.buffer.put(flags);
+		if (transaction.getId() != null) {
+			writer.buffer.putLong(transaction.getId());
+		}
+		if (transaction.getRemitterAccountId() != null) {
+			writer.buffer.putLong(transaction.getRemitterAccountId());
+		}
+		if (transaction.getBeneficieryAccountId() != null) {
+			writer.buffer.putLong(transaction.getBeneficieryAccountId());
+		}
+		writer.buffer.put((byte) (transaction.getStatus() == null ? -1 : transaction.getStatus().ordinal()));
+		writer.putAmount(transaction.getAmount());
+		writer.putString(transaction.getRemarks());
+		if (transaction.getCurrency() != null) {
+			writer.putCurrency(transaction.getCurrency());
+		}
+	}
+
+	/**
+	 * Reads the snapshot leaving out its balance histories.
+	 *
+	 * @return header of the snapshot
+	 */
+	public static Header read(Path path, int batchSize, Consumer<List<Account>> accounts,
+			Consumer<List<Customer>> customers, Consumer<List<Transaction>> transactions) throws IOException {
+		return read(path, batchSize, accounts, customers, transactions, histories -> {
+		});
+	}
+
+	/**
+	 * Memory-maps the snapshot and hands its records to the consumers in batches
+	 * of at most {@code batchSize}: all accounts first, then customers, then
+	 * transactions, then balance histories by account number.
+	 *
+	 * @return header of the snapshot
+	 */
+	public static Header read(Path path, int batchSize, Consumer<List<Account>> accounts,
+			Consumer<List<Customer>> customers, Consumer<List<Transaction>> transactions,
+			Consumer<Map<Long, byte[]>> histories) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			Header header = readHeader(path, channel);
+			readAccounts(channel, header.customersOffset - header.getAccounts() * ACCOUNT_BYTES, header.getAccounts(),
+					batchSize, accounts);
+			ByteBuffer customerSection = map(channel, header.customersOffset, header.transactionsOffset);
+			Batcher<Customer> customerBatch = new Batcher<>(batchSize, customers);
+			for (long i = 0; i < header.getCustomers(); i++) {
+				customerBatch.add(readCustomer(customerSection));
+			}
+			customerBatch.flush();
+			ByteBuffer transactionSection = map(channel, header.transactionsOffset, header.historiesOffset);
+			Batcher<Transaction> transactionBatch = new Batcher<>(batchSize, transactions);
+			for (long i = 0; i < header.getTransactions(); i++) {
+				transactionBatch.add(readTransaction(transactionSection));
+			}
+			transactionBatch.flush();
+			ByteBuffer historySection = map(channel, header.historiesOffset, header.end);
+			Map<Long, byte[]> historyBatch = new LinkedHashMap<>();
+			for (long i = 0; i < header.getHistories(); i++) {
+				historyBatch.put(historySection.getLong(), getBytes(historySection));
+				if (historyBatch.size() == batchSize || i == header.getHistories() - 1) {
+					histories.accept(historyBatch);
+					historyBatch = new LinkedHashMap<>();
+				}
+			}
+			return header;
+		}
+	}
+
+	private static Header readHeader(Path path, FileChannel channel) throws IOException {
+		// A version 2 snapshot without any record is shorter than a version 3 header
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, buffer.position()) < 0) {
+				break;
+			}
+		}
+		if (buffer.position() < HEADER_BYTES_V2) {
+			throw new IOException(path + " is not a snapshot: too short");
+		}
+		buffer.flip();
+		if (buffer.getInt() != MAGIC) {
+			throw new IOException(path + " is not a snapshot");
+		}
+		int version = buffer.getInt();
+		Header header;
+		if (version == VERSION && buffer.remaining() == HEADER_BYTES - Integer.BYTES * 2) {
+			header = new Header(version, buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong(),
+					buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+		} else if (version == 2) {
+			long createdAt = buffer.getLong();
+			long accounts = buffer.getLong();
+			long customers = buffer.getLong();
+			long transactions = buffer.getLong();
+			long customersOffset = buffer.getLong();
+			long transactionsOffset = buffer.getLong();
+			long end = buffer.getLong();
+			header = new Header(version, createdAt, accounts, customers, transactions, 0, customersOffset,
+					transactionsOffset, end, end);
+		} else {
+			throw new IOException("Unsupported snapshot version " + version + " in " + path);
+		}
+		int headerBytes = version == 2 ? HEADER_BYTES_V2 : HEADER_BYTES;
+		if (header.end != channel.size()
+				|| header.customersOffset != headerBytes + header.getAccounts() * ACCOUNT_BYTES) {
+			throw new IOException("Snapshot " + path + " is truncated or corrupt");
+		}
+		return header;
+	}
+
+	private static void readAccounts(FileChannel channel, long accountsOffset, long count, int batchSize,
+			Consumer<List<Account>> accounts) throws IOException {
+		long recordsPerChunk = Integer.MAX_VALUE / ACCOUNT_BYTES;
+		Batcher<Account> batch = new Batcher<>(batchSize, accounts);
+		for (long first = 0; first < count; first += recordsPerChunk) {
+			long records = Math.min(recordsPerChunk, count - first);
+			long offset = accountsOffset + first * ACCOUNT_BYTES;
+			ByteBuffer chunk = map(channel, offset, offset + records * ACCOUNT_BYTES);
+			for (long i = 0; i < records; i++) {
+				batch.add(new Account(chunk.getLong(), getAmount(chunk), getCurrency(chunk)));
+			}
+		}
+		batch.flush();
+	}
+
+	private static Customer readCustomer(ByteBuffer buffer) {
+		byte flags = buffer.get();
+		Customer.CustomerBuilder customer = Customer.builder();
+		if ((flags & HAS_ID) != 0) {
+			customer.id(buffer.getLong());
+		}
+		if ((flags & HAS_CONTACT_NUMBER) != 0) {
+			customer.contactNumber(buffer.getLong());
+		}
+		if ((flags & HAS_ZIP_CODE) != 0) {
+			customer.zipCode(buffer.getInt());
+		}
+		if ((flags & HAS_ACCOUNT_NUMBER) != 0) {
+			customer.accountNumber(buffer.getLong());
+		}
+		return customer.name(getString(buffer)).email(getString(buffer)).build();
+	}
+
+	private static Transaction readTransaction(ByteBuffer buffer) {
+		byte flags = buffer.get();
+		Long id = (flags & HAS_ID) != 0 ? buffer.getLong() : null;
+		Long remitter = (flags & HAS_REMITTER) != 0 ? buffer.getLong() : null;
+		Long beneficiery = (flags & HAS_BENEFICIERY) != 0 ? buffer.getLong() : null;
+		byte status = buffer.get();
+		BigDecimal amount = getAmount(buffer);
+		String remarks = getString(buffer);
+		String currency = (flags & HAS_CURRENCY) != 0 ? getCurrency(buffer) : null;
+		return new Transaction(id, remitter, beneficiery, amount,
+				status < 0 ? null : TransactionStatus.values()[status], remarks, currency);
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, long from, long to) throws IOException {
+		if (to - from > Integer.MAX_VALUE) {
+			throw new IOException("Snapshot section of " + (to - from) + " bytes is too large to map");
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+	}
+
+	private static BigDecimal getAmount(ByteBuffer buffer) {
+		long unscaled = buffer.getLong();
+		return BigDecimal.valueOf(unscaled, buffer.getInt());
+	}
+
+	private static String getCurrency(ByteBuffer buffer) {
+		byte[] code = new byte[CURRENCY_BYTES];
+		buffer.get(code);
+		return code[0] == 0 ? null : FxRates.currencyCode(new String(code, StandardCharsets.US_ASCII));
+	}
+
+	private static byte[] getBytes(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	private static String getString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	@Value
+	public static class Header {
+		private final int version;
+		private final long createdAt;
+		private final long accounts;
+		private final long customers;
+		private final long transactions;
+		// Balance histories, none in a version 2 snapshot
+		private final long histories;
+		private final long customersOffset;
+		private final long transactionsOffset;
+		private final long historiesOffset;
+		private final long end;
+	}
+
+	/**
+	 * Buffered writer over the file channel that keeps track of the absolute
+	 * position, so section offsets are known without seeking.
+	 */
+	private static final class Writer {
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+		private long flushed;
+
+		Writer(FileChannel channel, long start) {
+			this.channel = channel;
+			this.flushed = start;
+		}
+
+		long position() {
+			return flushed + buffer.position();
+		}
+
+		void ensure(int bytes) throws IOException {
+			if (buffer.remaining() < bytes) {
+				flush();
+			}
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				flushed += channel.write(buffer, flushed);
+			}
+			buffer.clear();
+		}
+
+		void putAmount(BigDecimal amount) throws IOException {
+			BigInteger unscaled = amount.unscaledValue();
+			if (unscaled.bitLength() > 63) {
+				throw new IOException("Amount " + amount + " does not fit in a snapshot record");
+			}
+			ensure(Long.BYTES + Integer.BYTES);
+			buffer.putLong(unscaled.longValue()).putInt(amount.scale());
+		}
+
+		void putCurrency(String currency) throws IOException {
+			ensure(CURRENCY_BYTES);
+			if (currency == null) {
+				buffer.put(new byte[CURRENCY_BYTES]);
+				return;
+			}
+			byte[] code = currency.getBytes(StandardCharsets.US_ASCII);
+			if (code.length != CURRENCY_BYTES) {
+				throw new IOException("Currency " + currency + " does not fit in a snapshot record");
+			}
+			buffer.put(code);
+		}
+
+		void putBytes(byte[] bytes) throws IOException {
+			ensure(Integer.BYTES);
+			buffer.putInt(bytes.length);
+			if (bytes.length > buffer.capacity()) {
+				flush();
+				ByteBuffer large = ByteBuffer.wrap(bytes);
+				while (large.hasRemaining()) {
+					flushed += channel.write(large, flushed);
+				}
+				return;
+			}
+			ensure(bytes.length);
+			buffer.put(bytes);
+		}
+
+		void putString(String value) throws IOException {
+			if (value == null) {
+				ensure(Integer.BYTES);
+				buffer.putInt(-1);
+				return;
+			}
+			putBytes(value.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private static final class Batcher<T> {
+
+		private final int batchSize;
+		private final Consumer<List<T>> consumer;
+		private List<T> batch;
+
+		Batcher(int batchSize, Consumer<List<T>> consumer) {
+			this.batchSize = batchSize;
+			this.consumer = consumer;
+			this.batch = new ArrayList<>(batchSize);
+		}
+
+		void add(T item) {
+			batch.add(item);
+			if (batch.size() == batchSize) {
+				flush();
+			}
+		}
+
+		void flush() {
+			if (!batch.isEmpty()) {
+				consumer.accept(batch);
+				batch = new ArrayList<>(batchSize);
+			}
+		}
+	}
+
+}
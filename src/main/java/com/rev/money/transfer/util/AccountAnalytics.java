@@ -0,0 +1,106 @@
+package com.rev.money.transfer.util;
+
+import static akka.pattern.Patterns.ask;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.service.AnalyticsService;
+import com.rev.money.transfer.service.AnalyticsService.HotAccount;
+import com.typesafe.config.Config;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+
+/**
+ * Entry point of the account actors and the routes to the
+ * {@link AnalyticsService} of the actor system. Changes are told without
+ * waiting, so an account actor reporting a change only enqueues a message.
+ */
+public class AccountAnalytics implements Extension {
+
+	// Stripe of an account that is not striped
+	public static final int NOT_STRIPED = -1;
+
+	private final ActorRef service;
+
+	private AccountAnalytics(ActorRef service) {
+		this.service = service;
+	}
+
+	public static AccountAnalytics get(ActorSystem system) {
+		return Provider.INSTANCE.get(system);
+	}
+
+	/**
+	 * @param stripe index of the stripe reporting its own balance,
+	 *               {@link #NOT_STRIPED} for an account
+	 * @param balance new balance, zero when the account or stripe stops
+	 */
+	public void balanceChanged(long accountNumber, int stripe, String currency, BigDecimal balance) {
+		service.tell(new AnalyticsService.BalanceChanged(accountNumber, stripe, currency, balance),
+				ActorRef.noSender());
+	}
+
+	/**
+	 * Counts a withdraw or deposit handled by the account.
+	 */
+	public void accountActive(long accountNumber) {
+		service.tell(new AnalyticsService.AccountActive(accountNumber), ActorRef.noSender());
+	}
+
+	/**
+	 * @return the accounts with the largest balances in the currency, largest
+	 *         first
+	 */
+	public CompletionStage<List<Account>> topBalances(String currency, Duration timeout) {
+		return ask(service, new AnalyticsService.GetTopBalances(currency), timeout)
+				.thenApply(reply -> ((AnalyticsService.TopBalances) reply).getAccounts());
+	}
+
+	/**
+	 * @return the accounts with the most withdraws and deposits over the
+	 *         activity window, most first
+	 */
+	public CompletionStage<List<HotAccount>> hotAccounts(Duration timeout) {
+		return ask(service, new AnalyticsService.GetHotAccounts(), timeout)
+				.thenApply(reply -> ((AnalyticsService.HotAccounts) reply).getAccounts());
+	}
+
+	public static class Provider extends AbstractExtensionId<AccountAnalytics> implements ExtensionIdProvider {
+
+		public static final Provider INSTANCE = new Provider();
+
+		private Provider() {
+		}
+
+		@Override
+		public Provider lookup() {
+			return INSTANCE;
+		}
+
+		@Override
+		public AccountAnalytics createExtension(ExtendedActorSystem system) {
+			Config config = system.settings().config();
+			return new AccountAnalytics(system.systemActorOf(AnalyticsService.props(
+					Integer.parseInt(setting(config, Constant.ANALYTICS_TOP_SIZE, Constant.DEFAULT_ANALYTICS_TOP_SIZE)),
+					Duration.parse(setting(config, Constant.ANALYTICS_ACTIVITY_WINDOW,
+							Constant.DEFAULT_ANALYTICS_ACTIVITY_WINDOW)),
+					Clock.systemUTC()), "analytics"));
+		}
+
+		private static String setting(Config config, String path, String defaultValue) {
+			return config.hasPath(path) ? config.getString(path) : defaultValue;
+		}
+
+	}
+
+}
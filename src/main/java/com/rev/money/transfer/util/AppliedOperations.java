@@ -0,0 +1,45 @@
+package com.rev.money.transfer.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Results of the last operations applied to an account, by operation id, so
+ * an operation asked again after a timed out ask is answered with the result
+ * it first had instead of being applied twice. Holds at most
+ * {@code window} results, the oldest forgotten first: an operation asked
+ * again after {@code window} newer ones is applied again. Not thread safe:
+ * meant to be owned by a single actor.
+ */
+public class AppliedOperations {
+
+	private final Map<String, Object> results;
+
+	public AppliedOperations(int window) {
+		this.results = new LinkedHashMap<String, Object>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+				return size() > window;
+			}
+		};
+	}
+
+	/**
+	 * @return the result the operation had, null if it was not applied or is
+	 *         forgotten
+	 */
+	public Object resultOf(String operationId) {
+		return results.get(operationId);
+	}
+
+	public void record(String operationId, Object result) {
+		results.put(operationId, result);
+	}
+
+	public int size() {
+		return results.size();
+	}
+
+}
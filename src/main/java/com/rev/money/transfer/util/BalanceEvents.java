@@ -0,0 +1,112 @@
+package com.rev.money.transfer.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.rev.money.transfer.actor.AccountActor;
+import com.rev.money.transfer.model.Account;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorRefFactory;
+import akka.actor.PoisonPill;
+import akka.actor.Props;
+import akka.actor.Status;
+import akka.pattern.Patterns;
+import akka.stream.OverflowStrategy;
+import akka.stream.QueueOfferResult;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.SourceQueueWithComplete;
+
+/**
+ * Balance changes of one or more accounts for a single subscriber. The
+ * materialized actor is what accounts are subscribed with, see
+ * {@link AccountActor.SubscribeBalance}: accounts tell it every new balance
+ * and never wait for it.
+ *
+ * The actor keeps the latest balance of each account not yet streamed and
+ * hands them to the stream one at a time, oldest account first, as the
+ * subscriber reads. A change replaces the pending balance of its account, so
+ * while the subscriber is slower than the changes it holds at most one
+ * pending balance per account it follows plus a small buffer, however far
+ * behind it falls, and never loses the latest balance of an account. Stopping
+ * the stream stops the actor, which unsubscribes it from its accounts.
+ */
+public final class BalanceEvents {
+
+	private BalanceEvents() {
+	}
+
+	/**
+	 * @param bufferSize balances handed to the stream and not read yet
+	 * @param actors     where the actor of each materialization is started
+	 */
+	public static Source<Account, ActorRef> source(int bufferSize, ActorRefFactory actors) {
+		return Source.<Account>queue(bufferSize, OverflowStrategy.backpressure()).mapMaterializedValue(queue -> {
+			ActorRef latest = actors.actorOf(LatestBalances.props(queue));
+			queue.watchCompletion().whenComplete((done, error) -> latest.tell(PoisonPill.getInstance(),
+					ActorRef.noSender()));
+			return latest;
+		});
+	}
+
+	/**
+	 * Latest balance per account, offered to the queue once the previous offer
+	 * is taken.
+	 */
+	private static final class LatestBalances extends AbstractActor {
+
+		private final SourceQueueWithComplete<Account> queue;
+		private final Map<Long, Account> pending = new LinkedHashMap<>();
+		private boolean offering;
+
+		private LatestBalances(SourceQueueWithComplete<Account> queue) {
+			this.queue = queue;
+		}
+
+		static Props props(SourceQueueWithComplete<Account> queue) {
+			return Props.create(LatestBalances.class, () -> new LatestBalances(queue));
+		}
+
+		@Override
+		public Receive createReceive() {
+			return receiveBuilder().match(Account.class, this::onAccount)
+					.match(QueueOfferResult.class, this::onOffered)
+					.match(Status.Failure.class, failure -> getContext().stop(self())).build();
+		}
+
+		private void onAccount(Account account) {
+			// Replaced in place, an account waiting keeps its turn
+			pending.put(account.getAccountNumber(), account);
+			offerNext();
+		}
+
+		private void onOffered(QueueOfferResult result) {
+			offering = false;
+			if (result == QueueOfferResult.enqueued()) {
+				offerNext();
+			} else {
+				getContext().stop(self());
+			}
+		}
+
+		private void offerNext() {
+			if (offering || pending.isEmpty()) {
+				return;
+			}
+			Iterator<Account> oldest = pending.values().iterator();
+			Account account = oldest.next();
+			oldest.remove();
+			offering = true;
+			Patterns.pipe(queue.offer(account), getContext().dispatcher()).to(self());
+		}
+
+		@Override
+		public void postStop() {
+			queue.complete();
+		}
+
+	}
+
+}
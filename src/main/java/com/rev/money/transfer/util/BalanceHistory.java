@@ -0,0 +1,289 @@
+package com.rev.money.transfer.util;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Every balance an account had and when it got it, kept compressed in
+ * primitive arrays. Changes are grouped in chunks of {@value #CHUNK_SIZE}: the
+ * first change of a chunk is kept whole in the chunk index, the others as
+ * variable-length deltas from the change before, the time in milliseconds and
+ * the unscaled value of the balance, in one growing byte array. A change a
+ * few seconds after the one before, of up to a few thousand in cents, takes
+ * about 6 bytes, against over 100 for a boxed time and balance in a map.
+ *
+ * The balance at an instant is found by a binary search of the chunk index
+ * and a scan of at most one chunk. Times are expected not to go back, a
+ * clock that does is held at the last time recorded. Not thread safe: meant
+ * to be owned by a single actor.
+ *
+ * Bounded by a retention and a number of changes: whole chunks are dropped
+ * from the front once the balance at the start of the retention is still
+ * answered without them, or once more than {@code maxChanges} are kept. They
+ * are dropped a quarter of the chunks at a time, so the copy is paid once per
+ * many changes, and a history holds at most about a third more changes than
+ * its bound. The balance before the first change kept is no longer known, see
+ * {@link #since()}. Written to and read from bytes, so histories are part of
+ * snapshots.
+ */
+public class BalanceHistory {
+
+	private static final int CHUNK_SIZE = 64;
+	private static final int INITIAL_CHUNKS = 1;
+	private static final int INITIAL_BYTES = 16;
+	// Size, last change and whether changes were dropped, ahead of the arrays in bytes
+	private static final int SERIALIZED_HEADER_BYTES = Integer.BYTES * 3 + Long.BYTES * 2 + 1;
+
+	private final long retentionMillis;
+	private final int maxChunks;
+
+	// First change of each chunk, kept whole
+	private long[] chunkTimes = new long[INITIAL_CHUNKS];
+	private long[] chunkValues = new long[INITIAL_CHUNKS];
+	private int[] chunkScales = new int[INITIAL_CHUNKS];
+	// Where the deltas of each chunk start in the byte array
+	private int[] chunkOffsets = new int[INITIAL_CHUNKS];
+	private byte[] deltas = new byte[INITIAL_BYTES];
+	private int length;
+	private int size;
+	private long lastTime;
+	private long lastValue;
+	private int lastScale;
+	// Whether chunks were dropped, the balance before the first one kept is then unknown
+	private boolean truncated;
+
+	/**
+	 * A history keeping every change.
+	 */
+	public BalanceHistory() {
+		this(Long.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param retentionMillis how far back balances are kept
+	 * @param maxChanges      changes kept even within the retention, rounded up
+	 *                        to whole chunks of {@value #CHUNK_SIZE}
+	 */
+	public BalanceHistory(long retentionMillis, int maxChanges) {
+		this.retentionMillis = retentionMillis;
+		this.maxChunks = Math.max(1, (int) (((long) maxChanges + CHUNK_SIZE - 1) / CHUNK_SIZE));
+	}
+
+	/**
+	 * @throws ArithmeticException if the unscaled balance does not fit a long
+	 */
+	public void record(long timeMillis, BigDecimal balance) {
+		long value = balance.unscaledValue().longValueExact();
+		int scale = balance.scale();
+		long time = size == 0 ? timeMillis : Math.max(timeMillis, lastTime);
+		if (size % CHUNK_SIZE == 0) {
+			compact(time);
+			int chunk = size / CHUNK_SIZE;
+			if (chunk == chunkTimes.length) {
+				int chunks = chunk * 2;
+				chunkTimes = Arrays.copyOf(chunkTimes, chunks);
+				chunkValues = Arrays.copyOf(chunkValues, chunks);
+				chunkScales = Arrays.copyOf(chunkScales, chunks);
+				chunkOffsets = Arrays.copyOf(chunkOffsets, chunks);
+			}
+			chunkTimes[chunk] = time;
+			chunkValues[chunk] = value;
+			chunkScales[chunk] = scale;
+			chunkOffsets[chunk] = length;
+		} else {
+			// The lowest bit of the time delta flags a new scale, written after it
+			boolean rescaled = scale != lastScale;
+			writeVarLong((time - lastTime) << 1 | (rescaled ? 1 : 0));
+			if (rescaled) {
+				writeVarLong(zigZag(scale));
+			}
+			writeVarLong(zigZag(value - lastValue));
+		}
+		lastTime = time;
+		lastValue = value;
+		lastScale = scale;
+		size++;
+	}
+
+	/**
+	 * @return the balance of the last change at or before the given time, null
+	 *         if there was none yet
+	 */
+	public BigDecimal balanceAt(long timeMillis) {
+		int chunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		int chunk = lastChunkAtOrBefore(timeMillis, chunks);
+		if (chunk < 0) {
+			return null;
+		}
+		long time = chunkTimes[chunk];
+		long value = chunkValues[chunk];
+		int scale = chunkScales[chunk];
+		int entries = Math.min(CHUNK_SIZE, size - chunk * CHUNK_SIZE);
+		int[] position = { chunkOffsets[chunk] };
+		for (int i = 1; i < entries; i++) {
+			long timeDelta = readVarLong(position);
+			long nextTime = time + (timeDelta >>> 1);
+			if (nextTime > timeMillis) {
+				break;
+			}
+			time = nextTime;
+			if ((timeDelta & 1) != 0) {
+				scale = (int) unZigZag(readVarLong(position));
+			}
+			value += unZigZag(readVarLong(position));
+		}
+		return BigDecimal.valueOf(value, scale);
+	}
+
+	private int lastChunkAtOrBefore(long timeMillis, int chunks) {
+		int low = 0;
+		int high = chunks - 1;
+		int found = -1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (chunkTimes[middle] <= timeMillis) {
+				found = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Drops the leading chunks past the retention or the number of changes,
+	 * once they make up a quarter of the chunks. Called before a new chunk
+	 * starts, when every chunk kept is full.
+	 */
+	private void compact(long time) {
+		int chunks = size / CHUNK_SIZE;
+		int dropped = Math.max(0, chunks - maxChunks);
+		// A chunk is not needed once the next one starts at or before the retention
+		long oldest = retentionMillis == Long.MAX_VALUE ? Long.MIN_VALUE : time - retentionMillis;
+		while (dropped < chunks - 1 && chunkTimes[dropped + 1] <= oldest) {
+			dropped++;
+		}
+		if (dropped == 0 || dropped < chunks / 4) {
+			return;
+		}
+		int kept = chunks - dropped;
+		int from = dropped == chunks ? length : chunkOffsets[dropped];
+		System.arraycopy(chunkTimes, dropped, chunkTimes, 0, kept);
+		System.arraycopy(chunkValues, dropped, chunkValues, 0, kept);
+		System.arraycopy(chunkScales, dropped, chunkScales, 0, kept);
+		System.arraycopy(deltas, from, deltas, 0, length - from);
+		for (int chunk = 0; chunk < kept; chunk++) {
+			chunkOffsets[chunk] = chunkOffsets[chunk + dropped] - from;
+		}
+		length -= from;
+		size -= dropped * CHUNK_SIZE;
+		truncated = true;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return time of the first change kept when older ones were dropped,
+	 *         {@link Long#MIN_VALUE} when every change is kept
+	 */
+	public long since() {
+		return truncated && size > 0 ? chunkTimes[0] : Long.MIN_VALUE;
+	}
+
+	/**
+	 * @return the changes kept, to be read back with {@link #fromBytes}
+	 */
+	public byte[] toBytes() {
+		int chunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		ByteBuffer buffer = ByteBuffer
+				.allocate(SERIALIZED_HEADER_BYTES + chunks * (Long.BYTES * 2 + Integer.BYTES * 2) + length);
+		buffer.putInt(size).putInt(length).putLong(lastTime).putLong(lastValue).putInt(lastScale)
+				.put((byte) (truncated ? 1 : 0));
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			buffer.putLong(chunkTimes[chunk]).putLong(chunkValues[chunk]).putInt(chunkScales[chunk])
+					.putInt(chunkOffsets[chunk]);
+		}
+		buffer.put(deltas, 0, length);
+		return buffer.array();
+	}
+
+	/**
+	 * @return the history written by {@link #toBytes}, with the given bounds
+	 *         applied from its next change on
+	 * @throws IllegalArgumentException if the bytes are not a history
+	 */
+	public static BalanceHistory fromBytes(byte[] bytes, long retentionMillis, int maxChanges) {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		int size = bytes.length < SERIALIZED_HEADER_BYTES ? -1 : buffer.getInt();
+		int length = size < 0 ? -1 : buffer.getInt();
+		long chunks = ((long) size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		if (size < 0 || length < 0
+				|| bytes.length != SERIALIZED_HEADER_BYTES + chunks * (Long.BYTES * 2 + Integer.BYTES * 2) + length) {
+			throw new IllegalArgumentException("Balance history of " + bytes.length + " bytes is corrupt");
+		}
+		BalanceHistory history = new BalanceHistory(retentionMillis, maxChanges);
+		history.size = size;
+		history.length = length;
+		history.lastTime = buffer.getLong();
+		history.lastValue = buffer.getLong();
+		history.lastScale = buffer.getInt();
+		history.truncated = buffer.get() != 0;
+		int capacity = Math.max(INITIAL_CHUNKS, (int) chunks);
+		history.chunkTimes = new long[capacity];
+		history.chunkValues = new long[capacity];
+		history.chunkScales = new int[capacity];
+		history.chunkOffsets = new int[capacity];
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			history.chunkTimes[chunk] = buffer.getLong();
+			history.chunkValues[chunk] = buffer.getLong();
+			history.chunkScales[chunk] = buffer.getInt();
+			history.chunkOffsets[chunk] = buffer.getInt();
+		}
+		history.deltas = new byte[Math.max(INITIAL_BYTES, length)];
+		buffer.get(history.deltas, 0, length);
+		return history;
+	}
+
+	/**
+	 * @return bytes held by the arrays of the history, spare capacity included
+	 */
+	public long sizeInBytes() {
+		return deltas.length + (long) chunkTimes.length * (Long.BYTES * 2 + Integer.BYTES * 2);
+	}
+
+	private void writeVarLong(long value) {
+		if (length + 10 > deltas.length) {
+			deltas = Arrays.copyOf(deltas, Math.max(deltas.length * 2, length + 10));
+		}
+		while ((value & ~0x7FL) != 0) {
+			deltas[length++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		deltas[length++] = (byte) value;
+	}
+
+	private long readVarLong(int[] position) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = deltas[position[0]++];
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+}
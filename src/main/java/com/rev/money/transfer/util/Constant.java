@@ -11,14 +11,130 @@ public class Constant {
 	public static final String DEFAULT_TIME_OUT_DURATION = "1";
 	public static final String SYSTEM_NAME = "system.name";
 
+	public static final int MAX_ACCOUNT_STRIPES = 256;
+	// Balance changes handed to an event stream and not read yet, past which the latest of each account waits
+	public static final int BALANCE_EVENTS_BUFFER_SIZE = 16;
+	public static final int MAX_BALANCE_EVENTS_ACCOUNTS = 1_000;
+	public static final int BALANCE_EVENTS_KEEP_ALIVE_SECONDS = 15;
+	public static final int DEFAULT_SEARCH_LIMIT = 100;
+	public static final int MAX_SEARCH_LIMIT = 1000;
+	public static final int DEFAULT_ACCOUNT_LIST_LIMIT = 100;
+	public static final int MAX_ACCOUNT_LIST_LIMIT = 1_000_000;
+	// Accounts asked of the ledger at once while streaming a listing
+	public static final int ACCOUNT_LIST_BATCH_SIZE = 500;
+	public static final int DEFAULT_MAILBOXES_TOP = 10;
+
+	public static final String PAYOUT_PARALLELISM = "payout.parallelism";
+	public static final String DEFAULT_PAYOUT_PARALLELISM = "16";
+	public static final String PAYOUT_TIMEOUT = "payout.timeout";
+	public static final String DEFAULT_PAYOUT_TIMEOUT = "PT30S";
+
+	public static final String SCHEDULER_STORE_PATH = "scheduler.store.path";
+	public static final String SCHEDULER_TICK = "scheduler.tick";
+	public static final String DEFAULT_SCHEDULER_TICK = "PT1S";
+	public static final String SCHEDULER_WHEEL_SIZE = "scheduler.wheel.size";
+	public static final String DEFAULT_SCHEDULER_WHEEL_SIZE = "65536";
+	public static final String SCHEDULER_BATCH_SIZE = "scheduler.batch.size";
+	public static final String DEFAULT_SCHEDULER_BATCH_SIZE = "1000";
+
+	public static final String CUSTOMER_BULK_BATCH_SIZE = "customer.bulk.batch.size";
+	public static final String DEFAULT_CUSTOMER_BULK_BATCH_SIZE = "1000";
+
+	public static final String LEDGER_ENGINE = "ledger.engine";
+	public static final String ACTOR_LEDGER_ENGINE = "actor";
+	public static final String STRIPED_LEDGER_ENGINE = "striped";
+	public static final String CAS_LEDGER_ENGINE = "cas";
+	public static final String RING_LEDGER_ENGINE = "ring";
+	public static final String DEFAULT_LEDGER_ENGINE = ACTOR_LEDGER_ENGINE;
+	public static final String LEDGER_STRIPES = "ledger.stripes";
+	public static final String DEFAULT_LEDGER_STRIPES = "1024";
+	public static final String LEDGER_CAPACITY = "ledger.capacity";
+	public static final String DEFAULT_LEDGER_CAPACITY = "1048576";
+	public static final String LEDGER_RING_SIZE = "ledger.ring.size";
+	public static final String DEFAULT_LEDGER_RING_SIZE = "65536";
+	public static final String LEDGER_JOURNAL_PATH = "ledger.journal.path";
+
+	public static final String SNAPSHOT_DIR = "snapshot.dir";
+	public static final String DEFAULT_SNAPSHOT_DIR = "snapshots";
+	public static final String SNAPSHOT_LOAD_PATH = "snapshot.load.path";
+	public static final String SNAPSHOT_TIMEOUT = "snapshot.timeout";
+	public static final String DEFAULT_SNAPSHOT_TIMEOUT = "PT5M";
+	public static final int SNAPSHOT_RESTORE_BATCH_SIZE = 10_000;
+
+	public static final String RECONCILIATION_INTERVAL = "reconciliation.interval";
+	public static final String DEFAULT_RECONCILIATION_INTERVAL = "PT1M";
+	public static final String RECONCILIATION_TIMEOUT = "reconciliation.timeout";
+	public static final String DEFAULT_RECONCILIATION_TIMEOUT = "PT1M";
+	public static final String TIMELINE_SAMPLE_RATE = "timeline.sample.rate";
+	public static final String DEFAULT_TIMELINE_SAMPLE_RATE = "0.01";
+	public static final String TIMELINE_CAPACITY = "timeline.capacity";
+	public static final String DEFAULT_TIMELINE_CAPACITY = "10000";
+	public static final String TRANSACTION_CACHE_CAPACITY = "transaction.cache.capacity";
+	public static final String DEFAULT_TRANSACTION_CACHE_CAPACITY = "10000";
+	public static final String OUTBOX_DESTINATIONS = "outbox.destinations";
+	public static final String DEFAULT_OUTBOX_DESTINATIONS = "";
+	public static final String OUTBOX_BATCH_SIZE = "outbox.batch.size";
+	public static final String DEFAULT_OUTBOX_BATCH_SIZE = "100";
+	public static final String OUTBOX_MAX_PENDING = "outbox.max.pending";
+	public static final String DEFAULT_OUTBOX_MAX_PENDING = "100000";
+	public static final String OUTBOX_POLL_INTERVAL = "outbox.poll.interval";
+	public static final String DEFAULT_OUTBOX_POLL_INTERVAL = "PT0.1S";
+	public static final String OUTBOX_MIN_BACKOFF = "outbox.min.backoff";
+	public static final String DEFAULT_OUTBOX_MIN_BACKOFF = "PT0.2S";
+	public static final String OUTBOX_MAX_BACKOFF = "outbox.max.backoff";
+	public static final String DEFAULT_OUTBOX_MAX_BACKOFF = "PT30S";
+	public static final String HOP_RETRIES = "hop.retries";
+	public static final String DEFAULT_HOP_RETRIES = "3";
+	public static final String HOP_MIN_BACKOFF = "hop.min.backoff";
+	public static final String DEFAULT_HOP_MIN_BACKOFF = "PT0.05S";
+	public static final String HOP_MAX_BACKOFF = "hop.max.backoff";
+	public static final String DEFAULT_HOP_MAX_BACKOFF = "PT1S";
+	public static final String HOP_OPERATION_WINDOW = "hop.operation.window";
+	public static final String DEFAULT_HOP_OPERATION_WINDOW = "256";
+	public static final String ANALYTICS_TOP_SIZE = "analytics.top.size";
+	public static final String DEFAULT_ANALYTICS_TOP_SIZE = "100";
+	public static final String ANALYTICS_ACTIVITY_WINDOW = "analytics.activity.window";
+	public static final String DEFAULT_ANALYTICS_ACTIVITY_WINDOW = "PT1H";
+	public static final String BALANCE_HISTORY_RETENTION = "balance.history.retention";
+	public static final String DEFAULT_BALANCE_HISTORY_RETENTION = "P90D";
+	public static final String BALANCE_HISTORY_MAX_CHANGES = "balance.history.max.changes";
+	public static final String DEFAULT_BALANCE_HISTORY_MAX_CHANGES = "100000";
+
 	public static final String CUSTOMER_SERVICE = "customerService";
 	public static final String ACCOUNT_SERVICE = "accountService";
 	public static final String TRANSACTION_SERVICE = "transactionService";
+	public static final String SCHEDULER_SERVICE = "schedulerService";
+	public static final String SNAPSHOT_SERVICE = "snapshotService";
+	public static final String LEDGER_SERVICE = "ledgerService";
+	public static final String RECONCILIATION_SERVICE = "reconciliationService";
+	public static final String OUTBOX_SERVICE = "outboxService";
 
 	public static final String CUSTOMER_ROUTE_PATH = "customers";
+	public static final String BULK_ROUTE_PATH = "bulk";
 	public static final String ACCOUNT_ROUTE_PATH = "accounts";
 	public static final String TRANSACTION_ROUTE_PATH = "transactions";
 	public static final String DEPOSIT_ROUTE_PATH = "deposit";
 	public static final String WITHDRAW_ROUTE_PATH = "deposit";
+	public static final String SCHEDULE_ROUTE_PATH = "schedules";
+	public static final String PAYOUT_ROUTE_PATH = "payouts";
+	public static final String ADMIN_ROUTE_PATH = "admin";
+	public static final String SNAPSHOT_ROUTE_PATH = "snapshot";
+	public static final String FX_RATES_ROUTE_PATH = "fx-rates";
+	public static final String LIMITS_ROUTE_PATH = "limits";
+	public static final String METRICS_ROUTE_PATH = "metrics";
+	public static final String RECONCILIATION_ROUTE_PATH = "reconciliation";
+	public static final String TIMELINE_ROUTE_PATH = "timeline";
+	public static final String TIMELINES_ROUTE_PATH = "timelines";
+	public static final String MAILBOXES_ROUTE_PATH = "mailboxes";
+	public static final String EVENTS_ROUTE_PATH = "events";
+	public static final String ANALYTICS_ROUTE_PATH = "analytics";
+	public static final String TOP_BALANCES_ROUTE_PATH = "top-balances";
+	public static final String HOT_ACCOUNTS_ROUTE_PATH = "hot-accounts";
+
+	// Ids of transactions raised inside the system start above the ones clients use
+	public static final long GENERATED_TRANSACTION_ID_BASE = 1L << 48;
+
+	// Currency of accounts opened without one, FX rates are quoted against it
+	public static final String BASE_CURRENCY = "EUR";
 
 }
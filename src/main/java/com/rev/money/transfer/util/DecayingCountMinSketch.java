@@ -0,0 +1,124 @@
+package com.rev.money.transfer.util;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Approximate number of times each key was counted over a sliding span of
+ * time, in fixed memory however many keys there are. A count-min sketch per
+ * time bucket, in a ring of buckets as in {@link SlidingWindow}, with a
+ * running total of the buckets in the span: counts age out a bucket at a time
+ * as time moves on, and counting or estimating a key reads and writes
+ * {@code depth} cells.
+ *
+ * Each key is counted in one cell of each of {@code depth} rows of
+ * {@code width} cells, picked by a different hash per row; its estimate is the
+ * lowest of its cells. An estimate is never below the true count and, with
+ * probability {@code 1 - 2^-depth}, above it by at most {@code 2 / width} of
+ * everything counted in the span.
+ *
+ * Not thread safe: meant to be guarded by its owner.
+ */
+public class DecayingCountMinSketch {
+
+	private static final long[] SEEDS = { 0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L,
+			0xD6E8FEB86659FD93L, 0xFF51AFD7ED558CCDL, 0xC4CEB9FE1A85EC53L, 0x94D049BB133111EBL, 0xBF58476D1CE4E5B9L };
+
+	private final int depth;
+	private final int widthMask;
+	private final long bucketMillis;
+	// Cells of every row of every bucket, bucket by bucket
+	private final int[][] cells;
+	// Sum of the buckets in the span
+	private final long[] total;
+	private long currentBucket = Long.MIN_VALUE;
+
+	/**
+	 * @param width rounded up to a power of two
+	 */
+	public DecayingCountMinSketch(Duration span, int buckets, int depth, int width) {
+		Preconditions.checkArgument(buckets > 0, "buckets must be positive");
+		Preconditions.checkArgument(span.toMillis() >= buckets, "span must be at least one millisecond per bucket");
+		Preconditions.checkArgument(depth > 0 && depth <= SEEDS.length, "depth must be between 1 and %s",
+				SEEDS.length);
+		Preconditions.checkArgument(width > 0 && width <= 1 << 30, "width must be between 1 and 2^30");
+		int roundedWidth = width == 1 ? 1 : Integer.highestOneBit(width - 1) << 1;
+		this.depth = depth;
+		this.widthMask = roundedWidth - 1;
+		this.bucketMillis = span.toMillis() / buckets;
+		this.cells = new int[buckets][depth * roundedWidth];
+		this.total = new long[depth * roundedWidth];
+	}
+
+	/**
+	 * Counts the key once.
+	 *
+	 * @return the estimate of the key with this count
+	 */
+	public long add(long key, long nowMillis) {
+		advanceTo(nowMillis);
+		int[] current = cells[slot(currentBucket)];
+		long estimate = Long.MAX_VALUE;
+		for (int row = 0; row < depth; row++) {
+			int cell = cell(key, row);
+			if (current[cell] < Integer.MAX_VALUE) {
+				current[cell]++;
+				total[cell]++;
+			}
+			estimate = Math.min(estimate, total[cell]);
+		}
+		return estimate;
+	}
+
+	public long estimate(long key, long nowMillis) {
+		advanceTo(nowMillis);
+		long estimate = Long.MAX_VALUE;
+		for (int row = 0; row < depth; row++) {
+			estimate = Math.min(estimate, total[cell(key, row)]);
+		}
+		return estimate;
+	}
+
+	/**
+	 * @return the bucket the time falls in, every estimate of a same bucket
+	 *         seeing the same buckets
+	 */
+	public long bucketOf(long nowMillis) {
+		return Math.floorDiv(nowMillis, bucketMillis);
+	}
+
+	/**
+	 * Clears the buckets that fell out of the span. A clock going back keeps
+	 * filling the current bucket.
+	 */
+	private void advanceTo(long nowMillis) {
+		long bucket = bucketOf(nowMillis);
+		if (bucket <= currentBucket) {
+			return;
+		}
+		long expired = currentBucket == Long.MIN_VALUE ? cells.length
+				: Math.min(bucket - currentBucket, cells.length);
+		for (long b = bucket - expired + 1; b <= bucket; b++) {
+			int[] expiring = cells[slot(b)];
+			for (int cell = 0; cell < expiring.length; cell++) {
+				total[cell] -= expiring[cell];
+			}
+			Arrays.fill(expiring, 0);
+		}
+		currentBucket = bucket;
+	}
+
+	private int cell(long key, int row) {
+		long hash = (key ^ (key >>> 32)) * SEEDS[row];
+		hash ^= hash >>> 29;
+		hash *= SEEDS[(row + 1) % SEEDS.length];
+		return row * (widthMask + 1) + (int) ((hash ^ (hash >>> 32)) & widthMask);
+	}
+
+	private int slot(long bucket) {
+		return (int) Math.floorMod(bucket, (long) cells.length);
+	}
+
+}
@@ -0,0 +1,186 @@
+package com.rev.money.transfer.util;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.rev.money.transfer.model.MessageStatus.Failure;
+import com.typesafe.config.Config;
+
+import akka.actor.AbstractActor;
+import akka.actor.AbstractActor.Receive;
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+import akka.japi.pf.ReceiveBuilder;
+import lombok.Data;
+import lombok.Value;
+import scala.PartialFunction;
+import scala.runtime.BoxedUnit;
+
+/**
+ * Faults injected into the messages of chosen actors, to see how transfers
+ * behave when a hop is slow, loses its reply or fails. Rules are read from
+ * the {@value #CONFIG_PATH} section of the actor system configuration, one
+ * per actor class and message class, both by simple name:
+ *
+ * <pre>
+ * faults.AccountActor.Deposit.failure-probability=0.05
+ * faults.AccountActor.Withdraw.drop-probability=0.01
+ * faults.TransactionActor.ChangeStatus.latency=PT0.05S
+ * faults.TransactionActor.ChangeStatus.latency-probability=0.1
+ * </pre>
+ *
+ * A failed message is not handled, its sender gets a {@link Failure}. A
+ * dropped message is handled but its reply goes to dead letters. A delayed
+ * message is handled after the latency. Dropped and delayed messages go back
+ * through the mailbox, so messages queued behind them may overtake them.
+ * Actors without rules run their behaviour unwrapped.
+ */
+public class FaultInjector implements Extension {
+
+	public static final String CONFIG_PATH = "faults";
+	public static final String LATENCIES = "faults.latencies";
+	public static final String DROPS = "faults.drops";
+	public static final String FAILURES = "faults.failures";
+
+	// Rules by message class by actor class
+	private final Map<String, Map<String, Rule>> rules;
+	private final ActorSystem system;
+
+	private FaultInjector(ActorSystem system, Map<String, Map<String, Rule>> rules) {
+		this.system = system;
+		this.rules = rules;
+	}
+
+	public static FaultInjector get(ActorSystem system) {
+		return Provider.INSTANCE.get(system);
+	}
+
+	/**
+	 * @return the behaviour of the actor with the faults of its rules injected,
+	 *         the behaviour itself when it has none
+	 */
+	public Receive wrap(AbstractActor actor, Receive receive) {
+		Map<String, Rule> actorRules = rules.get(actor.getClass().getSimpleName());
+		if (actorRules == null) {
+			return receive;
+		}
+		PartialFunction<Object, BoxedUnit> handler = receive.onMessage();
+		Metrics metrics = Metrics.get(system);
+		return ReceiveBuilder.create()
+				.match(Injected.class, injected -> handle(actor, handler, injected.getMessage()))
+				.matchAny(message -> {
+					Rule rule = actorRules.get(message.getClass().getSimpleName());
+					if (rule == null) {
+						handle(actor, handler, message);
+						return;
+					}
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					double draw = random.nextDouble();
+					if (draw < rule.getFailureProbability()) {
+						metrics.increment(FAILURES);
+						actor.getSender().tell(new Failure("Injected failure on " + message.getClass().getSimpleName()),
+								actor.getSelf());
+						return;
+					}
+					boolean dropped = draw < rule.getFailureProbability() + rule.getDropProbability();
+					boolean delayed = random.nextDouble() < rule.getLatencyProbability();
+					if (!dropped && !delayed) {
+						handle(actor, handler, message);
+						return;
+					}
+					ActorRef replyTo = dropped ? system.deadLetters() : actor.getSender();
+					if (dropped) {
+						metrics.increment(DROPS);
+					}
+					if (delayed) {
+						metrics.increment(LATENCIES);
+						system.scheduler().scheduleOnce(rule.getLatency(), actor.getSelf(), new Injected(message),
+								system.dispatcher(), replyTo);
+					} else {
+						actor.getSelf().tell(new Injected(message), replyTo);
+					}
+				}).build();
+	}
+
+	private static void handle(AbstractActor actor, PartialFunction<Object, BoxedUnit> handler, Object message) {
+		if (handler.isDefinedAt(message)) {
+			handler.apply(message);
+		} else {
+			actor.unhandled(message);
+		}
+	}
+
+	static Map<String, Map<String, Rule>> readRules(Config config) {
+		if (!config.hasPath(CONFIG_PATH)) {
+			return Collections.emptyMap();
+		}
+		Config faults = config.getConfig(CONFIG_PATH);
+		Map<String, Map<String, Rule>> rules = new HashMap<>();
+		for (String actor : faults.root().keySet()) {
+			Config actorFaults = faults.getConfig(actor);
+			Map<String, Rule> actorRules = new HashMap<>();
+			for (String message : actorFaults.root().keySet()) {
+				Config rule = actorFaults.getConfig(message);
+				actorRules.put(message, new Rule(
+						rule.hasPath("latency") ? Duration.parse(rule.getString("latency")) : Duration.ZERO,
+						probability(rule, "latency-probability"), probability(rule, "drop-probability"),
+						probability(rule, "failure-probability")));
+			}
+			rules.put(actor, actorRules);
+		}
+		return rules;
+	}
+
+	private static double probability(Config rule, String path) {
+		return rule.hasPath(path) ? Double.parseDouble(rule.getString(path)) : 0;
+	}
+
+	@Value
+	public static class Rule {
+		Duration latency;
+		double latencyProbability;
+		double dropProbability;
+		double failureProbability;
+	}
+
+	/**
+	 * A message the faults of which were already drawn.
+	 */
+	@Data
+	public static class Injected implements Serializable {
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = -4217038725583161905L;
+
+		private final Object message;
+	}
+
+	public static class Provider extends AbstractExtensionId<FaultInjector> implements ExtensionIdProvider {
+
+		public static final Provider INSTANCE = new Provider();
+
+		private Provider() {
+		}
+
+		@Override
+		public Provider lookup() {
+			return INSTANCE;
+		}
+
+		@Override
+		public FaultInjector createExtension(ExtendedActorSystem system) {
+			return new FaultInjector(system, readRules(system.settings().config()));
+		}
+
+	}
+
+}
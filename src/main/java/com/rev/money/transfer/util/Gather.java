@@ -0,0 +1,41 @@
+package com.rev.money.transfer.util;
+
+import static akka.pattern.Patterns.ask;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.function.LongFunction;
+import java.util.stream.Collectors;
+
+import akka.actor.ActorRef;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
+import lombok.experimental.UtilityClass;
+
+@UtilityClass
+public class Gather {
+
+	/**
+	 * Asks every actor of the map, keeping at most {@code parallelism} asks in
+	 * flight, and collects the replies in completion order. The map is copied
+	 * first, so it can be called from the owning actor and the actor can go on
+	 * changing it. Fails as soon as one ask times out.
+	 *
+	 * @param actorsById actors to ask by id
+	 * @param message    message to send to the actor of the given id
+	 */
+	public static CompletionStage<List<Object>> replies(Map<Long, ActorRef> actorsById, LongFunction<Object> message,
+			Duration timeout, int parallelism, Materializer materializer) {
+		List<Tuple2<Long, ActorRef>> actors = actorsById.entrySet().stream()
+				.map(entry -> Tuple.of(entry.getKey(), entry.getValue())).collect(Collectors.toList());
+		return Source.from(actors)
+				.mapAsyncUnordered(parallelism, actor -> ask(actor._2, message.apply(actor._1), timeout))
+				.runWith(Sink.seq(), materializer);
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.rev.money.transfer.util;
+
+import java.time.Duration;
+
+import com.typesafe.config.Config;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+
+/**
+ * Bounds of the balance history of every account of the actor system, read
+ * once from {@code balance.history.retention} and
+ * {@code balance.history.max.changes} rather than by each account actor.
+ */
+public class HistoryRetention implements Extension {
+
+	private final long retentionMillis;
+	private final int maxChanges;
+
+	public HistoryRetention(Duration retention, int maxChanges) {
+		this.retentionMillis = retention.toMillis();
+		this.maxChanges = maxChanges;
+	}
+
+	public static HistoryRetention get(ActorSystem system) {
+		return Provider.INSTANCE.get(system);
+	}
+
+	public BalanceHistory newHistory() {
+		return new BalanceHistory(retentionMillis, maxChanges);
+	}
+
+	/**
+	 * @param history written by {@link BalanceHistory#toBytes()}, null for a new
+	 *                history
+	 */
+	public BalanceHistory restore(byte[] history) {
+		return history == null ? newHistory() : BalanceHistory.fromBytes(history, retentionMillis, maxChanges);
+	}
+
+	public static class Provider extends AbstractExtensionId<HistoryRetention> implements ExtensionIdProvider {
+
+		public static final Provider INSTANCE = new Provider();
+
+		private Provider() {
+		}
+
+		@Override
+		public Provider lookup() {
+			return INSTANCE;
+		}
+
+		@Override
+		public HistoryRetention createExtension(ExtendedActorSystem system) {
+			Config config = system.settings().config();
+			return new HistoryRetention(
+					Duration.parse(setting(config, Constant.BALANCE_HISTORY_RETENTION,
+							Constant.DEFAULT_BALANCE_HISTORY_RETENTION)),
+					Integer.parseInt(setting(config, Constant.BALANCE_HISTORY_MAX_CHANGES,
+							Constant.DEFAULT_BALANCE_HISTORY_MAX_CHANGES)));
+		}
+
+		private static String setting(Config config, String path, String defaultValue) {
+			return config.hasPath(path) ? config.getString(path) : defaultValue;
+		}
+
+	}
+
+}
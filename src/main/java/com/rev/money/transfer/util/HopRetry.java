@@ -0,0 +1,146 @@
+package com.rev.money.transfer.util;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.typesafe.config.Config;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+import akka.pattern.AskTimeoutException;
+import akka.pattern.Patterns;
+
+/**
+ * Asks again a hop that timed out, rather than failing what it was part of.
+ * A timed out ask does not tell whether the message was handled, so only
+ * idempotent hops are retried: status changes, and withdraws and deposits
+ * carrying an operation id, which accounts remember for their last
+ * {@link #getOperationWindow()} operations and replay instead of applying
+ * again.
+ *
+ * The n-th retry waits half of {@code min(minBackoff * 2^n, maxBackoff)} plus
+ * a random part of the other half, so the hops timed out by the same pause do
+ * not all come back at once. Retries are counted under {@value #RETRIES}.
+ */
+public class HopRetry implements Extension {
+
+	public static final String RETRIES = "hops.retries";
+
+	private final int retries;
+	private final Duration minBackoff;
+	private final Duration maxBackoff;
+	private final int operationWindow;
+	private final ActorSystem system;
+	private final Metrics metrics;
+
+	public HopRetry(ActorSystem system, int retries, Duration minBackoff, Duration maxBackoff, int operationWindow) {
+		this.system = system;
+		this.retries = retries;
+		this.minBackoff = minBackoff;
+		this.maxBackoff = maxBackoff;
+		this.operationWindow = operationWindow;
+		this.metrics = Metrics.get(system);
+	}
+
+	public static HopRetry get(ActorSystem system) {
+		return Provider.INSTANCE.get(system);
+	}
+
+	/**
+	 * @param hop asks the same message every time it is called
+	 * @return the first reply, or the error of the last attempt once every
+	 *         retry timed out or on any other error
+	 */
+	public <T> CompletionStage<T> ask(Supplier<CompletionStage<T>> hop) {
+		return attempt(hop, 0);
+	}
+
+	private <T> CompletionStage<T> attempt(Supplier<CompletionStage<T>> hop, int retry) {
+		return hop.get().<CompletionStage<T>>handle((reply, error) -> {
+			if (error == null) {
+				return CompletableFuture.completedFuture(reply);
+			}
+			if (retry >= retries || !timedOut(error)) {
+				return CompletableFuture.failedFuture(error);
+			}
+			metrics.increment(RETRIES);
+			return Patterns.after(backoff(retry), system.scheduler(), system.dispatcher(),
+					() -> attempt(hop, retry + 1));
+		}).thenCompose(Function.identity());
+	}
+
+	private static boolean timedOut(Throwable error) {
+		Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+		return cause instanceof AskTimeoutException;
+	}
+
+	private Duration backoff(int retry) {
+		Duration ceiling = minBackoff.multipliedBy(1L << Math.min(retry, 30));
+		if (ceiling.compareTo(maxBackoff) > 0 || ceiling.isNegative()) {
+			ceiling = maxBackoff;
+		}
+		long half = ceiling.toNanos() / 2;
+		return Duration.ofNanos(half + ThreadLocalRandom.current().nextLong(half + 1));
+	}
+
+	/**
+	 * @return longest an {@link #ask} of a hop timing out after the given
+	 *         timeout takes, every attempt timing out after the longest backoff
+	 */
+	public Duration budget(Duration timeout) {
+		return timeout.multipliedBy(retries + 1L).plus(maxBackoff.multipliedBy(retries));
+	}
+
+	public int getRetries() {
+		return retries;
+	}
+
+	public Duration getMaxBackoff() {
+		return maxBackoff;
+	}
+
+	/**
+	 * @return withdraws and deposits each account remembers the result of
+	 */
+	public int getOperationWindow() {
+		return operationWindow;
+	}
+
+	public static class Provider extends AbstractExtensionId<HopRetry> implements ExtensionIdProvider {
+
+		public static final Provider INSTANCE = new Provider();
+
+		private Provider() {
+		}
+
+		@Override
+		public Provider lookup() {
+			return INSTANCE;
+		}
+
+		@Override
+		public HopRetry createExtension(ExtendedActorSystem system) {
+			Config config = system.settings().config();
+			return new HopRetry(system,
+					Integer.parseInt(setting(config, Constant.HOP_RETRIES, Constant.DEFAULT_HOP_RETRIES)),
+					Duration.parse(setting(config, Constant.HOP_MIN_BACKOFF, Constant.DEFAULT_HOP_MIN_BACKOFF)),
+					Duration.parse(setting(config, Constant.HOP_MAX_BACKOFF, Constant.DEFAULT_HOP_MAX_BACKOFF)),
+					Integer.parseInt(
+							setting(config, Constant.HOP_OPERATION_WINDOW, Constant.DEFAULT_HOP_OPERATION_WINDOW)));
+		}
+
+		private static String setting(Config config, String path, String defaultValue) {
+			return config.hasPath(path) ? config.getString(path) : defaultValue;
+		}
+
+	}
+
+}
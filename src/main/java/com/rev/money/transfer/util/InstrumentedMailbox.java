@@ -0,0 +1,179 @@
+package com.rev.money.transfer.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.typesafe.config.Config;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorRefWithCell;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import akka.dispatch.UnboundedDequeBasedMessageQueueSemantics;
+import scala.Option;
+
+/**
+ * Unbounded mailbox recording, per actor class and message class, how long
+ * each message waited in the queue and how long its handler took, and the
+ * depth of every queue, into the {@link MailboxStats} of the actor system.
+ * Enabled through configuration, for every actor including those with a
+ * stash:
+ *
+ * <pre>
+ * akka.actor.default-mailbox.mailbox-type=com.rev.money.transfer.util.InstrumentedMailbox
+ * akka.actor.mailbox.unbounded-deque-based.mailbox-type=com.rev.money.transfer.util.InstrumentedMailbox
+ * </pre>
+ *
+ * The queue is a lock-free deque, so the stash can put messages back at its
+ * head. Enqueuing takes a clock read, a compare-and-set and an atomic
+ * increment, never a lock. A handler is timed from the dequeue of its message
+ * to the next look at the queue by the same thread, which the mailbox takes
+ * as soon as the handler returns.
+ */
+public class InstrumentedMailbox implements MailboxType, ProducesMessageQueue<InstrumentedMailbox.InstrumentedQueue> {
+
+	public InstrumentedMailbox(ActorSystem.Settings settings, Config config) {
+	}
+
+	@Override
+	public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+		MailboxStats stats = system.isDefined() ? MailboxStats.get(system.get()) : new MailboxStats();
+		String actor = owner.isDefined() ? owner.get().path().toString() : "unknown";
+		return new InstrumentedQueue(actor, owner.isDefined() ? actorClass(owner.get()) : "unknown", stats);
+	}
+
+	private static String actorClass(ActorRef owner) {
+		if (owner instanceof ActorRefWithCell) {
+			return ((ActorRefWithCell) owner).underlying().props().actorClass().getSimpleName();
+		}
+		return owner.getClass().getSimpleName();
+	}
+
+	public static class InstrumentedQueue implements MessageQueue, UnboundedDequeBasedMessageQueueSemantics {
+
+		private final ConcurrentLinkedDeque<Timed> queue = new ConcurrentLinkedDeque<>();
+		private final AtomicInteger depth = new AtomicInteger();
+		private volatile int maxDepth;
+		private final String actor;
+		private final String actorClass;
+		private final MailboxStats stats;
+		private final Map<Class<?>, MailboxStats.MessageStats> messageStats;
+		// Only touched by the thread processing the mailbox
+		private MailboxStats.MessageStats handling;
+		private long handlingSince;
+		private Thread processing;
+
+		InstrumentedQueue(String actor, String actorClass, MailboxStats stats) {
+			this.actor = actor;
+			this.actorClass = actorClass;
+			this.stats = stats;
+			this.messageStats = stats.messagesOf(actorClass);
+			stats.register(this);
+		}
+
+		@Override
+		public void enqueue(ActorRef receiver, Envelope handle) {
+			queue.offer(new Timed(handle, System.nanoTime()));
+			grown();
+		}
+
+		@Override
+		public void enqueueFirst(ActorRef receiver, Envelope handle) {
+			queue.offerFirst(new Timed(handle, System.nanoTime()));
+			grown();
+		}
+
+		private void grown() {
+			int messages = depth.incrementAndGet();
+			// Racy on purpose: a lost update only understates a peak another enqueue just set
+			if (messages > maxDepth) {
+				maxDepth = messages;
+			}
+		}
+
+		@Override
+		public Envelope dequeue() {
+			long now = System.nanoTime();
+			handled(now);
+			Timed next = queue.poll();
+			if (next == null) {
+				return null;
+			}
+			depth.decrementAndGet();
+			handling = statsOf(next.envelope.message().getClass());
+			handling.dwelled(now - next.enqueuedAt);
+			handlingSince = now;
+			processing = Thread.currentThread();
+			return next.envelope;
+		}
+
+		private MailboxStats.MessageStats statsOf(Class<?> messageClass) {
+			MailboxStats.MessageStats message = messageStats.get(messageClass);
+			return message != null ? message
+					: messageStats.computeIfAbsent(messageClass, key -> new MailboxStats.MessageStats());
+		}
+
+		private void handled(long now) {
+			if (handling != null) {
+				handling.handled(now - handlingSince);
+				handling = null;
+			}
+		}
+
+		@Override
+		public boolean hasMessages() {
+			if (Thread.currentThread() == processing) {
+				handled(System.nanoTime());
+			}
+			return !queue.isEmpty();
+		}
+
+		@Override
+		public int numberOfMessages() {
+			return depth.get();
+		}
+
+		@Override
+		public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+			stats.unregister(this);
+			Timed next;
+			while ((next = queue.poll()) != null) {
+				depth.decrementAndGet();
+				deadLetters.enqueue(owner, next.envelope);
+			}
+		}
+
+		long oldestWaitNanos() {
+			Timed head = queue.peekFirst();
+			return head == null ? 0 : System.nanoTime() - head.enqueuedAt;
+		}
+
+		String getActor() {
+			return actor;
+		}
+
+		String getActorClass() {
+			return actorClass;
+		}
+
+		int getMaxDepth() {
+			return maxDepth;
+		}
+
+	}
+
+	private static class Timed {
+		private final Envelope envelope;
+		private final long enqueuedAt;
+
+		Timed(Envelope envelope, long enqueuedAt) {
+			this.envelope = envelope;
+			this.enqueuedAt = enqueuedAt;
+		}
+	}
+
+}
@@ -0,0 +1,168 @@
+package com.rev.money.transfer.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+import lombok.Value;
+
+/**
+ * What the {@link InstrumentedMailbox} queues of an actor system saw: per
+ * actor class and message class, how long messages waited in the queue and
+ * how long their handler took, and which actors have the longest queues right
+ * now. Read through {@code GET /admin/mailboxes}.
+ */
+public class MailboxStats implements Extension {
+
+	// By message class by actor class, both by simple name
+	private final Map<String, Map<Class<?>, MessageStats>> messages = new ConcurrentHashMap<>();
+	private final Set<InstrumentedMailbox.InstrumentedQueue> queues = ConcurrentHashMap.newKeySet();
+
+	public static MailboxStats get(ActorSystem system) {
+		return Provider.INSTANCE.get(system);
+	}
+
+	Map<Class<?>, MessageStats> messagesOf(String actorClass) {
+		return messages.computeIfAbsent(actorClass, key -> new ConcurrentHashMap<>());
+	}
+
+	void register(InstrumentedMailbox.InstrumentedQueue queue) {
+		queues.add(queue);
+	}
+
+	void unregister(InstrumentedMailbox.InstrumentedQueue queue) {
+		queues.remove(queue);
+	}
+
+	public Report report(int top) {
+		return new Report(mostBackedUp(top), messages());
+	}
+
+	/**
+	 * @return waits and handler times by message class by actor class
+	 */
+	public SortedMap<String, SortedMap<String, MessageSummary>> messages() {
+		SortedMap<String, SortedMap<String, MessageSummary>> summaries = new TreeMap<>();
+		messages.forEach((actorClass, byMessage) -> {
+			SortedMap<String, MessageSummary> actorSummaries = new TreeMap<>();
+			byMessage.forEach((messageClass, stats) -> actorSummaries.put(messageClass.getSimpleName(),
+					stats.summary()));
+			summaries.put(actorClass, actorSummaries);
+		});
+		return summaries;
+	}
+
+	/**
+	 * @return the actors with the most messages waiting, most first, none of
+	 *         them with an empty queue
+	 */
+	public List<Backlog> mostBackedUp(int top) {
+		PriorityQueue<Backlog> largest = new PriorityQueue<>(Comparator.comparingInt(Backlog::getDepth));
+		for (InstrumentedMailbox.InstrumentedQueue queue : queues) {
+			int depth = queue.numberOfMessages();
+			if (depth > 0 && (largest.size() < top || depth > largest.peek().getDepth())) {
+				largest.add(new Backlog(queue.getActor(), queue.getActorClass(), depth, queue.getMaxDepth(),
+						queue.oldestWaitNanos() / 1_000));
+				if (largest.size() > top) {
+					largest.poll();
+				}
+			}
+		}
+		List<Backlog> backlogs = new ArrayList<>(largest);
+		backlogs.sort(Comparator.comparingInt(Backlog::getDepth).reversed());
+		return backlogs;
+	}
+
+	/**
+	 * Counters of one message class of one actor class, added to by every queue
+	 * of that actor class.
+	 */
+	static class MessageStats {
+		private final LongAdder dequeued = new LongAdder();
+		private final LongAdder dwellNanos = new LongAdder();
+		private final LongAccumulator maxDwellNanos = new LongAccumulator(Math::max, 0);
+		private final LongAdder handled = new LongAdder();
+		private final LongAdder handlerNanos = new LongAdder();
+		private final LongAccumulator maxHandlerNanos = new LongAccumulator(Math::max, 0);
+
+		void dwelled(long nanos) {
+			dequeued.increment();
+			dwellNanos.add(nanos);
+			maxDwellNanos.accumulate(nanos);
+		}
+
+		void handled(long nanos) {
+			handled.increment();
+			handlerNanos.add(nanos);
+			maxHandlerNanos.accumulate(nanos);
+		}
+
+		MessageSummary summary() {
+			long count = dequeued.sum();
+			long handledCount = handled.sum();
+			return new MessageSummary(count, count == 0 ? 0 : dwellNanos.sum() / count / 1_000,
+					maxDwellNanos.get() / 1_000, handledCount,
+					handledCount == 0 ? 0 : handlerNanos.sum() / handledCount / 1_000, maxHandlerNanos.get() / 1_000);
+		}
+	}
+
+	@Value
+	public static class Report {
+		List<Backlog> mostBackedUp;
+		SortedMap<String, SortedMap<String, MessageSummary>> messages;
+	}
+
+	@Value
+	public static class MessageSummary {
+		long count;
+		long meanDwellMicros;
+		long maxDwellMicros;
+		long handled;
+		long meanHandlerMicros;
+		long maxHandlerMicros;
+	}
+
+	@Value
+	public static class Backlog {
+		String actor;
+		String actorClass;
+		int depth;
+		// Most messages ever waiting at once
+		int maxDepth;
+		// Wait so far of the message at the head of the queue
+		long oldestWaitMicros;
+	}
+
+	public static class Provider extends AbstractExtensionId<MailboxStats> implements ExtensionIdProvider {
+
+		public static final Provider INSTANCE = new Provider();
+
+		private Provider() {
+		}
+
+		@Override
+		public Provider lookup() {
+			return INSTANCE;
+		}
+
+		@Override
+		public MailboxStats createExtension(ExtendedActorSystem system) {
+			return new MailboxStats();
+		}
+
+	}
+
+}
@@ -0,0 +1,69 @@
+package com.rev.money.transfer.util;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+
+/**
+ * Named counters shared by every actor of an actor system, read through
+ * {@code GET /admin/metrics}. Counting is a striped add, so actors on the hot
+ * path never contend on a counter.
+ */
+public class Metrics implements Extension {
+
+	private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+	public static Metrics get(ActorSystem system) {
+		return Provider.INSTANCE.get(system);
+	}
+
+	public void increment(String name) {
+		LongAdder counter = counters.get(name);
+		if (counter == null) {
+			counter = counters.computeIfAbsent(name, key -> new LongAdder());
+		}
+		counter.increment();
+	}
+
+	public long count(String name) {
+		LongAdder counter = counters.get(name);
+		return counter == null ? 0 : counter.sum();
+	}
+
+	/**
+	 * @return every counter by name, each read on its own
+	 */
+	public SortedMap<String, Long> snapshot() {
+		SortedMap<String, Long> snapshot = new TreeMap<>();
+		counters.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+		return snapshot;
+	}
+
+	public static class Provider extends AbstractExtensionId<Metrics> implements ExtensionIdProvider {
+
+		public static final Provider INSTANCE = new Provider();
+
+		private Provider() {
+		}
+
+		@Override
+		public Provider lookup() {
+			return INSTANCE;
+		}
+
+		@Override
+		public Metrics createExtension(ExtendedActorSystem system) {
+			return new Metrics();
+		}
+
+	}
+
+}
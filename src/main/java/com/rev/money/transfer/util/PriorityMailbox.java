@@ -0,0 +1,128 @@
+package com.rev.money.transfer.util;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.typesafe.config.Config;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import akka.dispatch.UnboundedDequeBasedMessageQueueSemantics;
+import scala.Option;
+
+/**
+ * Unbounded mailbox handing {@link Completion} messages, those finishing work
+ * already under way such as a deposit, a refund or a status change, to the
+ * actor before new work. Enabled through configuration, for every actor
+ * including those with a stash:
+ *
+ * <pre>
+ * akka.actor.default-mailbox.mailbox-type=com.rev.money.transfer.util.PriorityMailbox
+ * akka.actor.mailbox.unbounded-deque-based.mailbox-type=com.rev.money.transfer.util.PriorityMailbox
+ * </pre>
+ *
+ * Completions and new work wait in two lock-free deques, each in arrival
+ * order. New work is never starved: after {@code completion-burst}
+ * completions in a row, the oldest new work goes next if there is any. The
+ * stash puts messages back at the head of their own deque.
+ */
+public class PriorityMailbox implements MailboxType, ProducesMessageQueue<PriorityMailbox.PriorityQueue> {
+
+	public static final String COMPLETION_BURST = "completion-burst";
+	public static final int DEFAULT_COMPLETION_BURST = 8;
+
+	private final int completionBurst;
+
+	public PriorityMailbox(ActorSystem.Settings settings, Config config) {
+		this(config.hasPath(COMPLETION_BURST) ? config.getInt(COMPLETION_BURST) : DEFAULT_COMPLETION_BURST);
+	}
+
+	public PriorityMailbox(int completionBurst) {
+		if (completionBurst < 1) {
+			throw new IllegalArgumentException(COMPLETION_BURST + " must be at least 1, not " + completionBurst);
+		}
+		this.completionBurst = completionBurst;
+	}
+
+	@Override
+	public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+		return new PriorityQueue(completionBurst);
+	}
+
+	/**
+	 * A message finishing work already under way, handed to the actor ahead of
+	 * new work.
+	 */
+	public interface Completion {
+	}
+
+	public static class PriorityQueue implements MessageQueue, UnboundedDequeBasedMessageQueueSemantics {
+
+		private final ConcurrentLinkedDeque<Envelope> completions = new ConcurrentLinkedDeque<>();
+		private final ConcurrentLinkedDeque<Envelope> work = new ConcurrentLinkedDeque<>();
+		private final AtomicInteger depth = new AtomicInteger();
+		private final int completionBurst;
+		// Only touched by the thread processing the mailbox
+		private int completionsInARow;
+
+		PriorityQueue(int completionBurst) {
+			this.completionBurst = completionBurst;
+		}
+
+		private ConcurrentLinkedDeque<Envelope> laneOf(Envelope handle) {
+			return handle.message() instanceof Completion ? completions : work;
+		}
+
+		@Override
+		public void enqueue(ActorRef receiver, Envelope handle) {
+			laneOf(handle).offer(handle);
+			depth.incrementAndGet();
+		}
+
+		@Override
+		public void enqueueFirst(ActorRef receiver, Envelope handle) {
+			laneOf(handle).offerFirst(handle);
+			depth.incrementAndGet();
+		}
+
+		@Override
+		public Envelope dequeue() {
+			Envelope next;
+			if (completionsInARow >= completionBurst && (next = work.poll()) != null) {
+				completionsInARow = 0;
+			} else if ((next = completions.poll()) != null) {
+				completionsInARow++;
+			} else if ((next = work.poll()) != null) {
+				completionsInARow = 0;
+			} else {
+				return null;
+			}
+			depth.decrementAndGet();
+			return next;
+		}
+
+		@Override
+		public boolean hasMessages() {
+			return !completions.isEmpty() || !work.isEmpty();
+		}
+
+		@Override
+		public int numberOfMessages() {
+			return depth.get();
+		}
+
+		@Override
+		public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+			Envelope next;
+			while ((next = dequeue()) != null) {
+				deadLetters.enqueue(owner, next);
+			}
+		}
+
+	}
+
+}
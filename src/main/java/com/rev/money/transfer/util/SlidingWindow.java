@@ -0,0 +1,83 @@
+package com.rev.money.transfer.util;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Number and sum of the amounts recorded over a sliding span of time, kept in
+ * a fixed ring of time buckets with running totals. Recording and reading are
+ * O(1): buckets falling out of the span are cleared as time moves on, each at
+ * most once however long the window sat idle, so no history is ever scanned.
+ * 
+ * The span is rounded to whole buckets: an amount leaves the window between
+ * one bucket before and at the end of its span. Not thread safe: meant to be
+ * owned by a single actor.
+ */
+public class SlidingWindow {
+
+	private final long bucketMillis;
+	private final long[] counts;
+	private final BigDecimal[] sums;
+	private long currentBucket = Long.MIN_VALUE;
+	private long count;
+	private BigDecimal sum = BigDecimal.ZERO;
+
+	public SlidingWindow(Duration span, int buckets) {
+		Preconditions.checkArgument(buckets > 0, "buckets must be positive");
+		Preconditions.checkArgument(span.toMillis() >= buckets, "span must be at least one millisecond per bucket");
+		this.bucketMillis = span.toMillis() / buckets;
+		this.counts = new long[buckets];
+		this.sums = new BigDecimal[buckets];
+		Arrays.fill(sums, BigDecimal.ZERO);
+	}
+
+	public void record(long nowMillis, BigDecimal amount) {
+		advanceTo(nowMillis);
+		int slot = slot(currentBucket);
+		counts[slot]++;
+		sums[slot] = sums[slot].add(amount);
+		count++;
+		sum = sum.add(amount);
+	}
+
+	public long count(long nowMillis) {
+		advanceTo(nowMillis);
+		return count;
+	}
+
+	public BigDecimal sum(long nowMillis) {
+		advanceTo(nowMillis);
+		return sum;
+	}
+
+	/**
+	 * Clears the buckets that fell out of the span. A clock going back keeps
+	 * filling the current bucket.
+	 */
+	private void advanceTo(long nowMillis) {
+		long bucket = Math.floorDiv(nowMillis, bucketMillis);
+		if (bucket <= currentBucket) {
+			return;
+		}
+		long expired = currentBucket == Long.MIN_VALUE ? counts.length
+				: Math.min(bucket - currentBucket, counts.length);
+		for (long b = bucket - expired + 1; b <= bucket; b++) {
+			int slot = slot(b);
+			if (counts[slot] > 0) {
+				count -= counts[slot];
+				sum = sum.subtract(sums[slot]);
+				counts[slot] = 0;
+				sums[slot] = BigDecimal.ZERO;
+			}
+		}
+		currentBucket = bucket;
+	}
+
+	private int slot(long bucket) {
+		return (int) Math.floorMod(bucket, (long) counts.length);
+	}
+
+}
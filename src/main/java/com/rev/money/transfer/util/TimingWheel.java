@@ -0,0 +1,133 @@
+package com.rev.money.transfer.util;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Hashed timing wheel: every entry is hashed by its deadline tick into one of a
+ * fixed number of buckets, so scheduling is O(1) and advancing the wheel only
+ * touches the buckets whose ticks elapsed. Entries whose deadline is more than
+ * one revolution away simply stay in their bucket until their tick comes round.
+ * 
+ * Buckets keep deadlines and items in parallel arrays, so millions of entries
+ * cost no wrapper object each. Not thread safe: meant to be owned by a single
+ * actor.
+ * 
+ * @param <T> type of the scheduled items
+ */
+public class TimingWheel<T> {
+
+	private static final int INITIAL_BUCKET_CAPACITY = 4;
+
+	private final long tickMillis;
+	private final Bucket[] buckets;
+	private final int mask;
+	private long currentTick;
+	private int size;
+
+	public TimingWheel(long tickMillis, int wheelSize, long startMillis) {
+		Preconditions.checkArgument(tickMillis > 0, "tickMillis must be positive");
+		Preconditions.checkArgument(wheelSize > 0 && wheelSize <= (1 << 30), "wheelSize out of range");
+		int capacity = Integer.highestOneBit(wheelSize);
+		if (capacity < wheelSize) {
+			capacity <<= 1;
+		}
+		this.tickMillis = tickMillis;
+		this.buckets = new Bucket[capacity];
+		this.mask = capacity - 1;
+		this.currentTick = startMillis / tickMillis;
+	}
+
+	/**
+	 * Schedules the item to expire at the first tick at or after the deadline.
+	 * Deadlines already in the past expire on the next advance.
+	 */
+	public void schedule(T item, long deadlineMillis) {
+		long tick = Math.max(Math.floorDiv(deadlineMillis + tickMillis - 1, tickMillis), currentTick + 1);
+		int index = (int) (tick & mask);
+		Bucket bucket = buckets[index];
+		if (bucket == null) {
+			bucket = new Bucket();
+			buckets[index] = bucket;
+		}
+		bucket.add(tick, item);
+		size++;
+	}
+
+	/**
+	 * Moves the wheel to the given time and hands every expired item to the
+	 * consumer. When the wheel is more than one revolution behind, each bucket is
+	 * visited only once.
+	 * 
+	 * @return number of expired items
+	 */
+	public int advanceTo(long nowMillis, Consumer<? super T> expired) {
+		long targetTick = Math.floorDiv(nowMillis, tickMillis);
+		if (targetTick <= currentTick) {
+			return 0;
+		}
+		long ticks = Math.min(targetTick - currentTick, buckets.length);
+		int count = 0;
+		for (long tick = currentTick + 1; tick <= currentTick + ticks; tick++) {
+			Bucket bucket = buckets[(int) (tick & mask)];
+			if (bucket != null) {
+				count += bucket.expire(targetTick, expired);
+			}
+		}
+		currentTick = targetTick;
+		size -= count;
+		return count;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long currentTimeMillis() {
+		return currentTick * tickMillis;
+	}
+
+	private static final class Bucket {
+
+		private long[] ticks = new long[INITIAL_BUCKET_CAPACITY];
+		private Object[] items = new Object[INITIAL_BUCKET_CAPACITY];
+		private int size;
+
+		void add(long tick, Object item) {
+			if (size == ticks.length) {
+				ticks = Arrays.copyOf(ticks, size << 1);
+				items = Arrays.copyOf(items, size << 1);
+			}
+			ticks[size] = tick;
+			items[size] = item;
+			size++;
+		}
+
+		@SuppressWarnings("unchecked")
+		<T> int expire(long targetTick, Consumer<? super T> expired) {
+			int count = 0;
+			int i = 0;
+			while (i < size) {
+				if (ticks[i] <= targetTick) {
+					T item = (T) items[i];
+					removeAt(i);
+					expired.accept(item);
+					count++;
+				} else {
+					i++;
+				}
+			}
+			return count;
+		}
+
+		private void removeAt(int i) {
+			int last = --size;
+			ticks[i] = ticks[last];
+			items[i] = items[last];
+			items[last] = null;
+		}
+	}
+
+}
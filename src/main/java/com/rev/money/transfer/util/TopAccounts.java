@@ -0,0 +1,173 @@
+package com.rev.money.transfer.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The accounts with the highest scores among those offered, at most
+ * {@code capacity} of them: a min-heap of account numbers in primitive arrays,
+ * indexed by account number so the score of an account already in it can be
+ * changed in place. Offering, changing and removing are O(log capacity); the
+ * account with the lowest score goes when a higher one comes in and the heap
+ * is full.
+ *
+ * Not thread safe: meant to be guarded by its owner.
+ */
+public class TopAccounts {
+
+	private final long[] accountNumbers;
+	private final double[] scores;
+	private final Map<Long, Integer> positions = new HashMap<>();
+	private int size;
+
+	public TopAccounts(int capacity) {
+		Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+		this.accountNumbers = new long[capacity];
+		this.scores = new double[capacity];
+	}
+
+	public boolean contains(long accountNumber) {
+		return positions.containsKey(accountNumber);
+	}
+
+	public boolean isFull() {
+		return size == accountNumbers.length;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the lowest score kept, negative infinity when empty
+	 */
+	public double minScore() {
+		return size == 0 ? Double.NEGATIVE_INFINITY : scores[0];
+	}
+
+	/**
+	 * @return the account with the lowest score kept, the one the next account
+	 *         coming in to a full heap lets go
+	 */
+	public long minAccountNumber() {
+		Preconditions.checkState(size > 0, "no account kept");
+		return accountNumbers[0];
+	}
+
+	/**
+	 * Sets the score of the account if it is kept, or keeps it if there is room
+	 * or it scores higher than the lowest kept, which then goes.
+	 */
+	public void offer(long accountNumber, double score) {
+		Integer position = positions.get(accountNumber);
+		if (position != null) {
+			double previous = scores[position];
+			scores[position] = score;
+			if (score < previous) {
+				siftUp(position);
+			} else {
+				siftDown(position);
+			}
+			return;
+		}
+		if (size < accountNumbers.length) {
+			place(size, accountNumber, score);
+			siftUp(size++);
+			return;
+		}
+		if (score <= scores[0]) {
+			return;
+		}
+		positions.remove(accountNumbers[0]);
+		place(0, accountNumber, score);
+		siftDown(0);
+	}
+
+	public void remove(long accountNumber) {
+		Integer position = positions.remove(accountNumber);
+		if (position == null) {
+			return;
+		}
+		size--;
+		if (position == size) {
+			return;
+		}
+		double removed = scores[position];
+		place(position, accountNumbers[size], scores[size]);
+		if (scores[position] < removed) {
+			siftUp(position);
+		} else {
+			siftDown(position);
+		}
+	}
+
+	public double scoreOf(long accountNumber) {
+		Integer position = positions.get(accountNumber);
+		return position == null ? Double.NaN : scores[position];
+	}
+
+	/**
+	 * @return the account numbers kept, highest score first
+	 */
+	public long[] ranked() {
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));
+		long[] ranked = new long[size];
+		for (int i = 0; i < size; i++) {
+			ranked[i] = accountNumbers[order[i]];
+		}
+		return ranked;
+	}
+
+	public void clear() {
+		positions.clear();
+		size = 0;
+	}
+
+	private void place(int position, long accountNumber, double score) {
+		accountNumbers[position] = accountNumber;
+		scores[position] = score;
+		positions.put(accountNumber, position);
+	}
+
+	private void siftUp(int position) {
+		long accountNumber = accountNumbers[position];
+		double score = scores[position];
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			if (scores[parent] <= score) {
+				break;
+			}
+			place(position, accountNumbers[parent], scores[parent]);
+			position = parent;
+		}
+		place(position, accountNumber, score);
+	}
+
+	private void siftDown(int position) {
+		long accountNumber = accountNumbers[position];
+		double score = scores[position];
+		while (true) {
+			int child = 2 * position + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && scores[child + 1] < scores[child]) {
+				child++;
+			}
+			if (scores[child] >= score) {
+				break;
+			}
+			place(position, accountNumbers[child], scores[child]);
+			position = child;
+		}
+		place(position, accountNumber, score);
+	}
+
+}
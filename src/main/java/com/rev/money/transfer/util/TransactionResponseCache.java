@@ -0,0 +1,112 @@
+package com.rev.money.transfer.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.model.TransactionStatus;
+
+import lombok.Value;
+
+/**
+ * Serialized {@code GET /transactions/[id]} responses of finalized
+ * transactions. A transaction never changes once it succeeded or failed, so
+ * its response is serialized and hashed once and then served from here
+ * without asking the transaction service, the least recently read forgotten
+ * first past {@code capacity}. Held in a Guava cache: reads take no lock and
+ * writes lock one segment, so concurrent requests do not queue on the cache;
+ * recency is kept per segment, so what is forgotten first is approximately
+ * the least recently read.
+ *
+ * The entity tag is strong, a hash of the bytes served: the same transaction
+ * in the same state always gets the same tag, whether it was cached or not.
+ */
+public class TransactionResponseCache {
+
+	// As the default Jackson marshaller of the routes, so cached and uncached bodies are alike
+	private static final ObjectMapper MAPPER = new ObjectMapper()
+			.enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY);
+
+	private final Cache<Long, Response> responses;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	public TransactionResponseCache(int capacity) {
+		this.responses = CacheBuilder.newBuilder().maximumSize(capacity).build();
+	}
+
+	@Value
+	public static class Response {
+		byte[] body;
+		// Strong, unquoted
+		String entityTag;
+		boolean finalized;
+	}
+
+	public static boolean isFinalized(Transaction transaction) {
+		return transaction.getStatus() == TransactionStatus.SUCCESS
+				|| transaction.getStatus() == TransactionStatus.FAIL
+				|| transaction.getStatus() == TransactionStatus.UNRESOLVED;
+	}
+
+	/**
+	 * @return the response of the finalized transaction, null if it is not
+	 *         cached
+	 */
+	public Response get(long id) {
+		Response response = responses.getIfPresent(id);
+		(response == null ? misses : hits).increment();
+		return response;
+	}
+
+	/**
+	 * Serializes the transaction, keeping the response if it is finalized.
+	 */
+	public Response response(Transaction transaction) {
+		byte[] body;
+		try {
+			body = MAPPER.writeValueAsBytes(transaction);
+		} catch (JsonProcessingException e) {
+			// Cannot happen for a transaction
+			throw new IllegalStateException(e);
+		}
+		boolean finalized = isFinalized(transaction);
+		Response response = new Response(body, entityTag(body), finalized);
+		if (finalized) {
+			responses.put(transaction.getId(), response);
+		}
+		return response;
+	}
+
+	private static String entityTag(byte[] body) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+			// 128 bits are plenty to tell two bodies apart
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 16));
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public long size() {
+		return responses.size();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+}
@@ -0,0 +1,209 @@
+package com.rev.money.transfer.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.typesafe.config.Config;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+import lombok.Value;
+
+/**
+ * When each hop of a sampled transfer happened, to tell which one cost the
+ * time of a slow transfer. A transfer is sampled on a hash of its id, so every
+ * actor agrees on it without passing a flag along, and a transfer that is not
+ * sampled costs a multiplication per stage. A sampled transfer keeps one
+ * {@link System#nanoTime()} per stage; the last {@code capacity} sampled
+ * transfers are kept.
+ *
+ * Read through {@code GET /transactions/[id]/timeline} and, summed over every
+ * kept transfer, {@code GET /transactions/timelines}.
+ */
+public class TransferTimelines implements Extension {
+
+	public enum Stage {
+		// Received by the transaction route
+		ROUTE,
+		// Out of the mailbox of the transaction service
+		TRANSACTION_SERVICE,
+		// Out of the mailbox of the account service
+		ACCOUNT_SERVICE,
+		// Withdraw answered by the remitter
+		WITHDRAWN,
+		// Deposit answered by the beneficiary
+		DEPOSITED,
+		// Status change answered by the transaction
+		STATUS_CHANGED,
+		// Answer back at the transaction route
+		REPLIED
+	}
+
+	private static final Stage[] STAGES = Stage.values();
+
+	// Sampled when the top 53 bits of the mixed id fall below
+	private final long threshold;
+	private final Map<Long, long[]> timelines;
+
+	public TransferTimelines(double sampleRate, int capacity) {
+		this.threshold = (long) (sampleRate * (1L << 53));
+		this.timelines = new LinkedHashMap<Long, long[]>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, long[]> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	public static TransferTimelines get(ActorSystem system) {
+		return Provider.INSTANCE.get(system);
+	}
+
+	public boolean isSampled(Long transactionId) {
+		return transactionId != null && (transactionId * 0x9E3779B97F4A7C15L) >>> 11 < threshold;
+	}
+
+	/**
+	 * Records the stage of a sampled transfer, the first time it is reached. A
+	 * timeline starts at the route or, for transfers raised inside the system,
+	 * at the transaction service.
+	 */
+	public void record(Long transactionId, Stage stage) {
+		if (!isSampled(transactionId)) {
+			return;
+		}
+		long now = System.nanoTime();
+		synchronized (timelines) {
+			long[] timeline = timelines.get(transactionId);
+			if (timeline == null) {
+				if (stage.compareTo(Stage.TRANSACTION_SERVICE) > 0) {
+					return;
+				}
+				timeline = new long[STAGES.length];
+				timelines.put(transactionId, timeline);
+			}
+			if (timeline[stage.ordinal()] == 0) {
+				timeline[stage.ordinal()] = now;
+			}
+		}
+	}
+
+	/**
+	 * @return microseconds from the first stage to each stage reached, in
+	 *         stage order, null when the transfer was not sampled or is no
+	 *         longer kept
+	 */
+	public Map<Stage, Long> timeline(long transactionId) {
+		long[] timeline;
+		synchronized (timelines) {
+			timeline = timelines.get(transactionId);
+			timeline = timeline == null ? null : timeline.clone();
+		}
+		if (timeline == null) {
+			return null;
+		}
+		Map<Stage, Long> micros = new EnumMap<>(Stage.class);
+		long start = 0;
+		for (Stage stage : STAGES) {
+			long at = timeline[stage.ordinal()];
+			if (at != 0) {
+				start = start == 0 ? at : start;
+				micros.put(stage, (at - start) / 1_000);
+			}
+		}
+		return micros;
+	}
+
+	/**
+	 * @return over every kept transfer, the time from the stage reached before
+	 *         to each stage
+	 */
+	public Summary summary() {
+		List<long[]> kept;
+		synchronized (timelines) {
+			kept = new ArrayList<>(timelines.size());
+			timelines.values().forEach(timeline -> kept.add(timeline.clone()));
+		}
+		long[][] hops = new long[STAGES.length][kept.size()];
+		int[] counts = new int[STAGES.length];
+		for (long[] timeline : kept) {
+			long last = 0;
+			for (Stage stage : STAGES) {
+				long at = timeline[stage.ordinal()];
+				if (at == 0) {
+					continue;
+				}
+				if (last != 0) {
+					hops[stage.ordinal()][counts[stage.ordinal()]++] = (at - last) / 1_000;
+				}
+				last = at;
+			}
+		}
+		Map<Stage, StageSummary> stages = new EnumMap<>(Stage.class);
+		for (Stage stage : STAGES) {
+			int count = counts[stage.ordinal()];
+			if (count > 0) {
+				long[] micros = Arrays.copyOf(hops[stage.ordinal()], count);
+				Arrays.sort(micros);
+				stages.put(stage, new StageSummary(count, Arrays.stream(micros).sum() / count, micros[count / 2],
+						micros[count * 99 / 100], micros[count - 1]));
+			}
+		}
+		return new Summary(kept.size(), stages);
+	}
+
+	@Value
+	public static class Summary {
+		int transfers;
+		Map<Stage, StageSummary> stages;
+	}
+
+	/**
+	 * Microseconds from the stage reached before, over the transfers that
+	 * reached both.
+	 */
+	@Value
+	public static class StageSummary {
+		int count;
+		long meanMicros;
+		long p50Micros;
+		long p99Micros;
+		long maxMicros;
+	}
+
+	public static class Provider extends AbstractExtensionId<TransferTimelines> implements ExtensionIdProvider {
+
+		public static final Provider INSTANCE = new Provider();
+
+		private Provider() {
+		}
+
+		@Override
+		public Provider lookup() {
+			return INSTANCE;
+		}
+
+		@Override
+		public TransferTimelines createExtension(ExtendedActorSystem system) {
+			Config config = system.settings().config();
+			return new TransferTimelines(
+					Double.parseDouble(config.hasPath(Constant.TIMELINE_SAMPLE_RATE)
+							? config.getString(Constant.TIMELINE_SAMPLE_RATE)
+							: Constant.DEFAULT_TIMELINE_SAMPLE_RATE),
+					Integer.parseInt(config.hasPath(Constant.TIMELINE_CAPACITY)
+							? config.getString(Constant.TIMELINE_CAPACITY)
+							: Constant.DEFAULT_TIMELINE_CAPACITY));
+		}
+
+	}
+
+}
@@ -3,20 +3,31 @@ package com.rev.money.transfer.account;
 import static java.math.BigDecimal.ONE;
 import static java.math.BigDecimal.TEN;
 import static java.math.BigDecimal.ZERO;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import com.rev.money.transfer.actor.AccountActor;
+import com.rev.money.transfer.actor.AccountActor.AccountCut;
+import com.rev.money.transfer.actor.AccountActor.Cut;
 import com.rev.money.transfer.actor.AccountActor.Deposit;
 import com.rev.money.transfer.actor.AccountActor.GetAccount;
+import com.rev.money.transfer.actor.AccountActor.GetAccountAsOf;
+import com.rev.money.transfer.actor.AccountActor.GetLimits;
+import com.rev.money.transfer.actor.AccountActor.InTransit;
+import com.rev.money.transfer.actor.AccountActor.SetLimits;
 import com.rev.money.transfer.actor.AccountActor.Withdraw;
 import com.rev.money.transfer.model.Account;
 import com.rev.money.transfer.model.MessageStatus.Failure;
 import com.rev.money.transfer.model.MessageStatus.Success;
+import com.rev.money.transfer.model.VelocityLimits;
+import com.rev.money.transfer.schedule.SchedulerServiceTest.TestClock;
+import com.rev.money.transfer.util.Metrics;
 
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
@@ -96,4 +107,114 @@ public class AccountActorTest {
 			}
 		};
 	}
+
+	@Test
+	void testWithdrawBreachingLimitsReturnsFailureAndIsCounted() {
+		new TestKit(system) {
+			{
+				TestClock clock = new TestClock(0);
+				ActorRef account = system
+						.actorOf(AccountActor.props(new Account(ACCOUNT_NUMBER, BigDecimal.valueOf(1_000)), clock));
+				VelocityLimits limits = new VelocityLimits(BigDecimal.valueOf(100), 3, BigDecimal.valueOf(50));
+				account.tell(new SetLimits(ACCOUNT_NUMBER, limits), getRef());
+				expectMsg(new Success());
+
+				account.tell(new Withdraw(BigDecimal.valueOf(60)), getRef());
+				expectMsg(new Failure("Amount 60 is above the limit of 50 per transfer on account 1"));
+				for (int i = 0; i < 3; i++) {
+					account.tell(new Withdraw(BigDecimal.valueOf(20)), getRef());
+					expectMsg(new Success());
+				}
+				account.tell(new Withdraw(ONE), getRef());
+				expectMsg(new Failure("Limit of 3 transfers per minute reached on account 1"));
+
+				// The minute window slides, the daily one still holds the 60 debited
+				clock.advance(Duration.ofSeconds(61).toMillis());
+				account.tell(new Withdraw(BigDecimal.valueOf(50)), getRef());
+				expectMsg(new Failure("Amount 50 is above the daily debit cap of 100 on account 1, "
+						+ "60 already debited over the last 24 hours"));
+				account.tell(new Withdraw(BigDecimal.valueOf(40)), getRef());
+				expectMsg(new Success());
+
+				clock.advance(Duration.ofDays(1).toMillis());
+				account.tell(new Withdraw(BigDecimal.valueOf(50)), getRef());
+				expectMsg(new Success());
+				account.tell(new GetAccount(ACCOUNT_NUMBER), getRef());
+				expectMsg(new Account(ACCOUNT_NUMBER, BigDecimal.valueOf(850)));
+
+				Metrics metrics = Metrics.get(system);
+				assertEquals(1, metrics.count(AccountActor.MAX_SINGLE_AMOUNT_BREACHES));
+				assertEquals(1, metrics.count(AccountActor.TRANSFERS_PER_MINUTE_BREACHES));
+				assertEquals(1, metrics.count(AccountActor.DAILY_DEBIT_CAP_BREACHES));
+
+				account.tell(new SetLimits(ACCOUNT_NUMBER, VelocityLimits.NONE), getRef());
+				expectMsg(new Success());
+				account.tell(new Withdraw(BigDecimal.valueOf(500)), getRef());
+				expectMsg(new Success());
+				account.tell(new GetLimits(ACCOUNT_NUMBER), getRef());
+				expectMsg(VelocityLimits.NONE);
+			}
+		};
+	}
+
+	@Test
+	void testCutKeepsBalanceOfItsEpochAndReportsOlderMovementsInTransit() {
+		new TestKit(system) {
+			{
+				// A child of the test actor, so money in transit is reported to it
+				ActorRef account = childActorOf(AccountActor.props(new Account(ACCOUNT_NUMBER, TEN)));
+				account.tell(new Deposit(ONE, 0), getRef());
+				expectMsg(new Success());
+				account.tell(new Cut(1), getRef());
+				expectMsg(new AccountCut(1, new Account(ACCOUNT_NUMBER, BigDecimal.valueOf(11))));
+
+				account.tell(new Deposit(BigDecimal.valueOf(2), 0), getRef());
+				expectMsg(new InTransit(1, "EUR", BigDecimal.valueOf(2)));
+				expectMsg(new Success());
+				account.tell(new Withdraw(BigDecimal.valueOf(3), 1), getRef());
+				expectMsg(new Success());
+				account.tell(new Cut(1), getRef());
+				expectMsg(new AccountCut(1, new Account(ACCOUNT_NUMBER, BigDecimal.valueOf(11))));
+
+				// A movement of a newer epoch takes the cut before its marker arrives
+				account.tell(new Deposit(BigDecimal.valueOf(5), 2), getRef());
+				expectMsg(new Success());
+				account.tell(new Cut(2), getRef());
+				expectMsg(new AccountCut(2, new Account(ACCOUNT_NUMBER, TEN)));
+				account.tell(new GetAccount(ACCOUNT_NUMBER), getRef());
+				expectMsg(new Account(ACCOUNT_NUMBER, BigDecimal.valueOf(15)));
+			}
+		};
+	}
+
+	@Test
+	void testGetAccountAsOfReadsBalanceHistory() {
+		new TestKit(system) {
+			{
+				TestClock clock = new TestClock(1_000);
+				ActorRef account = system.actorOf(AccountActor.props(new Account(ACCOUNT_NUMBER, TEN), clock));
+				account.tell(new GetAccount(ACCOUNT_NUMBER), getRef());
+				expectMsg(new Account(ACCOUNT_NUMBER, TEN));
+				clock.advance(1_000);
+				account.tell(new Deposit(new BigDecimal("0.50")), getRef());
+				expectMsg(new Success());
+				account.tell(new Withdraw(ONE), getRef());
+				expectMsg(new Success());
+				clock.advance(1_000);
+				account.tell(new Withdraw(new BigDecimal("9.50")), getRef());
+				expectMsg(new Success());
+
+				account.tell(new GetAccountAsOf(ACCOUNT_NUMBER, 999), getRef());
+				expectMsg(new Failure("Account 1 did not exist at 1970-01-01T00:00:00.999Z"));
+				account.tell(new GetAccountAsOf(ACCOUNT_NUMBER, 1_999), getRef());
+				expectMsg(new Account(ACCOUNT_NUMBER, TEN));
+				// The last of the changes made in the same millisecond
+				account.tell(new GetAccountAsOf(ACCOUNT_NUMBER, 2_000), getRef());
+				expectMsg(new Account(ACCOUNT_NUMBER, new BigDecimal("9.50")));
+				account.tell(new GetAccountAsOf(ACCOUNT_NUMBER, 5_000), getRef());
+				expectMsg(new Account(ACCOUNT_NUMBER, new BigDecimal("0.00")));
+			}
+		};
+	}
+
 }
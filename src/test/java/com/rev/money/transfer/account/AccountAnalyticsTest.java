@@ -0,0 +1,256 @@
+package com.rev.money.transfer.account;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.rev.money.transfer.actor.AccountActor;
+import com.rev.money.transfer.factory.AccountFactory;
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.MessageStatus.Success;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.schedule.SchedulerServiceTest.TestClock;
+import com.rev.money.transfer.service.AccountService;
+import com.rev.money.transfer.service.AccountService.CreateStripedAccount;
+import com.rev.money.transfer.service.AnalyticsService;
+import com.rev.money.transfer.service.AnalyticsService.AccountActive;
+import com.rev.money.transfer.service.AnalyticsService.BalanceChanged;
+import com.rev.money.transfer.service.AnalyticsService.GetHotAccounts;
+import com.rev.money.transfer.service.AnalyticsService.GetTopBalances;
+import com.rev.money.transfer.service.AnalyticsService.HotAccount;
+import com.rev.money.transfer.service.AnalyticsService.HotAccounts;
+import com.rev.money.transfer.service.AnalyticsService.TopBalances;
+import com.rev.money.transfer.util.AccountAnalytics;
+import com.rev.money.transfer.util.Constant;
+import com.rev.money.transfer.util.DecayingCountMinSketch;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+
+public class AccountAnalyticsTest {
+
+	private static final Duration HOUR = Duration.ofHours(1);
+	private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+	private static ActorSystem system;
+
+	@BeforeAll
+	static void setup() {
+		system = ActorSystem.create();
+	}
+
+	@AfterAll
+	static void shutdown() {
+		TestKit.shutdownActorSystem(system);
+		system = null;
+	}
+
+	/**
+	 * Random deposits into new and existing accounts, checked against sorting
+	 * every balance: while balances only grow, the candidates kept hold the
+	 * largest.
+	 */
+	@Test
+	void testTopBalancesMatchSortingEveryBalanceWhileTheyGrow() {
+		new TestKit(system) {
+			{
+				ActorRef analytics = system.actorOf(AnalyticsService.props(10, HOUR, new TestClock(0)));
+				Map<Long, BigDecimal> balances = new HashMap<>();
+				Random random = new Random(50);
+				for (int i = 1; i <= 100_000; i++) {
+					long accountNumber = random.nextInt(2_000);
+					BigDecimal balance = balances.merge(accountNumber, BigDecimal.valueOf(random.nextInt(2_000)),
+							BigDecimal::add);
+					analytics.tell(new BalanceChanged(accountNumber, AccountAnalytics.NOT_STRIPED, null, balance),
+							getRef());
+					if (i % 10_000 == 0) {
+						assertBalances(largest(balances, 10), topBalances(this, analytics, Constant.BASE_CURRENCY));
+					}
+				}
+				assertEquals(List.of(), topBalances(this, analytics, "USD"));
+			}
+		};
+	}
+
+	/**
+	 * Random deposits and withdraws, many of them emptying accounts that were
+	 * among the largest: every account listed has its current balance, in
+	 * order, and most of the largest are listed though those left out are not
+	 * remembered.
+	 */
+	@Test
+	void testTopBalancesHoldCurrentBalancesAsTheyFall() {
+		new TestKit(system) {
+			{
+				ActorRef analytics = system.actorOf(AnalyticsService.props(10, HOUR, new TestClock(0)));
+				Map<Long, BigDecimal> balances = new HashMap<>();
+				Random random = new Random(50);
+				int listed = 0;
+				for (int i = 1; i <= 100_000; i++) {
+					long accountNumber = random.nextInt(2_000);
+					BigDecimal balance = balances.getOrDefault(accountNumber, BigDecimal.ZERO);
+					BigDecimal change = random.nextInt(4) == 0 ? balance.negate()
+							: BigDecimal.valueOf(random.nextInt(2_000) - 900);
+					balance = balance.add(change).max(BigDecimal.ZERO);
+					balances.put(accountNumber, balance);
+					analytics.tell(new BalanceChanged(accountNumber, AccountAnalytics.NOT_STRIPED, null, balance),
+							getRef());
+					if (i % 1_000 == 0) {
+						List<Account> top = topBalances(this, analytics, Constant.BASE_CURRENCY);
+						List<BigDecimal> expected = largest(balances, 10);
+						for (int rank = 0; rank < top.size(); rank++) {
+							Account account = top.get(rank);
+							assertEquals(balances.get(account.getAccountNumber()), account.getBalance());
+							assertTrue(rank == 0
+									|| top.get(rank - 1).getBalance().compareTo(account.getBalance()) >= 0);
+							listed += expected.contains(account.getBalance()) ? 1 : 0;
+						}
+					}
+				}
+				assertTrue(listed >= 100 * 10 * 8 / 10, "listed " + listed + " of the largest");
+			}
+		};
+	}
+
+	private static List<BigDecimal> largest(Map<Long, BigDecimal> balances, int size) {
+		return balances.values().stream().filter(balance -> balance.signum() != 0)
+				.sorted(Comparator.reverseOrder()).limit(size).collect(Collectors.toList());
+	}
+
+	private static List<Account> topBalances(TestKit testKit, ActorRef analytics, String currency) {
+		analytics.tell(new GetTopBalances(currency), testKit.getRef());
+		return testKit.expectMsgClass(TopBalances.class).getAccounts();
+	}
+
+	private static void assertBalances(List<BigDecimal> expected, List<Account> top) {
+		assertEquals(expected,
+				top.stream().map(Account::getBalance).collect(Collectors.toList()));
+	}
+
+	@Test
+	void testSketchNeverUnderestimatesAndForgetsPastTheSpan() {
+		TestClock clock = new TestClock(0);
+		DecayingCountMinSketch sketch = new DecayingCountMinSketch(HOUR, 12, 4, 1_024);
+		Map<Long, Long> counts = new HashMap<>();
+		Random random = new Random(50);
+		for (int i = 0; i < 50_000; i++) {
+			// Skewed, as the activity of accounts is
+			long key = (long) Math.abs(random.nextGaussian() * 300);
+			counts.merge(key, 1L, Long::sum);
+			sketch.add(key, clock.millis());
+		}
+		long overestimated = 0;
+		for (Map.Entry<Long, Long> count : counts.entrySet()) {
+			long estimate = sketch.estimate(count.getKey(), clock.millis());
+			assertTrue(estimate >= count.getValue());
+			overestimated += estimate - count.getValue();
+		}
+		assertTrue(overestimated / counts.size() <= 2 * 50_000 / 1_024, "overestimated by " + overestimated);
+
+		clock.advance(Duration.ofMinutes(30).toMillis());
+		sketch.add(1L, clock.millis());
+		assertTrue(sketch.estimate(1L, clock.millis()) > counts.get(1L));
+		// The first counts are out of the span, the last one is not yet
+		clock.advance(Duration.ofMinutes(45).toMillis());
+		assertEquals(0, sketch.estimate(0L, clock.millis()));
+		assertEquals(1, sketch.estimate(1L, clock.millis()));
+	}
+
+	@Test
+	void testHotAccountsAreTheBusiestOverTheLastHour() {
+		new TestKit(system) {
+			{
+				TestClock clock = new TestClock(0);
+				ActorRef analytics = system.actorOf(AnalyticsService.props(3, HOUR, clock));
+				for (long accountNumber = 1; accountNumber <= 1_000; accountNumber++) {
+					for (int i = 0; i < accountNumber % 7; i++) {
+						analytics.tell(new AccountActive(accountNumber), getRef());
+					}
+				}
+				for (int i = 0; i < 500; i++) {
+					analytics.tell(new AccountActive(42), getRef());
+					if (i % 2 == 0) {
+						analytics.tell(new AccountActive(7), getRef());
+					}
+				}
+				analytics.tell(new GetHotAccounts(), getRef());
+				List<HotAccount> hot = expectMsgClass(HotAccounts.class).getAccounts();
+				assertEquals(3, hot.size());
+				assertEquals(new HotAccount(42, 500), hot.get(0));
+				assertEquals(new HotAccount(7, 250), hot.get(1));
+
+				// An hour later the busy accounts are forgotten and a new one rises
+				clock.advance(HOUR.plusMinutes(5).toMillis());
+				for (int i = 0; i < 20; i++) {
+					analytics.tell(new AccountActive(99), getRef());
+				}
+				analytics.tell(new AccountActive(100), getRef());
+				analytics.tell(new GetHotAccounts(), getRef());
+				expectMsg(new HotAccounts(List.of(new HotAccount(99, 20), new HotAccount(100, 1))));
+			}
+		};
+	}
+
+	/**
+	 * Reported by the account actors: stripes add up to the balance of their
+	 * account, a transfer moves both accounts and a deleted account leaves.
+	 */
+	@Test
+	void testAccountActorsReportBalancesAndActivity() {
+		ActorSystem reporting = ActorSystem.create("analytics",
+				ConfigFactory.parseString("analytics.top.size = 2").withFallback(ConfigFactory.load()));
+		try {
+			new TestKit(reporting) {
+				{
+					AccountAnalytics analytics = AccountAnalytics.get(reporting);
+					ActorRef accountService = reporting.actorOf(AccountService.props(new AccountFactory()));
+					accountService.tell(new Account(1L, BigDecimal.valueOf(50)), getRef());
+					expectMsgClass(Success.class);
+					accountService.tell(new CreateStripedAccount(new Account(2L, BigDecimal.valueOf(80)), 4),
+							getRef());
+					expectMsgClass(Success.class);
+					accountService.tell(new Account(3L, BigDecimal.valueOf(10)), getRef());
+					expectMsgClass(Success.class);
+					accountService.tell(new Transaction(1L, 2L, 1L, BigDecimal.valueOf(45), TransactionStatus.NEW,
+							null), getRef());
+					expectMsgClass(Success.class);
+					awaitAssert(() -> {
+						assertEquals(List.of(new Account(1L, BigDecimal.valueOf(95)),
+								new Account(2L, BigDecimal.valueOf(35))),
+								analytics.topBalances(Constant.BASE_CURRENCY, TIMEOUT).toCompletableFuture().join());
+						return null;
+					});
+					accountService.tell(new AccountActor.DeleteAccount(1L), getRef());
+					expectMsgClass(Success.class);
+					awaitAssert(() -> {
+						assertEquals(List.of(new Account(2L, BigDecimal.valueOf(35)),
+								new Account(3L, BigDecimal.valueOf(10))),
+								analytics.topBalances(Constant.BASE_CURRENCY, TIMEOUT).toCompletableFuture().join());
+						return null;
+					});
+					List<Long> hot = analytics.hotAccounts(TIMEOUT).toCompletableFuture().join().stream()
+							.map(HotAccount::getAccountNumber).collect(Collectors.toList());
+					assertTrue(hot.containsAll(List.of(1L, 2L)), hot.toString());
+				}
+			};
+		} finally {
+			TestKit.shutdownActorSystem(reporting);
+		}
+	}
+
+}
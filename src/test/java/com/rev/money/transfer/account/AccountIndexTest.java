@@ -0,0 +1,71 @@
+package com.rev.money.transfer.account;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+import com.rev.money.transfer.store.AccountIndex;
+
+public class AccountIndexTest {
+
+	@Test
+	void testPagesFollowAccountNumberOrder() {
+		AccountIndex index = new AccountIndex();
+		assertArrayEquals(new long[0], index.after(Long.MIN_VALUE, 10));
+		for (long accountNumber : new long[] { 40, 10, 30, 20 }) {
+			assertTrue(index.add(accountNumber));
+		}
+		assertFalse(index.add(30));
+		assertArrayEquals(new long[] { 10, 20 }, index.after(Long.MIN_VALUE, 2));
+		assertArrayEquals(new long[] { 30, 40 }, index.after(20, 2));
+		assertArrayEquals(new long[] { 30, 40 }, index.after(25, 10));
+		assertArrayEquals(new long[0], index.after(40, 10));
+
+		assertTrue(index.remove(30));
+		assertFalse(index.remove(30));
+		assertArrayEquals(new long[] { 20, 40 }, index.after(10, 10));
+		assertEquals(3, index.size());
+	}
+
+	/**
+	 * Random opens and deletes, enough to split leaves many times over and to
+	 * empty some of them, checked against a sorted set paging through it.
+	 */
+	@Test
+	void testMatchesASortedSetUnderRandomChanges() {
+		Random random = new Random(49);
+		AccountIndex index = new AccountIndex();
+		NavigableSet<Long> expected = new TreeSet<>();
+		for (int i = 0; i < 200_000; i++) {
+			// Mostly increasing account numbers, as they are opened, with some holes punched back in
+			long accountNumber = random.nextInt(4) == 0 ? random.nextInt(i + 1) : i;
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(accountNumber), index.remove(accountNumber));
+			} else {
+				assertEquals(expected.add(accountNumber), index.add(accountNumber));
+			}
+		}
+		assertEquals(expected.size(), index.size());
+
+		long after = Long.MIN_VALUE;
+		int pageSize = 1_000;
+		long[] page;
+		do {
+			page = index.after(after, pageSize);
+			assertArrayEquals(expected.tailSet(after, false).stream().limit(pageSize).mapToLong(Long::longValue)
+					.toArray(), page);
+			if (page.length > 0) {
+				after = page[page.length - 1];
+			}
+		} while (page.length == pageSize);
+		assertEquals(expected.last().longValue(), after);
+	}
+
+}
@@ -2,10 +2,14 @@ package com.rev.money.transfer.account;
 
 import static java.math.BigDecimal.ONE;
 import static java.math.BigDecimal.ZERO;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.math.BigDecimal;
 import java.time.Duration;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.jupiter.api.AfterAll;
@@ -22,13 +26,20 @@ import com.rev.money.transfer.model.MessageStatus.Failure;
 import com.rev.money.transfer.model.MessageStatus.Success;
 import com.rev.money.transfer.model.Transaction;
 import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.model.VelocityLimits;
 import com.rev.money.transfer.service.AccountService;
+import com.rev.money.transfer.util.BalanceEvents;
 
+import akka.NotUsed;
 import akka.actor.AbstractActor;
 import akka.actor.ActorContext;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.actor.Props;
+import akka.japi.Pair;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
 import akka.testkit.javadsl.TestKit;
 
 public class AccountServiceTest {
@@ -206,6 +217,144 @@ public class AccountServiceTest {
 		};
 	}
 
+	@Test
+	void testTransferBreachingLimitsOfRemitterReturnsFailure() {
+		new TestKit(system) {
+			{
+				ActorRef accountService = system.actorOf(AccountService.props(new AccountFactory()));
+				accountService.tell(new Account(ACCOUNT_NUMBER_1, BigDecimal.TEN), getRef());
+				expectMsgClass(Success.class);
+				accountService.tell(new Account(ACCOUNT_NUMBER_2, ZERO), getRef());
+				expectMsgClass(Success.class);
+				VelocityLimits limits = new VelocityLimits(null, null, BigDecimal.valueOf(5));
+				accountService.tell(new AccountActor.SetLimits(ACCOUNT_NUMBER_1, limits), getRef());
+				expectMsgClass(Success.class);
+				accountService.tell(new AccountActor.GetLimits(ACCOUNT_NUMBER_1), getRef());
+				expectMsg(limits);
+
+				accountService.tell(new Transaction(1L, ACCOUNT_NUMBER_1, ACCOUNT_NUMBER_2, BigDecimal.valueOf(6),
+						TransactionStatus.NEW, null), getRef());
+				expectMsg(new Failure("Amount 6 is above the limit of 5 per transfer on account 1"));
+				accountService.tell(new GetAccount(ACCOUNT_NUMBER_2), getRef());
+				expectMsg(new Account(ACCOUNT_NUMBER_2, ZERO));
+
+				accountService.tell(new AccountService.CreateStripedAccount(new Account(3L, ZERO), 2), getRef());
+				expectMsgClass(Success.class);
+				accountService.tell(new AccountActor.SetLimits(3L, limits), getRef());
+				expectMsg(new Failure("Limits are not supported on striped account 3"));
+				accountService.tell(new AccountActor.GetLimits(4L), getRef());
+				expectMsg(new Failure("Account 4 not found"));
+			}
+		};
+	}
+
+	@Test
+	void testBalanceSubscriberGetsTheAccountThenEveryChange() {
+		new TestKit(system) {
+			{
+				ActorRef accountService = system.actorOf(AccountService.props(new AccountFactory()));
+				accountService.tell(new Account(ACCOUNT_NUMBER_1, BigDecimal.TEN), getRef());
+				expectMsgClass(Success.class);
+				accountService.tell(new Account(ACCOUNT_NUMBER_2, ZERO), getRef());
+				expectMsgClass(Success.class);
+				TestKit subscriber = new TestKit(system);
+				accountService.tell(new AccountActor.SubscribeBalance(ACCOUNT_NUMBER_1, subscriber.getRef()), getRef());
+				expectMsgClass(Success.class);
+				subscriber.expectMsg(new Account(ACCOUNT_NUMBER_1, BigDecimal.TEN));
+
+				accountService.tell(new Transaction(1L, ACCOUNT_NUMBER_1, ACCOUNT_NUMBER_2, BigDecimal.valueOf(3),
+						TransactionStatus.NEW, null), getRef());
+				expectMsgClass(Success.class);
+				subscriber.expectMsg(new Account(ACCOUNT_NUMBER_1, BigDecimal.valueOf(7)));
+				subscriber.expectNoMessage(Duration.ofMillis(100));
+
+				accountService.tell(new AccountService.CreateStripedAccount(new Account(3L, ZERO), 2), getRef());
+				expectMsgClass(Success.class);
+				accountService.tell(new AccountActor.SubscribeBalance(3L, subscriber.getRef()), getRef());
+				expectMsg(new Failure("Balance events are not supported on striped account 3"));
+				accountService.tell(new AccountActor.SubscribeBalance(4L, subscriber.getRef()), getRef());
+				expectMsg(new Failure("Account 4 not found"));
+			}
+		};
+	}
+
+	/**
+	 * A subscriber that reads nothing while money moves gets only the latest
+	 * balance of each account once it reads, not every change.
+	 */
+	@Test
+	void testSlowBalanceSubscriberGetsConflatedChanges() {
+		new TestKit(system) {
+			{
+				ActorMaterializer materializer = ActorMaterializer.create(system);
+				ActorRef accountService = system.actorOf(AccountService.props(new AccountFactory()));
+				accountService.tell(new Account(ACCOUNT_NUMBER_1, BigDecimal.valueOf(100)), getRef());
+				expectMsgClass(Success.class);
+				accountService.tell(new Account(ACCOUNT_NUMBER_2, ZERO), getRef());
+				expectMsgClass(Success.class);
+				Pair<ActorRef, Source<Account, NotUsed>> events = BalanceEvents.source(16, system)
+						.preMaterialize(materializer);
+				for (long accountNumber : new long[] { ACCOUNT_NUMBER_1, ACCOUNT_NUMBER_2 }) {
+					accountService.tell(new AccountActor.SubscribeBalance(accountNumber, events.first()), getRef());
+					expectMsgClass(Success.class);
+				}
+				int transfers = 500;
+				for (long id = 1; id <= transfers; id++) {
+					accountService.tell(new Transaction(id, ACCOUNT_NUMBER_1, ACCOUNT_NUMBER_2,
+							new BigDecimal("0.20"), TransactionStatus.NEW, null), getRef());
+					expectMsgClass(Success.class);
+				}
+
+				List<Account> received = events.second().takeWithin(Duration.ofMillis(500))
+						.runWith(Sink.seq(), materializer).toCompletableFuture().join();
+				assertTrue(received.size() < transfers, received.size() + " events");
+				Map<Long, Account> latest = new HashMap<>();
+				received.forEach(account -> latest.put(account.getAccountNumber(), account));
+				assertEquals(new Account(ACCOUNT_NUMBER_1, new BigDecimal("0.00")), latest.get(ACCOUNT_NUMBER_1));
+				assertEquals(new Account(ACCOUNT_NUMBER_2, new BigDecimal("100.00")), latest.get(ACCOUNT_NUMBER_2));
+			}
+		};
+	}
+
+	/**
+	 * A subscriber following more accounts than its buffer holds, none read
+	 * while they all change, still gets the latest balance of every one of them.
+	 */
+	@Test
+	void testSlowBalanceSubscriberGetsTheLatestBalanceOfEveryAccount() {
+		new TestKit(system) {
+			{
+				ActorMaterializer materializer = ActorMaterializer.create(system);
+				ActorRef accountService = system.actorOf(AccountService.props(new AccountFactory()));
+				int accounts = 20;
+				for (long accountNumber = 1; accountNumber <= accounts; accountNumber++) {
+					accountService.tell(new Account(accountNumber, BigDecimal.TEN), getRef());
+					expectMsgClass(Success.class);
+				}
+				Pair<ActorRef, Source<Account, NotUsed>> events = BalanceEvents.source(1, system)
+						.preMaterialize(materializer);
+				for (long accountNumber = 1; accountNumber <= accounts; accountNumber++) {
+					accountService.tell(new AccountActor.SubscribeBalance(accountNumber, events.first()), getRef());
+					expectMsgClass(Success.class);
+				}
+				// Each account sends its money to the next one, ending where it started
+				for (long accountNumber = 1; accountNumber <= accounts; accountNumber++) {
+					accountService.tell(new Transaction(accountNumber, accountNumber, accountNumber % accounts + 1,
+							BigDecimal.ONE, TransactionStatus.NEW, null), getRef());
+					expectMsgClass(Success.class);
+				}
+
+				List<Account> received = events.second().takeWithin(Duration.ofMillis(500))
+						.runWith(Sink.seq(), materializer).toCompletableFuture().join();
+				Map<Long, Account> latest = new HashMap<>();
+				received.forEach(account -> latest.put(account.getAccountNumber(), account));
+				assertEquals(accounts, latest.size());
+				latest.values().forEach(account -> assertEquals(0, BigDecimal.TEN.compareTo(account.getBalance()),
+						account.toString()));
+			}
+		};
+	}
+
 	private ActorRef prepareAccountServiceForTransfer(TestKit testKit, Account acc1, Account acc2) {
 		ActorRef account1 = getTestAccount(acc1);
 		ActorRef account2 = getTestAccount(acc2);
@@ -0,0 +1,144 @@
+package com.rev.money.transfer.account;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.jupiter.api.Test;
+
+import com.rev.money.transfer.util.BalanceHistory;
+
+public class BalanceHistoryTest {
+
+	/**
+	 * Random balances, scales and gaps, several changes per millisecond among
+	 * them, read back at random instants against a sorted map.
+	 */
+	@Test
+	void testBalanceAtMatchesEveryRecordedChange() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		BalanceHistory history = new BalanceHistory();
+		TreeMap<Long, BigDecimal> expected = new TreeMap<>();
+		long time = 1_700_000_000_000L;
+		for (int i = 0; i < 10_000; i++) {
+			time += random.nextInt(10) < 2 ? 0 : random.nextLong(1, 100_000);
+			BigDecimal balance = BigDecimal.valueOf(random.nextLong(-1_000_000_000L, 1_000_000_000_000L),
+					random.nextInt(10) == 0 ? 0 : 2);
+			history.record(time, balance);
+			expected.put(time, balance);
+		}
+		assertEquals(10_000, history.size());
+		assertNull(history.balanceAt(expected.firstKey() - 1));
+		for (Map.Entry<Long, BigDecimal> change : expected.entrySet()) {
+			assertEquals(change.getValue(), history.balanceAt(change.getKey()));
+		}
+		for (int i = 0; i < 10_000; i++) {
+			long at = random.nextLong(expected.firstKey(), time + 1_000);
+			assertEquals(expected.floorEntry(at).getValue(), history.balanceAt(at));
+		}
+	}
+
+	@Test
+	void testBalanceTooLargeIsRefused() {
+		BalanceHistory history = new BalanceHistory();
+		assertThrows(ArithmeticException.class,
+				() -> history.record(0, new BigDecimal(Long.MAX_VALUE).multiply(BigDecimal.TEN)));
+		assertEquals(0, history.size());
+	}
+
+	/**
+	 * Bytes taken per million balance changes of an account seeing a change
+	 * every few seconds, each of up to a few thousand in cents.
+	 */
+	@Test
+	void testStoragePerMillionChanges() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int changes = 1_000_000;
+		BalanceHistory history = new BalanceHistory();
+		long time = 1_700_000_000_000L;
+		long cents = 100_000_00L;
+		for (int i = 0; i < changes; i++) {
+			time += random.nextLong(1, 10_000);
+			cents += random.nextLong(-200_000, 200_000);
+			history.record(time, BigDecimal.valueOf(cents, 2));
+		}
+		long bytes = history.sizeInBytes();
+		// A (time, BigDecimal) pair in a TreeMap takes over 100 bytes
+		System.out.println(String.format("%nBalance history: %,d bytes per million changes, %.1f bytes per change",
+				bytes, (double) bytes / changes));
+		assertEquals(changes, history.size());
+		assertTrue(bytes < 10L * changes);
+	}
+
+	/**
+	 * A change a second for a day with an hour of retention: old chunks go, the
+	 * last hour is still answered, nothing before what is kept is.
+	 */
+	@Test
+	void testChangesPastTheRetentionAreDropped() {
+		long hour = 3_600_000L;
+		BalanceHistory history = new BalanceHistory(hour, Integer.MAX_VALUE);
+		long start = 1_700_000_000_000L;
+		int changes = 24 * 3_600;
+		for (int i = 0; i < changes; i++) {
+			history.record(start + i * 1_000L, BigDecimal.valueOf(i));
+		}
+		long last = start + (changes - 1) * 1_000L;
+		// At most a third more than an hour of changes, plus the chunk being filled
+		assertTrue(history.size() <= 3_600 * 4 / 3 + 64, history.size() + " changes kept");
+		assertTrue(history.since() > start && history.since() <= last - hour);
+		assertNull(history.balanceAt(history.since() - 1));
+		for (long at = last - hour; at <= last; at += 997) {
+			assertEquals(BigDecimal.valueOf((at - start) / 1_000), history.balanceAt(at));
+		}
+	}
+
+	@Test
+	void testChangesPastTheMaximumAreDropped() {
+		BalanceHistory history = new BalanceHistory(Long.MAX_VALUE, 1_000);
+		for (int i = 0; i < 100_000; i++) {
+			history.record(i, BigDecimal.valueOf(i, 2));
+		}
+		assertTrue(history.size() >= 1_000 && history.size() <= 1_024 * 4 / 3 + 64,
+				history.size() + " changes kept");
+		assertEquals(100_000 - history.size(), history.since());
+		assertEquals(BigDecimal.valueOf(99_999, 2), history.balanceAt(99_999));
+		assertEquals(BigDecimal.valueOf(history.since(), 2), history.balanceAt(history.since()));
+		assertEquals(Long.MIN_VALUE, new BalanceHistory().since());
+	}
+
+	/**
+	 * A history read back from its bytes answers as the original and goes on
+	 * recording after it.
+	 */
+	@Test
+	void testHistoryIsReadBackFromItsBytes() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		BalanceHistory history = new BalanceHistory(Long.MAX_VALUE, 1_000);
+		long time = 0;
+		for (int i = 0; i < 5_000; i++) {
+			time += random.nextLong(1, 1_000);
+			history.record(time, BigDecimal.valueOf(random.nextLong(-1_000_000, 1_000_000), random.nextInt(3)));
+		}
+		BalanceHistory read = BalanceHistory.fromBytes(history.toBytes(), Long.MAX_VALUE, 1_000);
+		assertEquals(history.size(), read.size());
+		assertEquals(history.since(), read.since());
+		for (long at = history.since() - 1; at <= time; at += random.nextLong(1, 500)) {
+			assertEquals(history.balanceAt(at), read.balanceAt(at));
+		}
+		history.record(time + 1, BigDecimal.ONE);
+		read.record(time + 1, BigDecimal.ONE);
+		assertArrayEquals(history.toBytes(), read.toBytes());
+		assertArrayEquals(new BalanceHistory().toBytes(),
+				BalanceHistory.fromBytes(new BalanceHistory().toBytes(), 1, 1).toBytes());
+		assertThrows(IllegalArgumentException.class, () -> BalanceHistory.fromBytes(new byte[7], 1, 1));
+	}
+
+}
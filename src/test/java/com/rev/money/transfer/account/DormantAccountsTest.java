@@ -0,0 +1,76 @@
+package com.rev.money.transfer.account;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.store.DormantAccounts;
+
+public class DormantAccountsTest {
+
+	@Test
+	void testAccountsAreKeptWithTheirBalanceAndCurrency() {
+		DormantAccounts dormant = new DormantAccounts();
+		assertTrue(dormant.put(new Account(1L, new BigDecimal("10.25"))));
+		assertTrue(dormant.put(new Account(Long.MAX_VALUE, new BigDecimal("-3E+2"), "USD")));
+		assertTrue(dormant.put(new Account(Long.MIN_VALUE, BigDecimal.ZERO, "EUR")));
+		// Does not fit in a long
+		assertFalse(dormant.put(new Account(4L, new BigDecimal("1E+30").add(BigDecimal.ONE))));
+
+		assertEquals(3, dormant.size());
+		assertEquals(new Account(1L, new BigDecimal("10.25")), dormant.get(1L));
+		assertEquals(new Account(Long.MAX_VALUE, new BigDecimal("-3E+2"), "USD"), dormant.get(Long.MAX_VALUE));
+		assertEquals(new Account(Long.MIN_VALUE, BigDecimal.ZERO, "EUR"), dormant.get(Long.MIN_VALUE));
+		assertNull(dormant.get(4L));
+		assertFalse(dormant.contains(4L));
+
+		assertEquals(new Account(1L, new BigDecimal("10.25")), dormant.remove(1L));
+		assertNull(dormant.remove(1L));
+		assertFalse(dormant.contains(1L));
+		assertEquals(2, dormant.size());
+		assertEquals(new HashSet<>(dormant.accounts()),
+				new HashSet<>(List.of(dormant.get(Long.MAX_VALUE), dormant.get(Long.MIN_VALUE))));
+	}
+
+	/**
+	 * Random restores and wake ups, enough to grow the table many times over and
+	 * to fill it with removed slots, checked against a map.
+	 */
+	@Test
+	void testMatchesAMapUnderRandomChanges() {
+		Random random = new Random(29);
+		DormantAccounts dormant = new DormantAccounts();
+		Map<Long, Account> expected = new HashMap<>();
+		for (int i = 0; i < 300_000; i++) {
+			long accountNumber = random.nextInt(100_000);
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(accountNumber), dormant.remove(accountNumber));
+			} else if (!expected.containsKey(accountNumber)) {
+				Account account = new Account(accountNumber, BigDecimal.valueOf(random.nextInt(), 2),
+						random.nextBoolean() ? null : "USD");
+				assertTrue(dormant.put(account));
+				expected.put(accountNumber, account);
+			}
+		}
+		assertEquals(expected.size(), dormant.size());
+		expected.forEach((accountNumber, account) -> assertEquals(account, dormant.get(accountNumber)));
+		assertEquals(new HashSet<>(expected.values()), new HashSet<>(dormant.accounts()));
+
+		Map<String, BigDecimal> balances = new HashMap<>();
+		expected.values().forEach(account -> balances.merge(account.getCurrency(), account.getBalance(),
+				BigDecimal::add));
+		assertEquals(balances, dormant.balances());
+	}
+
+}
@@ -0,0 +1,176 @@
+package com.rev.money.transfer.account;
+
+import static akka.pattern.Patterns.ask;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.jupiter.api.Test;
+
+import com.rev.money.transfer.factory.AccountFactory;
+import com.rev.money.transfer.factory.TransactionFactory;
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.service.AccountService;
+import com.rev.money.transfer.service.AccountService.CreateAccounts;
+import com.rev.money.transfer.service.AccountService.Reconcile;
+import com.rev.money.transfer.service.AccountService.Reconciled;
+import com.rev.money.transfer.service.TransactionService;
+import com.rev.money.transfer.service.TransactionService.TransactionRolledBack;
+import com.rev.money.transfer.store.FxRateTable;
+import com.rev.money.transfer.util.FaultInjector;
+import com.rev.money.transfer.util.Metrics;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import lombok.Value;
+
+/**
+ * Transfers between a few accounts under each fault profile, one actor
+ * system per profile: throughput, client latency, outcomes and whether the
+ * money is still all there once every movement settled.
+ */
+public class FaultInjectionTest {
+
+	private static final int ACCOUNTS = 50;
+	private static final int TRANSFERS = 1_000;
+	// Transfers in flight at once
+	private static final int WINDOW = 200;
+	private static final Duration HOP_TIMEOUT = Duration.ofMillis(300);
+	private static final Duration CLIENT_TIMEOUT = Duration.ofSeconds(1);
+	private static final Duration RECONCILIATION_TIMEOUT = Duration.ofSeconds(30);
+
+	@Value
+	private static class Run {
+		String profile;
+		double transfersPerSecond;
+		double p50Millis;
+		double p99Millis;
+		int committed;
+		int rolledBack;
+		int timedOut;
+		long faults;
+		Reconciled reconciled;
+	}
+
+	@Test
+	void testTransfersUnderEachFaultProfile() {
+		Map<String, Map<String, String>> profiles = new LinkedHashMap<>();
+		profiles.put("none", Map.of());
+		profiles.put("slow withdraw", Map.of("faults.AccountActor.Withdraw.latency", "PT0.02S",
+				"faults.AccountActor.Withdraw.latency-probability", "0.2"));
+		profiles.put("slow status change", Map.of("faults.TransactionActor.ChangeStatus.latency", "PT0.05S",
+				"faults.TransactionActor.ChangeStatus.latency-probability", "0.2"));
+		profiles.put("failing transfer", Map.of("faults.AccountService.Transaction.failure-probability", "0.05"));
+		profiles.put("failing status change",
+				Map.of("faults.TransactionActor.ChangeStatus.failure-probability", "0.05"));
+		profiles.put("failing deposit", Map.of("faults.AccountActor.Deposit.failure-probability", "0.05"));
+		profiles.put("dropped withdraw reply", Map.of("faults.AccountActor.Withdraw.drop-probability", "0.01"));
+		profiles.put("dropped deposit reply", Map.of("faults.AccountActor.Deposit.drop-probability", "0.01"));
+
+		StringBuilder report = new StringBuilder(String.format("%nFault injection, %,d transfers between %d accounts:"
+				+ " profile, transfers/s, p50 ms, p99 ms, committed, rolled back, timed out, faults, drift%n",
+				TRANSFERS, ACCOUNTS));
+		Map<String, Run> runs = new LinkedHashMap<>();
+		// Warms the JIT up so the first profile is not the slowest for no fault of its own
+		run("warm up", Map.of());
+		profiles.forEach((profile, faults) -> {
+			Run run = run(profile, faults);
+			runs.put(profile, run);
+			report.append(String.format("%-24s %,8.0f %7.1f %7.1f %5d %5d %5d %5d %s%n", profile,
+					run.getTransfersPerSecond(), run.getP50Millis(), run.getP99Millis(), run.getCommitted(),
+					run.getRolledBack(), run.getTimedOut(), run.getFaults(),
+					run.getReconciled().isConserved() ? "conserved" : run.getReconciled().getDrift()));
+		});
+		System.out.println(report);
+
+		for (Run run : runs.values()) {
+			assertEquals(TRANSFERS, run.getCommitted() + run.getRolledBack() + run.getTimedOut(), run.toString());
+		}
+		// Faults that never leave a movement half done keep every cent, and so do lost replies: the hop
+		// times out, is asked again and replayed. A failed refund is asked again until applied
+		for (String profile : List.of("none", "slow withdraw", "slow status change", "failing transfer",
+				"failing status change", "failing deposit", "dropped withdraw reply", "dropped deposit reply")) {
+			assertTrue(runs.get(profile).getReconciled().isConserved(), runs.get(profile).toString());
+		}
+		assertTrue(runs.get("failing transfer").getRolledBack() > 0);
+		assertTrue(runs.get("failing status change").getTimedOut() > 0);
+	}
+
+	private static Run run(String profile, Map<String, String> faults) {
+		// Logging every transfer would cost more than most faults
+		ActorSystem system = ActorSystem.create("faults", ConfigFactory.parseMap(faults)
+				.withFallback(ConfigFactory.parseString("akka.loglevel = WARNING")).withFallback(ConfigFactory.load()));
+		try {
+			ActorRef accountService = system
+					.actorOf(AccountService.props(new AccountFactory(), HOP_TIMEOUT, 16, new FxRateTable()));
+			ActorRef transactionService = system
+					.actorOf(TransactionService.props(accountService, new TransactionFactory(), HOP_TIMEOUT));
+			List<Account> accounts = new ArrayList<>(ACCOUNTS);
+			for (long id = 1; id <= ACCOUNTS; id++) {
+				accounts.add(new Account(id, BigDecimal.valueOf(1_000)));
+			}
+			ask(accountService, new CreateAccounts(accounts), RECONCILIATION_TIMEOUT).toCompletableFuture().join();
+
+			long[] latencies = new long[TRANSFERS];
+			Object[] replies = new Object[TRANSFERS];
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			long start = System.nanoTime();
+			for (int first = 0; first < TRANSFERS; first += WINDOW) {
+				List<CompletableFuture<Object>> window = new ArrayList<>(WINDOW);
+				for (int i = first; i < first + WINDOW; i++) {
+					int transfer = i;
+					long from = random.nextInt(ACCOUNTS) + 1;
+					long to = from % ACCOUNTS + 1;
+					Transaction transaction = new Transaction(transfer + 1L, from, to,
+							BigDecimal.valueOf(random.nextInt(1, 50_000), 2), TransactionStatus.NEW, null);
+					long sent = System.nanoTime();
+					window.add(ask(transactionService, transaction, CLIENT_TIMEOUT).toCompletableFuture()
+							.handle((reply, error) -> {
+								latencies[transfer] = System.nanoTime() - sent;
+								replies[transfer] = error == null ? reply : error;
+								return reply;
+							}));
+				}
+				CompletableFuture.allOf(window.toArray(new CompletableFuture[0])).join();
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+
+			int committed = 0;
+			int rolledBack = 0;
+			int timedOut = 0;
+			for (Object reply : replies) {
+				if (reply instanceof Transaction) {
+					committed++;
+				} else if (reply instanceof TransactionRolledBack) {
+					rolledBack++;
+				} else {
+					timedOut++;
+				}
+			}
+			Arrays.sort(latencies);
+			Reconciled reconciled = (Reconciled) ask(accountService, new Reconcile(RECONCILIATION_TIMEOUT),
+					RECONCILIATION_TIMEOUT.multipliedBy(2)).toCompletableFuture().join();
+			Metrics metrics = Metrics.get(system);
+			long injected = metrics.count(FaultInjector.LATENCIES) + metrics.count(FaultInjector.DROPS)
+					+ metrics.count(FaultInjector.FAILURES);
+			return new Run(profile, TRANSFERS / seconds, latencies[TRANSFERS / 2] / 1e6,
+					latencies[TRANSFERS * 99 / 100] / 1e6, committed, rolledBack, timedOut, injected, reconciled);
+		} finally {
+			TestKit.shutdownActorSystem(system);
+		}
+	}
+
+}
@@ -0,0 +1,171 @@
+package com.rev.money.transfer.account;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.rev.money.transfer.factory.AccountFactory;
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.MessageStatus.Success;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.service.AccountService;
+import com.rev.money.transfer.util.InstrumentedMailbox;
+import com.rev.money.transfer.util.MailboxStats;
+import com.rev.money.transfer.util.MailboxStats.Backlog;
+import com.rev.money.transfer.util.MailboxStats.MessageSummary;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.dispatch.Envelope;
+import akka.dispatch.MessageQueue;
+import akka.testkit.javadsl.TestKit;
+import scala.Option;
+
+public class InstrumentedMailboxTest {
+
+	private static ActorSystem system;
+
+	@BeforeAll
+	static void setup() {
+		String mailbox = InstrumentedMailbox.class.getName();
+		system = ActorSystem.create("mailboxes",
+				ConfigFactory.parseMap(Map.of("akka.actor.default-mailbox.mailbox-type", mailbox,
+						"akka.actor.mailbox.unbounded-deque-based.mailbox-type", mailbox))
+						.withFallback(ConfigFactory.load()));
+	}
+
+	@AfterAll
+	static void shutdown() {
+		TestKit.shutdownActorSystem(system);
+		system = null;
+	}
+
+	/**
+	 * The account service stashes while exporting, so it only starts on a
+	 * deque-based mailbox.
+	 */
+	@Test
+	void testWaitsAndHandlerTimesPerActorAndMessageClass() {
+		new TestKit(system) {
+			{
+				ActorRef accountService = system.actorOf(AccountService.props(new AccountFactory()));
+				accountService.tell(new Account(1L, BigDecimal.valueOf(100)), getRef());
+				expectMsgClass(Success.class);
+				accountService.tell(new Account(2L, BigDecimal.ZERO), getRef());
+				expectMsgClass(Success.class);
+				for (long id = 1; id <= 50; id++) {
+					accountService.tell(new Transaction(id, 1L, 2L, BigDecimal.ONE, TransactionStatus.NEW, null),
+							getRef());
+					if (id == 25) {
+						accountService.tell(new AccountService.ExportAccounts(), getRef());
+						accountService.tell(new Account(3L, BigDecimal.ZERO), getRef());
+					}
+				}
+				// Transfers arriving while exporting are turned down, the account opened waits
+				long moved = receiveN(52).stream().filter(Success.class::isInstance).count() - 1;
+
+				Map<String, MessageSummary> accountMessages = MailboxStats.get(system).messages().get("AccountActor");
+				assertEquals(moved, accountMessages.get("Withdraw").getCount());
+				assertEquals(moved, accountMessages.get("Deposit").getCount());
+				awaitCond(() -> MailboxStats.get(system).messages().get("AccountActor").get("Deposit")
+						.getHandled() == moved);
+				// Stashed while exporting, so dequeued twice
+				assertTrue(MailboxStats.get(system).messages().get("AccountService").get("Account").getCount() >= 4);
+			}
+		};
+	}
+
+	@Test
+	void testBlockedActorIsTheMostBackedUp() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		ActorRef blocked = system.actorOf(Props.create(Blocking.class, () -> new Blocking(release)), "blocked");
+		for (int i = 0; i < 100; i++) {
+			blocked.tell(i, ActorRef.noSender());
+		}
+		TestKit probe = new TestKit(system);
+		probe.awaitCond(() -> !MailboxStats.get(system).mostBackedUp(1).isEmpty());
+		List<Backlog> backlogs = MailboxStats.get(system).mostBackedUp(3);
+		Backlog top = backlogs.get(0);
+		assertTrue(top.getActor().endsWith("/user/blocked"), backlogs.toString());
+		assertEquals("Blocking", top.getActorClass());
+		assertEquals(99, top.getDepth());
+		release.countDown();
+		probe.awaitCond(() -> MailboxStats.get(system).mostBackedUp(3).stream()
+				.noneMatch(backlog -> backlog.getActor().endsWith("/user/blocked")));
+		MessageSummary integers = MailboxStats.get(system).messages().get("Blocking").get("Integer");
+		assertEquals(100, integers.getCount());
+		assertTrue(integers.getMaxHandlerMicros() >= 0 && integers.getMaxDwellMicros() > 0, integers.toString());
+	}
+
+	/**
+	 * Producers enqueue concurrently into one queue while nothing dequeues:
+	 * none of them waits on a lock, and every message is counted once.
+	 */
+	@Test
+	void testConcurrentEnqueues() throws InterruptedException {
+		MessageQueue queue = new InstrumentedMailbox(null, null).create(Option.empty(), Option.empty());
+		int producers = 4;
+		int messages = 250_000;
+		List<Thread> threads = new ArrayList<>();
+		CountDownLatch start = new CountDownLatch(1);
+		for (int p = 0; p < producers; p++) {
+			threads.add(new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				Envelope envelope = Envelope.apply("message", ActorRef.noSender(), system);
+				for (int i = 0; i < messages; i++) {
+					queue.enqueue(ActorRef.noSender(), envelope);
+				}
+			}));
+		}
+		threads.forEach(Thread::start);
+		long begin = System.nanoTime();
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join(TimeUnit.SECONDS.toMillis(30));
+		}
+		long nanos = System.nanoTime() - begin;
+		System.out.println(String.format("%nInstrumented mailbox: %,d enqueues from %d threads, %.0f ns each",
+				producers * messages, producers, (double) nanos / (producers * messages)));
+		assertEquals(producers * messages, queue.numberOfMessages());
+		int dequeued = 0;
+		while (queue.dequeue() != null) {
+			dequeued++;
+		}
+		assertEquals(producers * messages, dequeued);
+		assertEquals(0, queue.numberOfMessages());
+	}
+
+	static class Blocking extends AbstractActor {
+
+		private final CountDownLatch release;
+
+		Blocking(CountDownLatch release) {
+			this.release = release;
+		}
+
+		@Override
+		public Receive createReceive() {
+			return receiveBuilder().match(Integer.class, message -> release.await(10, TimeUnit.SECONDS)).build();
+		}
+	}
+
+}
@@ -0,0 +1,176 @@
+package com.rev.money.transfer.account;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.rev.money.transfer.actor.AccountActor.Deposit;
+import com.rev.money.transfer.actor.AccountActor.Withdraw;
+import com.rev.money.transfer.factory.AccountFactory;
+import com.rev.money.transfer.factory.TransactionFactory;
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.MessageStatus.Success;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.service.AccountService;
+import com.rev.money.transfer.service.TransactionService;
+import com.rev.money.transfer.store.FxRateTable;
+import com.rev.money.transfer.util.PriorityMailbox;
+import com.rev.money.transfer.util.TransferTimelines;
+import com.rev.money.transfer.util.TransferTimelines.Stage;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import akka.dispatch.MessageQueue;
+import akka.testkit.javadsl.TestKit;
+import scala.Option;
+
+public class PriorityMailboxTest {
+
+	private static final Duration TIMEOUT = Duration.ofSeconds(30);
+	private static final long HOT_ACCOUNT = 1L;
+	private static final int ACCOUNTS = 100;
+	private static final int TRANSFERS = 4_000;
+
+	private static Envelope envelope(Object message) {
+		return new Envelope(message, ActorRef.noSender());
+	}
+
+	/**
+	 * Completions go ahead of the withdrawals waiting before them, but no more
+	 * than the burst of them in a row while withdrawals wait.
+	 */
+	@Test
+	void testCompletionsFirstWithBoundedStarvation() {
+		MessageQueue queue = new PriorityMailbox(3).create(Option.empty(), Option.empty());
+		for (int i = 0; i < 2; i++) {
+			queue.enqueue(ActorRef.noSender(), envelope(new Withdraw(BigDecimal.valueOf(i))));
+		}
+		for (int i = 0; i < 7; i++) {
+			queue.enqueue(ActorRef.noSender(), envelope(new Deposit(BigDecimal.valueOf(i))));
+		}
+		assertEquals(9, queue.numberOfMessages());
+		StringBuilder order = new StringBuilder();
+		Envelope next;
+		while ((next = queue.dequeue()) != null) {
+			Object message = next.message();
+			order.append(message instanceof Deposit ? "D" + ((Deposit) message).getAmount()
+					: "W" + ((Withdraw) message).getAmount()).append(' ');
+		}
+		assertEquals("D0 D1 D2 W0 D3 D4 D5 W1 D6 ", order.toString());
+		assertEquals(0, queue.numberOfMessages());
+		assertFalse(queue.hasMessages());
+	}
+
+	/**
+	 * As the stash does when unstashing: back at the head of its own lane.
+	 */
+	@Test
+	void testEnqueueFirstGoesBackAtTheHeadOfItsLane() {
+		PriorityMailbox.PriorityQueue queue = (PriorityMailbox.PriorityQueue) new PriorityMailbox(8)
+				.create(Option.empty(), Option.empty());
+		queue.enqueue(ActorRef.noSender(), envelope(new Withdraw(BigDecimal.ONE)));
+		queue.enqueue(ActorRef.noSender(), envelope(new Deposit(BigDecimal.ONE)));
+		queue.enqueueFirst(ActorRef.noSender(), envelope(new Withdraw(BigDecimal.TEN)));
+		queue.enqueueFirst(ActorRef.noSender(), envelope(new Deposit(BigDecimal.TEN)));
+		assertEquals(new Deposit(BigDecimal.TEN), queue.dequeue().message());
+		assertEquals(new Deposit(BigDecimal.ONE), queue.dequeue().message());
+		assertEquals(new Withdraw(BigDecimal.TEN), queue.dequeue().message());
+		assertEquals(new Withdraw(BigDecimal.ONE), queue.dequeue().message());
+		assertNull(queue.dequeue());
+	}
+
+	/**
+	 * A hot account pays out to every other account while they all pay into
+	 * it, every transfer sent at once. The time money is in flight, from the
+	 * withdrawal answered to the deposit answered, of the transfers into the
+	 * hot account: behind the burst of fresh withdrawals on the default
+	 * mailbox, ahead of them on the priority one.
+	 */
+	@Test
+	void testInFlightTailLatencyUnderABurstOfWithdrawals() {
+		StringBuilder report = new StringBuilder(String.format(
+				"%nIn-flight time of %,d transfers into a hot account among %,d out of it:%n"
+						+ "mailbox, p50 ms, p99 ms, max ms, transfers in flight%n",
+				TRANSFERS / 2, TRANSFERS / 2));
+		// Warm-up, so neither mailbox pays for the compilation of the other
+		inFlightMicros(Map.of());
+		long[] defaultInFlight = inFlightMicros(Map.of());
+		String mailbox = PriorityMailbox.class.getName();
+		long[] priorityInFlight = inFlightMicros(Map.of("akka.actor.default-mailbox.mailbox-type", mailbox,
+				"akka.actor.mailbox.unbounded-deque-based.mailbox-type", mailbox));
+		report.append(row("default", defaultInFlight)).append(row("priority", priorityInFlight));
+		System.out.println(report);
+		assertTrue(percentile(priorityInFlight, 0.99) < percentile(defaultInFlight, 0.99), report.toString());
+	}
+
+	private static long[] inFlightMicros(Map<String, String> mailboxes) {
+		ActorSystem system = ActorSystem.create("inflight", ConfigFactory.parseMap(mailboxes)
+				.withFallback(ConfigFactory.parseString("akka.loglevel = WARNING\ntimeline.sample.rate = 1\n"
+						+ "timeline.capacity = " + TRANSFERS))
+				.withFallback(ConfigFactory.load()));
+		try {
+			return new TestKit(system) {
+				long[] inFlight;
+				{
+					ActorRef accountService = system
+							.actorOf(AccountService.props(new AccountFactory(), TIMEOUT, 16, new FxRateTable()));
+					ActorRef transactionService = system
+							.actorOf(TransactionService.props(accountService, new TransactionFactory(), TIMEOUT));
+					accountService.tell(new Account(HOT_ACCOUNT, BigDecimal.valueOf(1_000_000)), getRef());
+					expectMsgClass(Success.class);
+					for (long id = 2; id <= ACCOUNTS + 1; id++) {
+						accountService.tell(new Account(id, BigDecimal.valueOf(1_000_000)), getRef());
+						expectMsgClass(Success.class);
+					}
+					List<Long> intoHotAccount = new ArrayList<>();
+					for (long id = 1; id <= TRANSFERS; id++) {
+						long other = 2 + id % ACCOUNTS;
+						boolean into = id % 2 == 0;
+						if (into) {
+							intoHotAccount.add(id);
+						}
+						transactionService.tell(new Transaction(id, into ? other : HOT_ACCOUNT,
+								into ? HOT_ACCOUNT : other, BigDecimal.ONE, TransactionStatus.NEW, null), getRef());
+					}
+					receiveN(TRANSFERS, TIMEOUT.multipliedBy(2));
+
+					TransferTimelines timelines = TransferTimelines.get(system);
+					List<Long> micros = new ArrayList<>();
+					for (long id : intoHotAccount) {
+						Map<Stage, Long> timeline = timelines.timeline(id);
+						if (timeline != null && timeline.containsKey(Stage.DEPOSITED)) {
+							micros.add(timeline.get(Stage.DEPOSITED) - timeline.get(Stage.WITHDRAWN));
+						}
+					}
+					Collections.sort(micros);
+					inFlight = micros.stream().mapToLong(Long::longValue).toArray();
+				}
+			}.inFlight;
+		} finally {
+			TestKit.shutdownActorSystem(system);
+		}
+	}
+
+	private static long percentile(long[] sorted, double rank) {
+		return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, Math.floor(rank * sorted.length))];
+	}
+
+	private static String row(String mailbox, long[] sorted) {
+		return String.format("%s, %.1f, %.1f, %.1f, %,d%n", mailbox, percentile(sorted, 0.5) / 1_000.0,
+				percentile(sorted, 0.99) / 1_000.0, percentile(sorted, 1) / 1_000.0, sorted.length);
+	}
+
+}
@@ -0,0 +1,303 @@
+package com.rev.money.transfer.account;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.rev.money.transfer.actor.AccountActor.DeleteAccount;
+import com.rev.money.transfer.actor.AccountActor.Deposit;
+import com.rev.money.transfer.factory.AccountFactory;
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.MessageStatus.Failure;
+import com.rev.money.transfer.model.MessageStatus.Success;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.service.AccountService;
+import com.rev.money.transfer.service.AccountService.AccountsCreated;
+import com.rev.money.transfer.service.AccountService.CreateAccounts;
+import com.rev.money.transfer.service.AccountService.CreateStripedAccount;
+import com.rev.money.transfer.service.AccountService.Reconcile;
+import com.rev.money.transfer.service.AccountService.Reconciled;
+import com.rev.money.transfer.service.AccountService.TransferUnresolved;
+import com.rev.money.transfer.service.TransactionService.CashDepositTransaction;
+import com.rev.money.transfer.store.FxRateTable;
+import com.rev.money.transfer.util.Metrics;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+
+public class ReconciliationTest {
+
+	private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+	private static ActorSystem system;
+
+	@BeforeAll
+	static void setup() {
+		system = ActorSystem.create();
+	}
+
+	@AfterAll
+	static void shutdown() {
+		TestKit.shutdownActorSystem(system);
+		system = null;
+	}
+
+	private static ActorRef createAccountService(FxRateTable fxRates) {
+		return system.actorOf(AccountService.props(new AccountFactory(), Duration.ofSeconds(5), 16, fxRates));
+	}
+
+	private static Map<String, BigDecimal> totals(String... currenciesAndAmounts) {
+		Map<String, BigDecimal> totals = new TreeMap<>();
+		for (int i = 0; i < currenciesAndAmounts.length; i += 2) {
+			totals.put(currenciesAndAmounts[i], new BigDecimal(currenciesAndAmounts[i + 1]));
+		}
+		return totals;
+	}
+
+	/**
+	 * Transfers across currencies, into and out of a striped account, cash
+	 * deposits and deletes keep going while reconciliations run: every cut adds
+	 * up to the money brought in.
+	 */
+	@Test
+	void testReconciliationsDuringTrafficAreConserved() {
+		new TestKit(system) {
+			{
+				FxRateTable fxRates = new FxRateTable();
+				fxRates.publish(Map.of("USD", new BigDecimal("1.10")));
+				ActorRef accountService = createAccountService(fxRates);
+				int accounts = 100;
+				List<Account> opened = new ArrayList<>();
+				for (long id = 1; id <= accounts; id++) {
+					opened.add(new Account(id, BigDecimal.valueOf(1_000), id % 4 == 0 ? "USD" : "EUR"));
+				}
+				// Never part of a movement, so deleting them takes no money in flight
+				for (long id = 1_001; id <= 1_010; id++) {
+					opened.add(new Account(id, BigDecimal.valueOf(5)));
+				}
+				accountService.tell(new CreateAccounts(opened), getRef());
+				expectMsg(new AccountsCreated(Map.of()));
+				long stripedAccount = accounts + 1;
+				accountService.tell(new CreateStripedAccount(new Account(stripedAccount, BigDecimal.valueOf(1_000)), 4),
+						getRef());
+				expectMsgClass(Success.class);
+
+				int messages = 0;
+				int reconciles = 0;
+				for (int i = 1; i <= 3_000; i++) {
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					long from = random.nextInt(accounts + 1) + 1;
+					long to = random.nextInt(accounts + 1) + 1;
+					BigDecimal amount = BigDecimal.valueOf(random.nextInt(1, 5_000), 2);
+					if (i % 300 == 0) {
+						accountService.tell(new Reconcile(TIMEOUT), getRef());
+						reconciles++;
+					} else if (i % 500 == 1) {
+						accountService.tell(new DeleteAccount(1_000L + i / 500 + 1), getRef());
+					} else if (i % 7 == 0) {
+						accountService.tell(new CashDepositTransaction((long) i,
+								new Transaction((long) i, to, null, amount, TransactionStatus.NEW, "Cash Deposit")),
+								getRef());
+					} else {
+						accountService.tell(new Transaction((long) i, from, to, amount, TransactionStatus.NEW, null),
+								getRef());
+					}
+					messages++;
+				}
+				List<Reconciled> reports = new ArrayList<>();
+				for (Object reply : receiveN(messages, Duration.ofSeconds(60))) {
+					if (reply instanceof Reconciled) {
+						reports.add((Reconciled) reply);
+					} else {
+						// Transfers short of money fail, a reconciliation is turned down while one runs
+						assertTrue(reply instanceof Success || reply instanceof Failure, reply.toString());
+					}
+				}
+				assertTrue(reports.size() > 0 && reports.size() <= reconciles);
+				for (Reconciled report : reports) {
+					assertTrue(report.isConserved(), report.toString());
+				}
+
+				accountService.tell(new Reconcile(TIMEOUT), getRef());
+				Reconciled settled = expectMsgClass(TIMEOUT, Reconciled.class);
+				assertTrue(settled.isConserved(), settled.toString());
+				assertEquals(accounts + 1 + 10 - 6, settled.getAccounts());
+			}
+		};
+	}
+
+	@Test
+	void testReconciliationReportsDrift() {
+		new TestKit(system) {
+			{
+				ActorRef accountService = createAccountService(new FxRateTable());
+				accountService.tell(new Account(1L, BigDecimal.TEN), getRef());
+				expectMsgClass(Success.class);
+				accountService.tell(new Reconcile(TIMEOUT), getRef());
+				Reconciled reconciled = expectMsgClass(Reconciled.class);
+				assertTrue(reconciled.isConserved());
+				assertEquals(totals("EUR", "10"), reconciled.getBalances());
+
+				// Money appearing behind the ledger's back, straight into the account actor
+				system.actorSelection(accountService.path().child("account_1"))
+						.tell(new Deposit(BigDecimal.ONE), getRef());
+				expectMsgClass(Success.class);
+				accountService.tell(new Reconcile(TIMEOUT), getRef());
+				reconciled = expectMsgClass(Reconciled.class);
+				assertEquals(totals("EUR", "1"), reconciled.getDrift());
+			}
+		};
+	}
+
+	/**
+	 * Cash deposits the account refuses are not counted as money brought in.
+	 */
+	@Test
+	void testRefusedCashDepositsAreNotDrift() {
+		ActorSystem refusing = ActorSystem.create("refusing", ConfigFactory
+				.parseString("faults.AccountActor.Deposit.failure-probability = 1").withFallback(ConfigFactory.load()));
+		try {
+			new TestKit(refusing) {
+				{
+					ActorRef accountService = refusing.actorOf(
+							AccountService.props(new AccountFactory(), Duration.ofSeconds(5), 16, new FxRateTable()));
+					accountService.tell(new Account(1L, BigDecimal.TEN), getRef());
+					expectMsgClass(Success.class);
+					for (long id = 1; id <= 5; id++) {
+						accountService.tell(new CashDepositTransaction(id,
+								new Transaction(id, 1L, null, BigDecimal.ONE, TransactionStatus.NEW, "Cash Deposit")),
+								getRef());
+						expectMsgClass(TIMEOUT, Failure.class);
+					}
+					accountService.tell(new Reconcile(TIMEOUT), getRef());
+					Reconciled reconciled = expectMsgClass(TIMEOUT, Reconciled.class);
+					assertTrue(reconciled.isConserved(), reconciled.toString());
+					assertEquals(totals("EUR", "10"), reconciled.getBalances());
+				}
+			};
+		} finally {
+			TestKit.shutdownActorSystem(refusing);
+		}
+	}
+
+	/**
+	 * A refund is asked again until applied; once its remitter is deleted the
+	 * money it owes is reported unresolved rather than lost silently.
+	 */
+	@Test
+	void testRefundOfDeletedRemitterIsUnresolved() {
+		ActorSystem refusing = ActorSystem.create("refunds",
+				ConfigFactory.parseMap(Map.of("faults.AccountActor.Deposit.failure-probability", "1",
+						"hop.max.backoff", "PT0.05S")).withFallback(ConfigFactory.load()));
+		try {
+			new TestKit(refusing) {
+				{
+					ActorRef accountService = refusing.actorOf(
+							AccountService.props(new AccountFactory(), Duration.ofSeconds(5), 16, new FxRateTable()));
+					accountService.tell(new Account(1L, BigDecimal.TEN), getRef());
+					expectMsgClass(Success.class);
+					accountService.tell(new Account(2L, BigDecimal.ZERO), getRef());
+					expectMsgClass(Success.class);
+					accountService.tell(new Transaction(1L, 1L, 2L, new BigDecimal("4"), TransactionStatus.NEW, null),
+							getRef());
+					awaitCond(TIMEOUT, () -> Metrics.get(refusing).count(AccountService.REFUND_RETRIES) > 2);
+					expectNoMessage(Duration.ZERO);
+
+					accountService.tell(new DeleteAccount(1L), getRef());
+					expectMsgClass(Success.class);
+					expectMsgClass(TIMEOUT, TransferUnresolved.class);
+					assertEquals(1, Metrics.get(refusing).count(AccountService.UNRESOLVED));
+					accountService.tell(new Reconcile(TIMEOUT), getRef());
+					Reconciled reconciled = expectMsgClass(TIMEOUT, Reconciled.class);
+					assertEquals(totals("EUR", "4"), reconciled.getUnresolved());
+					assertEquals(totals("EUR", "-4"), reconciled.getDrift());
+				}
+			};
+		} finally {
+			TestKit.shutdownActorSystem(refusing);
+		}
+	}
+
+	/**
+	 * A deposit unanswered on every retry may have been applied, so it is not
+	 * refunded: the transfer is answered unresolved and so is its debit, here
+	 * applied after all so nothing drifted.
+	 */
+	@Test
+	void testUnansweredDepositIsUnresolved() {
+		ActorSystem dropping = ActorSystem.create("drops",
+				ConfigFactory.parseMap(Map.of("faults.AccountActor.Deposit.drop-probability", "1", "hop.retries", "1",
+						"hop.max.backoff", "PT0.05S")).withFallback(ConfigFactory.load()));
+		try {
+			new TestKit(dropping) {
+				{
+					ActorRef accountService = dropping.actorOf(AccountService.props(new AccountFactory(),
+							Duration.ofMillis(200), 16, new FxRateTable()));
+					accountService.tell(new Account(1L, BigDecimal.TEN), getRef());
+					expectMsgClass(Success.class);
+					accountService.tell(new Account(2L, BigDecimal.ZERO), getRef());
+					expectMsgClass(Success.class);
+					accountService.tell(new Transaction(1L, 1L, 2L, new BigDecimal("4"), TransactionStatus.NEW, null),
+							getRef());
+					TransferUnresolved unresolved = expectMsgClass(TIMEOUT, TransferUnresolved.class);
+					assertTrue(unresolved.getReason().startsWith("Deposit outcome unknown"), unresolved.toString());
+					accountService.tell(new Reconcile(TIMEOUT), getRef());
+					Reconciled reconciled = expectMsgClass(TIMEOUT, Reconciled.class);
+					assertEquals(1, Metrics.get(dropping).count(AccountService.UNRESOLVED));
+					assertEquals(totals("EUR", "4"), reconciled.getUnresolved());
+					assertTrue(reconciled.isConserved(), reconciled.toString());
+				}
+			};
+		} finally {
+			TestKit.shutdownActorSystem(dropping);
+		}
+	}
+
+	/**
+	 * Time of a reconciliation over many accounts while none of them moves
+	 * money: one marker and reply per account plus the parallel sum.
+	 */
+	@Test
+	void testReconciliationTimeOverManyAccounts() {
+		new TestKit(system) {
+			{
+				ActorRef accountService = createAccountService(new FxRateTable());
+				int accounts = 100_000;
+				int batch = 10_000;
+				for (long first = 1; first <= accounts; first += batch) {
+					List<Account> opened = new ArrayList<>(batch);
+					for (long id = first; id < first + batch; id++) {
+						opened.add(new Account(id, BigDecimal.valueOf(id % 1_000, 2)));
+					}
+					accountService.tell(new CreateAccounts(opened), getRef());
+					expectMsgClass(TIMEOUT, AccountsCreated.class);
+				}
+				StringBuilder report = new StringBuilder(
+						String.format("%nReconciliation over %,d accounts: run, ms%n", accounts));
+				for (int run = 1; run <= 3; run++) {
+					accountService.tell(new Reconcile(TIMEOUT), getRef());
+					Reconciled reconciled = expectMsgClass(TIMEOUT, Reconciled.class);
+					assertTrue(reconciled.isConserved(), reconciled.toString());
+					assertEquals(accounts, reconciled.getAccounts());
+					report.append(String.format("%3d, %,d%n", run, reconciled.getDurationMillis()));
+				}
+				System.out.println(report);
+			}
+		};
+	}
+
+}
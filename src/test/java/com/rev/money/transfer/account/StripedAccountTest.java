@@ -0,0 +1,204 @@
+package com.rev.money.transfer.account;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.rev.money.transfer.actor.AccountActor;
+import com.rev.money.transfer.actor.AccountActor.Deposit;
+import com.rev.money.transfer.actor.AccountActor.GetAccount;
+import com.rev.money.transfer.actor.AccountActor.Withdraw;
+import com.rev.money.transfer.actor.StripedAccountActor;
+import com.rev.money.transfer.factory.AccountFactory;
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.MessageStatus.Failure;
+import com.rev.money.transfer.model.MessageStatus.Success;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.service.AccountService;
+import com.rev.money.transfer.service.AccountService.CreateStripedAccount;
+import com.rev.money.transfer.service.TransactionService.CashDepositTransaction;
+import com.rev.money.transfer.util.FaultInjector;
+import com.rev.money.transfer.util.Metrics;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+
+public class StripedAccountTest {
+
+	private static final long HOT_ACCOUNT = 1L;
+	private static final long OTHER_ACCOUNT = 2L;
+
+	private static ActorSystem system;
+
+	@BeforeAll
+	static void setup() {
+		system = ActorSystem.create();
+	}
+
+	@AfterAll
+	static void shutdown() {
+		TestKit.shutdownActorSystem(system);
+		system = null;
+	}
+
+	private static ActorRef prepareAccountService(TestKit testKit, int stripes, long hotBalance) {
+		ActorRef accountService = system.actorOf(AccountService.props(new AccountFactory(), Duration.ofSeconds(5)));
+		Account hotAccount = new Account(HOT_ACCOUNT, BigDecimal.valueOf(hotBalance));
+		accountService.tell(stripes > 1 ? new CreateStripedAccount(hotAccount, stripes) : hotAccount,
+				testKit.getRef());
+		testKit.expectMsgClass(Success.class);
+		accountService.tell(new Account(OTHER_ACCOUNT, BigDecimal.ZERO), testKit.getRef());
+		testKit.expectMsgClass(Success.class);
+		return accountService;
+	}
+
+	private static CashDepositTransaction deposit(long id, long amount) {
+		return new CashDepositTransaction(id, new Transaction(id, HOT_ACCOUNT, null, BigDecimal.valueOf(amount),
+				TransactionStatus.NEW, "Cash Deposit"));
+	}
+
+	private static Transaction transferOut(long id, long amount) {
+		return new Transaction(id, HOT_ACCOUNT, OTHER_ACCOUNT, BigDecimal.valueOf(amount), TransactionStatus.NEW, null);
+	}
+
+	@Test
+	void testGetAccountMergesStripes() {
+		new TestKit(system) {
+			{
+				ActorRef accountService = prepareAccountService(this, 4, 10);
+				for (int i = 1; i <= 20; i++) {
+					accountService.tell(deposit(i, i), getRef());
+				}
+				receiveN(20);
+				accountService.tell(new GetAccount(HOT_ACCOUNT), getRef());
+				expectMsg(new Account(HOT_ACCOUNT, BigDecimal.valueOf(10 + 210)));
+			}
+		};
+	}
+
+	@Test
+	void testDebitRebalancesAcrossStripesAndNeverOverdraws() {
+		new TestKit(system) {
+			{
+				ActorRef accountService = prepareAccountService(this, 4, 0);
+				for (int i = 1; i <= 8; i++) {
+					accountService.tell(deposit(i, 10), getRef());
+				}
+				receiveN(8);
+				// No single stripe holds 70 but the account does
+				accountService.tell(transferOut(1, 70), getRef());
+				expectMsgClass(Success.class);
+				accountService.tell(transferOut(2, 11), getRef());
+				expectMsg(new Failure("Insufficient balance to withdraw 11 from account "
+						+ new Account(HOT_ACCOUNT, BigDecimal.TEN)));
+				accountService.tell(new GetAccount(HOT_ACCOUNT), getRef());
+				expectMsg(new Account(HOT_ACCOUNT, BigDecimal.TEN));
+				accountService.tell(new GetAccount(OTHER_ACCOUNT), getRef());
+				expectMsg(new Account(OTHER_ACCOUNT, BigDecimal.valueOf(70)));
+			}
+		};
+	}
+
+	@Test
+	void testConcurrentCreditsAndDebitsConserveMoney() {
+		new TestKit(system) {
+			{
+				ActorRef accountService = prepareAccountService(this, 8, 50);
+				int operations = 200;
+				for (int i = 1; i <= operations; i++) {
+					accountService.tell(i % 2 == 0 ? deposit(i, 1) : transferOut(i, 2), getRef());
+				}
+				List<Object> replies = receiveN(operations, Duration.ofSeconds(20));
+				long failedDebits = replies.stream().filter(Failure.class::isInstance).count();
+				long debited = (operations / 2 - failedDebits) * 2;
+
+				accountService.tell(new GetAccount(HOT_ACCOUNT), getRef());
+				Account hot = expectMsgClass(Account.class);
+				accountService.tell(new GetAccount(OTHER_ACCOUNT), getRef());
+				Account other = expectMsgClass(Account.class);
+				assertTrue(hot.getBalance().signum() >= 0);
+				assertEquals(BigDecimal.valueOf(debited), other.getBalance());
+				assertEquals(BigDecimal.valueOf(50 + operations / 2), hot.getBalance().add(other.getBalance()));
+			}
+		};
+	}
+
+	/**
+	 * Stripes drop the replies of a share of their drains: the drains of a
+	 * rebalance are asked again and replayed, so every debit is answered and no
+	 * money leaves the account without being debited.
+	 */
+	@Test
+	void testDroppedDrainRepliesLeaveTheAccountWhole() {
+		ActorSystem faulty = ActorSystem.create("drains",
+				ConfigFactory.parseMap(Map.of("faults.AccountActor.Drain.drop-probability", "0.3", "hop.retries", "10",
+						"hop.min.backoff", "PT0.01S", "hop.max.backoff", "PT0.05S", "akka.loglevel", "WARNING"))
+						.withFallback(ConfigFactory.load()));
+		try {
+			new TestKit(faulty) {
+				{
+					List<ActorRef> stripes = new ArrayList<>();
+					for (int i = 0; i < 4; i++) {
+						stripes.add(faulty.actorOf(AccountActor.props(new Account(HOT_ACCOUNT, BigDecimal.TEN))));
+					}
+					ActorRef account = faulty
+							.actorOf(StripedAccountActor.props(HOT_ACCOUNT, "EUR", stripes, Duration.ofMillis(100)));
+					long debited = 0;
+					for (int i = 1; i <= 20; i++) {
+						account.tell(new Deposit(BigDecimal.valueOf(7)), getRef());
+						expectMsgClass(Success.class);
+						// More than a stripe holds most of the time, so most debits rebalance
+						account.tell(new Withdraw(BigDecimal.valueOf(12), 0, i + "/withdraw"), getRef());
+						Object reply = expectMsgAnyClassOf(Duration.ofSeconds(20), Success.class, Failure.class);
+						if (reply instanceof Success) {
+							debited += 12;
+						}
+					}
+					assertTrue(Metrics.get(faulty).count(FaultInjector.DROPS) > 0);
+					account.tell(new GetAccount(HOT_ACCOUNT), getRef());
+					expectMsg(new Account(HOT_ACCOUNT, BigDecimal.valueOf(40 + 20 * 7 - debited)));
+				}
+			};
+		} finally {
+			TestKit.shutdownActorSystem(faulty);
+		}
+	}
+
+	/**
+	 * Deposit throughput into a single hot account as the number of stripes grows.
+	 */
+	@Test
+	void testHotAccountDepositThroughputByStripes() {
+		int deposits = 5_000;
+		StringBuilder report = new StringBuilder("\nHot account deposits: stripes, deposits/s\n");
+		for (int stripes : new int[] { 1, 2, 4, 8 }) {
+			new TestKit(system) {
+				{
+					ActorRef accountService = prepareAccountService(this, stripes, 0);
+					long start = System.nanoTime();
+					for (int i = 1; i <= deposits; i++) {
+						accountService.tell(deposit(i, 1), getRef());
+					}
+					receiveN(deposits, Duration.ofSeconds(60));
+					long elapsed = System.nanoTime() - start;
+					report.append(String.format("%7d, %,.0f%n", stripes, deposits * 1e9 / elapsed));
+					accountService.tell(new GetAccount(HOT_ACCOUNT), getRef());
+					expectMsg(new Account(HOT_ACCOUNT, BigDecimal.valueOf(deposits)));
+				}
+			};
+		}
+		System.out.println(report);
+	}
+}
@@ -0,0 +1,237 @@
+package com.rev.money.transfer.customer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rev.money.transfer.actor.AccountActor;
+import com.rev.money.transfer.actor.CustomerActor;
+import com.rev.money.transfer.dto.OnboardedCustomerDTO;
+import com.rev.money.transfer.dto.OnboardingSummaryDTO;
+import com.rev.money.transfer.factory.AccountFactory;
+import com.rev.money.transfer.factory.CustomerFactory;
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.Customer;
+import com.rev.money.transfer.model.MessageStatus.Failure;
+import com.rev.money.transfer.model.MessageStatus.Success;
+import com.rev.money.transfer.route.CustomerRoute;
+import com.rev.money.transfer.service.AccountService;
+import com.rev.money.transfer.service.CustomerService;
+import com.rev.money.transfer.service.CustomerService.CustomersOnboarded;
+import com.rev.money.transfer.service.CustomerService.OnboardCustomers;
+import com.rev.money.transfer.util.HopRetry;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.MediaTypes;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.testkit.javadsl.TestKit;
+import akka.util.ByteString;
+
+public class BulkOnboardingTest {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private static ActorSystem system;
+	private static Materializer materializer;
+
+	@BeforeAll
+	static void setup() {
+		system = ActorSystem.create();
+		materializer = ActorMaterializer.create(system);
+	}
+
+	@AfterAll
+	static void shutdown() {
+		TestKit.shutdownActorSystem(system);
+		system = null;
+	}
+
+	private static ActorRef[] prepareServices() {
+		ActorRef accountService = system.actorOf(AccountService.props(new AccountFactory(), Duration.ofSeconds(5)));
+		ActorRef customerService = system
+				.actorOf(CustomerService.props(accountService, new CustomerFactory(), Duration.ofSeconds(5)));
+		return new ActorRef[] { accountService, customerService };
+	}
+
+	private static Customer customer(String name) {
+		return Customer.builder().name(name).email(name + "@example.com").build();
+	}
+
+	@Test
+	void testOnboardingAssignsIdsInOneBlockAndOpensAccounts() {
+		new TestKit(system) {
+			{
+				ActorRef[] services = prepareServices();
+				services[1].tell(new OnboardCustomers(Arrays.asList(customer("a"), customer("b"), customer("c"))),
+						getRef());
+				CustomersOnboarded onboarded = expectMsgClass(CustomersOnboarded.class);
+				assertEquals(Arrays.asList(1L, 2L, 3L), onboarded.getIds());
+				assertTrue(onboarded.getFailures().isEmpty());
+
+				services[1].tell(new CustomerActor.GetCustomer(2L), getRef());
+				Customer customer = expectMsgClass(Customer.class);
+				assertEquals("b", customer.getName());
+				assertEquals(Long.valueOf(2L), customer.getAccountNumber());
+				services[0].tell(new AccountActor.GetAccount(3L), getRef());
+				expectMsg(new Account(3L, BigDecimal.ZERO));
+			}
+		};
+	}
+
+	@Test
+	void testCustomerWhoseAccountExistsIsNotOnboarded() {
+		new TestKit(system) {
+			{
+				ActorRef[] services = prepareServices();
+				services[0].tell(new Account(2L, BigDecimal.TEN), getRef());
+				expectMsgClass(Success.class);
+				services[1].tell(new OnboardCustomers(Arrays.asList(customer("a"), customer("b"))), getRef());
+				CustomersOnboarded onboarded = expectMsgClass(CustomersOnboarded.class);
+				assertEquals(Collections.singletonMap(2L, "Account 2 already exists"), onboarded.getFailures());
+
+				services[1].tell(new CustomerActor.GetCustomer(2L), getRef());
+				expectMsg(new Failure("Customer 2 not found"));
+				services[0].tell(new AccountActor.GetAccount(2L), getRef());
+				expectMsg(new Account(2L, BigDecimal.TEN));
+			}
+		};
+	}
+
+	@Test
+	void testBatchAskedAgainIsOnboardedOnce() {
+		new TestKit(system) {
+			{
+				ActorRef[] services = prepareServices();
+				OnboardCustomers batch = new OnboardCustomers("batch", Arrays.asList(customer("a"), customer("b")));
+				services[1].tell(batch, getRef());
+				services[1].tell(batch, getRef());
+				CustomersOnboarded first = expectMsgClass(CustomersOnboarded.class);
+				assertEquals(Arrays.asList(1L, 2L), first.getIds());
+				assertEquals(first, expectMsgClass(CustomersOnboarded.class));
+				services[1].tell(batch, getRef());
+				assertEquals(first, expectMsgClass(CustomersOnboarded.class));
+
+				services[1].tell(new OnboardCustomers("next", Collections.singletonList(customer("c"))), getRef());
+				assertEquals(Collections.singletonList(3L), expectMsgClass(CustomersOnboarded.class).getIds());
+			}
+		};
+	}
+
+	/**
+	 * The account service opens the accounts but its replies are lost, so the
+	 * customers are not onboarded and their accounts are deleted rather than
+	 * left without a customer.
+	 */
+	@Test
+	void testAccountsOfABatchWithoutReplyAreDiscarded() {
+		ActorSystem faulty = ActorSystem.create("onboarding", ConfigFactory
+				.parseString("faults.AccountService.CreateAccounts.drop-probability = 1\n"
+						+ "hop.retries = 1\nhop.min.backoff = PT0.01S")
+				.withFallback(ConfigFactory.load()));
+		try {
+			new TestKit(faulty) {
+				{
+					ActorRef accountService = faulty
+							.actorOf(AccountService.props(new AccountFactory(), Duration.ofMillis(200)));
+					ActorRef customerService = faulty.actorOf(
+							CustomerService.props(accountService, new CustomerFactory(), Duration.ofMillis(200)));
+					customerService.tell(new OnboardCustomers("batch", Arrays.asList(customer("a"), customer("b"))),
+							getRef());
+					CustomersOnboarded onboarded = expectMsgClass(Duration.ofSeconds(5), CustomersOnboarded.class);
+					assertEquals(Set.of(1L, 2L), onboarded.getFailures().keySet());
+
+					customerService.tell(new CustomerActor.GetCustomer(1L), getRef());
+					expectMsg(new Failure("Customer 1 not found"));
+					accountService.tell(new AccountActor.GetAccount(1L), getRef());
+					expectMsg(new Failure("Account 1 not found"));
+					accountService.tell(new AccountActor.GetAccount(2L), getRef());
+					expectMsg(new Failure("Account 2 not found"));
+				}
+			};
+		} finally {
+			TestKit.shutdownActorSystem(faulty);
+		}
+	}
+
+	/**
+	 * Streams customers through the bulk endpoint and compares with one ask per
+	 * customer, the way {@code POST /customers} onboards them.
+	 */
+	@Test
+	void testBulkEndpointStreamsAssignedIdsAndThroughput()
+			throws InterruptedException, ExecutionException, TimeoutException, IOException {
+		int count = 20_000;
+		int malformedLine = 5;
+		StringBuilder body = new StringBuilder();
+		for (int i = 1; i <= count; i++) {
+			body.append(i == malformedLine ? "{\"name\": " : "{\"name\": \"customer " + i + "\", \"zipCode\": 1234}")
+					.append('\n');
+		}
+		ActorRef[] services = prepareServices();
+		HttpRequest request = HttpRequest.POST("/customers/bulk")
+				.withEntity(MediaTypes.APPLICATION_JSON.toContentType(), body.toString());
+		HttpResponse response = Source.single(request)
+				.via(new CustomerRoute(services[1], Duration.ofSeconds(5), 1000, HopRetry.get(system)).routes()
+						.flow(system, materializer))
+				.runWith(Sink.head(), materializer).toCompletableFuture().get(60, TimeUnit.SECONDS);
+		String[] lines = response.entity().getDataBytes().runFold(ByteString.empty(), ByteString::concat, materializer)
+				.toCompletableFuture().get(60, TimeUnit.SECONDS).utf8String().split("\n");
+
+		assertEquals(count + 1, lines.length);
+		List<Long> ids = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			OnboardedCustomerDTO result = MAPPER.readValue(lines[i], OnboardedCustomerDTO.class);
+			assertEquals(Long.valueOf(i + 1), result.getLine());
+			if (i + 1 == malformedLine) {
+				assertNull(result.getId());
+				assertTrue(result.getError().startsWith("Malformed customer"));
+			} else {
+				ids.add(result.getId());
+			}
+		}
+		assertEquals(count - 1, ids.stream().distinct().count());
+		OnboardingSummaryDTO summary = MAPPER.readValue(lines[count], OnboardingSummaryDTO.class);
+		assertEquals(Long.valueOf(count - 1), summary.getCustomers());
+		assertEquals(Long.valueOf(1), summary.getFailures());
+
+		int singles = 2_000;
+		long singleRate = new TestKit(system) {
+			long rate() {
+				ActorRef[] singleServices = prepareServices();
+				long start = System.nanoTime();
+				for (int i = 0; i < singles; i++) {
+					singleServices[1].tell(customer("single " + i), getRef());
+					expectMsgClass(Success.class);
+				}
+				return (long) (singles * 1e9 / (System.nanoTime() - start));
+			}
+		}.rate();
+		System.out.println(String.format("%nOnboarding: bulk %,.0f customers/s, one ask per customer %,d customers/s",
+				summary.getCustomersPerSecond(), singleRate));
+	}
+
+}
@@ -0,0 +1,142 @@
+package com.rev.money.transfer.customer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.rev.money.transfer.actor.CustomerActor;
+import com.rev.money.transfer.factory.AccountFactory;
+import com.rev.money.transfer.factory.CustomerFactory;
+import com.rev.money.transfer.model.Customer;
+import com.rev.money.transfer.model.MessageStatus.Failure;
+import com.rev.money.transfer.model.MessageStatus.Success;
+import com.rev.money.transfer.service.AccountService;
+import com.rev.money.transfer.service.CustomerService;
+import com.rev.money.transfer.service.CustomerService.CustomersFound;
+import com.rev.money.transfer.service.CustomerService.CustomersOnboarded;
+import com.rev.money.transfer.service.CustomerService.FindCustomers;
+import com.rev.money.transfer.service.CustomerService.OnboardCustomers;
+import com.rev.money.transfer.store.CustomerIndex;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+
+public class CustomerSearchTest {
+
+	private static ActorSystem system;
+
+	@BeforeAll
+	static void setup() {
+		system = ActorSystem.create();
+	}
+
+	@AfterAll
+	static void shutdown() {
+		TestKit.shutdownActorSystem(system);
+		system = null;
+	}
+
+	private static Customer customer(long id, String email, Long contact, Integer zip) {
+		return Customer.builder().id(id).name("Customer " + id).email(email).contactNumber(contact).zipCode(zip)
+				.accountNumber(id).build();
+	}
+
+	private static ActorRef prepareCustomerService() {
+		ActorRef accountService = system.actorOf(AccountService.props(new AccountFactory(), Duration.ofSeconds(5)));
+		return system.actorOf(CustomerService.props(accountService, new CustomerFactory(), Duration.ofSeconds(5)));
+	}
+
+	private static List<Long> ids(CustomersFound found) {
+		return found.getCustomers().stream().map(Customer::getId).collect(Collectors.toList());
+	}
+
+	@Test
+	void testIndexCombinesCriteriaAndPages() {
+		CustomerIndex index = new CustomerIndex();
+		index.add(customer(3L, "c@example.com", 100L, 56001));
+		index.add(customer(1L, "A@Example.com", 100L, 56002));
+		index.add(customer(2L, "b@example.com", 200L, 57001));
+		index.add(customer(4L, null, 100L, 5600));
+
+		assertArrayEquals(new long[] { 1L }, index.find(" a@example.COM", null, null, 0, 10).getIds());
+		assertArrayEquals(new long[] { 1L, 3L, 4L }, index.find(null, 100L, null, 0, 10).getIds());
+		assertArrayEquals(new long[] { 1L, 3L, 4L }, index.find(null, null, "560", 0, 10).getIds());
+		assertArrayEquals(new long[] { 3L }, index.find(null, 100L, "56001", 0, 10).getIds());
+		assertArrayEquals(new long[] {}, index.find("b@example.com", 100L, null, 0, 10).getIds());
+
+		CustomerIndex.Page page = index.find(null, null, "5", 1, 2);
+		assertEquals(4, page.getTotal());
+		assertArrayEquals(new long[] { 2L, 3L }, page.getIds());
+
+		index.remove(customer(3L, "c@example.com", 100L, 56001));
+		assertArrayEquals(new long[] { 1L, 4L }, index.find(null, 100L, null, 0, 10).getIds());
+		assertArrayEquals(new long[] {}, index.find("c@example.com", null, null, 0, 10).getIds());
+		assertArrayEquals(new long[] { 1L, 4L }, index.find(null, null, "56", 0, 10).getIds());
+	}
+
+	@Test
+	void testDuplicateEmailIsRejected() {
+		new TestKit(system) {
+			{
+				ActorRef customerService = prepareCustomerService();
+				customerService.tell(Customer.builder().name("first").email("same@example.com").build(), getRef());
+				expectMsgClass(Success.class);
+				customerService.tell(Customer.builder().name("second").email("SAME@example.com ").build(), getRef());
+				expectMsg(new Failure("Customer with email SAME@example.com  already exists"));
+
+				customerService.tell(new OnboardCustomers(Arrays.asList(
+						Customer.builder().name("third").email("same@example.com").build(),
+						Customer.builder().name("fourth").email("new@example.com").build(),
+						Customer.builder().name("fifth").email("new@example.com").build())), getRef());
+				CustomersOnboarded onboarded = expectMsgClass(CustomersOnboarded.class);
+				assertEquals(2, onboarded.getFailures().size());
+				assertEquals("Customer with email new@example.com already exists",
+						onboarded.getFailures().get(onboarded.getIds().get(2)));
+			}
+		};
+	}
+
+	@Test
+	void testSearchFollowsCreatesAndDeletes() {
+		new TestKit(system) {
+			{
+				ActorRef customerService = prepareCustomerService();
+				for (int i = 1; i <= 5; i++) {
+					customerService.tell(Customer.builder().name("c" + i).email("c" + i + "@example.com")
+							.contactNumber(i % 2 == 0 ? 22L : 11L).zipCode(10000 + i).build(), getRef());
+					expectMsgClass(Success.class);
+				}
+				customerService.tell(new FindCustomers(null, 11L, "1000", 0, 10), getRef());
+				CustomersFound found = expectMsgClass(CustomersFound.class);
+				assertEquals(3, found.getTotal());
+				assertEquals(Arrays.asList(1L, 3L, 5L), ids(found));
+
+				customerService.tell(new FindCustomers(null, null, "1", 1, 2), getRef());
+				found = expectMsgClass(CustomersFound.class);
+				assertEquals(5, found.getTotal());
+				assertEquals(Arrays.asList(2L, 3L), ids(found));
+
+				customerService.tell(new CustomerActor.DeleteCustomer(3L), getRef());
+				expectMsgClass(Success.class);
+				awaitAssert(() -> {
+					customerService.tell(new FindCustomers("c3@example.com", null, null, 0, 10), getRef());
+					assertEquals(0, expectMsgClass(CustomersFound.class).getTotal());
+					return null;
+				});
+				// The email is free again once its customer is gone
+				customerService.tell(Customer.builder().name("again").email("c3@example.com").build(), getRef());
+				expectMsgClass(Success.class);
+			}
+		};
+	}
+
+}
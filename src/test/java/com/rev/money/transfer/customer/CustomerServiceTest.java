@@ -1,14 +1,11 @@
 package com.rev.money.transfer.customer;
 
 import java.time.Duration;
-import java.util.Collections;
-import java.util.Map;
 
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
-import com.rev.money.transfer.actor.CustomerActor;
 import com.rev.money.transfer.actor.CustomerActor.DeleteCustomer;
 import com.rev.money.transfer.actor.CustomerActor.GetCustomer;
 import com.rev.money.transfer.factory.CustomerFactory;
@@ -18,7 +15,6 @@ import com.rev.money.transfer.model.MessageStatus.Success;
 import com.rev.money.transfer.service.CustomerService;
 
 import akka.actor.AbstractActor;
-import akka.actor.ActorContext;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.actor.Props;
@@ -39,35 +35,16 @@ public class CustomerServiceTest {
 		system = null;
 	}
 
-	private static ActorRef getTestCustomer(Customer customer) {
-		Props props = CustomerActor.props(customer);
+	private ActorRef getTestCustomerService(ActorRef accountService) {
+		Props props = CustomerService.props(accountService, new CustomerFactory(), Duration.ofSeconds(1));
 		return system.actorOf(props);
 	}
 
-	private ActorRef getTestCustomerService(ActorRef accountService, Map<Long, ActorRef> accountsById) {
-		Props props = CustomerService.props(accountService, new TestCustomerFactory(accountsById),
-				Duration.ofSeconds(1));
-		return system.actorOf(props);
-	}
-
-	static class TestCustomerFactory extends CustomerFactory {
-		private Map<Long, ActorRef> customersById;
-
-		TestCustomerFactory(Map<Long, ActorRef> customersById) {
-			this.customersById = customersById;
-		}
-
-		@Override
-		public ActorRef get(ActorContext context, Customer customer) {
-			return customersById.get(customer.getId());
-		}
-	}
-
 	@Test
 	void testCreateCustomerReturnsSuccessIfAccountDoesNotExist() {
 		new TestKit(system) {
 			{
-				ActorRef customerService = getTestCustomerService(getTestAccountService(false), Collections.emptyMap());
+				ActorRef customerService = getTestCustomerService(getTestAccountService(false));
 				Customer expectedCustomer = Customer.builder().id(1L).name("TEST_CUSTOMER").accountNumber(1L).build();
 				customerService.tell(expectedCustomer, getRef());
 				expectMsgClass(Success.class);
@@ -80,9 +57,7 @@ public class CustomerServiceTest {
 		new TestKit(system) {
 			{
 				Customer expectedCustomer = Customer.builder().id(1L).name("TEST_CUSTOMER").accountNumber(1L).build();
-				ActorRef customerActor = getTestCustomer(expectedCustomer);
-				ActorRef customerService = getTestCustomerService(getTestAccountService(true),
-						Collections.singletonMap(1L, customerActor));
+				ActorRef customerService = getTestCustomerService(getTestAccountService(true));
 				customerService.tell(expectedCustomer, getRef());
 				expectMsgClass(Failure.class);
 				customerService.tell(expectedCustomer, getRef());
@@ -96,9 +71,7 @@ public class CustomerServiceTest {
 		new TestKit(system) {
 			{
 				Customer expectedCustomer = Customer.builder().id(1L).name("TEST_CUSTOMER").accountNumber(1L).build();
-				ActorRef customerActor = getTestCustomer(expectedCustomer);
-				ActorRef customerService = getTestCustomerService(getTestAccountService(false),
-						Collections.singletonMap(1L, customerActor));
+				ActorRef customerService = getTestCustomerService(getTestAccountService(false));
 				customerService.tell(expectedCustomer, getRef());
 				expectMsgClass(Success.class);
 				customerService.tell(new GetCustomer(1L), getRef());
@@ -111,7 +84,7 @@ public class CustomerServiceTest {
 	void testGetCustomerReturnsFailureIfCustomerNotExisting() {
 		new TestKit(system) {
 			{
-				ActorRef customerService = getTestCustomerService(getTestAccountService(true), Collections.emptyMap());
+				ActorRef customerService = getTestCustomerService(getTestAccountService(true));
 				customerService.tell(new GetCustomer(1L), getRef());
 				expectMsg(new Failure("Customer " + 1L + " not found"));
 			}
@@ -123,9 +96,7 @@ public class CustomerServiceTest {
 		new TestKit(system) {
 			{
 				Customer expectedCustomer = Customer.builder().id(1L).name("TEST_CUSTOMER").accountNumber(1L).build();
-				ActorRef customerActor = getTestCustomer(expectedCustomer);
-				ActorRef customerService = getTestCustomerService(getTestAccountService(false),
-						Collections.singletonMap(1L, customerActor));
+				ActorRef customerService = getTestCustomerService(getTestAccountService(false));
 				customerService.tell(expectedCustomer, getRef());
 				expectMsgClass(Success.class);
 				customerService.tell(new DeleteCustomer(1L), getRef());
@@ -138,7 +109,7 @@ public class CustomerServiceTest {
 	void testDeleteCustomerReturnsFailureIfCustomerNotFound() {
 		new TestKit(system) {
 			{
-				ActorRef customerService = getTestCustomerService(getTestAccountService(true), Collections.emptyMap());
+				ActorRef customerService = getTestCustomerService(getTestAccountService(true));
 				customerService.tell(new DeleteCustomer(1L), getRef());
 				expectMsg(new Failure("Customer " + 1L + " not found"));
 			}
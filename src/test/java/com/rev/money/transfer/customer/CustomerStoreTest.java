@@ -0,0 +1,132 @@
+package com.rev.money.transfer.customer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.rev.money.transfer.actor.CustomerActor;
+import com.rev.money.transfer.model.Customer;
+import com.rev.money.transfer.store.CustomerStore;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+
+public class CustomerStoreTest {
+
+	private static Customer customer(long id) {
+		return Customer.builder().id(id).name("Customer " + id).email("customer" + id + "@example.com")
+				.contactNumber(9_000_000_000L + id).zipCode(560_000 + (int) (id % 1_000)).accountNumber(id).build();
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	@Test
+	void testStoreKeepsEveryField() {
+		CustomerStore store = new CustomerStore();
+		Customer full = Customer.builder().id(1L).name("Zoë").contactNumber(-987654321L).email("zoe@example.com")
+				.zipCode(-560001).accountNumber(42L).build();
+		Customer sparse = Customer.builder().id(0L).build();
+		Customer own = Customer.builder().id(Long.MAX_VALUE).name("").accountNumber(Long.MAX_VALUE).build();
+		store.put(full);
+		store.put(sparse);
+		store.put(own);
+
+		assertEquals(3, store.size());
+		assertEquals(full, store.get(1L));
+		assertEquals(sparse, store.get(0L));
+		assertEquals(own, store.get(Long.MAX_VALUE));
+		assertNull(store.get(2L));
+
+		Customer renamed = Customer.builder().id(1L).name("Zoe").accountNumber(1L).build();
+		store.put(renamed);
+		assertEquals(3, store.size());
+		assertEquals(renamed, store.get(1L));
+		assertEquals(sparse, store.remove(0L));
+		assertFalse(store.contains(0L));
+		assertNull(store.remove(0L));
+	}
+
+	@Test
+	void testRemovalsKeepProbesAndCompactPages() {
+		CustomerStore store = new CustomerStore();
+		int count = 100_000;
+		for (long id = 1; id <= count; id++) {
+			store.put(customer(id));
+		}
+		long sizeInBytes = store.sizeInBytes();
+		for (long id = 1; id <= count; id += 2) {
+			assertEquals(customer(id), store.remove(id));
+		}
+		for (long id = 1; id <= count; id++) {
+			assertEquals(id % 2 == 0, store.contains(id));
+		}
+		for (long id = 2; id <= count; id += 4) {
+			store.remove(id);
+		}
+		// The space of removed records is given back once it outweighs the rest
+		assertTrue(store.sizeInBytes() < sizeInBytes);
+		Set<Long> ids = new HashSet<>();
+		store.forEach(customer -> {
+			assertEquals(customer(customer.getId()), customer);
+			ids.add(customer.getId());
+		});
+		assertEquals(count / 4, ids.size());
+		assertEquals(count / 4, store.size());
+	}
+
+	/**
+	 * Heap taken per customer by one actor per customer, the way customers were
+	 * held before, against the flat store.
+	 */
+	@Test
+	void testBytesPerCustomer() {
+		int count = 100_000;
+		ActorSystem system = ActorSystem.create();
+		try {
+			long before = usedHeap();
+			Map<Long, ActorRef> actors = new HashMap<>();
+			for (long id = 1; id <= count; id++) {
+				actors.put(id, system.actorOf(CustomerActor.props(customer(id)), "customer_" + id));
+			}
+			long actorBytes = usedHeap() - before;
+			assertEquals(count, actors.size());
+			actors = null;
+			TestKit.shutdownActorSystem(system);
+			system = null;
+
+			before = usedHeap();
+			CustomerStore store = new CustomerStore();
+			for (long id = 1; id <= count; id++) {
+				store.put(customer(id));
+			}
+			long storeBytes = usedHeap() - before;
+			assertEquals(count, store.size());
+
+			System.out.println(String.format(
+					"%nBytes per customer: one actor each %,d, flat store %,d measured (%,d allocated, %,d packed)",
+					actorBytes / count, storeBytes / count, store.sizeInBytes() / count,
+					store.recordBytes() / count));
+			assertTrue(store.sizeInBytes() < actorBytes);
+		} finally {
+			if (system != null) {
+				TestKit.shutdownActorSystem(system);
+			}
+		}
+	}
+
+}
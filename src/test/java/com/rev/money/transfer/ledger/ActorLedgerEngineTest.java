@@ -0,0 +1,54 @@
+package com.rev.money.transfer.ledger;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+
+import com.rev.money.transfer.factory.AccountFactory;
+import com.rev.money.transfer.factory.TransactionFactory;
+import com.rev.money.transfer.service.AccountService;
+import com.rev.money.transfer.service.TransactionService;
+import com.rev.money.transfer.store.FxRateTable;
+import com.rev.money.transfer.util.Constant;
+import com.rev.money.transfer.util.HopRetry;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+
+public class ActorLedgerEngineTest extends LedgerEngineConformanceTest {
+
+	private static ActorSystem system;
+
+	@BeforeAll
+	static void setup() {
+		system = ActorSystem.create();
+	}
+
+	@AfterAll
+	static void shutdown() {
+		TestKit.shutdownActorSystem(system);
+		system = null;
+	}
+
+	static LedgerEngine createEngine(ActorSystem system) {
+		return createEngine(system, new FxRateTable());
+	}
+
+	static LedgerEngine createEngine(ActorSystem system, FxRateTable fxRates) {
+		Duration timeout = Duration.ofSeconds(5);
+		ActorRef accountService = system.actorOf(AccountService.props(new AccountFactory(), timeout,
+				Integer.parseInt(Constant.DEFAULT_PAYOUT_PARALLELISM), fxRates));
+		ActorRef transactionService = system
+				.actorOf(TransactionService.props(accountService, new TransactionFactory(), timeout));
+		return new ActorLedgerEngine(accountService, transactionService, timeout,
+				HopRetry.get(system).budget(timeout).multipliedBy(2));
+	}
+
+	@Override
+	protected LedgerEngine createEngine(FxRateTable fxRates) {
+		return createEngine(system, fxRates);
+	}
+
+}
@@ -0,0 +1,173 @@
+package com.rev.money.transfer.ledger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.rev.money.transfer.actor.AccountActor;
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.CashDeposit;
+import com.rev.money.transfer.model.MessageStatus;
+import com.rev.money.transfer.model.MessageStatus.Failure;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.service.AccountService.AccountsExported;
+import com.rev.money.transfer.service.LedgerService;
+import com.rev.money.transfer.store.FxRateTable;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+
+public class CasLedgerEngineTest extends LedgerEngineConformanceTest {
+
+	@Override
+	protected LedgerEngine createEngine(FxRateTable fxRates) {
+		return new CasLedgerEngine(1_024, fxRates);
+	}
+
+	private static BigDecimal total(LedgerEngine ledger) {
+		AccountsExported exported = (AccountsExported) call(ledger.exportAccounts());
+		return exported.getAccounts().stream().map(Account::getBalance).reduce(BigDecimal.ZERO, BigDecimal::add);
+	}
+
+	@Test
+	void testBalancesKeepTheirScale() {
+		LedgerEngine ledger = createEngine();
+		call(ledger.createAccount(new Account(1L, new BigDecimal("10.5")), 1));
+		call(ledger.createAccount(new Account(2L, BigDecimal.ONE), 1));
+		call(ledger.transfer(new Transaction(1L, 1L, 2L, new BigDecimal("0.25"), TransactionStatus.NEW, null)));
+
+		assertEquals(new Account(1L, new BigDecimal("10.25")), call(ledger.getAccount(1L)));
+		assertEquals(new Account(2L, new BigDecimal("1.25")), call(ledger.getAccount(2L)));
+		assertEquals(new BigDecimal("-3.000"), CasLedgerEngine.unpack(CasLedgerEngine.pack(new BigDecimal("-3.000"))));
+		assertTrue(call(ledger.createAccount(new Account(3L, new BigDecimal("1E-16")), 1)) instanceof Failure);
+
+		LedgerEngine full = new CasLedgerEngine(1);
+		assertTrue(call(full.createAccount(new Account(4L, BigDecimal.ONE), 1)) instanceof MessageStatus.Success);
+		assertEquals(new Failure("Ledger is full, it holds 1 accounts"),
+				call(full.createAccount(new Account(5L, BigDecimal.ONE), 1)));
+	}
+
+	/**
+	 * {@code ConcurrentTest} run through the ledger service on this engine: the
+	 * same balances come out.
+	 */
+	@Test
+	void testTransferIsThreadSafeThroughTheLedgerService() {
+		ActorSystem system = ActorSystem.create();
+		try {
+			new TestKit(system) {
+				{
+					int numThreads = 100;
+					ActorRef ledgerService = system.actorOf(LedgerService.props(createEngine()));
+					ledgerService.tell(new Account(1L, BigDecimal.valueOf(numThreads)), getRef());
+					expectMsgClass(MessageStatus.Success.class);
+					ledgerService.tell(new Account(2L, BigDecimal.ZERO), getRef());
+					expectMsgClass(MessageStatus.Success.class);
+
+					ExecutorService service = Executors.newFixedThreadPool(numThreads);
+					CountDownLatch latch = new CountDownLatch(1);
+					AtomicLong nextId = new AtomicLong();
+					for (int i = 0; i < numThreads; i++) {
+						service.submit(() -> {
+							try {
+								Transaction transactionInfo = new Transaction(nextId.incrementAndGet(), 1L, 2L,
+										BigDecimal.ONE, TransactionStatus.NEW, null);
+								latch.await();
+								ledgerService.tell(transactionInfo, getRef());
+							} catch (InterruptedException ignored) {
+							}
+						});
+					}
+					latch.countDown();
+					receiveN(numThreads);
+					service.shutdown();
+
+					ledgerService.tell(new AccountActor.GetAccount(1L), getRef());
+					expectMsg(new Account(1L, BigDecimal.ZERO));
+					ledgerService.tell(new AccountActor.GetAccount(2L), getRef());
+					expectMsg(new Account(2L, BigDecimal.valueOf(numThreads)));
+				}
+			};
+		} finally {
+			TestKit.shutdownActorSystem(system);
+		}
+	}
+
+	/**
+	 * Many threads hammering a handful of accounts with transfers and deposits
+	 * while exports run: every export adds up to the money deposited so far and
+	 * no balance goes negative.
+	 */
+	@Test
+	void testStressOnManyThreads() throws InterruptedException {
+		LedgerEngine ledger = createEngine();
+		int accounts = 16;
+		int threads = 32;
+		int operations = 50_000;
+		for (long id = 1; id <= accounts; id++) {
+			call(ledger.createAccount(new Account(id, BigDecimal.valueOf(1_000)), 1));
+		}
+		AtomicLong nextId = new AtomicLong();
+		AtomicLong deposited = new AtomicLong(1_000L * accounts);
+		AtomicBoolean running = new AtomicBoolean(true);
+		List<String> inconsistencies = new ArrayList<>();
+		Thread exporter = new Thread(() -> {
+			while (running.get()) {
+				long before = deposited.get();
+				BigDecimal total = total(ledger);
+				long after = deposited.get();
+				// Deposits counted after they land, so the total lies between both counts
+				if (total.compareTo(BigDecimal.valueOf(before)) < 0
+						|| total.compareTo(BigDecimal.valueOf(after + threads)) > 0) {
+					inconsistencies.add(total + " outside [" + before + ", " + (after + threads) + "]");
+				}
+			}
+		});
+		exporter.start();
+		ExecutorService service = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		for (int t = 0; t < threads; t++) {
+			service.submit(() -> {
+				for (int i = 0; i < operations; i++) {
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					long from = random.nextInt(accounts) + 1;
+					long to = random.nextInt(accounts) + 1;
+					if (i % 100 == 0) {
+						call(ledger.deposit(new CashDeposit(nextId.incrementAndGet(), to, BigDecimal.ONE)));
+						deposited.incrementAndGet();
+					} else {
+						call(ledger.transfer(new Transaction(nextId.incrementAndGet(), from, to,
+								BigDecimal.valueOf(random.nextInt(50) + 1), TransactionStatus.NEW, null)));
+					}
+				}
+			});
+		}
+		service.shutdown();
+		assertTrue(service.awaitTermination(60, TimeUnit.SECONDS));
+		long elapsed = System.nanoTime() - start;
+		running.set(false);
+		exporter.join();
+
+		assertTrue(inconsistencies.isEmpty(), inconsistencies.toString());
+		assertEquals(BigDecimal.valueOf(deposited.get()), total(ledger));
+		AccountsExported exported = (AccountsExported) call(ledger.exportAccounts());
+		exported.getAccounts().forEach(account -> assertTrue(account.getBalance().signum() >= 0));
+		System.out.println(String.format("%nCAS ledger stress: %,d operations on %d threads over %d accounts, %,.0f ops/s",
+				(long) threads * operations, threads, accounts, threads * operations * 1e9 / elapsed));
+	}
+
+}
@@ -0,0 +1,235 @@
+package com.rev.money.transfer.ledger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.CashDeposit;
+import com.rev.money.transfer.model.MessageStatus.Failure;
+import com.rev.money.transfer.model.MessageStatus.Success;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.service.AccountService.AccountsExported;
+import com.rev.money.transfer.service.AccountService.AccountsListed;
+import com.rev.money.transfer.service.TransactionService.TransactionRolledBack;
+import com.rev.money.transfer.store.FxRateTable;
+
+/**
+ * Behaviour every {@link LedgerEngine} has to show, run against each engine
+ * by a subclass.
+ */
+public abstract class LedgerEngineConformanceTest {
+
+	protected abstract LedgerEngine createEngine(FxRateTable fxRates);
+
+	protected LedgerEngine createEngine() {
+		return createEngine(new FxRateTable());
+	}
+
+	static Object call(CompletionStage<Object> response) {
+		try {
+			return response.toCompletableFuture().get(10, TimeUnit.SECONDS);
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static Transaction transfer(long id, long from, long to, long amount) {
+		return new Transaction(id, from, to, BigDecimal.valueOf(amount), TransactionStatus.NEW, null);
+	}
+
+	@Test
+	void testAccountsAreCreatedReadAndDeleted() {
+		LedgerEngine ledger = createEngine();
+		assertEquals(new Success(), call(ledger.createAccount(new Account(1L, BigDecimal.TEN), 1)));
+		assertEquals(new Failure("Account 1 already exists"),
+				call(ledger.createAccount(new Account(1L, BigDecimal.ONE), 1)));
+		assertEquals(new Account(1L, BigDecimal.TEN), call(ledger.getAccount(1L)));
+		assertEquals(new Failure("Account 2 not found"), call(ledger.getAccount(2L)));
+
+		assertEquals(new Success(), call(ledger.deleteAccount(1L)));
+		assertEquals(new Failure("Account 1 not found"), call(ledger.deleteAccount(1L)));
+		assertEquals(new Failure("Account 1 not found"), call(ledger.getAccount(1L)));
+	}
+
+	@Test
+	void testAccountsAreListedInAccountNumberOrder() {
+		LedgerEngine ledger = createEngine();
+		for (long id : new long[] { 7, 3, 12, 1, 9 }) {
+			call(ledger.createAccount(new Account(id, BigDecimal.valueOf(id)), id == 9 ? 4 : 1));
+		}
+		call(ledger.deleteAccount(12L));
+		// Restored accounts are listed too, existing ones are kept as they are
+		call(ledger.restoreAccounts(List.of(new Account(5L, BigDecimal.valueOf(5)), new Account(3L, BigDecimal.TEN))));
+		assertEquals(
+				new AccountsListed(List.of(new Account(1L, BigDecimal.ONE), new Account(3L, BigDecimal.valueOf(3)))),
+				call(ledger.listAccounts(Long.MIN_VALUE, 2)));
+		AccountsListed next = (AccountsListed) call(ledger.listAccounts(3L, 10));
+		assertEquals(List.of(5L, 7L, 9L), next.getAccounts().stream().map(Account::getAccountNumber)
+				.collect(Collectors.toList()));
+		assertEquals(new AccountsListed(List.of()), call(ledger.listAccounts(9L, 10)));
+	}
+
+	@Test
+	void testTransferMovesMoneyAndIsRecorded() {
+		LedgerEngine ledger = createEngine();
+		call(ledger.createAccount(new Account(1L, BigDecimal.TEN), 1));
+		call(ledger.createAccount(new Account(2L, BigDecimal.ZERO), 4));
+
+		Transaction transaction = transfer(1L, 1L, 2L, 4);
+		Transaction succeeded = new Transaction(1L, 1L, 2L, BigDecimal.valueOf(4), TransactionStatus.SUCCESS, null);
+		assertEquals(succeeded, call(ledger.transfer(transaction)));
+		assertEquals(new Account(1L, BigDecimal.valueOf(6)), call(ledger.getAccount(1L)));
+		assertEquals(BigDecimal.valueOf(4), ((Account) call(ledger.getAccount(2L))).getBalance());
+		assertEquals(succeeded, call(ledger.getTransaction(1L)));
+
+		assertEquals(new Failure("Transaction 1 already been processed"), call(ledger.transfer(transaction)));
+		assertEquals(new Failure("Transaction 9 does not exist"), call(ledger.getTransaction(9L)));
+	}
+
+	@Test
+	void testFailedTransferIsRolledBack() {
+		LedgerEngine ledger = createEngine();
+		call(ledger.createAccount(new Account(1L, BigDecimal.ONE), 1));
+		call(ledger.createAccount(new Account(2L, BigDecimal.ZERO), 1));
+
+		TransactionRolledBack insufficient = (TransactionRolledBack) call(ledger.transfer(transfer(1L, 1L, 2L, 2)));
+		assertEquals(TransactionStatus.FAIL, insufficient.getTransactionInfo().getStatus());
+		assertTrue(insufficient.getReason().startsWith("Insufficient balance to withdraw 2 from account"));
+
+		TransactionRolledBack unknown = (TransactionRolledBack) call(ledger.transfer(transfer(2L, 1L, 3L, 1)));
+		assertEquals("Account 3 not found", unknown.getReason());
+		assertEquals(TransactionStatus.FAIL, ((Transaction) call(ledger.getTransaction(2L))).getStatus());
+
+		assertEquals(new Account(1L, BigDecimal.ONE), call(ledger.getAccount(1L)));
+		assertEquals(new Account(2L, BigDecimal.ZERO), call(ledger.getAccount(2L)));
+	}
+
+	@Test
+	void testPausedTransfersAreTurnedDownUntilResumed() {
+		LedgerEngine ledger = createEngine();
+		call(ledger.createAccount(new Account(1L, BigDecimal.TEN), 1));
+		call(ledger.createAccount(new Account(2L, BigDecimal.ZERO), 1));
+
+		assertEquals(new Success(), call(ledger.pauseTransfers()));
+		Failure paused = new Failure("Transfers are paused while a snapshot is taken, try again");
+		assertEquals(paused, call(ledger.transfer(transfer(1L, 1L, 2L, 4))));
+		assertEquals(paused, call(ledger.deposit(new CashDeposit(2L, 2L, BigDecimal.ONE))));
+		assertEquals(new Account(1L, BigDecimal.TEN), call(ledger.getAccount(1L)));
+
+		assertEquals(new Success(), call(ledger.resumeTransfers()));
+		// Turned down before being recorded, so the same ids go through now
+		assertEquals(TransactionStatus.SUCCESS,
+				((Transaction) call(ledger.transfer(transfer(1L, 1L, 2L, 4)))).getStatus());
+		assertEquals(TransactionStatus.SUCCESS,
+				((Transaction) call(ledger.deposit(new CashDeposit(2L, 2L, BigDecimal.ONE)))).getStatus());
+		assertEquals(BigDecimal.valueOf(5), ((Account) call(ledger.getAccount(2L))).getBalance());
+	}
+
+	@Test
+	void testDepositAndGeneratedIds() {
+		LedgerEngine ledger = createEngine();
+		call(ledger.createAccount(new Account(1L, BigDecimal.ZERO), 1));
+		call(ledger.createAccount(new Account(2L, BigDecimal.ZERO), 1));
+
+		assertEquals(new Transaction(5L, 1L, null, BigDecimal.TEN, TransactionStatus.SUCCESS, "Cash Deposit"),
+				call(ledger.deposit(new CashDeposit(5L, 1L, BigDecimal.TEN))));
+		TransactionRolledBack unknown = (TransactionRolledBack) call(
+				ledger.deposit(new CashDeposit(6L, 7L, BigDecimal.TEN)));
+		assertEquals("Account 7 not found", unknown.getReason());
+
+		Transaction generated = (Transaction) call(
+				ledger.transfer(new Transaction(null, 1L, 2L, BigDecimal.ONE, TransactionStatus.NEW, "scheduled")));
+		assertTrue(generated.getId() > 1_000_000L);
+		assertEquals(generated, call(ledger.getTransaction(generated.getId())));
+		assertEquals(new Account(1L, BigDecimal.valueOf(9)), call(ledger.getAccount(1L)));
+	}
+
+	@Test
+	void testTransferConvertsBetweenCurrencies() {
+		FxRateTable fxRates = new FxRateTable();
+		LedgerEngine ledger = createEngine(fxRates);
+		call(ledger.createAccount(new Account(1L, BigDecimal.valueOf(100), "EUR"), 1));
+		call(ledger.createAccount(new Account(2L, BigDecimal.ZERO, "USD"), 1));
+		call(ledger.createAccount(new Account(3L, BigDecimal.ZERO, "JPY"), 1));
+		assertEquals(new Failure("Unknown currency XYZ"),
+				call(ledger.createAccount(new Account(4L, BigDecimal.ONE, "XYZ"), 1)));
+
+		TransactionRolledBack noRate = (TransactionRolledBack) call(ledger.transfer(transfer(1L, 1L, 2L, 10)));
+		assertEquals("No FX rate from EUR to USD", noRate.getReason());
+		assertEquals(new Account(1L, BigDecimal.valueOf(100), "EUR"), call(ledger.getAccount(1L)));
+
+		fxRates.publish(Map.of("USD", new BigDecimal("1.25"), "JPY", BigDecimal.valueOf(160)));
+		// Amount in the currency of the remitter by default
+		call(ledger.transfer(transfer(2L, 1L, 2L, 10)));
+		assertEquals(new Account(1L, BigDecimal.valueOf(90), "EUR"), call(ledger.getAccount(1L)));
+		assertEquals(new Account(2L, new BigDecimal("12.50"), "USD"), call(ledger.getAccount(2L)));
+
+		// Or in a third currency, each leg rounded to the minor unit of its account
+		Transaction inDollars = new Transaction(3L, 1L, 3L, new BigDecimal("5.00"), TransactionStatus.NEW, null,
+				"USD");
+		assertEquals(TransactionStatus.SUCCESS, ((Transaction) call(ledger.transfer(inDollars))).getStatus());
+		assertEquals(new Account(1L, new BigDecimal("86.00"), "EUR"), call(ledger.getAccount(1L)));
+		assertEquals(new Account(3L, BigDecimal.valueOf(640), "JPY"), call(ledger.getAccount(3L)));
+	}
+
+	/**
+	 * Transfers in both directions between a few accounts from many threads at
+	 * once: nothing deadlocks and no money is created or lost.
+	 */
+	@Test
+	void testConcurrentTransfersConserveMoney() {
+		LedgerEngine ledger = createEngine();
+		int accounts = 8;
+		int transfers = 4_000;
+		for (long id = 1; id <= accounts; id++) {
+			call(ledger.createAccount(new Account(id, BigDecimal.valueOf(100)), 1));
+		}
+		List<CompletableFuture<Object>> responses = new ArrayList<>(transfers);
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			int first = t * transfers / 8;
+			Thread thread = new Thread(() -> {
+				for (int i = first; i < first + transfers / 8; i++) {
+					long from = ThreadLocalRandom.current().nextInt(accounts) + 1;
+					long to = ThreadLocalRandom.current().nextInt(accounts) + 1;
+					CompletableFuture<Object> response = ledger.transfer(transfer(i + 1, from, to, i % 7 + 1))
+							.toCompletableFuture();
+					synchronized (responses) {
+						responses.add(response);
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		threads.forEach(thread -> {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		CompletableFuture.allOf(responses.toArray(new CompletableFuture[0])).join();
+
+		AccountsExported exported = (AccountsExported) call(ledger.exportAccounts());
+		assertEquals(accounts, exported.getAccounts().size());
+		BigDecimal total = exported.getAccounts().stream().map(Account::getBalance).reduce(BigDecimal.ZERO,
+				BigDecimal::add);
+		assertEquals(BigDecimal.valueOf(100 * accounts), total);
+		exported.getAccounts().forEach(account -> assertTrue(account.getBalance().signum() >= 0));
+	}
+
+}
@@ -0,0 +1,110 @@
+package com.rev.money.transfer.ledger;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.service.AccountService.AccountsExported;
+
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+
+/**
+ * Transfers per second of each engine under the same load: many threads
+ * transferring between random accounts, each waiting for its transfer before
+ * the next. Not a test, run with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.rev.money.transfer.ledger.LedgerThroughputBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(8)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LedgerThroughputBenchmark {
+
+	private static final int ACCOUNTS = 1_000;
+
+	@Param({ "actor", "striped", "cas", "ring" })
+	public String engine;
+
+	private ActorSystem system;
+	private LedgerEngine ledger;
+	private final AtomicLong nextId = new AtomicLong();
+
+	@Setup(Level.Trial)
+	public void createAccounts() {
+		switch (engine) {
+		case "actor":
+			system = ActorSystem.create();
+			ledger = ActorLedgerEngineTest.createEngine(system);
+			break;
+		case "striped":
+			ledger = new StripedLedgerEngine(1024);
+			break;
+		case "cas":
+			ledger = new CasLedgerEngine(ACCOUNTS);
+			break;
+		case "ring":
+			ledger = new RingLedgerEngine(65_536);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown ledger engine " + engine);
+		}
+		for (long id = 1; id <= ACCOUNTS; id++) {
+			LedgerEngineConformanceTest.call(ledger.createAccount(new Account(id, BigDecimal.valueOf(1_000)), 1));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void checkMoneyIsConserved() throws IOException {
+		AccountsExported exported = (AccountsExported) LedgerEngineConformanceTest.call(ledger.exportAccounts());
+		BigDecimal total = exported.getAccounts().stream().map(Account::getBalance).reduce(BigDecimal.ZERO,
+				BigDecimal::add);
+		if (total.compareTo(BigDecimal.valueOf(1_000L * ACCOUNTS)) != 0) {
+			throw new IllegalStateException("Money not conserved by the " + engine + " engine: " + total);
+		}
+		if (ledger instanceof RingLedgerEngine) {
+			((RingLedgerEngine) ledger).close();
+		}
+		if (system != null) {
+			TestKit.shutdownActorSystem(system);
+		}
+	}
+
+	@Benchmark
+	public Object transfer() {
+		long from = ThreadLocalRandom.current().nextInt(ACCOUNTS) + 1;
+		long to = ThreadLocalRandom.current().nextInt(ACCOUNTS) + 1;
+		return LedgerEngineConformanceTest
+				.call(ledger.transfer(LedgerEngineConformanceTest.transfer(nextId.incrementAndGet(), from, to, 1)));
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(LedgerThroughputBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
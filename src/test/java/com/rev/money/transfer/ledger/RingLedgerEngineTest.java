@@ -0,0 +1,187 @@
+package com.rev.money.transfer.ledger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.CashDeposit;
+import com.rev.money.transfer.model.MessageStatus.Failure;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.service.AccountService.AccountsExported;
+import com.rev.money.transfer.service.TransactionService.TransactionsExported;
+import com.rev.money.transfer.store.FxRateTable;
+import com.rev.money.transfer.store.LedgerJournal;
+
+public class RingLedgerEngineTest extends LedgerEngineConformanceTest {
+
+	@Override
+	protected LedgerEngine createEngine(FxRateTable fxRates) {
+		// A small ring, so callers often wait for it to wrap
+		return new RingLedgerEngine(64, LedgerJournal.inMemory(), fxRates);
+	}
+
+	/**
+	 * Every account and transaction of the ledger, in no particular order.
+	 */
+	private static List<Set<?>> contents(LedgerEngine ledger) {
+		return Arrays.asList(new HashSet<>(((AccountsExported) call(ledger.exportAccounts())).getAccounts()),
+				new HashSet<>(((TransactionsExported) call(ledger.exportTransactions())).getTransactions()));
+	}
+
+	@Test
+	void testJournalReplaysToTheSameLedger() throws IOException {
+		Path path = Files.createTempDirectory("ledger").resolve("ledger.journal");
+		RingLedgerEngine ledger = new RingLedgerEngine(64, new LedgerJournal(path));
+		for (long id = 1; id <= 10; id++) {
+			call(ledger.createAccount(new Account(id, BigDecimal.valueOf(100)), 1));
+		}
+		call(ledger.deleteAccount(10L));
+		call(ledger.restoreAccounts(Arrays.asList(new Account(11L, new BigDecimal("0.50")))));
+		call(ledger.restoreTransactions(
+				Arrays.asList(new Transaction(7L, 1L, 2L, BigDecimal.ONE, TransactionStatus.SUCCESS, "Restored"))));
+		CompletionStage<Object> last = null;
+		for (int i = 0; i < 1_000; i++) {
+			long from = ThreadLocalRandom.current().nextInt(11) + 1;
+			long to = ThreadLocalRandom.current().nextInt(11) + 1;
+			// Generated ids and failed transfers come out the same on replay
+			last = ledger.transfer(new Transaction(i % 3 == 0 ? null : 1_000L + i, from, to,
+					BigDecimal.valueOf(ThreadLocalRandom.current().nextInt(30)), TransactionStatus.NEW, null));
+		}
+		call(last);
+		call(ledger.deposit(new CashDeposit(5_000L, 3L, new BigDecimal("2.25"))));
+		List<Set<?>> contents = contents(ledger);
+		ledger.close();
+
+		RingLedgerEngine replayed = new RingLedgerEngine(64, new LedgerJournal(path));
+		assertEquals(contents, contents(replayed));
+		call(replayed.deposit(new CashDeposit(5_001L, 3L, BigDecimal.ONE)));
+		replayed.close();
+
+		// A command torn by a crash is dropped and the journal stays appendable
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3);
+		}
+		RingLedgerEngine recovered = new RingLedgerEngine(64, new LedgerJournal(path));
+		assertEquals(contents, contents(recovered));
+		assertTrue(call(recovered.getTransaction(5_001L)) instanceof Failure);
+		call(recovered.deposit(new CashDeposit(5_002L, 4L, BigDecimal.ONE)));
+		contents = contents(recovered);
+		recovered.close();
+		RingLedgerEngine reopened = new RingLedgerEngine(64, new LedgerJournal(path));
+		assertEquals(contents, contents(reopened));
+		reopened.close();
+	}
+
+	@Test
+	void testJournalReplaysTransfersAtTheirFxRates() throws IOException {
+		Path path = Files.createTempDirectory("ledger").resolve("ledger.journal");
+		FxRateTable fxRates = new FxRateTable();
+		RingLedgerEngine ledger = new RingLedgerEngine(64, new LedgerJournal(path), fxRates);
+		call(ledger.createAccount(new Account(1L, BigDecimal.valueOf(100)), 1));
+		call(ledger.createAccount(new Account(2L, BigDecimal.ZERO, "USD"), 1));
+		fxRates.publish(Map.of("USD", new BigDecimal("1.10")));
+		call(ledger.transfer(transfer(1L, 1L, 2L, 10)));
+		fxRates.publish(Map.of("USD", new BigDecimal("1.20")));
+		call(ledger.transfer(transfer(2L, 1L, 2L, 10)));
+		List<Set<?>> contents = contents(ledger);
+		ledger.close();
+
+		// Replayed with other rates current, transfers keep the ones they ran at
+		fxRates.publish(Map.of("USD", new BigDecimal("2")));
+		RingLedgerEngine replayed = new RingLedgerEngine(64, new LedgerJournal(path), fxRates);
+		assertEquals(contents, contents(replayed));
+		assertEquals(new Account(2L, new BigDecimal("23.00"), "USD"), call(replayed.getAccount(2L)));
+		replayed.close();
+	}
+
+	/**
+	 * A transfer applied in memory but not journaled is never replied as done,
+	 * and nothing is served from the ledger it left behind.
+	 */
+	@Test
+	void testJournalFailureStopsTheLedger() throws IOException {
+		Path path = Files.createTempDirectory("ledger").resolve("ledger.journal");
+		AtomicBoolean diskFull = new AtomicBoolean();
+		RingLedgerEngine ledger = new RingLedgerEngine(64, new LedgerJournal(path) {
+			@Override
+			public void flush() {
+				if (diskFull.get()) {
+					throw new UncheckedIOException(new IOException("No space left on device"));
+				}
+				super.flush();
+			}
+		});
+		call(ledger.createAccount(new Account(1L, BigDecimal.valueOf(100)), 1));
+		call(ledger.createAccount(new Account(2L, BigDecimal.ZERO), 1));
+		diskFull.set(true);
+		ExecutionException failure = assertThrows(ExecutionException.class,
+				() -> ledger.transfer(transfer(1L, 1L, 2L, 10)).toCompletableFuture().get(10, TimeUnit.SECONDS));
+		assertTrue(failure.getCause() instanceof UncheckedIOException);
+		diskFull.set(false);
+		failure = assertThrows(ExecutionException.class,
+				() -> ledger.getAccount(1L).toCompletableFuture().get(10, TimeUnit.SECONDS));
+		assertTrue(failure.getCause() instanceof IllegalStateException);
+		ledger.close();
+
+		RingLedgerEngine restarted = new RingLedgerEngine(64, new LedgerJournal(path));
+		assertEquals(new Account(1L, BigDecimal.valueOf(100)), call(restarted.getAccount(1L)));
+		assertEquals(new Account(2L, BigDecimal.ZERO), call(restarted.getAccount(2L)));
+		restarted.close();
+	}
+
+	/**
+	 * One thread publishing transfers back to back, never waiting for a reply
+	 * unless the ring is full: the rate the single logic thread sustains.
+	 */
+	@Test
+	void testPipelinedThroughput() throws IOException {
+		int accounts = 1_000;
+		int transfers = 2_000_000;
+		RingLedgerEngine ledger = new RingLedgerEngine(65_536);
+		for (long id = 1; id <= accounts; id++) {
+			ledger.createAccount(new Account(id, BigDecimal.valueOf(1_000)), 1);
+		}
+		for (int round = 0; round < 2; round++) {
+			long start = System.nanoTime();
+			CompletionStage<Object> last = null;
+			for (int i = 0; i < transfers; i++) {
+				long from = ThreadLocalRandom.current().nextInt(accounts) + 1;
+				long to = ThreadLocalRandom.current().nextInt(accounts) + 1;
+				last = ledger.transfer(new Transaction(null, from, to, BigDecimal.ONE, TransactionStatus.NEW, null));
+			}
+			call(last);
+			double rate = transfers * 1e9 / (System.nanoTime() - start);
+			if (round == 1) {
+				System.out.println(String.format("%nRing ledger, one publisher over %,d accounts: %,.0f transfers/s",
+						accounts, rate));
+			}
+		}
+		AccountsExported exported = (AccountsExported) call(ledger.exportAccounts());
+		assertEquals(BigDecimal.valueOf(1_000L * accounts),
+				exported.getAccounts().stream().map(Account::getBalance).reduce(BigDecimal.ZERO, BigDecimal::add));
+		ledger.close();
+	}
+
+}
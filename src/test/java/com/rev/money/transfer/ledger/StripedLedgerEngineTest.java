@@ -0,0 +1,82 @@
+package com.rev.money.transfer.ledger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.junit.jupiter.api.Test;
+
+import com.rev.money.transfer.actor.AccountActor;
+import com.rev.money.transfer.actor.CustomerActor;
+import com.rev.money.transfer.factory.CustomerFactory;
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.Customer;
+import com.rev.money.transfer.model.MessageStatus.Failure;
+import com.rev.money.transfer.model.MessageStatus.Success;
+import com.rev.money.transfer.model.Payout;
+import com.rev.money.transfer.service.CustomerService;
+import com.rev.money.transfer.service.LedgerService;
+import com.rev.money.transfer.store.FxRateTable;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+
+public class StripedLedgerEngineTest extends LedgerEngineConformanceTest {
+
+	@Override
+	protected LedgerEngine createEngine(FxRateTable fxRates) {
+		// Few stripes, so transfers often need two locks in both orders
+		return new StripedLedgerEngine(4, fxRates);
+	}
+
+	@Test
+	void testServicesRunOnTheEngine() {
+		ActorSystem system = ActorSystem.create();
+		try {
+			new TestKit(system) {
+				{
+					LedgerEngine ledger = createEngine();
+					ActorRef ledgerService = system.actorOf(LedgerService.props(ledger));
+					ActorRef customerService = system.actorOf(
+							CustomerService.props(ledgerService, new CustomerFactory(), Duration.ofSeconds(5)));
+					customerService.tell(Customer.builder().name("Striped").build(), getRef());
+					expectMsgClass(Success.class);
+					customerService.tell(new CustomerActor.GetCustomer(1L), getRef());
+					assertEquals(Long.valueOf(1L), expectMsgClass(Customer.class).getAccountNumber());
+
+					ledgerService.tell(new AccountActor.GetAccount(1L), getRef());
+					expectMsg(new Account(1L, BigDecimal.ZERO));
+					ledgerService.tell(new Payout(1L, Collections.emptyList()), getRef());
+					expectMsgClass(Failure.class);
+				}
+			};
+		} finally {
+			TestKit.shutdownActorSystem(system);
+		}
+	}
+
+	@Test
+	void testPoolRunsCallsOffTheCallingThread() {
+		ThreadPoolExecutor pool = StripedLedgerEngine.boundedPool(2);
+		try {
+			LedgerEngine ledger = new StripedLedgerEngine(4, pool, new FxRateTable());
+			call(ledger.createAccount(new Account(1L, BigDecimal.TEN), 1));
+			Thread caller = Thread.currentThread();
+			Thread runner = CompletableFuture.supplyAsync(Thread::currentThread, pool).join();
+			assertNotEquals(caller, runner);
+			assertTrue(runner.isDaemon());
+			assertEquals(new Account(1L, BigDecimal.TEN), call(ledger.getAccount(1L)));
+			assertTrue(pool.getPoolSize() <= 2);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+}
@@ -17,11 +17,17 @@ import com.rev.money.transfer.factory.TransactionFactory;
 import com.rev.money.transfer.model.Account;
 import com.rev.money.transfer.model.Transaction;
 import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.util.Constant;
 
 import akka.http.javadsl.marshallers.jackson.Jackson;
 import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
 import akka.http.javadsl.model.MediaTypes;
 import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.headers.ETag;
+import akka.http.javadsl.model.headers.EntityTag;
+import akka.http.javadsl.model.headers.EntityTagRange;
+import akka.http.javadsl.model.headers.IfNoneMatch;
 import akka.http.javadsl.testkit.JUnitRouteTest;
 import akka.http.javadsl.testkit.TestRoute;
 
@@ -47,7 +53,26 @@ public class RoutesTest extends JUnitRouteTest {
 	public void testGetExistingAccountReturnsIt() throws InterruptedException, ExecutionException {
 		ask(app.getAccountService(), new Account(1L, BigDecimal.ZERO), timeout).toCompletableFuture().get();
 		appRoute.run(HttpRequest.GET("/accounts/1")).assertStatusCode(StatusCodes.OK)
-				.assertEntityAs(Jackson.unmarshaller(AccountDTO.class), new AccountDTO(1L, BigDecimal.ZERO));
+				.assertEntityAs(Jackson.unmarshaller(AccountDTO.class), new AccountDTO(1L, BigDecimal.ZERO, Constant.BASE_CURRENCY));
+	}
+
+	@org.junit.Test
+	public void testListAccountsStreamsThemInAccountNumberOrder() throws InterruptedException, ExecutionException {
+		for (long id : new long[] { 3, 1, 2 }) {
+			ask(app.getAccountService(), new Account(id, BigDecimal.ONE), timeout).toCompletableFuture().get();
+		}
+		appRoute.run(HttpRequest.GET("/accounts?after=1&limit=5")).assertStatusCode(StatusCodes.OK)
+				.assertEntity("[{\"accountNumber\":2,\"balance\":1,\"currency\":\"EUR\",\"stripes\":null},"
+						+ "{\"accountNumber\":3,\"balance\":1,\"currency\":\"EUR\",\"stripes\":null}]");
+		appRoute.run(HttpRequest.GET("/accounts?limit=0")).assertStatusCode(StatusCodes.BAD_REQUEST);
+	}
+
+	@org.junit.Test
+	public void testAnalyticsStartEmptyAndRefuseUnknownCurrencies() {
+		appRoute.run(HttpRequest.GET("/analytics/top-balances")).assertStatusCode(StatusCodes.OK).assertEntity("[]");
+		appRoute.run(HttpRequest.GET("/analytics/top-balances?currency=XYZ"))
+				.assertStatusCode(StatusCodes.BAD_REQUEST);
+		appRoute.run(HttpRequest.GET("/analytics/hot-accounts")).assertStatusCode(StatusCodes.OK).assertEntity("[]");
 	}
 
 	@org.junit.Test
@@ -110,4 +135,22 @@ public class RoutesTest extends JUnitRouteTest {
 						new TransactionDTO(1L, 1L, 2L, BigDecimal.ONE, TransactionStatus.FAIL,
 								"Insufficient balance to withdraw 1 from account Account(accountNumber=1, balance=0)"));
 	}
+
+	@org.junit.Test
+	public void testGetFinalizedTransactionAgainWithItsEntityTagReturnsNotModified()
+			throws ExecutionException, InterruptedException {
+		ask(app.getTransactionService(),
+				new Transaction(1L, 1L, 2L, BigDecimal.ZERO, TransactionStatus.NEW, "transfer"), timeout)
+						.toCompletableFuture().get();
+		HttpResponse response = appRoute.run(HttpRequest.GET("/transactions/1")).assertStatusCode(StatusCodes.OK)
+				.assertHeaderKindExists("ETag").assertHeaderExists("Cache-Control", "private, max-age=86400")
+				.response();
+		EntityTag entityTag = response.getHeader(ETag.class).get().etag();
+		appRoute.run(HttpRequest.GET("/transactions/1")
+				.addHeader(IfNoneMatch.create(EntityTagRange.create(entityTag))))
+				.assertStatusCode(StatusCodes.NOT_MODIFIED);
+		appRoute.run(HttpRequest.GET("/transactions/1")
+				.addHeader(IfNoneMatch.create(EntityTagRange.create(EntityTag.create("stale", false)))))
+				.assertStatusCode(StatusCodes.OK).assertHeaderExists(ETag.create(entityTag));
+	}
 }
@@ -0,0 +1,222 @@
+package com.rev.money.transfer.schedule;
+
+import static java.math.BigDecimal.TEN;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.rev.money.transfer.model.MessageStatus.Failure;
+import com.rev.money.transfer.model.MessageStatus.Success;
+import com.rev.money.transfer.model.ScheduledTransfer;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.service.SchedulerService;
+import com.rev.money.transfer.service.SchedulerService.CancelSchedule;
+import com.rev.money.transfer.service.SchedulerService.GetSchedule;
+import com.rev.money.transfer.service.SchedulerService.Tick;
+import com.rev.money.transfer.store.ScheduleStore;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.testkit.javadsl.TestKit;
+
+public class SchedulerServiceTest {
+
+	private static final long START = 1_000_000L;
+	private static final long MINUTE = 60_000L;
+
+	private static ActorSystem system;
+
+	@BeforeAll
+	static void setup() {
+		system = ActorSystem.create();
+	}
+
+	@AfterAll
+	static void shutdown() {
+		TestKit.shutdownActorSystem(system);
+		system = null;
+	}
+
+	// Ticks are driven by the tests through the clock, periodic ticks only repeat them
+	private static ActorRef getTestScheduler(ActorRef transactionService, ScheduleStore store, Clock clock,
+			int batchSize) {
+		return system.actorOf(SchedulerService.props(transactionService, store, clock, Duration.ofSeconds(1), 64,
+				batchSize));
+	}
+
+	private static ScheduledTransfer schedule(long nextExecution, long intervalMillis) {
+		return new ScheduledTransfer(null, 1L, 2L, TEN, nextExecution, intervalMillis, "rent");
+	}
+
+	@Test
+	void testOneOffTransferIsReleasedOnceWhenDue() {
+		new TestKit(system) {
+			{
+				TestClock clock = new TestClock(START);
+				TestKit transactionService = new TestKit(system);
+				ActorRef scheduler = getTestScheduler(transactionService.getRef(), ScheduleStore.inMemory(), clock, 10);
+				scheduler.tell(schedule(START + MINUTE, 0L), getRef());
+				ScheduledTransfer registered = expectMsgClass(ScheduledTransfer.class);
+
+				scheduler.tell(Tick.INSTANCE, getRef());
+				transactionService.expectNoMessage(Duration.ofMillis(100));
+
+				clock.advance(MINUTE);
+				scheduler.tell(Tick.INSTANCE, getRef());
+				transactionService.expectMsg(new Transaction(null, 1L, 2L, TEN, TransactionStatus.NEW, "rent"));
+
+				clock.advance(MINUTE);
+				scheduler.tell(Tick.INSTANCE, getRef());
+				transactionService.expectNoMessage(Duration.ofMillis(100));
+				scheduler.tell(new GetSchedule(registered.getId()), getRef());
+				expectMsgClass(Failure.class);
+			}
+		};
+	}
+
+	@Test
+	void testMissedOccurrencesOfRecurringTransferAreCaughtUpOnePerTick() {
+		new TestKit(system) {
+			{
+				TestClock clock = new TestClock(START);
+				TestKit transactionService = new TestKit(system);
+				ActorRef scheduler = getTestScheduler(transactionService.getRef(), ScheduleStore.inMemory(), clock, 2);
+				scheduler.tell(schedule(START + 1000, 1000L), getRef());
+				ScheduledTransfer registered = expectMsgClass(ScheduledTransfer.class);
+
+				// Five occurrences are overdue, they go out one per tick instead of all at once
+				clock.advance(5000);
+				scheduler.tell(Tick.INSTANCE, getRef());
+				transactionService.receiveN(1);
+				transactionService.expectNoMessage(Duration.ofMillis(100));
+				for (int tick = 0; tick < 4; tick++) {
+					clock.advance(1000);
+					scheduler.tell(Tick.INSTANCE, getRef());
+					transactionService.receiveN(1);
+				}
+
+				scheduler.tell(new GetSchedule(registered.getId()), getRef());
+				expectMsg(registered.withNextExecution(START + 6000));
+			}
+		};
+	}
+
+	@Test
+	void testBatchSizeBoundsTransfersReleasedPerTick() {
+		new TestKit(system) {
+			{
+				TestClock clock = new TestClock(START);
+				TestKit transactionService = new TestKit(system);
+				ActorRef scheduler = getTestScheduler(transactionService.getRef(), ScheduleStore.inMemory(), clock, 2);
+				for (int i = 0; i < 5; i++) {
+					scheduler.tell(schedule(START + 1000, 0L), getRef());
+					expectMsgClass(ScheduledTransfer.class);
+				}
+				clock.advance(1000);
+				scheduler.tell(Tick.INSTANCE, getRef());
+				transactionService.receiveN(2);
+				transactionService.expectNoMessage(Duration.ofMillis(100));
+				scheduler.tell(Tick.INSTANCE, getRef());
+				scheduler.tell(Tick.INSTANCE, getRef());
+				transactionService.receiveN(3);
+			}
+		};
+	}
+
+	@Test
+	void testCancelledScheduleIsNeverReleased() {
+		new TestKit(system) {
+			{
+				TestClock clock = new TestClock(START);
+				TestKit transactionService = new TestKit(system);
+				ActorRef scheduler = getTestScheduler(transactionService.getRef(), ScheduleStore.inMemory(), clock, 10);
+				scheduler.tell(schedule(START + MINUTE, MINUTE), getRef());
+				ScheduledTransfer registered = expectMsgClass(ScheduledTransfer.class);
+				scheduler.tell(new CancelSchedule(registered.getId()), getRef());
+				expectMsgClass(Success.class);
+				clock.advance(MINUTE);
+				scheduler.tell(Tick.INSTANCE, getRef());
+				transactionService.expectNoMessage(Duration.ofMillis(100));
+				scheduler.tell(new CancelSchedule(registered.getId()), getRef());
+				expectMsg(new Failure("Scheduled transfer " + registered.getId() + " not found"));
+			}
+		};
+	}
+
+	@Test
+	void testSchedulesSurviveRestart() throws IOException {
+		Path journal = Files.createTempDirectory("schedules").resolve("schedules.journal");
+		new TestKit(system) {
+			{
+				TestClock clock = new TestClock(START);
+				TestKit transactionService = new TestKit(system);
+				ActorRef scheduler = getTestScheduler(transactionService.getRef(), new ScheduleStore(journal), clock,
+						10);
+				scheduler.tell(schedule(START + 1000, MINUTE), getRef());
+				ScheduledTransfer recurring = expectMsgClass(ScheduledTransfer.class);
+				scheduler.tell(schedule(START + MINUTE, 0L), getRef());
+				ScheduledTransfer cancelled = expectMsgClass(ScheduledTransfer.class);
+				scheduler.tell(new CancelSchedule(cancelled.getId()), getRef());
+				expectMsgClass(Success.class);
+				clock.advance(1000);
+				scheduler.tell(Tick.INSTANCE, getRef());
+				transactionService.expectMsgClass(Transaction.class);
+				watch(scheduler);
+				scheduler.tell(PoisonPill.getInstance(), getRef());
+				expectTerminated(scheduler);
+
+				ActorRef restarted = getTestScheduler(transactionService.getRef(), new ScheduleStore(journal), clock,
+						10);
+				restarted.tell(new GetSchedule(recurring.getId()), getRef());
+				expectMsg(recurring.withNextExecution(START + 1000 + MINUTE));
+				restarted.tell(new GetSchedule(cancelled.getId()), getRef());
+				expectMsgClass(Failure.class);
+			}
+		};
+	}
+
+	public static class TestClock extends Clock {
+
+		private volatile long millis;
+
+		public TestClock(long millis) {
+			this.millis = millis;
+		}
+
+		public void advance(long delta) {
+			millis += delta;
+		}
+
+		@Override
+		public long millis() {
+			return millis;
+		}
+
+		@Override
+		public Instant instant() {
+			return Instant.ofEpochMilli(millis);
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+	}
+}
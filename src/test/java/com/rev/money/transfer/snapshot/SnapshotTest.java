@@ -0,0 +1,363 @@
+package com.rev.money.transfer.snapshot;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.rev.money.transfer.actor.AccountActor;
+import com.rev.money.transfer.actor.CustomerActor;
+import com.rev.money.transfer.actor.TransactionActor;
+import com.rev.money.transfer.factory.AccountFactory;
+import com.rev.money.transfer.factory.CustomerFactory;
+import com.rev.money.transfer.factory.TransactionFactory;
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.Customer;
+import com.rev.money.transfer.model.MessageStatus.Success;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.service.AccountService;
+import com.rev.money.transfer.service.CustomerService;
+import com.rev.money.transfer.service.SnapshotService;
+import com.rev.money.transfer.service.SnapshotService.SnapshotTaken;
+import com.rev.money.transfer.service.TransactionService;
+import com.rev.money.transfer.service.TransactionService.CashDepositTransaction;
+import com.rev.money.transfer.store.SnapshotFile;
+import com.rev.money.transfer.util.BalanceHistory;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+
+public class SnapshotTest {
+
+	private static ActorSystem system;
+
+	@BeforeAll
+	static void setup() {
+		system = ActorSystem.create();
+	}
+
+	@AfterAll
+	static void shutdown() {
+		TestKit.shutdownActorSystem(system);
+		system = null;
+	}
+
+	private static List<Account> readAccounts(Path path) throws IOException {
+		List<Account> accounts = new ArrayList<>();
+		SnapshotFile.read(path, 1_000, accounts::addAll, customers -> {
+		}, transactions -> {
+		});
+		return accounts;
+	}
+
+	private static BigDecimal total(List<Account> accounts) {
+		return accounts.stream().map(Account::getBalance).reduce(BigDecimal.ZERO, BigDecimal::add);
+	}
+
+	@Test
+	void testSnapshotFileRoundTrip() throws IOException {
+		Path path = Files.createTempDirectory("snapshot").resolve("snapshot.bin");
+		List<Account> accounts = Arrays.asList(new Account(1L, new BigDecimal("10.25")),
+				new Account(2L, BigDecimal.ZERO), new Account(Long.MAX_VALUE, new BigDecimal("-3E+2")));
+		Customer full = Customer.builder().id(1L).name("Zoë").contactNumber(987654321L).email("zoe@example.com")
+				.zipCode(560001).accountNumber(1L).build();
+		Customer sparse = Customer.builder().id(2L).accountNumber(2L).build();
+		List<Transaction> transactions = Arrays.asList(
+				new Transaction(1L, 1L, 2L, BigDecimal.ONE, TransactionStatus.SUCCESS, null),
+				new Transaction(2L, 1L, null, new BigDecimal("0.5"), TransactionStatus.NEW, "Cash Deposit"));
+		SnapshotFile.write(path, 42L, accounts, Arrays.asList(full, sparse), transactions);
+
+		List<Account> readAccounts = new ArrayList<>();
+		List<Customer> readCustomers = new ArrayList<>();
+		List<Transaction> readTransactions = new ArrayList<>();
+		SnapshotFile.Header header = SnapshotFile.read(path, 2, readAccounts::addAll, readCustomers::addAll,
+				readTransactions::addAll);
+
+		assertEquals(SnapshotFile.VERSION, header.getVersion());
+		assertEquals(42L, header.getCreatedAt());
+		assertEquals(accounts, readAccounts);
+		assertEquals(transactions, readTransactions);
+		assertEquals(2, readCustomers.size());
+		Customer readFull = readCustomers.get(0);
+		assertEquals(full.getName(), readFull.getName());
+		assertEquals(full.getEmail(), readFull.getEmail());
+		assertEquals(full.getContactNumber(), readFull.getContactNumber());
+		assertEquals(full.getZipCode(), readFull.getZipCode());
+		Customer readSparse = readCustomers.get(1);
+		assertEquals(Long.valueOf(2L), readSparse.getAccountNumber());
+		assertNull(readSparse.getName());
+		assertNull(readSparse.getContactNumber());
+	}
+
+	/**
+	 * Histories written with a snapshot are read back and served by the restored
+	 * accounts, dormant ones included, and exported again with them.
+	 */
+	@Test
+	void testBalanceHistoriesSurviveASnapshot() throws IOException {
+		new TestKit(system) {
+			{
+				Path path = Files.createTempDirectory("snapshot").resolve("snapshot.bin");
+				BalanceHistory history = new BalanceHistory();
+				history.record(1_000L, BigDecimal.ONE);
+				history.record(2_000L, BigDecimal.TEN);
+				SnapshotFile.write(path, 0L, Collections.singletonList(new Account(7L, BigDecimal.TEN)),
+						Collections.emptyList(), Collections.emptyList(),
+						Collections.singletonMap(7L, history.toBytes()));
+
+				ActorRef accountService = system
+						.actorOf(AccountService.props(new AccountFactory(), Duration.ofSeconds(5)));
+				SnapshotFile.read(path, 10,
+						accounts -> accountService.tell(new AccountService.RestoreAccounts(accounts), getRef()),
+						customers -> {
+						}, transactions -> {
+						}, histories -> accountService.tell(new AccountService.RestoreHistories(histories), getRef()));
+				receiveN(2);
+
+				accountService.tell(new AccountService.ExportAccounts(), getRef());
+				AccountService.AccountsExported dormant = expectMsgClass(AccountService.AccountsExported.class);
+				assertArrayEquals(history.toBytes(), dormant.getHistories().get(7L));
+				accountService.tell(new AccountActor.GetAccountAsOf(7L, 1_500L), getRef());
+				expectMsg(new Account(7L, BigDecimal.ONE));
+				accountService.tell(new AccountService.ExportAccounts(), getRef());
+				AccountService.AccountsExported awake = expectMsgClass(AccountService.AccountsExported.class);
+				BalanceHistory exported = BalanceHistory.fromBytes(awake.getHistories().get(7L), Long.MAX_VALUE,
+						Integer.MAX_VALUE);
+				assertEquals(BigDecimal.ONE, exported.balanceAt(1_500L));
+				assertEquals(BigDecimal.TEN, exported.balanceAt(2_500L));
+			}
+		};
+	}
+
+	@Test
+	void testSnapshotBalancesAddUpWhileTransfersRun() throws IOException {
+		new TestKit(system) {
+			{
+				int accounts = 20;
+				int transfers = 2_000;
+				ActorRef accountService = system
+						.actorOf(AccountService.props(new AccountFactory(), Duration.ofSeconds(5)));
+				ActorRef customerService = system
+						.actorOf(CustomerService.props(accountService, new CustomerFactory(), Duration.ofSeconds(5)));
+				ActorRef transactionService = system.actorOf(
+						TransactionService.props(accountService, new TransactionFactory(), Duration.ofSeconds(5)));
+				ActorRef snapshotService = system.actorOf(SnapshotService.props(accountService, customerService,
+						transactionService, Files.createTempDirectory("snapshots"), Clock.systemUTC(),
+						Duration.ofSeconds(30)));
+				for (long id = 1; id <= accounts; id++) {
+					customerService.tell(Customer.builder().name("Customer " + id).build(), getRef());
+					expectMsgClass(Success.class);
+				}
+				for (long id = 1; id <= accounts; id++) {
+					accountService.tell(new CashDepositTransaction(id, new Transaction(id, id, null,
+							BigDecimal.valueOf(100), TransactionStatus.NEW, "Cash Deposit")), getRef());
+				}
+				receiveN(accounts);
+				BigDecimal expectedTotal = BigDecimal.valueOf(100 * accounts);
+
+				for (int i = 0; i < transfers; i++) {
+					long from = i % accounts + 1;
+					long to = (i * 7 + 3) % accounts + 1;
+					transactionService.tell(new Transaction(1_000L + i, from, to, BigDecimal.valueOf(i % 13 + 1),
+							TransactionStatus.NEW, null), getRef());
+					if (i == transfers / 2) {
+						snapshotService.tell(new SnapshotService.TakeSnapshot(), getRef());
+					}
+				}
+				List<Object> replies = receiveN(transfers + 1, Duration.ofSeconds(30));
+				SnapshotTaken snapshot = replies.stream().filter(SnapshotTaken.class::isInstance)
+						.map(SnapshotTaken.class::cast).findFirst().get();
+				System.out.println("\nSnapshot while transferring: " + snapshot);
+
+				assertEquals(accounts, snapshot.getAccounts());
+				assertEquals(accounts, snapshot.getCustomers());
+				assertEquals(expectedTotal, total(readAccounts(Paths.get(snapshot.getPath()))));
+			}
+		};
+	}
+
+	/**
+	 * Transfers keep coming while the snapshot is taken: each transaction in it
+	 * has moved its money in its balances, or none of it.
+	 */
+	@Test
+	void testSnapshotTransactionsMatchItsBalances() throws IOException {
+		new TestKit(system) {
+			{
+				int accounts = 10;
+				int transfers = 3_000;
+				ActorRef accountService = system
+						.actorOf(AccountService.props(new AccountFactory(), Duration.ofSeconds(5)));
+				ActorRef customerService = system
+						.actorOf(CustomerService.props(accountService, new CustomerFactory(), Duration.ofSeconds(5)));
+				ActorRef transactionService = system.actorOf(
+						TransactionService.props(accountService, new TransactionFactory(), Duration.ofSeconds(5)));
+				ActorRef snapshotService = system.actorOf(SnapshotService.props(accountService, customerService,
+						transactionService, Files.createTempDirectory("snapshots"), Clock.systemUTC(),
+						Duration.ofSeconds(30)));
+				for (long id = 1; id <= accounts; id++) {
+					accountService.tell(new Account(id, BigDecimal.valueOf(1_000)), getRef());
+					expectMsgClass(Success.class);
+				}
+
+				for (int i = 0; i < transfers; i++) {
+					transactionService.tell(new Transaction(1_000L + i, (long) i % accounts + 1,
+							(long) (i * 3 + 1) % accounts + 1, BigDecimal.valueOf(i % 7 + 1), TransactionStatus.NEW,
+							null), getRef());
+					if (i % 1_000 == 500) {
+						snapshotService.tell(new SnapshotService.TakeSnapshot(), getRef());
+					}
+				}
+				List<Object> replies = receiveN(transfers + 3, Duration.ofSeconds(60));
+				List<SnapshotTaken> snapshots = replies.stream().filter(SnapshotTaken.class::isInstance)
+						.map(SnapshotTaken.class::cast).collect(Collectors.toList());
+				assertTrue(snapshots.size() > 0);
+
+				for (SnapshotTaken snapshot : snapshots) {
+					Map<Long, BigDecimal> balances = new HashMap<>();
+					List<Transaction> transactions = new ArrayList<>();
+					SnapshotFile.read(Paths.get(snapshot.getPath()), 1_000,
+							batch -> batch.forEach(account -> balances.put(account.getAccountNumber(),
+									account.getBalance())),
+							customers -> {
+							}, transactions::addAll);
+					Map<Long, BigDecimal> expected = new HashMap<>();
+					LongStream.rangeClosed(1, accounts).forEach(id -> expected.put(id, BigDecimal.valueOf(1_000)));
+					for (Transaction transaction : transactions) {
+						assertNotEquals(TransactionStatus.NEW, transaction.getStatus(), transaction.toString());
+						if (transaction.getStatus() == TransactionStatus.SUCCESS) {
+							expected.merge(transaction.getRemitterAccountId(), transaction.getAmount().negate(),
+									BigDecimal::add);
+							expected.merge(transaction.getBeneficieryAccountId(), transaction.getAmount(),
+									BigDecimal::add);
+						}
+					}
+					assertEquals(expected, balances, snapshot.toString());
+				}
+			}
+		};
+	}
+
+	/**
+	 * Load rate of a large snapshot: decoding the mapped file alone, then
+	 * restoring it into a fresh account service the way the application does on
+	 * start up, where the accounts are kept dormant without an actor each.
+	 */
+	@Test
+	void testRestoreLoadRate() throws IOException {
+		new TestKit(system) {
+			{
+				long count = 1_000_000;
+				Path path = Files.createTempDirectory("snapshot").resolve("snapshot.bin");
+				List<Account> accounts = LongStream.rangeClosed(1, count)
+						.mapToObj(id -> new Account(id, BigDecimal.valueOf(id, 2))).collect(Collectors.toList());
+				SnapshotFile.write(path, 0L, accounts, Collections.emptyList(), Collections.emptyList());
+
+				long start = System.nanoTime();
+				assertEquals(count, readAccounts(path).size());
+				long decoded = System.nanoTime() - start;
+
+				ActorRef accountService = system
+						.actorOf(AccountService.props(new AccountFactory(), Duration.ofSeconds(5)));
+				start = System.nanoTime();
+				List<Object> batches = new ArrayList<>();
+				SnapshotFile.read(path, 10_000, batch -> {
+					accountService.tell(new AccountService.RestoreAccounts(batch), getRef());
+					batches.add(batch);
+				}, customers -> {
+				}, transactions -> {
+				});
+				receiveN(batches.size(), Duration.ofSeconds(60));
+				long restored = System.nanoTime() - start;
+				System.out.println(String.format(
+						"%nSnapshot load of %,d accounts (%,d bytes): decode %d ms (%,.0f accounts/s), "
+								+ "restore %d ms (%,.0f accounts/s)",
+						count, Files.size(path), decoded / 1_000_000, count * 1e9 / decoded, restored / 1_000_000,
+						count * 1e9 / restored));
+
+				accountService.tell(new AccountActor.GetAccount(count), getRef());
+				expectMsg(new Account(count, BigDecimal.valueOf(count, 2)));
+			}
+		};
+	}
+
+	@Test
+	void testRestoredServicesServeSnapshotState() throws IOException {
+		new TestKit(system) {
+			{
+				Path path = Files.createTempDirectory("snapshot").resolve("snapshot.bin");
+				Customer customer = Customer.builder().id(7L).name("Restored").accountNumber(7L).build();
+				Transaction transaction = new Transaction(3L, 7L, null, BigDecimal.TEN, TransactionStatus.SUCCESS,
+						"Cash Deposit");
+				List<Account> restored = Arrays.asList(new Account(7L, BigDecimal.TEN), new Account(9L, BigDecimal.ONE));
+				SnapshotFile.write(path, 0L, restored, Collections.singletonList(customer),
+						Collections.singletonList(transaction));
+				ActorRef accountService = system
+						.actorOf(AccountService.props(new AccountFactory(), Duration.ofSeconds(5)));
+				ActorRef customerService = system
+						.actorOf(CustomerService.props(accountService, new CustomerFactory(), Duration.ofSeconds(5)));
+				ActorRef transactionService = system.actorOf(
+						TransactionService.props(accountService, new TransactionFactory(), Duration.ofSeconds(5)));
+				SnapshotFile.read(path, 10,
+						accounts -> accountService.tell(new AccountService.RestoreAccounts(accounts), getRef()),
+						customers -> customerService.tell(new CustomerService.RestoreCustomers(customers), getRef()),
+						transactions -> transactionService
+								.tell(new TransactionService.RestoreTransactions(transactions), getRef()));
+				receiveN(3);
+
+				accountService.tell(new AccountActor.GetAccount(7L), getRef());
+				expectMsg(new Account(7L, BigDecimal.TEN));
+				transactionService.tell(new TransactionActor.GetTransaction(3L), getRef());
+				expectMsg(transaction);
+				customerService.tell(new CustomerActor.GetCustomer(7L), getRef());
+				assertEquals("Restored", expectMsgClass(Customer.class).getName());
+				// New customers continue after the restored ones
+				customerService.tell(Customer.builder().name("New").build(), getRef());
+				expectMsgClass(Success.class);
+				customerService.tell(new CustomerActor.GetCustomer(8L), getRef());
+				assertEquals(Long.valueOf(8L), expectMsgClass(Customer.class).getAccountNumber());
+
+				// Restored accounts are dormant until a transfer wakes them, the money adds up either way
+				accountService.tell(new AccountService.Reconcile(Duration.ofSeconds(5)), getRef());
+				AccountService.Reconciled reconciled = expectMsgClass(AccountService.Reconciled.class);
+				assertTrue(reconciled.isConserved(), reconciled.toString());
+				assertEquals(3, reconciled.getAccounts());
+				transactionService.tell(
+						new Transaction(11L, 7L, 9L, BigDecimal.valueOf(4), TransactionStatus.NEW, null), getRef());
+				assertEquals(TransactionStatus.SUCCESS, expectMsgClass(Transaction.class).getStatus());
+				accountService.tell(new AccountActor.GetAccount(7L), getRef());
+				expectMsg(new Account(7L, BigDecimal.valueOf(6)));
+				accountService.tell(new AccountActor.GetAccount(9L), getRef());
+				expectMsg(new Account(9L, BigDecimal.valueOf(5)));
+				accountService.tell(new AccountService.Reconcile(Duration.ofSeconds(5)), getRef());
+				reconciled = expectMsgClass(AccountService.Reconciled.class);
+				assertTrue(reconciled.isConserved(), reconciled.toString());
+				assertEquals(3, reconciled.getAccounts());
+			}
+		};
+	}
+
+}
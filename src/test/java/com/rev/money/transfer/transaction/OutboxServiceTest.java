@@ -0,0 +1,202 @@
+package com.rev.money.transfer.transaction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.service.OutboxService;
+import com.rev.money.transfer.service.OutboxService.OutboxEvent;
+import com.rev.money.transfer.util.Metrics;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.DeadLetter;
+import akka.http.javadsl.ConnectHttp;
+import akka.http.javadsl.Http;
+import akka.http.javadsl.ServerBinding;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.StatusCodes;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.testkit.javadsl.TestKit;
+
+public class OutboxServiceTest {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private static ActorSystem system;
+	private static Materializer materializer;
+	private static ServerBinding stub;
+	// Batches received by the stub downstream server, by path
+	private static final Map<String, List<JsonNode>> received = new ConcurrentHashMap<>();
+	// Requests the stub turns down with a 503 before accepting any, by path
+	private static final Map<String, AtomicInteger> failuresLeft = new ConcurrentHashMap<>();
+
+	@BeforeAll
+	static void setup() {
+		system = ActorSystem.create();
+		materializer = ActorMaterializer.create(system);
+		stub = Http.get(system).bindAndHandleAsync(request -> request.entity().toStrict(5_000, materializer)
+				.thenApply(entity -> receive(request, entity.getData().utf8String())),
+				ConnectHttp.toHost("localhost", 0), materializer).toCompletableFuture().join();
+	}
+
+	@AfterAll
+	static void shutdown() {
+		stub.unbind().toCompletableFuture().join();
+		TestKit.shutdownActorSystem(system);
+		system = null;
+	}
+
+	private static HttpResponse receive(HttpRequest request, String body) {
+		String path = request.getUri().path();
+		AtomicInteger failures = failuresLeft.get(path);
+		if (failures != null && failures.getAndDecrement() > 0) {
+			return HttpResponse.create().withStatus(StatusCodes.SERVICE_UNAVAILABLE);
+		}
+		try {
+			received.computeIfAbsent(path, p -> Collections.synchronizedList(new ArrayList<>()))
+					.add(MAPPER.readTree(body));
+		} catch (Exception e) {
+			return HttpResponse.create().withStatus(StatusCodes.BAD_REQUEST);
+		}
+		return HttpResponse.create().withStatus(StatusCodes.OK);
+	}
+
+	private static void append(ActorRef outbox, int events) {
+		for (long id = 1; id <= events; id++) {
+			outbox.tell(new OutboxService.Append(
+					new Transaction(id, 1L, 2L, BigDecimal.ONE, TransactionStatus.SUCCESS, null), null),
+					ActorRef.noSender());
+		}
+	}
+
+	private static String url(String path) {
+		return "http://localhost:" + stub.localAddress().getPort() + path;
+	}
+
+	private static List<JsonNode> events(String path) {
+		List<JsonNode> events = new ArrayList<>();
+		List<JsonNode> batches = received.getOrDefault(path, Collections.emptyList());
+		synchronized (batches) {
+			batches.forEach(batch -> batch.forEach(events::add));
+		}
+		return events;
+	}
+
+	/**
+	 * One destination turns the first batches down: it gets them again after a
+	 * backoff, and both destinations end up with every event once, in the
+	 * order appended, in far fewer requests than events.
+	 */
+	@Test
+	void testEveryDestinationGetsEveryEventInOrderInBatches() {
+		new TestKit(system) {
+			{
+				failuresLeft.put("/notify", new AtomicInteger(3));
+				ActorRef outbox = system.actorOf(OutboxService.props(List.of(url("/ledger"), url("/notify")), 50, 1_000,
+						Duration.ofMillis(20), Duration.ofMillis(20), Duration.ofMillis(200)));
+				int appended = 500;
+				for (long id = 1; id <= appended; id++) {
+					TransactionStatus status = id % 10 == 0 ? TransactionStatus.FAIL : TransactionStatus.SUCCESS;
+					outbox.tell(new OutboxService.Append(new Transaction(id, id % 7, (id + 1) % 7, BigDecimal.ONE,
+							status, null), status == TransactionStatus.FAIL ? "Insufficient balance" : null),
+							ActorRef.noSender());
+				}
+				awaitCond(Duration.ofSeconds(10), Duration.ofMillis(50),
+						() -> events("/ledger").size() == appended && events("/notify").size() == appended);
+
+				for (String path : List.of("/ledger", "/notify")) {
+					List<JsonNode> events = events(path);
+					Map<Long, Long> lastTransactionOfAccount = new HashMap<>();
+					for (int i = 0; i < appended; i++) {
+						JsonNode event = events.get(i);
+						assertEquals(i + 1, event.get("sequence").asLong());
+						long id = event.get("transaction").get("id").asLong();
+						assertEquals(i + 1, id);
+						assertEquals(id % 10 == 0 ? "FAIL" : "SUCCESS",
+								event.get("transaction").get("status").asText());
+						long remitter = event.get("transaction").get("remitterAccountId").asLong();
+						Long last = lastTransactionOfAccount.put(remitter, id);
+						assertTrue(last == null || last < id);
+					}
+					assertTrue(received.get(path).size() < appended / 10, received.get(path).size() + " requests");
+				}
+				assertEquals(3, Metrics.get(system).count(OutboxService.RETRIES));
+				assertEquals(2 * appended, Metrics.get(system).count(OutboxService.DELIVERED));
+			}
+		};
+	}
+
+	/**
+	 * A destination down for long keeps the oldest events, the newer ones are
+	 * counted and go to the dead letters, and it gets the ones kept once up.
+	 */
+	@Test
+	void testDestinationBehindKeepsAtMostMaxPendingEvents() {
+		// Its own system, so the metrics of the other tests do not add up
+		ActorSystem outboxSystem = ActorSystem.create();
+		new TestKit(outboxSystem) {
+			{
+				outboxSystem.eventStream().subscribe(getRef(), DeadLetter.class);
+				AtomicInteger down = new AtomicInteger(Integer.MAX_VALUE);
+				failuresLeft.put("/behind", down);
+				ActorRef outbox = outboxSystem.actorOf(OutboxService.props(List.of(url("/behind")), 5, 10,
+						Duration.ofMillis(20), Duration.ofMillis(20), Duration.ofMillis(50)));
+				append(outbox, 30);
+				for (int i = 0; i < 20; i++) {
+					assertTrue(expectMsgClass(DeadLetter.class).message() instanceof OutboxEvent);
+				}
+				assertEquals(20, Metrics.get(outboxSystem).count(OutboxService.DROPPED));
+
+				down.set(0);
+				awaitCond(Duration.ofSeconds(10), Duration.ofMillis(50), () -> events("/behind").size() == 10);
+				List<JsonNode> events = events("/behind");
+				for (int i = 0; i < events.size(); i++) {
+					assertEquals(i + 1, events.get(i).get("sequence").asLong());
+				}
+			}
+		};
+		TestKit.shutdownActorSystem(outboxSystem);
+	}
+
+	/**
+	 * A delivery stream failing is started again, and again, without holding
+	 * up the other destinations.
+	 */
+	@Test
+	void testFailedStreamIsStartedAgain() {
+		ActorSystem outboxSystem = ActorSystem.create();
+		new TestKit(outboxSystem) {
+			{
+				// Not a URI, posting to it fails the stream rather than the request
+				ActorRef outbox = outboxSystem.actorOf(OutboxService.props(List.of("http://[", url("/beside")), 5,
+						100, Duration.ofMillis(20), Duration.ofMillis(20), Duration.ofMillis(50)));
+				append(outbox, 12);
+				awaitCond(Duration.ofSeconds(10), Duration.ofMillis(50),
+						() -> Metrics.get(outboxSystem).count(OutboxService.RESTARTS) >= 3
+								&& events("/beside").size() == 12);
+			}
+		};
+		TestKit.shutdownActorSystem(outboxSystem);
+	}
+
+}
@@ -0,0 +1,249 @@
+package com.rev.money.transfer.transaction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.rev.money.transfer.actor.AccountActor;
+import com.rev.money.transfer.actor.TransactionActor;
+import com.rev.money.transfer.factory.AccountFactory;
+import com.rev.money.transfer.factory.TransactionFactory;
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.MessageStatus;
+import com.rev.money.transfer.model.MessageStatus.Failure;
+import com.rev.money.transfer.model.Payout;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.service.AccountService;
+import com.rev.money.transfer.service.TransactionService;
+import com.rev.money.transfer.service.TransactionService.PayoutCompleted;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorContext;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.javadsl.TestKit;
+
+public class PayoutTest {
+
+	private static final long REMITTER = 1L;
+	private static final long FAILING_ACCOUNT = 13L;
+	private static final long SILENT_ACCOUNT = 14L;
+
+	private static ActorSystem system;
+
+	@BeforeAll
+	static void setup() {
+		system = ActorSystem.create();
+	}
+
+	@AfterAll
+	static void shutdown() {
+		TestKit.shutdownActorSystem(system);
+		system = null;
+	}
+
+	private static Transaction leg(Long id, long beneficiery, long amount) {
+		return new Transaction(id, REMITTER, beneficiery, BigDecimal.valueOf(amount), TransactionStatus.NEW, null);
+	}
+
+	private static ActorRef[] prepareServices(TestKit testKit, Account... accounts) {
+		ActorRef accountService = system.actorOf(AccountService.props(new FailingDepositAccountFactory(),
+				Duration.ofSeconds(1), 4));
+		ActorRef transactionService = system
+				.actorOf(TransactionService.props(accountService, new TransactionFactory(), Duration.ofSeconds(1)));
+		for (Account account : accounts) {
+			accountService.tell(account, testKit.getRef());
+			testKit.expectMsgClass(MessageStatus.Success.class);
+		}
+		return new ActorRef[] { accountService, transactionService };
+	}
+
+	private static Map<Long, TransactionStatus> statusById(PayoutCompleted payout) {
+		return payout.getLegs().stream().collect(Collectors.toMap(Transaction::getId, Transaction::getStatus));
+	}
+
+	@Test
+	void testPayoutDebitsOnceAndCreditsEveryBeneficiary() {
+		new TestKit(system) {
+			{
+				ActorRef[] services = prepareServices(this, new Account(REMITTER, BigDecimal.valueOf(100)),
+						new Account(2L, BigDecimal.ZERO), new Account(3L, BigDecimal.ZERO));
+				List<Transaction> legs = Arrays.asList(leg(1L, 2L, 30), leg(2L, 3L, 20), leg(3L, 99L, 10));
+				services[1].tell(new Payout(REMITTER, legs), getRef());
+
+				PayoutCompleted payout = expectMsgClass(PayoutCompleted.class);
+				Map<Long, TransactionStatus> statuses = statusById(payout);
+				assertEquals(TransactionStatus.SUCCESS, statuses.get(1L));
+				assertEquals(TransactionStatus.SUCCESS, statuses.get(2L));
+				assertEquals(TransactionStatus.FAIL, statuses.get(3L));
+				assertEquals("Account 99 not found", payout.getFailures().get(3L));
+
+				services[0].tell(new AccountActor.GetAccount(REMITTER), getRef());
+				expectMsg(new Account(REMITTER, BigDecimal.valueOf(50)));
+				services[0].tell(new AccountActor.GetAccount(2L), getRef());
+				expectMsg(new Account(2L, BigDecimal.valueOf(30)));
+				services[0].tell(new AccountActor.GetAccount(3L), getRef());
+				expectMsg(new Account(3L, BigDecimal.valueOf(20)));
+			}
+		};
+	}
+
+	@Test
+	void testPayoutFailsEveryLegIfRemitterCannotCoverTotal() {
+		new TestKit(system) {
+			{
+				ActorRef[] services = prepareServices(this, new Account(REMITTER, BigDecimal.valueOf(40)),
+						new Account(2L, BigDecimal.ZERO), new Account(3L, BigDecimal.ZERO));
+				services[1].tell(new Payout(REMITTER, Arrays.asList(leg(1L, 2L, 30), leg(2L, 3L, 20))), getRef());
+
+				PayoutCompleted payout = expectMsgClass(PayoutCompleted.class);
+				assertEquals(2, payout.getFailures().size());
+				statusById(payout).values().forEach(status -> assertEquals(TransactionStatus.FAIL, status));
+				services[0].tell(new AccountActor.GetAccount(REMITTER), getRef());
+				expectMsg(new Account(REMITTER, BigDecimal.valueOf(40)));
+			}
+		};
+	}
+
+	@Test
+	void testFailedLegIsRefundedToRemitter() {
+		new TestKit(system) {
+			{
+				ActorRef[] services = prepareServices(this, new Account(REMITTER, BigDecimal.valueOf(100)),
+						new Account(2L, BigDecimal.ZERO), new Account(FAILING_ACCOUNT, BigDecimal.ZERO));
+				services[1].tell(new Payout(REMITTER,
+						Arrays.asList(leg(null, 2L, 30), leg(null, FAILING_ACCOUNT, 20), leg(null, 2L, 5))), getRef());
+
+				PayoutCompleted payout = expectMsgClass(PayoutCompleted.class);
+				assertEquals(1, payout.getFailures().size());
+				payout.getLegs().forEach(leg -> assertEquals(
+						leg.getBeneficieryAccountId() == FAILING_ACCOUNT ? TransactionStatus.FAIL
+								: TransactionStatus.SUCCESS,
+						leg.getStatus()));
+				services[0].tell(new AccountActor.GetAccount(REMITTER), getRef());
+				expectMsg(new Account(REMITTER, BigDecimal.valueOf(65)));
+				services[0].tell(new AccountActor.GetAccount(2L), getRef());
+				expectMsg(new Account(2L, BigDecimal.valueOf(35)));
+			}
+		};
+	}
+
+	@Test
+	void testPayoutWithAlreadyUsedLegIdIsRejected() {
+		new TestKit(system) {
+			{
+				ActorRef[] services = prepareServices(this, new Account(REMITTER, BigDecimal.valueOf(100)),
+						new Account(2L, BigDecimal.ZERO));
+				services[1].tell(new Payout(REMITTER, Arrays.asList(leg(7L, 2L, 1), leg(7L, 2L, 1))), getRef());
+				expectMsg(new Failure("Transaction 7 already been processed"));
+				services[0].tell(new AccountActor.GetAccount(REMITTER), getRef());
+				expectMsg(new Account(REMITTER, BigDecimal.valueOf(100)));
+			}
+		};
+	}
+
+	/**
+	 * A leg whose deposit is never answered is failed rather than left NEW, and
+	 * the other legs go through.
+	 */
+	@Test
+	void testLegWithUnknownDepositOutcomeIsSettled() {
+		new TestKit(system) {
+			{
+				ActorRef accountService = system.actorOf(AccountService.props(new FailingDepositAccountFactory(),
+						Duration.ofMillis(200), 4));
+				ActorRef transactionService = system.actorOf(TransactionService.props(accountService,
+						new TransactionFactory(), Duration.ofSeconds(1), Duration.ofSeconds(10)));
+				for (Account account : List.of(new Account(REMITTER, BigDecimal.valueOf(100)),
+						new Account(2L, BigDecimal.ZERO), new Account(SILENT_ACCOUNT, BigDecimal.ZERO))) {
+					accountService.tell(account, getRef());
+					expectMsgClass(MessageStatus.Success.class);
+				}
+				transactionService.tell(
+						new Payout(REMITTER, Arrays.asList(leg(1L, 2L, 30), leg(2L, SILENT_ACCOUNT, 20))), getRef());
+
+				PayoutCompleted payout = expectMsgClass(Duration.ofSeconds(15), PayoutCompleted.class);
+				assertEquals(Map.of(1L, TransactionStatus.SUCCESS, 2L, TransactionStatus.FAIL), statusById(payout));
+				assertTrue(payout.getFailures().get(2L).startsWith("Deposit outcome unknown"));
+				transactionService.tell(new TransactionActor.GetTransaction(2L), getRef());
+				assertEquals(TransactionStatus.FAIL, expectMsgClass(Transaction.class).getStatus());
+			}
+		};
+	}
+
+	/**
+	 * The account service never answering, or answering something else than a
+	 * payout outcome, still gets the client an answer and every leg settled.
+	 */
+	@Test
+	void testPayoutWithoutAnOutcomeFailsEveryLeg() {
+		new TestKit(system) {
+			{
+				TestKit accountService = new TestKit(system);
+				ActorRef transactionService = system.actorOf(TransactionService.props(accountService.getRef(),
+						new TransactionFactory(), Duration.ofSeconds(1), Duration.ofMillis(100)));
+				Payout payout = new Payout(REMITTER, Arrays.asList(leg(1L, 2L, 30), leg(2L, 3L, 20)));
+				transactionService.tell(payout, getRef());
+				// Asked again on every timeout, the same payout each time
+				accountService.expectMsg(payout);
+				accountService.expectMsg(payout);
+				PayoutCompleted timedOut = expectMsgClass(Duration.ofSeconds(10), PayoutCompleted.class);
+				assertEquals(Map.of(1L, TransactionStatus.FAIL, 2L, TransactionStatus.FAIL), statusById(timedOut));
+
+				TestKit confusedAccountService = new TestKit(system);
+				transactionService = system.actorOf(TransactionService.props(confusedAccountService.getRef(),
+						new TransactionFactory(), Duration.ofSeconds(1), Duration.ofSeconds(1)));
+				transactionService.tell(new Payout(REMITTER, Arrays.asList(leg(3L, 2L, 30))), getRef());
+				confusedAccountService.expectMsgClass(Payout.class);
+				confusedAccountService.reply("Not a payout outcome");
+				PayoutCompleted unexpected = expectMsgClass(PayoutCompleted.class);
+				assertEquals(Map.of(3L, TransactionStatus.FAIL), statusById(unexpected));
+				assertEquals("Payout outcome unknown: Not a payout outcome", unexpected.getFailures().get(3L));
+			}
+		};
+	}
+
+	static class FailingDepositAccountFactory extends AccountFactory {
+
+		@Override
+		public ActorRef get(ActorContext context, Account account) {
+			if (account.getAccountNumber() == FAILING_ACCOUNT) {
+				return context.actorOf(Props.create(FailingDepositAccount.class, FailingDepositAccount::new));
+			}
+			if (account.getAccountNumber() == SILENT_ACCOUNT) {
+				return context.actorOf(Props.create(SilentAccount.class, SilentAccount::new));
+			}
+			return super.get(context, account);
+		}
+	}
+
+	static class FailingDepositAccount extends AbstractActor {
+
+		@Override
+		public Receive createReceive() {
+			return receiveBuilder().match(AccountActor.Deposit.class,
+					deposit -> sender().tell(new Failure("Always fail on that"), self())).build();
+		}
+	}
+
+	static class SilentAccount extends AbstractActor {
+
+		@Override
+		public Receive createReceive() {
+			return receiveBuilder().matchAny(message -> {
+			}).build();
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package com.rev.money.transfer.transaction;
+
+import static akka.pattern.Patterns.ask;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.rev.money.transfer.actor.AccountActor.DeleteAccount;
+import com.rev.money.transfer.actor.AccountActor.GetAccount;
+import com.rev.money.transfer.factory.AccountFactory;
+import com.rev.money.transfer.factory.TransactionFactory;
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.CashDeposit;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.service.AccountService;
+import com.rev.money.transfer.service.AccountService.AccountsCreated;
+import com.rev.money.transfer.service.AccountService.AccountsExported;
+import com.rev.money.transfer.service.AccountService.CreateAccounts;
+import com.rev.money.transfer.service.AccountService.ExportAccounts;
+import com.rev.money.transfer.service.AccountService.Reconcile;
+import com.rev.money.transfer.service.AccountService.Reconciled;
+import com.rev.money.transfer.service.TransactionService;
+import com.rev.money.transfer.service.TransactionService.ExportTransactions;
+import com.rev.money.transfer.service.TransactionService.TransactionsExported;
+import com.rev.money.transfer.store.FxRateTable;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+
+/**
+ * Random transfers over thousands of accounts for {@code soak.duration}
+ * (ISO-8601, PT10S by default), with cash deposits, deletes and reads going
+ * on. Along the way every read balance must be positive and every
+ * reconciliation conserved; at the end every balance must be positive and
+ * every transaction settled. The throughput and latency of each operation are
+ * printed and written to {@code target/soak/soak-<soak.commit>.csv}, to be
+ * archived per commit:
+ *
+ * <pre>
+ * mvn test -Dtest=SoakTest -Dsoak.duration=PT10M -Dsoak.commit=$(git rev-parse --short HEAD)
+ * </pre>
+ */
+public class SoakTest {
+
+	private static final int ACCOUNTS = 5_000;
+	// Operations in flight at once
+	private static final int IN_FLIGHT = 256;
+	private static final Duration HOP_TIMEOUT = Duration.ofSeconds(1);
+	private static final Duration CLIENT_TIMEOUT = Duration.ofSeconds(10);
+	private static final Duration RECONCILIATION_TIMEOUT = Duration.ofSeconds(30);
+	private static final Duration RECONCILIATION_INTERVAL = Duration.ofSeconds(2);
+	private static final String TRANSFER = "transfer";
+	private static final String DEPOSIT = "deposit";
+	private static final String READ = "read";
+	private static final String DELETE = "delete";
+	private static final String RECONCILE = "reconcile";
+
+	private static ActorSystem system;
+
+	@BeforeAll
+	static void setup() {
+		// Logging every transfer would cost more than the transfers
+		system = ActorSystem.create("soak",
+				ConfigFactory.parseString("akka.loglevel = WARNING").withFallback(ConfigFactory.load()));
+	}
+
+	@AfterAll
+	static void shutdown() {
+		TestKit.shutdownActorSystem(system);
+		system = null;
+	}
+
+	@Test
+	void testRandomTrafficKeepsInvariants() throws InterruptedException, IOException {
+		Duration duration = Duration.parse(System.getProperty("soak.duration", "PT10S"));
+		ActorRef accountService = system
+				.actorOf(AccountService.props(new AccountFactory(), HOP_TIMEOUT, 16, new FxRateTable()));
+		ActorRef transactionService = system
+				.actorOf(TransactionService.props(accountService, new TransactionFactory(), HOP_TIMEOUT));
+		List<Account> opened = new ArrayList<>(ACCOUNTS);
+		for (long id = 1; id <= ACCOUNTS; id++) {
+			opened.add(new Account(id, BigDecimal.valueOf(1_000)));
+		}
+		Object created = join(ask(accountService, new CreateAccounts(opened), RECONCILIATION_TIMEOUT));
+		assertEquals(new AccountsCreated(Map.of()), created);
+
+		// Accounts not deleted yet, a deleted one takes the place of the last
+		long[] live = new long[ACCOUNTS];
+		for (int i = 0; i < ACCOUNTS; i++) {
+			live[i] = i + 1;
+		}
+		int liveCount = ACCOUNTS;
+		Map<String, Queue<Long>> latencies = new ConcurrentHashMap<>();
+		Queue<String> violations = new ConcurrentLinkedQueue<>();
+		Semaphore inFlight = new Semaphore(IN_FLIGHT);
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		long transactions = 0;
+		long nextId = 1;
+		long start = System.nanoTime();
+		long end = start + duration.toNanos();
+		long nextReconciliation = start + RECONCILIATION_INTERVAL.toNanos();
+		while (System.nanoTime() < end) {
+			if (System.nanoTime() >= nextReconciliation) {
+				checkReconciliation(accountService, latencies, violations);
+				nextReconciliation = System.nanoTime() + RECONCILIATION_INTERVAL.toNanos();
+			}
+			inFlight.acquire();
+			int draw = random.nextInt(1_000);
+			long account = live[random.nextInt(liveCount)];
+			Object message;
+			String operation;
+			if (draw < 800) {
+				long beneficiary = live[random.nextInt(liveCount)];
+				message = new Transaction(nextId++, account, beneficiary,
+						BigDecimal.valueOf(random.nextInt(1, 10_000), 2), TransactionStatus.NEW, null);
+				operation = TRANSFER;
+				transactions++;
+			} else if (draw < 880) {
+				message = new CashDeposit(nextId++, account, BigDecimal.valueOf(random.nextInt(1, 10_000), 2));
+				operation = DEPOSIT;
+				transactions++;
+			} else if (draw < 999 || liveCount <= ACCOUNTS / 2) {
+				message = new GetAccount(account);
+				operation = READ;
+			} else {
+				int deleted = indexOf(live, liveCount, account);
+				live[deleted] = live[--liveCount];
+				message = new DeleteAccount(account);
+				operation = DELETE;
+			}
+			ActorRef service = message instanceof Transaction || message instanceof CashDeposit ? transactionService
+					: accountService;
+			long sent = System.nanoTime();
+			ask(service, message, CLIENT_TIMEOUT).whenComplete((reply, error) -> {
+				inFlight.release();
+				latencies.computeIfAbsent(operation, key -> new ConcurrentLinkedQueue<>())
+						.add((System.nanoTime() - sent) / 1_000);
+				if (error != null) {
+					violations.add(operation + " " + message + " got no reply: " + error);
+				} else if (reply instanceof Account && ((Account) reply).getBalance().signum() < 0) {
+					violations.add("Negative balance read: " + reply);
+				}
+			});
+		}
+		inFlight.acquire(IN_FLIGHT);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		checkReconciliation(accountService, latencies, violations);
+
+		AccountsExported accounts = (AccountsExported) join(
+				ask(accountService, new ExportAccounts(), RECONCILIATION_TIMEOUT));
+		assertEquals(liveCount, accounts.getAccounts().size());
+		accounts.getAccounts().stream().filter(account -> account.getBalance().signum() < 0)
+				.forEach(account -> violations.add("Negative balance at the end: " + account));
+		TransactionsExported exported = (TransactionsExported) join(
+				ask(transactionService, new ExportTransactions(), RECONCILIATION_TIMEOUT));
+		assertEquals(transactions, exported.getTransactions().size());
+		exported.getTransactions().stream()
+				.filter(transaction -> transaction.getStatus() != TransactionStatus.SUCCESS
+						&& transaction.getStatus() != TransactionStatus.FAIL)
+				.forEach(transaction -> violations.add("Transaction not settled: " + transaction));
+
+		report(duration, seconds, liveCount, latencies);
+		assertTrue(violations.isEmpty(), violations.size() + " violations, first ones: "
+				+ violations.stream().limit(10).reduce("", (all, violation) -> all + "\n" + violation));
+	}
+
+	private static void checkReconciliation(ActorRef accountService, Map<String, Queue<Long>> latencies,
+			Queue<String> violations) {
+		long sent = System.nanoTime();
+		Object reply = join(ask(accountService, new Reconcile(RECONCILIATION_TIMEOUT),
+				RECONCILIATION_TIMEOUT.multipliedBy(2)));
+		latencies.computeIfAbsent(RECONCILE, key -> new ConcurrentLinkedQueue<>())
+				.add((System.nanoTime() - sent) / 1_000);
+		if (!(reply instanceof Reconciled) || !((Reconciled) reply).isConserved()) {
+			violations.add("Reconciliation not conserved: " + reply);
+		}
+	}
+
+	private static int indexOf(long[] live, int liveCount, long account) {
+		for (int i = 0; i < liveCount; i++) {
+			if (live[i] == account) {
+				return i;
+			}
+		}
+		throw new IllegalStateException("Account " + account + " is not live");
+	}
+
+	private static Object join(CompletionStage<Object> reply) {
+		return reply.toCompletableFuture().join();
+	}
+
+	private static void report(Duration duration, double seconds, int liveAccounts,
+			Map<String, Queue<Long>> latencies) throws IOException {
+		String commit = System.getProperty("soak.commit", "local");
+		Instant finished = Instant.now();
+		StringBuilder csv = new StringBuilder("commit,finished,duration,accounts,"
+				+ "operation,count,perSecond,p50Micros,p90Micros,p99Micros,maxMicros\n");
+		StringBuilder report = new StringBuilder(String.format(
+				"%nSoak of %s over %,d accounts, %,d left: operation, count, per second, p50, p90, p99, max us%n",
+				duration, ACCOUNTS, liveAccounts));
+		for (Map.Entry<String, Queue<Long>> operation : new TreeMap<>(latencies).entrySet()) {
+			long[] micros = operation.getValue().stream().mapToLong(Long::longValue).sorted().toArray();
+			int count = micros.length;
+			String row = String.format("%s,%d,%.0f,%d,%d,%d,%d", operation.getKey(), count, count / seconds,
+					micros[count / 2], micros[count * 9 / 10], micros[count * 99 / 100], micros[count - 1]);
+			csv.append(String.format("%s,%s,%s,%d,%s%n", commit, finished, duration, ACCOUNTS, row));
+			report.append(String.format("%-10s %,9d %,9.0f %,9d %,9d %,9d %,9d%n", operation.getKey(), count,
+					count / seconds, micros[count / 2], micros[count * 9 / 10], micros[count * 99 / 100],
+					micros[count - 1]));
+		}
+		System.out.println(report);
+		Path dir = Paths.get("target", "soak");
+		Files.createDirectories(dir);
+		Files.write(dir.resolve("soak-" + commit + ".csv"), csv.toString().getBytes());
+	}
+
+}
@@ -0,0 +1,61 @@
+package com.rev.money.transfer.transaction;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.util.TransactionResponseCache;
+import com.rev.money.transfer.util.TransactionResponseCache.Response;
+
+public class TransactionResponseCacheTest {
+
+	private static Transaction transaction(long id, TransactionStatus status) {
+		return new Transaction(id, 1L, 2L, BigDecimal.TEN, status, "transfer");
+	}
+
+	@Test
+	void testFinalizedTransactionsAreCachedWithAStrongEntityTag() throws Exception {
+		TransactionResponseCache cache = new TransactionResponseCache(10);
+		Response created = cache.response(transaction(1L, TransactionStatus.NEW));
+		assertFalse(created.isFinalized());
+		assertNull(cache.get(1L));
+
+		Response succeeded = cache.response(transaction(1L, TransactionStatus.SUCCESS));
+		assertTrue(succeeded.isFinalized());
+		assertNotEquals(created.getEntityTag(), succeeded.getEntityTag());
+		assertEquals(succeeded, cache.get(1L));
+		assertEquals("SUCCESS", new ObjectMapper().readTree(succeeded.getBody()).get("status").asText());
+
+		// Serialized again, an equal transaction gets the same bytes and tag
+		Response again = new TransactionResponseCache(10).response(transaction(1L, TransactionStatus.SUCCESS));
+		assertArrayEquals(succeeded.getBody(), again.getBody());
+		assertEquals(succeeded.getEntityTag(), again.getEntityTag());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	void testLeastRecentlyReadResponseIsForgottenPastCapacity() {
+		TransactionResponseCache cache = new TransactionResponseCache(2);
+		cache.response(transaction(1L, TransactionStatus.SUCCESS));
+		cache.response(transaction(2L, TransactionStatus.FAIL));
+		assertNotNull(cache.get(1L));
+		cache.response(transaction(3L, TransactionStatus.SUCCESS));
+		assertEquals(2, cache.size());
+		assertNotNull(cache.get(1L));
+		assertNull(cache.get(2L));
+		assertNotNull(cache.get(3L));
+	}
+
+}
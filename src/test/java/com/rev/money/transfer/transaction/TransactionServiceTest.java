@@ -1,6 +1,8 @@
 package com.rev.money.transfer.transaction;
 
 import static java.math.BigDecimal.TEN;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.time.Duration;
 import java.util.Collections;
@@ -16,6 +18,7 @@ import com.rev.money.transfer.model.MessageStatus.Failure;
 import com.rev.money.transfer.model.MessageStatus.Success;
 import com.rev.money.transfer.model.Transaction;
 import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.service.OutboxService;
 import com.rev.money.transfer.service.TransactionService;
 import com.rev.money.transfer.service.TransactionService.TransactionRolledBack;
 
@@ -77,6 +80,48 @@ public class TransactionServiceTest {
 		};
 	}
 
+	@Test
+	void testCreateTransactionReturnsTransactionRolledBackIfTransferNeverAnswers() {
+		new TestKit(system) {
+			{
+				Transaction trInfo = new Transaction(TRANS_ID, 1L, 2L, TEN, TransactionStatus.NEW, null);
+				ActorRef tr1 = getTestTransaction(trInfo);
+				ActorRef silentAccountService = new TestKit(system).getRef();
+				ActorRef transactionService = getTestTransactionService(silentAccountService,
+						Collections.singletonMap(TRANS_ID, tr1));
+				transactionService.tell(trInfo, getRef());
+				TransactionRolledBack rolledBack = expectMsgClass(Duration.ofSeconds(5), TransactionRolledBack.class);
+				assertEquals(trInfo.withStatus(TransactionStatus.FAIL), rolledBack.getTransactionInfo());
+				assertTrue(rolledBack.getReason().startsWith("Transfer outcome unknown"), rolledBack.getReason());
+			}
+		};
+	}
+
+	@Test
+	void testCommittedAndRolledBackTransactionsAreAppendedToTheOutbox() {
+		new TestKit(system) {
+			{
+				TestKit outbox = new TestKit(system);
+				Transaction committed = new Transaction(TRANS_ID, 1L, 2L, TEN, TransactionStatus.NEW, null);
+				ActorRef transactionService = system.actorOf(TransactionService.props(getTestAccountService(false),
+						new TestTransactionFactory(Collections.singletonMap(TRANS_ID, getTestTransaction(committed))),
+						Duration.ofSeconds(1), Duration.ofSeconds(1), outbox.getRef()));
+				transactionService.tell(committed, getRef());
+				expectMsgClass(Transaction.class);
+				outbox.expectMsg(new OutboxService.Append(committed.withStatus(TransactionStatus.SUCCESS), null));
+
+				Transaction rolledBack = new Transaction(TRANS_ID, 1L, 2L, TEN, TransactionStatus.NEW, null);
+				transactionService = system.actorOf(TransactionService.props(getTestAccountService(true),
+						new TestTransactionFactory(Collections.singletonMap(TRANS_ID, getTestTransaction(rolledBack))),
+						Duration.ofSeconds(1), Duration.ofSeconds(1), outbox.getRef()));
+				transactionService.tell(rolledBack, getRef());
+				expectMsgClass(TransactionRolledBack.class);
+				outbox.expectMsg(new OutboxService.Append(rolledBack.withStatus(TransactionStatus.FAIL),
+						rolledBack.toString()));
+			}
+		};
+	}
+
 	private ActorRef getTestTransactionService(ActorRef accountService, Map<Long, ActorRef> transactionsById) {
 		Props props = TransactionService.props(accountService, new TestTransactionFactory(transactionsById),
 				Duration.ofMillis(1));
@@ -0,0 +1,117 @@
+package com.rev.money.transfer.transaction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.rev.money.transfer.factory.AccountFactory;
+import com.rev.money.transfer.factory.TransactionFactory;
+import com.rev.money.transfer.model.Account;
+import com.rev.money.transfer.model.MessageStatus.Success;
+import com.rev.money.transfer.model.Transaction;
+import com.rev.money.transfer.model.TransactionStatus;
+import com.rev.money.transfer.service.AccountService;
+import com.rev.money.transfer.service.TransactionService;
+import com.rev.money.transfer.util.TransferTimelines;
+import com.rev.money.transfer.util.TransferTimelines.Stage;
+import com.rev.money.transfer.util.TransferTimelines.Summary;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+
+public class TransferTimelinesTest {
+
+	private static ActorSystem system;
+
+	@BeforeAll
+	static void setup() {
+		system = ActorSystem.create("timelines", ConfigFactory.parseString("timeline.sample.rate = 1")
+				.withFallback(ConfigFactory.load()));
+	}
+
+	@AfterAll
+	static void shutdown() {
+		TestKit.shutdownActorSystem(system);
+		system = null;
+	}
+
+	@Test
+	void testTransferRecordsEveryStageInOrder() {
+		new TestKit(system) {
+			{
+				ActorRef accountService = system.actorOf(AccountService.props(new AccountFactory()));
+				ActorRef transactionService = system.actorOf(TransactionService.props(accountService,
+						new TransactionFactory(), Duration.ofSeconds(1)));
+				accountService.tell(new Account(1L, BigDecimal.TEN), getRef());
+				expectMsgClass(Success.class);
+				accountService.tell(new Account(2L, BigDecimal.ZERO), getRef());
+				expectMsgClass(Success.class);
+				TransferTimelines timelines = TransferTimelines.get(system);
+				for (long id = 1; id <= 3; id++) {
+					// As the transaction route does around its ask
+					timelines.record(id, Stage.ROUTE);
+					transactionService.tell(new Transaction(id, 1L, 2L, BigDecimal.ONE, TransactionStatus.NEW, null),
+							getRef());
+					expectMsgClass(Transaction.class);
+					timelines.record(id, Stage.REPLIED);
+				}
+
+				Map<Stage, Long> timeline = timelines.timeline(2L);
+				assertEquals(List.of(Stage.values()), new ArrayList<>(timeline.keySet()));
+				assertEquals(0L, timeline.get(Stage.ROUTE));
+				long last = 0;
+				for (long micros : timeline.values()) {
+					assertTrue(micros >= last, timeline.toString());
+					last = micros;
+				}
+				Summary summary = timelines.summary();
+				assertEquals(3, summary.getTransfers());
+				assertEquals(Stage.values().length - 1, summary.getStages().size());
+				assertEquals(3, summary.getStages().get(Stage.WITHDRAWN).getCount());
+				assertNull(timelines.timeline(4L));
+			}
+		};
+	}
+
+	@Test
+	void testOnlySampledTransfersAreKeptUpToTheCapacity() {
+		TransferTimelines timelines = new TransferTimelines(0.1, 1_000);
+		int sampled = 0;
+		for (long id = 1; id <= 100_000; id++) {
+			if (timelines.isSampled(id)) {
+				sampled++;
+			}
+			timelines.record(id, Stage.ROUTE);
+			timelines.record(id, Stage.REPLIED);
+		}
+		assertTrue(sampled > 9_000 && sampled < 11_000, sampled + " sampled");
+		assertEquals(1_000, timelines.summary().getTransfers());
+		long lastSampled = 100_000;
+		while (!timelines.isSampled(lastSampled)) {
+			lastSampled--;
+		}
+		assertEquals(List.of(Stage.ROUTE, Stage.REPLIED), new ArrayList<>(timelines.timeline(lastSampled).keySet()));
+		// A later stage does not start a timeline of its own
+		long unseen = 100_001;
+		while (!timelines.isSampled(unseen)) {
+			unseen++;
+		}
+		timelines.record(unseen, Stage.DEPOSITED);
+		assertNull(timelines.timeline(unseen));
+		assertFalse(timelines.isSampled(null));
+	}
+
+}